@@ -0,0 +1,98 @@
+package peergos.shared.util;
+
+import java.util.*;
+import java.util.function.*;
+
+/** A single threaded LRU cache bounded by the total weight of its values, for the GWT build.
+ *
+ */
+public class WeightedCache<K, V> {
+    private final LinkedHashMap<K, V> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final ToIntFunction<V> weigher;
+    private final long maxWeight;
+    private long weight, hits, misses, evictions;
+
+    public WeightedCache(long maxWeight, ToIntFunction<V> weigher) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("Cache weight must be positive!");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public static <K> WeightedCache<K, byte[]> bytes(long maxBytes) {
+        return new WeightedCache<>(maxBytes, b -> b.length);
+    }
+
+    public V get(K key) {
+        V res = cache.get(key);
+        if (res == null)
+            misses++;
+        else
+            hits++;
+        return res;
+    }
+
+    public boolean containsKey(K key) {
+        return cache.containsKey(key);
+    }
+
+    public void put(K key, V value) {
+        remove(key);
+        int w = weigher.applyAsInt(value);
+        if (w > maxWeight)
+            return;
+        cache.put(key, value);
+        weight += w;
+        Iterator<V> eldest = cache.values().iterator();
+        while (weight > maxWeight) {
+            weight -= weigher.applyAsInt(eldest.next());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public void remove(K key) {
+        V existing = cache.remove(key);
+        if (existing != null)
+            weight -= weigher.applyAsInt(existing);
+    }
+
+    public void clear() {
+        cache.clear();
+        weight = 0;
+    }
+
+    public List<V> values() {
+        return new ArrayList<>(cache.values());
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public long weight() {
+        return weight;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long hitCount() {
+        return hits;
+    }
+
+    public long missCount() {
+        return misses;
+    }
+
+    public long evictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedCache{entries=" + size() + ", weight=" + weight + "/" + maxWeight +
+                ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+}
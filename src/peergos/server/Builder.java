@@ -33,6 +33,7 @@ import peergos.shared.storage.auth.*;
 import peergos.shared.user.*;
 import peergos.shared.util.*;
 
+import java.io.*;
 import java.net.*;
 import java.nio.file.*;
 import java.sql.*;
@@ -44,7 +45,7 @@ public class Builder {
 
     public static Crypto initJavaCrypto() {
         SafeRandomJava random = new SafeRandomJava();
-        Salsa20Poly1305Java symmetricProvider = new Salsa20Poly1305Java();
+        Salsa20Poly1305 symmetricProvider = new XSalsa20Poly1305Java();
         Ed25519Java signer = new Ed25519Java();
         Curve25519 boxer = new Curve25519Java();
         return Crypto.init(() -> new Crypto(random, new ScryptJava(), symmetricProvider, signer, boxer));
@@ -58,7 +59,8 @@ public class Builder {
     public static Crypto initCrypto() {
         try {
             JniTweetNacl nativeNacl = JniTweetNacl.build();
-            Salsa20Poly1305 symmetricProvider = new JniTweetNacl.Symmetric(nativeNacl);
+            // the word based java secretbox is faster than native TweetNaCl
+            Salsa20Poly1305 symmetricProvider = new XSalsa20Poly1305Java();
             Ed25519 signer = new JniTweetNacl.Signer(nativeNacl);
             Curve25519 boxer = new Curve25519Java();
             return initNativeCrypto(symmetricProvider, signer, boxer);
@@ -182,6 +184,15 @@ public class Builder {
                 BlockStoreProperties props = new BlockStoreProperties(directWrites, publicReads, authedReads, publicReadUrl, authedUrl);
 
                 return new S3BlockStorage(config, ourId, props, transactions, authoriser, hasher, p2pBlockRetriever);
+            } else if (a.getBoolean("pack-blockstore", false)) {
+                try {
+                    return PackFileBlockStorage.build(blockstorePath(a),
+                            a.getInt("pack-blockstore.shards", PackFileBlockStorage.DEFAULT_SHARDS),
+                            a.getLong("pack-blockstore.segment-size", PackFileBlockStorage.DEFAULT_MAX_SEGMENT_SIZE),
+                            transactions, authoriser, hasher);
+                } catch (IOException | SQLException e) {
+                    throw new RuntimeException(e);
+                }
             } else {
                 return new FileContentAddressedStorage(blockstorePath(a), transactions, authoriser, hasher);
             }
@@ -62,13 +62,15 @@ public class Downloader {
         } else if (saveFile.test(source.getFileProperties())) {
             try (FileOutputStream fout = new FileOutputStream(us.toFile())) {
                 long size = source.getSize();
-                if (size > Integer.MAX_VALUE)
-                    throw new IllegalStateException("Need to implement streaming for files bigger than 2GiB");
-                byte[] buf = new byte[(int)size];
-                AsyncReader reader = source.getInputStream(network, crypto, c -> {}).get();
-                reader.readIntoArray(buf, 0, buf.length)
-                        .get();
-                fout.write(buf);
+                byte[] buf = new byte[(int) Math.min(size, Chunk.MAX_SIZE)];
+                AsyncReader reader = source.getPipelinedInputStream(network, crypto,
+                        FileWrapper.PIPELINED_DOWNLOAD_CHUNKS, c -> {}).get();
+                for (long done = 0; done < size;) {
+                    int toRead = (int) Math.min(buf.length, size - done);
+                    reader.readIntoArray(buf, 0, toRead).get();
+                    fout.write(buf, 0, toRead);
+                    done += toRead;
+                }
             } catch (Exception e) {
                 System.err.println("Error downloading " + source.getName());
                 e.printStackTrace();
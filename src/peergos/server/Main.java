@@ -154,6 +154,8 @@ public class Main extends Builder {
                     new Command.Arg("public-server", "Are we a public server? (allow http GETs to API)", false, "false"),
                     new Command.Arg("run-gateway", "Run a local Peergos gateway", false, "true"),
                     new Command.Arg("gateway-port", "Port to run a local gateway on", false, "9000"),
+                    new Command.Arg("disk-block-cache", "Cache blocks from S3 or other remote block stores on local disk", false, "false"),
+                    new Command.Arg("disk-block-cache-size", "Maximum size in bytes of the local disk block cache", false, Long.toString(10 * 1024 * 1024 * 1024L)),
                     new Command.Arg("collect-metrics", "Export aggregated metrics", false, "false"),
                     new Command.Arg("metrics.address", "Listen address for serving aggregated metrics", false, "localhost"),
                     new Command.Arg("metrics.port", "Port for serving aggregated metrics", false, "8001")
@@ -525,13 +527,26 @@ public class Main extends Builder {
 
             Supplier<Connection> usageDb = getDBConnector(a, "space-usage-sql-file", dbConnectionPool);
             UsageStore usageStore = new JdbcUsageStore(usageDb, sqlCommands);
+            VerifiedPointerCache.setMaxPointers(a.getInt("verified-pointer-cache-size", VerifiedPointerCache.DEFAULT_MAX_POINTERS));
             boolean enableGC = a.getBoolean("enable-gc", false);
+            boolean incrementalGC = a.getBoolean("gc.incremental", false);
             GarbageCollector gc = null;
+            IncrementalGarbageCollector incrementalGc = null;
             if (enableGC) {
                 if (S3Config.useS3(a))
                     throw new IllegalStateException("GC should be run separately when using S3!");
-                gc = new GarbageCollector(localStorage, rawPointers, usageStore);
-                gc.start(a.getInt("gc.period.millis", 60 * 60 * 1000), s -> Futures.of(true));
+                gc = new GarbageCollector(localStorage, rawPointers, usageStore,
+                        a.getBoolean("gc.streaming", false), a.getLong("gc.expected-blocks", 10_000_000L),
+                        a.getInt("gc.mark-parallelism", GarbageCollector.DEFAULT_MARK_PARALLELISM));
+                if (incrementalGC) {
+                    incrementalGc = new IncrementalGarbageCollector(localStorage, rawPointers, usageStore,
+                            a.getLong("gc.expected-blocks", 10_000_000L),
+                            a.getInt("gc.mark-parallelism", GarbageCollector.DEFAULT_MARK_PARALLELISM),
+                            a.getLong("gc.grace-period.millis", 60 * 60 * 1000L),
+                            a.getInt("gc.incremental-runs-per-full", 24));
+                    incrementalGc.start(a.getInt("gc.period.millis", 60 * 60 * 1000), s -> Futures.of(true));
+                } else
+                    gc.start(a.getInt("gc.period.millis", 60 * 60 * 1000), s -> Futures.of(true));
             }
 
             JdbcIpnsAndSocial rawSocial = new JdbcIpnsAndSocial(getDBConnector(a, "social-sql-file", dbConnectionPool), sqlCommands);
@@ -560,6 +575,8 @@ public class Main extends Builder {
             corePropagator.addListener(spaceChecker::accept);
             MutableEventPropagator localMutable = new MutableEventPropagator(localPointers);
             localMutable.addListener(spaceChecker::accept);
+            if (incrementalGc != null)
+                localMutable.addListener(incrementalGc::accept);
 
             int blockCacheSize = a.getInt("max-cached-blocks", 1000);
             int maxCachedBlockSize = a.getInt("max-cached-block-size", 10 * 1024);
@@ -588,15 +605,26 @@ public class Main extends Builder {
 
             Account p2pAccount = new ProxyingAccount(nodeId, core, account, accountProxy);
             VerifyingAccount verifyingAccount = new VerifyingAccount(p2pAccount, core, localStorage);
-            ContentAddressedStorage cachingStorage = new AuthedCachingStorage(p2pDht, blockRequestAuthoriser, hasher, 1000, 50 * 1024);
+            // Blocks in a local disk blockstore would end up on disk twice, so only cache in front of remote storage
+            boolean diskBlockCache = a.getBoolean("disk-block-cache", false);
+            if (diskBlockCache && localStorage instanceof DirectBlockSource)
+                System.out.println("WARNING: Ignoring 'disk-block-cache' as blocks are already stored on local disk");
+            ContentAddressedStorage diskCachedDht = diskBlockCache && ! (localStorage instanceof DirectBlockSource) ?
+                    new DiskCachingStorage(p2pDht, a.fromPeergosDir("disk-block-cache-dir", "block-cache"),
+                            a.getLong("disk-block-cache-size", 10 * 1024 * 1024 * 1024L), blockRequestAuthoriser, hasher) :
+                    p2pDht;
+            ContentAddressedStorage cachingStorage = new AuthedCachingStorage(diskCachedDht, blockRequestAuthoriser, hasher, 1000, 50 * 1024);
             ContentAddressedStorage incomingP2PStorage = new GetBlockingStorage(cachingStorage);
 
             ProxyingBatCave p2pBats = new ProxyingBatCave(nodeId, core, batStore, new HttpBatCave(p2pHttpProxy, p2pHttpProxy));
             ServerMessageStore serverMessages = new ServerMessageStore(getDBConnector(a, "server-messages-sql-file", dbConnectionPool),
                     sqlCommands, core, p2pDht);
-            UserService localAPI = new UserService(cachingStorage, p2pBats, crypto, corePropagator, verifyingAccount,
+            Optional<DirectBlockSource> directBlocks = localStorage instanceof DirectBlockSource ?
+                    Optional.of((DirectBlockSource) localStorage) :
+                    Optional.empty();
+            UserService localAPI = new UserService(cachingStorage, directBlocks, p2pBats, crypto, corePropagator, verifyingAccount,
                     p2pSocial, p2mMutable, storageAdmin, p2pSpaceUsage, serverMessages, gc);
-            UserService p2pAPI = new UserService(incomingP2PStorage, p2pBats, crypto, corePropagator, verifyingAccount,
+            UserService p2pAPI = new UserService(incomingP2PStorage, Optional.empty(), p2pBats, crypto, corePropagator, verifyingAccount,
                     p2pSocial, p2mMutable, storageAdmin, p2pSpaceUsage, serverMessages, gc);
             InetSocketAddress localAPIAddress = new InetSocketAddress("localhost", userAPIAddress.getPort());
             InetSocketAddress p2pAPIAddress = new InetSocketAddress("localhost", localP2PApi.getTCPPort());
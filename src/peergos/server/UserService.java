@@ -80,6 +80,7 @@ public class UserService {
     }
 
     public final ContentAddressedStorage storage;
+    public final Optional<DirectBlockSource> directBlocks;
     public final BatCave bats;
     public final Crypto crypto;
     public final CoreNode coreNode;
@@ -92,6 +93,7 @@ public class UserService {
     public final GarbageCollector gc; // not exposed
 
     public UserService(ContentAddressedStorage storage,
+                       Optional<DirectBlockSource> directBlocks,
                        BatCave bats,
                        Crypto crypto,
                        CoreNode coreNode,
@@ -103,6 +105,7 @@ public class UserService {
                        ServerMessageStore serverMessages,
                        GarbageCollector gc) {
         this.storage = storage;
+        this.directBlocks = directBlocks;
         this.bats = bats;
         this.crypto = crypto;
         this.coreNode = coreNode;
@@ -232,7 +235,7 @@ public class UserService {
         }
 
         addHandler(localhostServer, tlsServer, Constants.DHT_URL,
-                new DHTHandler(storage, crypto.hasher, (h, i) -> true, isPublicServer),
+                new DHTHandler(storage, directBlocks, crypto.hasher, (h, i) -> true, isPublicServer),
                 basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.BATS_URL,
                 new BatCaveHandler(this.bats, isPublicServer), basicAuth, local, host, nodeId, false);
@@ -224,16 +224,19 @@ public class JdbcIpnsAndSocial {
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement("SELECT * FROM metadatablobs")) {
             ResultSet rs = stmt.executeQuery();
-            List<Multihash> results = new ArrayList<>();
+            List<PublicKeyHash> writers = new ArrayList<>();
+            List<byte[]> signedRawCas = new ArrayList<>();
             while (rs.next()) {
-                PublicKeyHash writerHash = PublicKeyHash.fromCbor(CborObject.fromByteArray(Base64.getDecoder().decode(rs.getString("writingKey"))));
-                PublicSigningKey writer = ipfs.getSigningKey(writerHash).join().get();
-                byte[] signedRawCas = Base64.getDecoder().decode(rs.getString(IPNS_TARGET_NAME));
-                byte[] bothHashes = writer.unsignMessage(signedRawCas);
-                HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(bothHashes));
-                results.add(cas.updated.get());
+                writers.add(PublicKeyHash.fromCbor(CborObject.fromByteArray(Base64.getDecoder().decode(rs.getString("writingKey")))));
+                signedRawCas.add(Base64.getDecoder().decode(rs.getString(IPNS_TARGET_NAME)));
             }
 
+            List<Optional<HashCasPair>> cas = VerifiedPointerCache.unsignAll(writers, signedRawCas, ipfs).join();
+            List<Multihash> results = new ArrayList<>();
+            for (int i=0; i < writers.size(); i++) {
+                PublicKeyHash writer = writers.get(i);
+                results.add(cas.get(i).orElseThrow(() -> new IllegalStateException("Invalid pointer from " + writer)).updated.get());
+            }
             return results;
         } catch (SQLException sqe) {
             LOG.log(Level.WARNING, sqe.getMessage(), sqe);
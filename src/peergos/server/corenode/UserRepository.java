@@ -58,17 +58,16 @@ public class UserRepository implements SocialNetwork, MutablePointers {
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
         return getPointer(owner, writer)
-                .thenCompose(current -> ipfs.getSigningKey(writer)
+                .thenCompose(current -> VerifiedPointerCache.getSigningKey(writer, ipfs)
                         .thenCompose(writerOpt -> {
                             try {
                                 if (! writerOpt.isPresent())
                                     throw new IllegalStateException("Couldn't retrieve writer key from ipfs with hash " + writer);
                                 PublicSigningKey writerKey = writerOpt.get();
-                                byte[] bothHashes = writerKey.unsignMessage(writerSignedBtreeRootHash);
-                                HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(bothHashes));
+                                HashCasPair cas = VerifiedPointerCache.unsign(writer, writerKey, writerSignedBtreeRootHash);
                                 MaybeMultihash claimedCurrentHash = cas.original;
 
-                                if (! MutablePointers.isValidUpdate(writerKey, current, claimedCurrentHash))
+                                if (! MutablePointers.isValidUpdate(writer, writerKey, current, claimedCurrentHash))
                                     return Futures.of(false);
 
                                 // check the new target is valid for this writer (or a deletion)
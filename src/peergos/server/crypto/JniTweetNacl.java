@@ -1,5 +1,6 @@
 package peergos.server.crypto;
 
+import peergos.server.crypto.asymmetric.curve25519.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.asymmetric.curve25519.*;
 import peergos.shared.util.*;
@@ -74,6 +75,12 @@ public class JniTweetNacl {
             return Arrays.copyOfRange(message, 0, message.length - TweetNaCl.SIGNATURE_SIZE_BYTES);
         }
 
+        @Override
+        public List<Optional<byte[]>> crypto_sign_open_batch(List<byte[]> signed, List<byte[]> publicSigningKeys) {
+            // the java batch verification is faster than verifying individually with native TweetNaCl
+            return Ed25519Java.openBatch(signed, publicSigningKeys, this);
+        }
+
         @Override
         public byte[] crypto_sign(byte[] message, byte[] secretSigningKey) {
             byte[] signedMessage = new byte[message.length + TweetNaCl.SIGNATURE_SIZE_BYTES];
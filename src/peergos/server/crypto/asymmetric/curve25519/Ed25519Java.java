@@ -3,12 +3,22 @@ package peergos.server.crypto.asymmetric.curve25519;
 import peergos.server.crypto.*;
 import peergos.shared.crypto.asymmetric.curve25519.*;
 
+import java.util.*;
+import java.util.stream.*;
+
 public class Ed25519Java implements Ed25519 {
+    private static final int BATCH_SIZE = 64;
+
     @Override
     public byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey) {
         return TweetNaCl.crypto_sign_open(signed, publicSigningKey);
     }
 
+    @Override
+    public List<Optional<byte[]>> crypto_sign_open_batch(List<byte[]> signed, List<byte[]> publicSigningKeys) {
+        return openBatch(signed, publicSigningKeys, this);
+    }
+
     @Override
     public byte[] crypto_sign(byte[] message, byte[] secretSigningKey) {
         return TweetNaCl.crypto_sign(message, secretSigningKey);
@@ -18,4 +28,36 @@ public class Ed25519Java implements Ed25519 {
     public void crypto_sign_keypair(byte[] pk, byte[] sk) {
         TweetNaCl.crypto_sign_keypair(pk, sk, true);
     }
+
+    /** Batch verify the signatures in groups, in parallel. Any group which fails is verified individually by the
+     *  given implementation to find the invalid signatures.
+     */
+    public static List<Optional<byte[]>> openBatch(List<byte[]> signed, List<byte[]> publicSigningKeys, Ed25519 single) {
+        if (signed.size() != publicSigningKeys.size())
+            throw new IllegalArgumentException("Different numbers of signed messages and keys!");
+        int groups = (signed.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        return IntStream.range(0, groups)
+                .parallel()
+                .mapToObj(g -> {
+                    int start = g * BATCH_SIZE, end = Math.min(signed.size(), start + BATCH_SIZE);
+                    List<byte[]> groupSigned = signed.subList(start, end);
+                    List<byte[]> groupKeys = publicSigningKeys.subList(start, end);
+                    if (TweetNaCl.crypto_sign_verify_batch(groupSigned, groupKeys))
+                        return groupSigned.stream()
+                                .map(s -> Optional.of(Arrays.copyOfRange(s, TweetNaCl.SIGNATURE_SIZE_BYTES, s.length)))
+                                .collect(Collectors.toList());
+                    List<Optional<byte[]>> res = new ArrayList<>();
+                    for (int i=0; i < groupSigned.size(); i++) {
+                        try {
+                            res.add(Optional.of(single.crypto_sign_open(groupSigned.get(i), groupKeys.get(i))));
+                        } catch (Exception e) {
+                            // including malformed values, like one too short to hold a signature
+                            res.add(Optional.empty());
+                        }
+                    }
+                    return res;
+                })
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
 }
@@ -4,6 +4,9 @@ import java.util.logging.*;
 
 import java.security.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.*;
 
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.hash.*;
@@ -19,6 +22,27 @@ import javax.crypto.spec.*;
 public class ScryptJava implements Hasher {
 	private static final Logger LOG = Logger.getGlobal();
     private static final int LOG_2_MIN_RAM = 17;
+    // below this the expected work is a few ms, less than starting the threads for a parallel search
+    private static final int SINGLE_THREAD_MAX_DIFFICULTY = 16;
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    // shared by all instances, so concurrent signups can't start more search threads than there are processors
+    private static final ExecutorService proofOfWorkPool = Executors.newFixedThreadPool(POOL_SIZE, r -> {
+        Thread t = new Thread(r, "Proof of work");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int proofOfWorkThreads;
+
+    public ScryptJava(int proofOfWorkThreads) {
+        if (proofOfWorkThreads < 1)
+            throw new IllegalArgumentException("Proof of work needs at least one thread!");
+        this.proofOfWorkThreads = proofOfWorkThreads;
+    }
+
+    public ScryptJava() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
 
     @Override
     public CompletableFuture<byte[]> hashToKeyBytes(String username, String password, SecretGenerationAlgorithm algorithm) {
@@ -48,24 +72,66 @@ public class ScryptJava implements Hasher {
 
     @Override
     public CompletableFuture<ProofOfWork> generateProofOfWork(int difficulty, byte[] data) {
+        int threads = difficulty <= SINGLE_THREAD_MAX_DIFFICULTY ? 1 : Math.min(proofOfWorkThreads, POOL_SIZE);
+        AtomicBoolean done = new AtomicBoolean(false);
+        if (threads == 1)
+            return Futures.of(buildProofOfWork(searchProofOfWork(difficulty, data, 0, 1, done).get()));
+
+        CompletableFuture<byte[]> found = new CompletableFuture<>();
+        for (int t = 0; t < threads; t++) {
+            int start = t;
+            proofOfWorkPool.execute(() -> {
+                try {
+                    searchProofOfWork(difficulty, data, start, threads, done).ifPresent(found::complete);
+                } catch (Throwable e) {
+                    found.completeExceptionally(e);
+                }
+            });
+        }
+        try {
+            return Futures.of(buildProofOfWork(found.join()));
+        } finally {
+            done.set(true);
+        }
+    }
+
+    private static ProofOfWork buildProofOfWork(byte[] prefix) {
+        return new ProofOfWork(prefix, Multihash.Type.sha2_256);
+    }
+
+    /** Try every stride'th counter from start until one satisfies the difficulty, or another search has succeeded.
+     *  The digest and buffers are reused, so nothing is allocated per attempt.
+     *
+     */
+    private static Optional<byte[]> searchProofOfWork(int difficulty, byte[] data, long start, int stride, AtomicBoolean done) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance(Hash.HASH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
         byte[] combined = new byte[data.length + ProofOfWork.PREFIX_BYTES];
         System.arraycopy(data, 0, combined, ProofOfWork.PREFIX_BYTES, data.length);
-        long counter = 0;
-        while (true) {
-            byte[] hash = Hash.sha256(combined);
+        byte[] hash = new byte[sha256.getDigestLength()];
+        int sinceCheck = 0;
+        for (long counter = start; ; counter += stride) {
+            for (int i = 0; i < ProofOfWork.PREFIX_BYTES; i++)
+                combined[i] = (byte) (counter >> (8 * i));
+            sha256.update(combined);
+            try {
+                sha256.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new RuntimeException(e);
+            }
             if (ProofOfWork.satisfiesDifficulty(difficulty, hash)) {
-                byte[] prefix = Arrays.copyOfRange(combined, 0, ProofOfWork.PREFIX_BYTES);
-                return Futures.of(new ProofOfWork(prefix, Multihash.Type.sha2_256));
+                done.set(true);
+                return Optional.of(Arrays.copyOfRange(combined, 0, ProofOfWork.PREFIX_BYTES));
+            }
+            if (++sinceCheck == 1024) {
+                if (done.get())
+                    return Optional.empty();
+                sinceCheck = 0;
             }
-            counter++;
-            combined[0] = (byte) counter;
-            combined[1] = (byte) (counter >> 8);
-            combined[2] = (byte) (counter >> 16);
-            combined[3] = (byte) (counter >> 24);
-            combined[4] = (byte) (counter >> 32);
-            combined[5] = (byte) (counter >> 40);
-            combined[6] = (byte) (counter >> 48);
-            combined[7] = (byte) (counter >> 56);
         }
     }
 
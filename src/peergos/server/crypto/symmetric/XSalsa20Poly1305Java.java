@@ -0,0 +1,375 @@
+package peergos.server.crypto.symmetric;
+
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.symmetric.*;
+
+/** XSalsa20-Poly1305 secretbox, producing exactly the same output as TweetNaCl.secretbox.
+ *
+ *  TweetNaCl works a byte at a time and needs the message copied into a buffer with 32 leading zero bytes. This
+ *  works on 32 bit words, reading from and writing to the caller's arrays at an offset, so the only allocation is the
+ *  result. The cipher text is the 16 byte Poly1305 tag followed by the encrypted message.
+ */
+public class XSalsa20Poly1305Java implements Salsa20Poly1305 {
+    public static final int KEY_BYTES = 32;
+    public static final int NONCE_BYTES = 24;
+    public static final int TAG_BYTES = 16;
+
+    private static final int SIGMA0 = 0x61707865, SIGMA1 = 0x3320646e, SIGMA2 = 0x79622d32, SIGMA3 = 0x6b206574;
+
+    @Override
+    public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
+        byte[] cipherText = new byte[TAG_BYTES + data.length];
+        secretbox(data, 0, data.length, cipherText, 0, nonce, key);
+        return cipherText;
+    }
+
+    @Override
+    public byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
+        if (cipher.length < TAG_BYTES)
+            throw new InvalidCipherTextException("Invalid encryption! Cipher text is only " + cipher.length + " bytes");
+        byte[] message = new byte[cipher.length - TAG_BYTES];
+        if (! secretbox_open(cipher, 0, cipher.length, message, 0, nonce, key))
+            throw new InvalidCipherTextException("Invalid encryption! [" + cipher.length + "]");
+        return message;
+    }
+
+    /** Encrypt length bytes of message from messageOffset into out at outOffset, writing TAG_BYTES + length bytes.
+     *  The message and output may be the same array if outOffset + TAG_BYTES <= messageOffset.
+     *
+     */
+    public static void secretbox(byte[] message, int messageOffset, int length,
+                                 byte[] out, int outOffset,
+                                 byte[] nonce, byte[] key) {
+        int[] state = initialState(nonce, key);
+        byte[] polyKey = new byte[32];
+        streamXor(state, message, messageOffset, out, outOffset + TAG_BYTES, length, polyKey);
+        poly1305(out, outOffset + TAG_BYTES, length, polyKey, out, outOffset);
+    }
+
+    /** Decrypt the cipher text of length bytes, including the tag, at cipherOffset into out at outOffset.
+     *  Nothing is written if the tag is invalid.
+     *
+     * @return whether the tag was valid
+     */
+    public static boolean secretbox_open(byte[] cipher, int cipherOffset, int length,
+                                         byte[] out, int outOffset,
+                                         byte[] nonce, byte[] key) {
+        if (length < TAG_BYTES)
+            return false;
+        int[] state = initialState(nonce, key);
+        int[] block = new int[16];
+        salsa20Block(state, block);
+        byte[] polyKey = new byte[32];
+        for (int i = 0; i < 8; i++)
+            writeInt(block[i], polyKey, 4 * i);
+        byte[] tag = new byte[TAG_BYTES];
+        poly1305(cipher, cipherOffset + TAG_BYTES, length - TAG_BYTES, polyKey, tag, 0);
+        int diff = 0;
+        for (int i = 0; i < TAG_BYTES; i++)
+            diff |= tag[i] ^ cipher[cipherOffset + i];
+        if (diff != 0)
+            return false;
+        state[8] = 0;
+        state[9] = 0;
+        streamXor(state, cipher, cipherOffset + TAG_BYTES, out, outOffset, length - TAG_BYTES, polyKey);
+        return true;
+    }
+
+    /**
+     *
+     * @return The Salsa20 state for block 0 using the XSalsa20 sub key derived from the key and first 16 nonce bytes
+     */
+    private static int[] initialState(byte[] nonce, byte[] key) {
+        if (nonce.length < NONCE_BYTES)
+            throw new IllegalArgumentException("Nonce must be " + NONCE_BYTES + " bytes");
+        if (key.length != KEY_BYTES)
+            throw new IllegalArgumentException("Key must be " + KEY_BYTES + " bytes");
+        int[] subKey = hsalsa20(key, nonce);
+        int[] state = new int[16];
+        state[0] = SIGMA0;
+        state[1] = subKey[0];
+        state[2] = subKey[1];
+        state[3] = subKey[2];
+        state[4] = subKey[3];
+        state[5] = SIGMA1;
+        state[6] = readInt(nonce, 16);
+        state[7] = readInt(nonce, 20);
+        state[8] = 0;
+        state[9] = 0;
+        state[10] = SIGMA2;
+        state[11] = subKey[4];
+        state[12] = subKey[5];
+        state[13] = subKey[6];
+        state[14] = subKey[7];
+        state[15] = SIGMA3;
+        return state;
+    }
+
+    /** XOR the Salsa20 key stream from the state into length bytes. The first 32 bytes of block 0 are not used for
+     *  encryption, they are written to polyKey.
+     *
+     */
+    private static void streamXor(int[] state, byte[] in, int inOffset, byte[] out, int outOffset, int length, byte[] polyKey) {
+        int[] block = new int[16];
+        salsa20Block(state, block);
+        incrementCounter(state);
+        for (int i = 0; i < 8; i++)
+            writeInt(block[i], polyKey, 4 * i);
+        // the remaining 32 bytes of block 0 encrypt the start of the message
+        int first = Math.min(32, length);
+        xorBytes(block, 32, in, inOffset, out, outOffset, first);
+        int done = first;
+        while (length - done >= 64) {
+            salsa20Block(state, block);
+            incrementCounter(state);
+            int inPos = inOffset + done, outPos = outOffset + done;
+            for (int w = 0; w < 16; w++)
+                writeInt(readInt(in, inPos + 4 * w) ^ block[w], out, outPos + 4 * w);
+            done += 64;
+        }
+        if (done < length) {
+            salsa20Block(state, block);
+            incrementCounter(state);
+            xorBytes(block, 0, in, inOffset + done, out, outOffset + done, length - done);
+        }
+    }
+
+    private static void xorBytes(int[] block, int blockByteOffset, byte[] in, int inOffset, byte[] out, int outOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int b = blockByteOffset + i;
+            out[outOffset + i] = (byte) (in[inOffset + i] ^ (block[b >> 2] >>> (8 * (b & 3))));
+        }
+    }
+
+    private static void incrementCounter(int[] state) {
+        if (++state[8] == 0)
+            state[9]++;
+    }
+
+    private static void salsa20Block(int[] in, int[] out) {
+        int x0 = in[0], x1 = in[1], x2 = in[2], x3 = in[3], x4 = in[4], x5 = in[5], x6 = in[6], x7 = in[7];
+        int x8 = in[8], x9 = in[9], x10 = in[10], x11 = in[11], x12 = in[12], x13 = in[13], x14 = in[14], x15 = in[15];
+        for (int i = 0; i < 10; i++) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        out[0] = x0 + in[0];
+        out[1] = x1 + in[1];
+        out[2] = x2 + in[2];
+        out[3] = x3 + in[3];
+        out[4] = x4 + in[4];
+        out[5] = x5 + in[5];
+        out[6] = x6 + in[6];
+        out[7] = x7 + in[7];
+        out[8] = x8 + in[8];
+        out[9] = x9 + in[9];
+        out[10] = x10 + in[10];
+        out[11] = x11 + in[11];
+        out[12] = x12 + in[12];
+        out[13] = x13 + in[13];
+        out[14] = x14 + in[14];
+        out[15] = x15 + in[15];
+    }
+
+    /**
+     *
+     * @return The 8 word XSalsa20 sub key for the key and the first 16 bytes of the nonce
+     */
+    private static int[] hsalsa20(byte[] key, byte[] nonce) {
+        int x0 = SIGMA0, x5 = SIGMA1, x10 = SIGMA2, x15 = SIGMA3;
+        int x1 = readInt(key, 0), x2 = readInt(key, 4), x3 = readInt(key, 8), x4 = readInt(key, 12);
+        int x11 = readInt(key, 16), x12 = readInt(key, 20), x13 = readInt(key, 24), x14 = readInt(key, 28);
+        int x6 = readInt(nonce, 0), x7 = readInt(nonce, 4), x8 = readInt(nonce, 8), x9 = readInt(nonce, 12);
+        for (int i = 0; i < 10; i++) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        return new int[] {x0, x5, x10, x15, x6, x7, x8, x9};
+    }
+
+    /** Poly1305 with 26 bit limbs, after poly1305-donna-32
+     *
+     */
+    private static void poly1305(byte[] m, int offset, int length, byte[] key, byte[] out, int outOffset) {
+        int r0 = readInt(key, 0) & 0x3ffffff;
+        int r1 = (readInt(key, 3) >>> 2) & 0x3ffff03;
+        int r2 = (readInt(key, 6) >>> 4) & 0x3ffc0ff;
+        int r3 = (readInt(key, 9) >>> 6) & 0x3f03fff;
+        int r4 = (readInt(key, 12) >>> 8) & 0x00fffff;
+        long s1 = r1 * 5L, s2 = r2 * 5L, s3 = r3 * 5L, s4 = r4 * 5L;
+        int h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+
+        byte[] last = null;
+        int end = offset + length;
+        for (int pos = offset; pos < end; pos += 16) {
+            byte[] src = m;
+            int p = pos;
+            int hibit = 1 << 24;
+            if (end - pos < 16) {
+                // pad the final partial block with a 1 byte then zeros
+                last = new byte[16];
+                System.arraycopy(m, pos, last, 0, end - pos);
+                last[end - pos] = 1;
+                src = last;
+                p = 0;
+                hibit = 0;
+            }
+            h0 += readInt(src, p) & 0x3ffffff;
+            h1 += (readInt(src, p + 3) >>> 2) & 0x3ffffff;
+            h2 += (readInt(src, p + 6) >>> 4) & 0x3ffffff;
+            h3 += (readInt(src, p + 9) >>> 6) & 0x3ffffff;
+            h4 += (readInt(src, p + 12) >>> 8) | hibit;
+
+            long d0 = h0 * (long) r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+            long d1 = h0 * (long) r1 + h1 * (long) r0 + h2 * s4 + h3 * s3 + h4 * s2;
+            long d2 = h0 * (long) r2 + h1 * (long) r1 + h2 * (long) r0 + h3 * s4 + h4 * s3;
+            long d3 = h0 * (long) r3 + h1 * (long) r2 + h2 * (long) r1 + h3 * (long) r0 + h4 * s4;
+            long d4 = h0 * (long) r4 + h1 * (long) r3 + h2 * (long) r2 + h3 * (long) r1 + h4 * (long) r0;
+
+            long c = d0 >>> 26;
+            h0 = (int) d0 & 0x3ffffff;
+            d1 += c;
+            c = d1 >>> 26;
+            h1 = (int) d1 & 0x3ffffff;
+            d2 += c;
+            c = d2 >>> 26;
+            h2 = (int) d2 & 0x3ffffff;
+            d3 += c;
+            c = d3 >>> 26;
+            h3 = (int) d3 & 0x3ffffff;
+            d4 += c;
+            c = d4 >>> 26;
+            h4 = (int) d4 & 0x3ffffff;
+            long t = h0 + c * 5;
+            h0 = (int) t & 0x3ffffff;
+            h1 += (int) (t >>> 26);
+        }
+
+        // fully carry h
+        int c = h1 >>> 26;
+        h1 &= 0x3ffffff;
+        h2 += c;
+        c = h2 >>> 26;
+        h2 &= 0x3ffffff;
+        h3 += c;
+        c = h3 >>> 26;
+        h3 &= 0x3ffffff;
+        h4 += c;
+        c = h4 >>> 26;
+        h4 &= 0x3ffffff;
+        h0 += c * 5;
+        c = h0 >>> 26;
+        h0 &= 0x3ffffff;
+        h1 += c;
+
+        // compute h - p, and select it if h >= p
+        int g0 = h0 + 5;
+        c = g0 >>> 26;
+        g0 &= 0x3ffffff;
+        int g1 = h1 + c;
+        c = g1 >>> 26;
+        g1 &= 0x3ffffff;
+        int g2 = h2 + c;
+        c = g2 >>> 26;
+        g2 &= 0x3ffffff;
+        int g3 = h3 + c;
+        c = g3 >>> 26;
+        g3 &= 0x3ffffff;
+        int g4 = h4 + c - (1 << 26);
+
+        int mask = (g4 >>> 31) - 1;
+        h0 = (h0 & ~mask) | (g0 & mask);
+        h1 = (h1 & ~mask) | (g1 & mask);
+        h2 = (h2 & ~mask) | (g2 & mask);
+        h3 = (h3 & ~mask) | (g3 & mask);
+        h4 = (h4 & ~mask) | (g4 & mask);
+
+        // h mod 2^128, plus the pad
+        int w0 = h0 | (h1 << 26);
+        int w1 = (h1 >>> 6) | (h2 << 20);
+        int w2 = (h2 >>> 12) | (h3 << 14);
+        int w3 = (h3 >>> 18) | (h4 << 8);
+        long f = (w0 & 0xffffffffL) + (readInt(key, 16) & 0xffffffffL);
+        writeInt((int) f, out, outOffset);
+        f = (w1 & 0xffffffffL) + (readInt(key, 20) & 0xffffffffL) + (f >>> 32);
+        writeInt((int) f, out, outOffset + 4);
+        f = (w2 & 0xffffffffL) + (readInt(key, 24) & 0xffffffffL) + (f >>> 32);
+        writeInt((int) f, out, outOffset + 8);
+        f = (w3 & 0xffffffffL) + (readInt(key, 28) & 0xffffffffL) + (f >>> 32);
+        writeInt((int) f, out, outOffset + 12);
+    }
+
+    private static int readInt(byte[] in, int offset) {
+        return (in[offset] & 0xff) | ((in[offset + 1] & 0xff) << 8)
+                | ((in[offset + 2] & 0xff) << 16) | ((in[offset + 3] & 0xff) << 24);
+    }
+
+    private static void writeInt(int val, byte[] out, int offset) {
+        out[offset] = (byte) val;
+        out[offset + 1] = (byte) (val >>> 8);
+        out[offset + 2] = (byte) (val >>> 16);
+        out[offset + 3] = (byte) (val >>> 24);
+    }
+}
@@ -6,9 +6,13 @@ import peergos.server.util.Logging;
 import jnr.ffi.Pointer;
 import jnr.ffi.types.off_t;
 import jnr.ffi.types.size_t;
+import peergos.shared.io.ipfs.multihash.Multihash;
 import peergos.shared.user.UserContext;
 import peergos.shared.user.fs.Chunk;
 import peergos.shared.user.fs.FileProperties;
+import peergos.shared.user.fs.FileWrapper;
+import peergos.shared.user.fs.Location;
+import peergos.shared.util.*;
 import ru.serce.jnrfuse.ErrorCodes;
 import ru.serce.jnrfuse.struct.*;
 
@@ -16,29 +20,57 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.*;
 
+/** A PeergosFS with a chunk cache shared by all files, read ahead for sequential reads, and a write-back buffer.
+ *
+ *  Up to chunkCacheBytes of clean chunks are held in an LRU cache shared by all files. Chunks are keyed by the file's
+ *  location and the champ root of its writer, so they survive the file being closed and reopened, and are never served
+ *  after the file has changed. Writes go into dirty chunks,
+ *  which are written back in runs of consecutive chunks on flush, release, fsync or lock, when a file has more than
+ *  MAX_DIRTY_CHUNKS_PER_FILE dirty chunks, or once they have been dirty for syncSleep milliseconds.
+ */
 public class CachingPeergosFS extends PeergosFS {
 	private static final Logger LOG = Logging.LOG();
 
     private static final int DEFAULT_SYNC_SLEEP = 1000*30;
-    private static final int DEFAULT_CACHE_SIZE = 1;
+    private static final long DEFAULT_CACHE_BYTES = 20L * Chunk.MAX_SIZE;
+    private static final int MAX_DIRTY_CHUNKS_PER_FILE = 8;
     private static final boolean DEBUG = true;
 
-    private final ConcurrentMap<String, CacheEntryHolder> entryMap;
-    private final int chunkCacheSize, syncSleep;
-//    private final Thread syncRunner;
+    private final ConcurrentMap<String, OpenFile> files;
+    private final ChunkCache chunks;
+    private final int syncSleep;
+    private final ScheduledExecutorService syncRunner;
+    private final ExecutorService readAhead;
 
     public CachingPeergosFS(UserContext userContext) {
-        this(userContext, DEFAULT_CACHE_SIZE, DEFAULT_SYNC_SLEEP);
+        this(userContext, DEFAULT_CACHE_BYTES, DEFAULT_SYNC_SLEEP);
     }
 
-    public CachingPeergosFS(UserContext userContext, int chunkCacheSize, int syncSleep) {
+    /**
+     *
+     * @param chunkCacheBytes The maximum total size of the clean chunks to cache
+     * @param syncSleep The maximum time in milliseconds that written data is buffered before being written back
+     */
+    public CachingPeergosFS(UserContext userContext, long chunkCacheBytes, int syncSleep) {
         super(userContext);
 
-        this.chunkCacheSize = chunkCacheSize;
         this.syncSleep = syncSleep;
-        this.entryMap = new ConcurrentHashMap<>();
+        this.files = new ConcurrentHashMap<>();
+        this.chunks = new ChunkCache(chunkCacheBytes);
+        this.syncRunner = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Fuse write back"));
+        this.readAhead = Executors.newFixedThreadPool(2, r -> daemon(r, "Fuse read ahead"));
+        syncRunner.scheduleWithFixedDelay(this::syncExpired, syncSleep, syncSleep, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private OpenFile getFile(String path) {
+        return files.computeIfAbsent(path, OpenFile::new);
     }
 
     @Override
@@ -56,22 +88,18 @@ public class CachingPeergosFS extends PeergosFS {
             System.out.printf("read(%s, offset=%d, size=%d)\n", s, offset, size);
         if (!containedInOneChunk(offset, offset + size)) {
             long boundary = alignToChunkSize(offset + Chunk.MAX_SIZE);
-            int r1 = read(s, pointer, 0, boundary - offset, offset, fuseFileInfo);
-            if (r1 <= 0)
+            int r1 = read(s, pointer, pointerOffset, boundary - offset, offset, fuseFileInfo);
+            if (r1 < boundary - offset)
                 return r1;
-            int r2 = read(s, pointer, (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
-            if (r2 <= 0)
+            int r2 = read(s, pointer, pointerOffset + (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
+            if (r2 < 0)
                 return r2;
             return r1 + r2;
         }
 
         long startPos = alignToChunkSize(offset);
         int chunkOffset  = intraChunkOffset(offset);
-        int iSize = (int) size;
-
-        CacheEntryHolder cacheEntryHolder = entryMap.computeIfAbsent(s, path -> new CacheEntryHolder(new CacheEntry(path, startPos)));
-        return cacheEntryHolder.apply(c -> c != null && c.offset == startPos, () -> new CacheEntry(s, startPos),
-                ce -> ce.read(pointer, pointerOffset, chunkOffset, iSize));
+        return getFile(s).read(pointer, pointerOffset, startPos, chunkOffset, (int) size);
     }
 
     @Override
@@ -89,10 +117,10 @@ public class CachingPeergosFS extends PeergosFS {
             System.out.printf("write(%s, offset=%d, size=%d)\n", s, offset, size);
         if  (! containedInOneChunk(offset, offset+size)) {
             long boundary = alignToChunkSize(offset + Chunk.MAX_SIZE);
-            int w1 = write(s, pointer, 0, boundary - offset, offset, fuseFileInfo);
+            int w1 = write(s, pointer, pointerOffset, boundary - offset, offset, fuseFileInfo);
             if (w1 <= 0)
                 return w1;
-            int w2 = write(s, pointer, (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
+            int w2 = write(s, pointer, pointerOffset + (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
             if (w2 <= 0)
                 return w2;
             return w1 + w2;
@@ -100,11 +128,34 @@ public class CachingPeergosFS extends PeergosFS {
 
         long startPos  = alignToChunkSize(offset);
         int  chunkOffset  = intraChunkOffset(offset);
-        int iSize = (int) size;
+        OpenFile file = getFile(s);
+        int written = file.write(pointer, pointerOffset, startPos, chunkOffset, (int) size);
+        if (file.dirtyChunks() > MAX_DIRTY_CHUNKS_PER_FILE) {
+            // keep the chunk currently being written to in the buffer
+            int res = file.sync(true);
+            if (res < 0)
+                return res;
+        }
+        return written;
+    }
+
+    private int sync(String path) {
+        OpenFile file = files.get(path);
+        if (file == null)
+            return 0;
+        return file.sync(false);
+    }
 
-        CacheEntryHolder cacheEntry = entryMap.computeIfAbsent(s, path -> new CacheEntryHolder(new CacheEntry(path, startPos)));
-        return cacheEntry.apply(c -> c != null && c.offset == startPos, () -> new CacheEntry(s, startPos),
-                ce -> ce.write(pointer, pointerOffset, chunkOffset, iSize));
+    private void syncExpired() {
+        long cutoff = System.currentTimeMillis() - syncSleep;
+        for (OpenFile file : files.values()) {
+            try {
+                if (file.dirtySince() <= cutoff)
+                    file.sync(false);
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, t.getMessage(), t);
+            }
+        }
     }
 
     @Override
@@ -112,10 +163,8 @@ public class CachingPeergosFS extends PeergosFS {
         try {
             if (DEBUG)
                 System.out.printf("lock(%s)\n", s);
-            CacheEntryHolder cacheEntryHolder = entryMap.get(s);
-            if (cacheEntryHolder != null)
-                cacheEntryHolder.syncAndClear();
-            return 0;
+            int res = sync(s);
+            return res < 0 ? res : 0;
         } catch (Throwable t) {
             LOG.log(Level.WARNING, t.getMessage(), t);
             throw t;
@@ -127,10 +176,9 @@ public class CachingPeergosFS extends PeergosFS {
         try {
             if (DEBUG)
                 System.out.printf("flush(%s)\n", s);
-            CacheEntryHolder cacheEntry = entryMap.get(s);
-            if (cacheEntry != null) {
-                cacheEntry.sync();
-            }
+            int res = sync(s);
+            if (res < 0)
+                return res;
             return super.flush(s, fuseFileInfo);
         } catch (Throwable t) {
             LOG.log(Level.WARNING, t.getMessage(), t);
@@ -138,25 +186,78 @@ public class CachingPeergosFS extends PeergosFS {
         }
     }
 
+    @Override
+    public int fsync(String s, int isDatasync, FuseFileInfo fuseFileInfo) {
+        int res = sync(s);
+        return res < 0 ? res : 0;
+    }
+
+    @Override
+    public int release(String s, FuseFileInfo fuseFileInfo) {
+        int res = sync(s);
+        files.computeIfPresent(s, (p, f) -> f.dirtyChunks() > 0 ? f : null);
+        return res < 0 ? res : 0;
+    }
+
+    @Override
+    public int truncate(String s, @off_t long l) {
+        int res = sync(s);
+        if (res < 0)
+            return res;
+        getFile(s).invalidate();
+        return super.truncate(s, l);
+    }
+
+    @Override
+    public int ftruncate(String s, @off_t long l, FuseFileInfo fuseFileInfo) {
+        int res = sync(s);
+        if (res < 0)
+            return res;
+        getFile(s).invalidate();
+        return super.ftruncate(s, l, fuseFileInfo);
+    }
+
+    @Override
+    public int unlink(String s) {
+        forget(s);
+        int res = super.unlink(s);
+        forget(s);
+        return res;
+    }
+
+    @Override
+    public int rename(String s, String s1) {
+        int res = sync(s);
+        if (res < 0)
+            return res;
+        forget(s);
+        forget(s1);
+        res = super.rename(s, s1);
+        // drop anything read from either path while the rename was in progress
+        forget(s);
+        forget(s1);
+        return res;
+    }
+
+    private void forget(String path) {
+        OpenFile file = files.remove(path);
+        if (file != null)
+            file.invalidate();
+    }
+
     @Override
     protected int annotateAttributes(String fullPath, PeergosStat peergosStat, FileStat fileStat) {
         if (DEBUG)
             System.out.printf("annotate(%s)\n", fullPath);
-        CacheEntryHolder cacheEntry = entryMap.get(fullPath);
-        Optional<PeergosStat> updatedStat = Optional.empty();
-        if (cacheEntry != null) {
-            updatedStat = cacheEntry.applyIfPresent(ce -> {
-                if (ce == null)
-                    return peergosStat;
-                long maxSize = ce.offset + ce.maxDirtyPos;
-                if (peergosStat.properties.size < maxSize) {
-                    FileProperties updated = peergosStat.properties.withSize(maxSize);
-                    return new PeergosStat(peergosStat.treeNode, updated);
-                }
-                return peergosStat;
-            });
+        OpenFile file = files.get(fullPath);
+        if (file != null) {
+            long maxSize = file.dirtyEnd();
+            if (peergosStat.properties.size < maxSize) {
+                FileProperties updated = peergosStat.properties.withSize(maxSize);
+                peergosStat = new PeergosStat(peergosStat.treeNode, updated);
+            }
         }
-        return super.annotateAttributes(fullPath, updatedStat.orElse(peergosStat), fileStat);
+        return super.annotateAttributes(fullPath, peergosStat, fileStat);
     }
 
     private boolean containedInOneChunk(long start, long end) {
@@ -167,124 +268,266 @@ public class CachingPeergosFS extends PeergosFS {
         return Math.max(0, pos / Chunk.MAX_SIZE) * Chunk.MAX_SIZE;
     }
     private int intraChunkOffset(long  pos) {
-        return (int) pos % Chunk.MAX_SIZE;
+        return (int) (pos % Chunk.MAX_SIZE);
     }
 
-    private class CacheEntryHolder {
-        private CacheEntry entry;
+    /** Read a chunk from the network, truncated to the end of the file
+     *
+     */
+    private byte[] loadChunk(PeergosStat stat, long chunkStart) {
+        long size = stat.properties.size;
+        if (chunkStart >= size)
+            return new byte[0];
+        return read(stat, Math.min(Chunk.MAX_SIZE, size - chunkStart), chunkStart)
+                .orElseThrow(() -> new IllegalStateException("missing: " + stat.properties.name));
+    }
+
+    /** Identifies the contents of a chunk of a file. The champ root of the file's writer changes whenever any of the
+     *  writer's files does, which is coarser than needed, but never returns stale data.
+     *
+     */
+    private static final class ChunkKey {
+        private final Location file;
+        private final Optional<Multihash> version;
+        private final long offset;
 
-        public CacheEntryHolder(CacheEntry entry) {
-            this.entry = entry;
+        public ChunkKey(Location file, Optional<Multihash> version, long offset) {
+            this.file = file;
+            this.version = version;
+            this.offset = offset;
         }
 
-        public synchronized <A> A apply(Predicate<CacheEntry> correctChunk, Supplier<CacheEntry> supplier, Function<CacheEntry, A> func) {
-            if (!correctChunk.test(entry)) {
-                long oldOffset = entry != null ? entry.offset : -1;
-                syncAndClear();
-                setEntry(supplier.get());
-                LOG.info("Ejecting chunk from " + entry.path + " " + oldOffset + " -> "+ entry.offset);
+        public static Optional<ChunkKey> of(PeergosStat stat, long offset) {
+            FileWrapper file = stat.treeNode;
+            if (! file.version.contains(file.writer()))
+                return Optional.empty();
+            return Optional.of(new ChunkKey(file.getLocation(), file.version.get(file.writer()).props.tree, offset));
+        }
 
-            }
-            return func.apply(entry);
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ChunkKey that = (ChunkKey) o;
+            return offset == that.offset && file.equals(that.file) && version.equals(that.version);
         }
 
-        public synchronized <A> Optional<A> applyIfPresent(Function<CacheEntry, A> func) {
-            if (entry != null) {
-                return Optional.of(func.apply(entry));
-            }
-            return Optional.empty();
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, version, offset);
         }
+    }
+
+    /** An LRU cache of clean chunks bounded by their total size, as chunks at the end of a file can be small
+     *
+     */
+    private static final class ChunkCache {
+        private final LinkedHashMap<ChunkKey, byte[]> chunks = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxBytes;
+        private long totalBytes;
 
-        public synchronized void setEntry(CacheEntry entry) {
-            this.entry = entry;
+        public ChunkCache(long maxBytes) {
+            this.maxBytes = maxBytes;
         }
 
-        public synchronized void sync() {
-            if (entry == null)
-                return;
-            if (DEBUG)
-                System.out.printf("sync(%s)\n", entry.path);
-            entry.sync();
+        public synchronized byte[] get(ChunkKey key) {
+            return chunks.get(key);
         }
 
-        public synchronized void syncAndClear() {
-            if (entry == null)
+        public synchronized void put(ChunkKey key, byte[] chunk) {
+            if (chunk.length > maxBytes)
                 return;
-            if (DEBUG)
-                System.out.printf("fsync(%s)\n", entry.path);
-            entry.sync();
-            entry = null;
+            byte[] existing = chunks.put(key, chunk);
+            if (existing != null)
+                totalBytes -= existing.length;
+            totalBytes += chunk.length;
+            Iterator<byte[]> eldest = chunks.values().iterator();
+            while (totalBytes > maxBytes) {
+                totalBytes -= eldest.next().length;
+                eldest.remove();
+            }
         }
     }
 
-    private class CacheEntry {
-        private final String path;
+    private static final class DirtyChunk {
         private final byte[] data;
-        private final long offset;
-        private int maxDirtyPos;
+        private int length, maxDirtyPos;
 
-        public CacheEntry(String path, long offset) {
-            this.path = path;
-            this.offset = offset;
+        public DirtyChunk(byte[] existing) {
             this.data = new byte[Chunk.MAX_SIZE];
-            //read current data into data view
-            PeergosStat stat = getByPath(path).orElseThrow(() -> new IllegalStateException("missing" + path));
-            byte[] readData = CachingPeergosFS.this.read(stat, data.length, offset)
-                    .orElseThrow(() -> new IllegalStateException("missing: " + path));
+            System.arraycopy(existing, 0, data, 0, existing.length);
+            this.length = existing.length;
             this.maxDirtyPos = 0;
-            System.arraycopy(readData, 0, data, 0, readData.length);
+        }
+    }
+
+    /** The dirty chunks and read ahead state of a single file. Clean chunks are cached by content, in the shared chunk
+     *  cache, so they outlive this.
+     *
+     */
+    private class OpenFile {
+        private final String path;
+        private final TreeMap<Long, DirtyChunk> dirty = new TreeMap<>();
+        private long dirtySince = Long.MAX_VALUE;
+        private long lastReadEnd = -1;
+        private Optional<Pair<ChunkKey, CompletableFuture<byte[]>>> readingAhead = Optional.empty();
 
+        public OpenFile(String path) {
+            this.path = path;
         }
 
-        private void ensureInBounds(int offset, int length) {
-            if (offset + length > data.length)
-                throw new  IllegalStateException("cannot op with offset "+ offset +" and length "+ length +" with length "+ data.length);
+        private PeergosStat stat() {
+            return getByPath(path).orElseThrow(() -> new IllegalStateException("missing" + path));
         }
 
-        public int read(Pointer pointer, int pointerOffset, int chunkOffset, int length) {
-            ensureInBounds(chunkOffset, length);
-            pointer.put(pointerOffset, data, chunkOffset, length);
-            return length;
+        private byte[] getCleanChunk(long chunkStart) {
+            PeergosStat stat = stat();
+            Optional<ChunkKey> key = ChunkKey.of(stat, chunkStart);
+            if (key.isPresent()) {
+                byte[] cached = chunks.get(key.get());
+                if (cached != null)
+                    return cached;
+                if (readingAhead.isPresent() && readingAhead.get().left.equals(key.get())) {
+                    try {
+                        return readingAhead.get().right.join();
+                    } catch (CompletionException e) {
+                        // fall back to a direct read
+                    } finally {
+                        readingAhead = Optional.empty();
+                    }
+                }
+            }
+            byte[] chunk = loadChunk(stat, chunkStart);
+            key.ifPresent(k -> chunks.put(k, chunk));
+            return chunk;
         }
 
-        public int write(Pointer pointer, int pointerOffset, int chunkOffset, int length) {
-            ensureInBounds(chunkOffset, length);
-            pointer.get(pointerOffset, data, chunkOffset, length);
-            maxDirtyPos = Math.max(maxDirtyPos, chunkOffset+length);
-            return length;
+        private void startReadAhead(long chunkStart) {
+            if (dirty.containsKey(chunkStart))
+                return;
+            PeergosStat stat = stat();
+            Optional<ChunkKey> key = ChunkKey.of(stat, chunkStart);
+            if (! key.isPresent() || chunks.get(key.get()) != null)
+                return;
+            if (readingAhead.isPresent() && readingAhead.get().left.equals(key.get()))
+                return;
+            CompletableFuture<byte[]> res = CompletableFuture.supplyAsync(() -> {
+                byte[] chunk = loadChunk(stat, chunkStart);
+                chunks.put(key.get(), chunk);
+                return chunk;
+            }, readAhead);
+            readingAhead = Optional.of(new Pair<>(key.get(), res));
         }
 
-        public void sync() {
-            Path p = Paths.get(path);
+        public synchronized int read(Pointer pointer, int pointerOffset, long chunkStart, int chunkOffset, int length) {
+            DirtyChunk d = dirty.get(chunkStart);
+            byte[] data = d != null ? d.data : getCleanChunk(chunkStart);
+            int available = d != null ? d.length : data.length;
+            int toRead = Math.max(0, Math.min(length, available - chunkOffset));
+            pointer.put(pointerOffset, data, chunkOffset, toRead);
+
+            boolean sequential = lastReadEnd == chunkStart + chunkOffset;
+            lastReadEnd = chunkStart + chunkOffset + toRead;
+            // once a sequential reader is half way through a full chunk, fetch the next one
+            if (sequential && available == Chunk.MAX_SIZE && chunkOffset + toRead >= Chunk.MAX_SIZE / 2)
+                startReadAhead(chunkStart + Chunk.MAX_SIZE);
+            return toRead;
+        }
 
-            String parentPath = p.getParent().toString();
-            String name = p.getFileName().toString();
+        public synchronized int write(Pointer pointer, int pointerOffset, long chunkStart, int chunkOffset, int length) {
+            DirtyChunk d = dirty.get(chunkStart);
+            if (d == null) {
+                d = new DirtyChunk(getCleanChunk(chunkStart));
+                dirty.put(chunkStart, d);
+                dirtySince = Math.min(dirtySince, System.currentTimeMillis());
+            }
+            pointer.get(pointerOffset, d.data, chunkOffset, length);
+            d.maxDirtyPos = Math.max(d.maxDirtyPos, chunkOffset + length);
+            d.length = Math.max(d.length, d.maxDirtyPos);
+            return length;
+        }
 
-            if (maxDirtyPos ==0)
-                return;
-            applyIfPresent(parentPath, (parent) -> CachingPeergosFS.this.write(parent, name, data, maxDirtyPos, offset), -ErrorCodes.ENOENT());
+        public synchronized int dirtyChunks() {
+            return dirty.size();
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+        public synchronized long dirtySince() {
+            return dirtySince;
+        }
 
-            CacheEntry that = (CacheEntry) o;
+        public synchronized long dirtyEnd() {
+            if (dirty.isEmpty())
+                return 0;
+            Map.Entry<Long, DirtyChunk> last = dirty.lastEntry();
+            return last.getKey() + last.getValue().length;
+        }
 
-            return Objects.equals(path, that.path);
+        public synchronized void invalidate() {
+            dirty.clear();
+            dirtySince = Long.MAX_VALUE;
+            lastReadEnd = -1;
+            readingAhead = Optional.empty();
+        }
 
+        /** Write back the dirty chunks, coalescing runs of consecutive chunks into a single write
+         *
+         * @param keepLast Whether to leave the last dirty chunk in the buffer
+         */
+        public synchronized int sync(boolean keepLast) {
+            if (dirty.isEmpty())
+                return 0;
+            List<Long> starts = new ArrayList<>(dirty.keySet());
+            if (keepLast)
+                starts.remove(starts.size() - 1);
+            int runStart = 0;
+            for (int i = 1; i <= starts.size(); i++) {
+                if (i < starts.size() && starts.get(i) == starts.get(i - 1) + Chunk.MAX_SIZE)
+                    continue;
+                int res = writeRun(starts.subList(runStart, i));
+                if (res < 0)
+                    return res;
+                runStart = i;
+            }
+            if (dirty.isEmpty())
+                dirtySince = Long.MAX_VALUE;
+            return 0;
         }
 
-        @Override
-        public int hashCode() {
-            return path != null ? path.hashCode() : 0;
+        private int writeRun(List<Long> run) {
+            // every chunk but the last in a run is written in full, the file will extend past them
+            DirtyChunk last = dirty.get(run.get(run.size() - 1));
+            int size = (run.size() - 1) * Chunk.MAX_SIZE + last.maxDirtyPos;
+            byte[] toWrite = new byte[size];
+            for (int i = 0; i < run.size(); i++) {
+                DirtyChunk d = dirty.get(run.get(i));
+                System.arraycopy(d.data, 0, toWrite, i * Chunk.MAX_SIZE, Math.min(Chunk.MAX_SIZE, size - i * Chunk.MAX_SIZE));
+            }
+            Path p = Paths.get(path);
+            String parentPath = p.getParent().toString();
+            String name = p.getFileName().toString();
+            long offset = run.get(0);
+            int res = modify(path, () -> applyIfPresent(parentPath, (parent) -> CachingPeergosFS.this.write(parent, name, toWrite, size, offset), -ErrorCodes.ENOENT()));
+            if (res < 0)
+                return res;
+            // cache the written chunks under the file's new version
+            Optional<PeergosStat> updated = getByPath(path);
+            for (int i = 0; i < run.size(); i++) {
+                long chunkStart = run.get(i);
+                DirtyChunk d = dirty.remove(chunkStart);
+                int length = i < run.size() - 1 ? Chunk.MAX_SIZE : d.length;
+                updated.flatMap(stat -> ChunkKey.of(stat, chunkStart))
+                        .ifPresent(key -> chunks.put(key, Arrays.copyOfRange(d.data, 0, length)));
+            }
+            return res;
         }
     }
 
     @Override
     public void close() throws Exception {
-
+        syncRunner.shutdown();
+        for (OpenFile file : files.values())
+            file.sync(false);
+        readAhead.shutdownNow();
         super.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,237 @@
+package peergos.server.fuse;
+
+import peergos.shared.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/** A cache of path lookups and directory listings for PeergosFS.
+ *
+ *  Resolving a path walks it from the root, so without this an ls -l of a directory of N files does N walks. Entries
+ *  are served directly for ttl after they are retrieved. After that they are revalidated by checking whether the
+ *  current version of the entry's writer is the one it was read from, which is a single pointer lookup that doesn't
+ *  wait for any in progress writes, and dropped if it has changed. Local modifications invalidate the affected paths
+ *  directly.
+ */
+public class MetadataCache {
+    public static final long DEFAULT_TTL_MILLIS = 1_000;
+    private static final int MAX_ENTRIES = 10_000;
+
+    private static class Entry<V> {
+        public final V value;
+        public final Optional<FileWrapper> source;
+        public volatile long validUntil;
+
+        public Entry(V value, Optional<FileWrapper> source, long validUntil) {
+            this.value = value;
+            this.source = source;
+            this.validUntil = validUntil;
+        }
+    }
+
+    /** An LRU cache of paths which also keeps its keys sorted, so a subtree can be removed without a scan
+     *
+     */
+    private static class PathCache<V> extends LRUCache<String, V> {
+        private final TreeSet<String> paths = new TreeSet<>();
+
+        public PathCache(int cacheSize) {
+            super(cacheSize);
+        }
+
+        @Override
+        public V put(String path, V value) {
+            paths.add(path);
+            return super.put(path, value);
+        }
+
+        @Override
+        public V remove(Object path) {
+            paths.remove(path);
+            return super.remove(path);
+        }
+
+        @Override
+        public void clear() {
+            paths.clear();
+            super.clear();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            boolean evict = super.removeEldestEntry(eldest);
+            if (evict)
+                paths.remove(eldest.getKey());
+            return evict;
+        }
+
+        public void removeStartingWith(String prefix) {
+            NavigableSet<String> matching = paths.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+            for (String path : matching)
+                super.remove(path);
+            matching.clear();
+        }
+    }
+
+    private final NetworkAccess network;
+    private final long ttlMillis;
+    private final PathCache<Entry<Optional<PeergosFS.PeergosStat>>> stats = new PathCache<>(MAX_ENTRIES);
+    private final PathCache<Entry<List<String>>> listings = new PathCache<>(MAX_ENTRIES);
+    // incremented on every invalidation, so a lookup which raced with one doesn't cache a stale result
+    private long invalidations = 0;
+    private long hits = 0, misses = 0, revalidations = 0;
+
+    public MetadataCache(NetworkAccess network, long ttlMillis) {
+        this.network = network;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public Optional<PeergosFS.PeergosStat> getStat(String path, Supplier<Optional<PeergosFS.PeergosStat>> retriever) {
+        return get(stats, path, retriever, s -> s.map(stat -> stat.treeNode));
+    }
+
+    public List<String> getListing(String path,
+                                   Supplier<Pair<FileWrapper, Set<FileWrapper>>> retriever) {
+        return get(listings, path, () -> {
+            Pair<FileWrapper, Set<FileWrapper>> dir = retriever.get();
+            List<String> names = new ArrayList<>();
+            for (FileWrapper child : dir.right) {
+                FileProperties props = child.getFileProperties();
+                names.add(props.name);
+                // the children are already retrieved so prime the stats for the getattr calls which usually follow
+                if (! isRoot(path))
+                    putIfNotInvalidated(stats, childPath(path, props.name), Optional.of(new PeergosFS.PeergosStat(child, props)),
+                            Optional.of(child), currentInvalidations());
+            }
+            return new Pair<>(names, dir.left);
+        });
+    }
+
+    private <V> V get(PathCache<Entry<V>> cache,
+                      String path,
+                      Supplier<V> retriever,
+                      Function<V, Optional<FileWrapper>> source) {
+        return get(cache, path, () -> {
+            V value = retriever.get();
+            return new Pair<>(value, source.apply(value).orElse(null));
+        });
+    }
+
+    private <V> V get(PathCache<Entry<V>> cache, String path, Supplier<Pair<V, FileWrapper>> retriever) {
+        Entry<V> cached;
+        synchronized (this) {
+            cached = cache.get(path);
+        }
+        if (cached != null && isValid(cached)) {
+            synchronized (this) {
+                hits++;
+            }
+            return cached.value;
+        }
+        long invalidationsBefore;
+        synchronized (this) {
+            misses++;
+            invalidationsBefore = invalidations;
+        }
+        Pair<V, FileWrapper> retrieved = retriever.get();
+        putIfNotInvalidated(cache, path, retrieved.left, Optional.ofNullable(retrieved.right), invalidationsBefore);
+        return retrieved.left;
+    }
+
+    private synchronized long currentInvalidations() {
+        return invalidations;
+    }
+
+    private synchronized <V> void putIfNotInvalidated(PathCache<Entry<V>> cache,
+                                                      String path,
+                                                      V value,
+                                                      Optional<FileWrapper> source,
+                                                      long invalidationsBefore) {
+        if (invalidations != invalidationsBefore)
+            return;
+        cache.put(path, new Entry<>(value, source, System.currentTimeMillis() + ttlMillis));
+    }
+
+    private boolean isValid(Entry<?> entry) {
+        long now = System.currentTimeMillis();
+        if (now < entry.validUntil)
+            return true;
+        if (! entry.source.isPresent())
+            return false; // missing paths can't be revalidated
+        FileWrapper file = entry.source.get();
+        try {
+            // read the pointer directly rather than through the synchronizer, which would queue behind local writes
+            MaybeMultihash current = network.mutable.getPointerTarget(file.owner(), file.writer(), network.dhtClient).join();
+            if (! current.equals(file.version.get(file.writer()).hash))
+                return false;
+            entry.validUntil = now + ttlMillis;
+            synchronized (this) {
+                revalidations++;
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Remove any cached state for this path, its parent and its descendants
+     *
+     */
+    public synchronized void invalidate(String path) {
+        invalidations++;
+        String prefix = isRoot(path) ? "/" : path + "/";
+        stats.remove(path);
+        listings.remove(path);
+        stats.removeStartingWith(prefix);
+        listings.removeStartingWith(prefix);
+        Path parent = Paths.get(path).getParent();
+        if (parent != null) {
+            stats.remove(parent.toString());
+            listings.remove(parent.toString());
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations++;
+        stats.clear();
+        listings.clear();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     *
+     * @return The number of expired entries which were served after confirming their writer hadn't changed
+     */
+    public synchronized long revalidations() {
+        return revalidations;
+    }
+
+    public synchronized double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MetadataCache{hits=" + hits + ", misses=" + misses + ", revalidations=" + revalidations + "}";
+    }
+
+    private static boolean isRoot(String path) {
+        return path.equals("/");
+    }
+
+    private static String childPath(String dir, String name) {
+        return isRoot(dir) ? "/" + name : dir + "/" + name;
+    }
+}
@@ -8,7 +8,7 @@ import jnr.ffi.types.*;
 import peergos.shared.storage.auth.*;
 import peergos.shared.user.UserContext;
 import peergos.shared.user.fs.*;
-import peergos.shared.util.Serialize;
+import peergos.shared.util.*;
 
 import ru.serce.jnrfuse.ErrorCodes;
 import ru.serce.jnrfuse.FuseFillDir;
@@ -30,7 +30,7 @@ import java.util.function.*;
 public class PeergosFS extends FuseStubFS implements AutoCloseable {
 	private static final Logger LOG = Logging.LOG();
 
-    protected static class PeergosStat {
+    public static class PeergosStat {
         public final FileWrapper treeNode;
         public final FileProperties properties;
 
@@ -42,10 +42,20 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
 
 
     private final UserContext context;
+    private final MetadataCache metadata;
     protected volatile boolean isClosed;
 
     public PeergosFS(UserContext context) {
+        this(context, MetadataCache.DEFAULT_TTL_MILLIS);
+    }
+
+    public PeergosFS(UserContext context, long metadataTtlMillis) {
         this.context = context;
+        this.metadata = new MetadataCache(context.network, metadataTtlMillis);
+    }
+
+    public MetadataCache metadataCache() {
+        return metadata;
     }
 
     @Override
@@ -131,7 +141,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
             return -ErrorCodes.ENOENT();
 
         PeergosStat parent = parentOpt.get();
-        return mkdir(name, parent.treeNode).isPresent() ? 0 : -ErrorCodes.ENOENT();
+        return modify(s, () -> mkdir(name, parent.treeNode).isPresent() ? 0 : -ErrorCodes.ENOENT());
     }
 
     @Override
@@ -148,6 +158,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
                 return -ErrorCodes.ENOENT();
 
             FileWrapper updatedParent = file.get().remove(parent.get(), requested, context).get();
+            invalidateMetadata(s);
             return 0;
         } catch (Exception ioe) {
             LOG.log(Level.WARNING, ioe.getMessage(), ioe);
@@ -159,7 +170,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     public int rmdir(String s) {
         ensureNotClosed();
         Path dir = Paths.get(s);
-        return applyIfPresent(s, (stat) -> applyIfPresent(dir.getParent().toString(), parentStat -> rmdir(stat, dir, parentStat)));
+        return modify(s, () -> applyIfPresent(s, (stat) -> applyIfPresent(dir.getParent().toString(), parentStat -> rmdir(stat, dir, parentStat))));
     }
 
     @Override
@@ -177,6 +188,15 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
                 return -ErrorCodes.ENOENT();
 
             FileWrapper parent = sourceParent.treeNode;
+            // like rename(2), replace an existing target file
+            Optional<FileWrapper> existing = context.getByPath(targetPath).get();
+            if (existing.isPresent()) {
+                if (existing.get().isDirectory())
+                    return -ErrorCodes.EISDIR();
+                newParent = Optional.of(existing.get().remove(newParent.get(), requested, context).get());
+                invalidateMetadata(targetPath);
+                parent = parent.getUpdated(context.network).join();
+            }
             FileWrapper updatedParent = source.treeNode.rename(targetFilename, parent, Paths.get(sourcePath), context).get();
             // TODO clean up on error conditions
             if (! parent.equals(newParent.get())) {
@@ -198,7 +218,8 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     public int rename(String s, String s1) {
         ensureNotClosed();
         Path source = Paths.get(s);
-        return applyIfPresent(s, (stat) -> applyIfPresent(source.getParent().toString(), parentStat -> rename(stat, parentStat, s, s1)));
+        return modify(s, () -> modify(s1, () ->
+                applyIfPresent(s, (stat) -> applyIfPresent(source.getParent().toString(), parentStat -> rename(stat, parentStat, s, s1)))));
     }
 
     @Override
@@ -244,7 +265,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         Path path = Paths.get(s);
         String parentPath = path.getParent().toString();
         String name = path.getFileName().toString();
-        return applyIfPresent(parentPath, (parent) -> write(parent, name, pointer, size, offset), -ErrorCodes.ENOENT());
+        return modify(s, () -> applyIfPresent(parentPath, (parent) -> write(parent, name, pointer, size, offset), -ErrorCodes.ENOENT()));
     }
 
     @Override
@@ -300,7 +321,17 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     @Override
     public int readdir(String s, Pointer pointer, FuseFillDir fuseFillDir, @off_t long l, FuseFileInfo fuseFileInfo) {
         ensureNotClosed();
-        return applyIfPresent(s, (stat) ->readdir(stat, fuseFillDir, pointer));
+        try {
+            List<String> children = metadata.getListing(s, () -> {
+                PeergosStat stat = lookupByPath(s).orElseThrow(() -> new IllegalStateException("Missing directory " + s));
+                return new Pair<>(stat.treeNode, stat.treeNode.getChildren(context.crypto.hasher, context.network).join());
+            });
+            children.forEach(name -> fuseFillDir.apply(pointer, name, null, 0));
+            return 0;
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            return -ErrorCodes.ENOENT();
+        }
     }
 
     @Override
@@ -341,8 +372,8 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         String name = path.getFileName().toString();
         byte[] emptyData = new byte[0];
 
-        return applyIfPresent(parentPath,
-                (stat) -> write(stat,  name, emptyData, 0, 0));
+        return modify(s, () -> applyIfPresent(parentPath,
+                (stat) -> write(stat,  name, emptyData, 0, 0)));
     }
 
     @Override
@@ -350,7 +381,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         ensureNotClosed();
         Path path = Paths.get(s);
         String parentPath = path.getParent().toString();
-        return applyIfBothPresent(parentPath, s, (parent, file) -> truncate(parent, file, l));
+        return modify(s, () -> applyIfBothPresent(parentPath, s, (parent, file) -> truncate(parent, file, l)));
     }
 
     @Override
@@ -394,6 +425,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
 
             try {
                 boolean isUpdated = stat.treeNode.setProperties(updated, context.crypto.hasher, context.network, Optional.of(parentOpt.get().treeNode)).get();
+                invalidateMetadata(s);
                 return isUpdated ? 0 : -ErrorCodes.ENOENT();
             } catch (Exception ex) {
                 LOG.log(Level.WARNING, ex.getMessage(), ex);
@@ -445,7 +477,30 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         throw ex;
     }
 
+    /** Remove any cached metadata for this path, its parent and its descendants. This must be called before any
+     *  modification of them.
+     */
+    protected void invalidateMetadata(String path) {
+        metadata.invalidate(path);
+    }
+
+    /** Run a modification of path, invalidating any cached metadata for it both before, so the modification starts
+     *  from the current state, and after, to drop anything cached while it was in progress.
+     */
+    protected int modify(String path, IntSupplier modification) {
+        invalidateMetadata(path);
+        try {
+            return modification.getAsInt();
+        } finally {
+            invalidateMetadata(path);
+        }
+    }
+
     protected Optional<PeergosStat> getByPath(String path) {
+        return metadata.getStat(path, () -> lookupByPath(path));
+    }
+
+    private Optional<PeergosStat> lookupByPath(String path) {
         try {
             Optional<FileWrapper> opt = context.getByPath(path).get();
             ;
@@ -498,19 +553,6 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         }
     }
 
-    private int readdir(PeergosStat stat, FuseFillDir fuseFillDir, Pointer pointer) {
-        try {
-            Set<FileWrapper> children = stat.treeNode.getChildren(context.crypto.hasher, context.network).get();
-            children.stream()
-                    .map(e -> e.getFileProperties().name)
-                    .forEach(e -> fuseFillDir.apply(pointer, e, null, 0));
-            return 0;
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, e.getMessage(), e);
-            return -ErrorCodes.ENOENT();
-        }
-    }
-
     protected Optional<byte[]> read(PeergosStat stat, long requestedSize, long offset) {
         long actualSize = stat.properties.size;
 
@@ -27,10 +27,10 @@ public class NonWriteThroughMutablePointers implements MutablePointers {
                 Optional<byte[]> existing = source.getPointer(owner, writer).get();
                 existing.map(val -> modifications.put(writer, val));
             }
-            Optional<PublicSigningKey> opt = storage.getSigningKey(writer).get();
+            Optional<PublicSigningKey> opt = VerifiedPointerCache.getSigningKey(writer, storage).get();
             if (! opt.isPresent())
                 throw new IllegalStateException("Couldn't retrieve signing key!");
-            boolean validUpdate = MutablePointers.isValidUpdate(opt.get(), Optional.ofNullable(modifications.get(writer)), writerSignedBtreeRootHash);
+            boolean validUpdate = MutablePointers.isValidUpdate(writer, opt.get(), Optional.ofNullable(modifications.get(writer)), writerSignedBtreeRootHash);
             if (! validUpdate)
                 return CompletableFuture.completedFuture(false);
             modifications.put(writer, writerSignedBtreeRootHash);
@@ -2,6 +2,7 @@ package peergos.server.net;
 import java.util.logging.*;
 
 import peergos.server.AggregatedMetrics;
+import peergos.server.storage.*;
 import peergos.server.util.*;
 
 import peergos.shared.cbor.*;
@@ -18,6 +19,7 @@ import peergos.shared.util.*;
 import static peergos.shared.storage.ContentAddressedStorage.HTTP.*;
 
 import java.io.*;
+import java.nio.channels.*;
 import java.util.*;
 import java.util.function.*;
 import java.util.stream.*;
@@ -27,17 +29,20 @@ public class DHTHandler implements HttpHandler {
 
     private static final boolean LOGGING = true;
     private final ContentAddressedStorage dht;
+    private final Optional<DirectBlockSource> directBlocks;
     private final Hasher hasher;
     private final BiFunction<PublicKeyHash, Integer, Boolean> keyFilter;
     private final String apiPrefix;
     private final boolean isPublicServer;
 
     public DHTHandler(ContentAddressedStorage dht,
+                      Optional<DirectBlockSource> directBlocks,
                       Hasher hasher,
                       BiFunction<PublicKeyHash, Integer, Boolean> keyFilter,
                       String apiPrefix,
                       boolean isPublicServer) {
         this.dht = dht;
+        this.directBlocks = directBlocks;
         this.hasher = hasher;
         this.keyFilter = keyFilter;
         this.apiPrefix = apiPrefix;
@@ -48,7 +53,15 @@ public class DHTHandler implements HttpHandler {
                       Hasher hasher,
                       BiFunction<PublicKeyHash, Integer, Boolean> keyFilter,
                       boolean isPublicServer) {
-        this(dht, hasher, keyFilter, "/api/v0/", isPublicServer);
+        this(dht, Optional.empty(), hasher, keyFilter, "/api/v0/", isPublicServer);
+    }
+
+    public DHTHandler(ContentAddressedStorage dht,
+                      Optional<DirectBlockSource> directBlocks,
+                      Hasher hasher,
+                      BiFunction<PublicKeyHash, Integer, Boolean> keyFilter,
+                      boolean isPublicServer) {
+        this(dht, directBlocks, hasher, keyFilter, "/api/v0/", isPublicServer);
     }
 
     @Override
@@ -131,6 +144,20 @@ public class DHTHandler implements HttpHandler {
                     }).exceptionally(Futures::logAndThrow).get();
                     break;
                 }
+                case CHAMP_GET_MULTI: {
+                    AggregatedMetrics.DHT_CHAMP_GET_MULTI.inc();
+                    PublicKeyHash ownerHash = PublicKeyHash.fromString(last.apply("owner"));
+                    Cid root = Cid.decode(args.get(0));
+                    byte[] reqBody = Serialize.readFully(httpExchange.getRequestBody());
+                    ChampLookupsRequest req = ChampLookupsRequest.fromCbor(CborObject.fromByteArray(reqBody));
+                    if (req.champKeys.size() > ContentAddressedStorage.MAX_CHAMP_LOOKUPS)
+                        throw new IllegalStateException("Too many champ keys in lookup: " + req.champKeys.size());
+                    dht.getChampLookups(ownerHash, root, req.champKeys, req.bats).thenAccept(blocks -> {
+                        replyBytes(httpExchange, new CborObject.CborList(blocks.stream()
+                                .map(CborObject.CborByteArray::new).collect(Collectors.toList())).serialize(), Optional.empty());
+                    }).exceptionally(Futures::logAndThrow).get();
+                    break;
+                }
                 case BLOCK_PUT: {
                     AggregatedMetrics.DHT_BLOCK_PUT.inc();
                     PublicKeyHash ownerHash = PublicKeyHash.fromString(last.apply("owner"));
@@ -206,6 +233,16 @@ public class DHTHandler implements HttpHandler {
                     Optional<BatWithId> bat = params.containsKey("bat") ?
                             Optional.of(BatWithId.decode(last.apply("bat"))) :
                             Optional.empty();
+                    if (hash.codec == Cid.Codec.Raw && directBlocks.isPresent()) {
+                        // stream large raw blocks straight from disk rather than reading them onto the heap
+                        Optional<DirectBlockSource.BlockRegion> local = directBlocks.get().openRaw(hash, bat);
+                        if (local.isPresent()) {
+                            try (DirectBlockSource.BlockRegion block = local.get()) {
+                                replyRegion(httpExchange, block, hash);
+                            }
+                            break;
+                        }
+                    }
                     (hash.codec == Cid.Codec.Raw ?
                             dht.getRaw(hash, bat) :
                             dht.get(hash, bat).thenApply(opt -> opt.map(CborObject::toByteArray)))
@@ -282,6 +319,21 @@ public class DHTHandler implements HttpHandler {
         }
     }
 
+    private static void replyRegion(HttpExchange exchange, DirectBlockSource.BlockRegion block, Multihash key) {
+        try {
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31622400 immutable");
+            exchange.getResponseHeaders().set("ETag", "\"" + key.toString() + "\"");
+            exchange.sendResponseHeaders(200, block.size);
+            OutputStream out = exchange.getResponseBody();
+            block.transferTo(Channels.newChannel(out));
+            out.flush();
+            out.close();
+        } catch (IOException e)
+        {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
     private static void replyBytes(HttpExchange exchange, byte[] body, Optional<Multihash> key) {
         try {
             if (key.isPresent()) {
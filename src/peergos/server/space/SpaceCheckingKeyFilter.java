@@ -124,13 +124,16 @@ public class SpaceCheckingKeyFilter implements SpaceUsage {
         Logging.LOG().info("Checking for updated mutable pointers...");
         long t1 = System.currentTimeMillis();
         Set<PublicKeyHash> writers = store.getAllWriters();
+        Map<PublicKeyHash, MaybeMultihash> targets = getPointerTargets(writers, mutable, dht);
         for (PublicKeyHash writerKey : writers) {
             WriterUsage writerUsage = store.getUsage(writerKey);
             Logging.LOG().info("Checking for updates from user: " + writerUsage.owner + ", writer key: " + writerKey);
 
             try {
                 PublicKeyHash owner = writerKey; //NB: owner is a dummy value
-                MaybeMultihash rootHash = mutable.getPointerTarget(owner, writerKey, dht).join();
+                MaybeMultihash rootHash = targets.containsKey(writerKey) ?
+                        targets.get(writerKey) :
+                        mutable.getPointerTarget(owner, writerKey, dht).join();
                 boolean isChanged = ! writerUsage.target().equals(rootHash);
                 if (isChanged) {
                     Logging.LOG().info("Root hash changed from " + writerUsage.target() + " to " + rootHash);
@@ -207,13 +210,44 @@ public class SpaceCheckingKeyFilter implements SpaceUsage {
         }
     }
 
+    /** Read the current pointers and verify them together, which is much faster than one at a time. Any writer
+     *  which couldn't be retrieved or verified is omitted.
+     */
+    private static Map<PublicKeyHash, MaybeMultihash> getPointerTargets(Collection<PublicKeyHash> writers,
+                                                                        MutablePointers mutable,
+                                                                        ContentAddressedStorage dht) {
+        Map<PublicKeyHash, MaybeMultihash> res = new HashMap<>();
+        List<PublicKeyHash> present = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (PublicKeyHash writer : writers) {
+            try {
+                Optional<byte[]> value = mutable.getPointer(writer, writer).join(); //NB: owner is a dummy value
+                if (value.isPresent()) {
+                    present.add(writer);
+                    values.add(value.get());
+                } else
+                    res.put(writer, MaybeMultihash.empty());
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+        try {
+            List<Optional<HashCasPair>> cas = VerifiedPointerCache.unsignAll(present, values, dht).join();
+            for (int i=0; i < present.size(); i++) {
+                PublicKeyHash writer = present.get(i);
+                cas.get(i).ifPresent(pair -> res.put(writer, pair.updated));
+            }
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+        }
+        return res;
+    }
+
     private static void prepareMutablePointerChange(MutableEvent event,
                                                     ContentAddressedStorage dht,
                                                     UsageStore usageStore,
                                                     Hasher hasher) {
-        HashCasPair hashCasPair = dht.getSigningKey(event.writer)
-                .thenApply(signer -> HashCasPair.fromCbor(CborObject.fromByteArray(signer.get()
-                        .unsignMessage(event.writerSignedBtreeRootHash)))).join();
+        HashCasPair hashCasPair = VerifiedPointerCache.unsign(event.writer, event.writerSignedBtreeRootHash, dht).join();
         Set<PublicKeyHash> updatedOwned =
                 WriterData.getDirectOwnedKeys(event.writer, hashCasPair.updated, dht, hasher).join();
         WriterUsage current = usageStore.getUsage(event.writer);
@@ -224,9 +258,7 @@ public class SpaceCheckingKeyFilter implements SpaceUsage {
 
     private void processMutablePointerEvent(MutableEvent event) {
         try {
-            HashCasPair hashCasPair = dht.getSigningKey(event.writer)
-                    .thenApply(signer -> HashCasPair.fromCbor(CborObject.fromByteArray(signer.get()
-                            .unsignMessage(event.writerSignedBtreeRootHash)))).join();
+            HashCasPair hashCasPair = VerifiedPointerCache.unsign(event.writer, event.writerSignedBtreeRootHash, dht).join();
             processMutablePointerEvent(usageStore, event.owner, event.writer, hashCasPair.original, hashCasPair.updated,
                     mutable, dht, hasher);
         } catch (Exception e) {
@@ -59,6 +59,18 @@ public interface SqlSupplier {
                 ");";
     }
 
+    default String createPackIndexTableCommand() {
+        return "CREATE TABLE IF NOT EXISTS packblocks (" +
+                "hash " + getByteArrayType() + " PRIMARY KEY NOT NULL," +
+                "shard INTEGER NOT NULL," +
+                "segment INTEGER NOT NULL," +
+                "pos BIGINT NOT NULL," +
+                "size INTEGER NOT NULL," +
+                "written BIGINT NOT NULL" +
+                ");" +
+                "CREATE INDEX IF NOT EXISTS packblocks_segment ON packblocks (shard, segment);";
+    }
+
     String insertOrIgnoreCommand(String prefix, String suffix);
 
     default String createUsageTablesCommand() {
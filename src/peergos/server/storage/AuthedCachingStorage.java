@@ -14,10 +14,10 @@ import java.util.concurrent.*;
 
 public class AuthedCachingStorage extends DelegatingStorage {
     private final ContentAddressedStorage target;
-    private final LRUCache<Multihash, byte[]> cache;
-    private final LRUCache<Multihash, Boolean> legacyBlocks;
-    private final LRUCache<Multihash, CompletableFuture<Optional<CborObject>>> pending;
-    private final LRUCache<Multihash, CompletableFuture<Optional<byte[]>>> pendingRaw;
+    private final WeightedCache<Multihash, byte[]> cache;
+    private final WeightedCache<Multihash, Boolean> legacyBlocks;
+    private final Map<Multihash, CompletableFuture<Optional<CborObject>>> pending;
+    private final Map<Multihash, CompletableFuture<Optional<byte[]>>> pendingRaw;
     private final BlockRequestAuthoriser authoriser;
     private final Hasher h;
     private final Cid ourNodeId;
@@ -33,12 +33,12 @@ public class AuthedCachingStorage extends DelegatingStorage {
         this.ourNodeId = target.id().join();
         this.authoriser = authoriser;
         this.h = h;
-        this.cache = new LRUCache<>(cacheSize);
-        this.legacyBlocks = new LRUCache<>(cacheSize);
+        this.cache = WeightedCache.bytes((long) cacheSize * maxValueSize);
+        this.legacyBlocks = new WeightedCache<>(cacheSize, b -> 1);
         this.maxValueSize = maxValueSize;
         this.cacheSize = cacheSize;
-        this.pending = new LRUCache<>(100);
-        this.pendingRaw = new LRUCache<>(100);
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingRaw = new ConcurrentHashMap<>();
     }
 
     public Collection<byte[]> getCached() {
@@ -89,22 +89,22 @@ public class AuthedCachingStorage extends DelegatingStorage {
 
     @Override
     public CompletableFuture<Optional<CborObject>> get(Cid key, Optional<BatWithId> bat) {
-        if (cache.containsKey(key))
-            return authoriseGet(key, cache.get(key), bat)
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return authoriseGet(key, cached, bat)
                     .thenApply(res -> Optional.of(CborObject.fromByteArray(res)));
 
-        if (pending.containsKey(key))
-            return pending.get(key)
+        CompletableFuture<Optional<CborObject>> pipe = new CompletableFuture<>();
+        CompletableFuture<Optional<CborObject>> inProgress = pending.putIfAbsent(key, pipe);
+        if (inProgress != null)
+            return inProgress
                     .thenCompose(copt -> copt.isEmpty() ?
                             Futures.of(Optional.empty()) :
                             authoriseGet(key, copt.get().serialize(), bat)
                                     .thenApply(b -> copt));
 
-        CompletableFuture<Optional<CborObject>> pipe = new CompletableFuture<>();
-        pending.put(key, pipe);
-
         CompletableFuture<Optional<CborObject>> result = new CompletableFuture<>();
-        target.get(key, bat).thenAccept(cborOpt -> {
+        Futures.safe(() -> target.get(key, bat)).thenAccept(cborOpt -> {
             if (cborOpt.isPresent()) {
                 byte[] value = cborOpt.get().toByteArray();
                 if (value.length > 0 && value.length < maxValueSize)
@@ -142,20 +142,20 @@ public class AuthedCachingStorage extends DelegatingStorage {
 
     @Override
     public CompletableFuture<Optional<byte[]>> getRaw(Cid key, Optional<BatWithId> bat) {
-        if (cache.containsKey(key))
-            return authoriseGet(key, cache.get(key), bat)
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return authoriseGet(key, cached, bat)
                     .thenApply(res -> Optional.of(res));
 
-        if (pendingRaw.containsKey(key))
-            return pendingRaw.get(key)
+        CompletableFuture<Optional<byte[]>> pipe = new CompletableFuture<>();
+        CompletableFuture<Optional<byte[]>> inProgress = pendingRaw.putIfAbsent(key, pipe);
+        if (inProgress != null)
+            return inProgress
                     .thenCompose(opt -> opt.isEmpty() ?
                             Futures.of(Optional.empty()) :
                             authoriseGet(key, opt.get(), bat)
                                     .thenApply(b -> opt));
-
-        CompletableFuture<Optional<byte[]>> pipe = new CompletableFuture<>();
-        pendingRaw.put(key, pipe);
-        return target.getRaw(key, bat).thenApply(rawOpt -> {
+        return Futures.safe(() -> target.getRaw(key, bat)).thenApply(rawOpt -> {
             if (rawOpt.isPresent()) {
                 byte[] value = rawOpt.get();
                 if (value.length > 0 && value.length < maxValueSize) {
@@ -168,7 +168,7 @@ public class AuthedCachingStorage extends DelegatingStorage {
             pipe.complete(rawOpt);
             return rawOpt;
         }).exceptionally(t -> {
-            pending.remove(key);
+            pendingRaw.remove(key);
             pipe.completeExceptionally(t);
             return Optional.empty();
         });
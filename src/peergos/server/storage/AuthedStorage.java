@@ -11,6 +11,7 @@ import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 public class AuthedStorage extends DelegatingStorage implements DeletableContentAddressedStorage {
@@ -89,11 +90,31 @@ public class AuthedStorage extends DelegatingStorage implements DeletableContent
         return getChampLookup(root, champKey, bat, h);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        if (! hasBlock(root))
+            return Futures.errored(new IllegalStateException("Champ root not present locally: " + root));
+        return getChampLookups(root, champKeys, bats, h);
+    }
+
     @Override
     public Stream<Cid> getAllBlockHashes() {
         return target.getAllBlockHashes();
     }
 
+    @Override
+    public void applyToAllBlocks(Consumer<BlockVersion> processor) {
+        target.applyToAllBlocks(processor);
+    }
+
+    @Override
+    public boolean hasBlockWriteTimes() {
+        return target.hasBlockWriteTimes();
+    }
+
     @Override
     public List<Multihash> getOpenTransactionBlocks() {
         return target.getOpenTransactionBlocks();
@@ -95,6 +95,15 @@ public class DelayingStorage implements ContentAddressedStorage {
         return source.getChampLookup(owner, root, champKey, bat);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        sleep(readDelay);
+        return source.getChampLookups(owner, root, champKeys, bats);
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         try {
@@ -23,6 +23,23 @@ public interface DeletableContentAddressedStorage extends ContentAddressedStorag
 
     Stream<Cid> getAllBlockHashes();
 
+    /** Apply a function to every locally stored block as it is listed, without materialising the whole listing.
+     *  Implementations that don't record when blocks were written supply Long.MAX_VALUE as the write time.
+     *
+     * @param processor
+     */
+    default void applyToAllBlocks(Consumer<BlockVersion> processor) {
+        getAllBlockHashes().forEach(c -> processor.accept(new BlockVersion(c, 0, Long.MAX_VALUE)));
+    }
+
+    /**
+     *
+     * @return Whether applyToAllBlocks reports the real time each block was written
+     */
+    default boolean hasBlockWriteTimes() {
+        return false;
+    }
+
     List<Multihash> getOpenTransactionBlocks();
 
     boolean hasBlock(Cid hash);
@@ -182,6 +199,18 @@ public interface DeletableContentAddressedStorage extends ContentAddressedStorag
                 }));
     }
 
+    class BlockVersion {
+        public final Cid cid;
+        public final long size;
+        public final long writeTimeMillis;
+
+        public BlockVersion(Cid cid, long size, long writeTimeMillis) {
+            this.cid = cid;
+            this.size = size;
+            this.writeTimeMillis = writeTimeMillis;
+        }
+    }
+
     class HTTP extends ContentAddressedStorage.HTTP implements DeletableContentAddressedStorage {
 
         private final HttpPoster poster;
@@ -0,0 +1,88 @@
+package peergos.server.storage;
+
+import peergos.server.storage.auth.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.storage.auth.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/** A block store which can stream raw blocks from disk without reading them onto the heap.
+ *
+ *  Authorisation of a raw block only depends on the bat prefix at the start of the block, so only that is read
+ *  before the block is released to the caller.
+ */
+public interface DirectBlockSource {
+    int AUTH_PREFIX_SIZE = 4096;
+
+    /**
+     *
+     * @param hash
+     * @param bat
+     * @return An open region of a local file containing the raw block, or Optional.empty() if it is not stored locally
+     * @throws IOException
+     */
+    Optional<BlockRegion> openRaw(Cid hash, Optional<BatWithId> bat) throws IOException;
+
+    class BlockRegion implements Closeable {
+        public final FileChannel channel;
+        public final long offset, size;
+
+        public BlockRegion(FileChannel channel, long offset, long size) {
+            this.channel = channel;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public byte[] readPrefix(int maxLength) throws IOException {
+            ByteBuffer prefix = ByteBuffer.allocate((int) Math.min(size, maxLength));
+            while (prefix.hasRemaining()) {
+                if (channel.read(prefix, offset + prefix.position()) < 0)
+                    throw new EOFException("Block truncated");
+            }
+            return prefix.array();
+        }
+
+        public void transferTo(WritableByteChannel target) throws IOException {
+            long done = 0;
+            while (done < size) {
+                long transferred = channel.transferTo(offset + done, size - done, target);
+                if (transferred <= 0)
+                    throw new EOFException("Block truncated");
+                done += transferred;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /** Check a raw block read is authorised using only its prefix, closing the region if not.
+     *
+     */
+    static BlockRegion authorise(BlockRegion block,
+                                 Cid hash,
+                                 Optional<BatWithId> bat,
+                                 BlockRequestAuthoriser authoriser,
+                                 Cid ourId,
+                                 Hasher h) throws IOException {
+        if (! hash.isRaw())
+            throw new IllegalStateException("Only raw blocks can be authorised from a prefix!");
+        try {
+            String auth = bat.isEmpty() ? "" : bat.get().bat.generateAuth(hash, ourId, 300, S3Request.currentDatetime(), bat.get().id, h)
+                    .thenApply(BlockAuth::encode)
+                    .join();
+            if (! authoriser.allowRead(hash, block.readPrefix(AUTH_PREFIX_SIZE), ourId, auth).join())
+                throw new IllegalStateException("Unauthorised!");
+            return block;
+        } catch (Throwable t) {
+            block.close();
+            throw t;
+        }
+    }
+}
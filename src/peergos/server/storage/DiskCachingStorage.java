@@ -0,0 +1,252 @@
+package peergos.server.storage;
+
+import peergos.server.storage.auth.*;
+import peergos.server.util.Logging;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+/** A second level block cache on local disk, bounded by bytes, which survives restarts.
+ *
+ *  Blocks are content addressed so cached copies never need invalidating. The cache is filled lazily from reads
+ *  which miss it, and the least recently read blocks are evicted when it is full. Blocks are hash checked before they
+ *  are written and whenever they are read, so a truncated or corrupted cache file is dropped and refetched. Reads
+ *  served from the cache are authorised against the block's bats in the same way as in AuthedCachingStorage.
+ */
+public class DiskCachingStorage extends DelegatingStorage {
+    private static final Logger LOG = Logging.LOG();
+    private static final double EVICT_TO_FRACTION = 0.9;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final ContentAddressedStorage target;
+    private final Path root;
+    private final long maxBytes;
+    private final BlockRequestAuthoriser authoriser;
+    private final Hasher h;
+    private final Cid ourNodeId;
+    // block sizes in access order, least recently read first, guarded by its own monitor
+    private final LinkedHashMap<Cid, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong totalBytes = new AtomicLong(0);
+    // Cache writes are dropped rather than queued without limit if the disk can't keep up. Writes and evictions
+    // both run on this single thread.
+    private final ExecutorService writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1_000), r -> {
+                Thread t = new Thread(r, "Disk block cache writer");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    private final AtomicLong hits = new AtomicLong(0), misses = new AtomicLong(0);
+
+    public DiskCachingStorage(ContentAddressedStorage target,
+                              Path root,
+                              long maxBytes,
+                              BlockRequestAuthoriser authoriser,
+                              Hasher h) {
+        super(target);
+        this.target = target;
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.authoriser = authoriser;
+        this.h = h;
+        this.ourNodeId = target.id().join();
+        try {
+            Files.createDirectories(root);
+            loadIndex();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        LOG.info("Disk block cache at " + root + " using " + totalBytes.get() + " of " + maxBytes + " bytes");
+    }
+
+    private void loadIndex() throws IOException {
+        List<Pair<Cid, File>> existing = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(p -> {
+                String name = p.getFileName().toString();
+                try {
+                    if (name.endsWith(TMP_SUFFIX)) { // an interrupted write
+                        Files.delete(p);
+                        return;
+                    }
+                    existing.add(new Pair<>(Cid.decode(name), p.toFile()));
+                } catch (Exception e) {
+                    LOG.info("Ignoring file " + p + " in block cache");
+                }
+            });
+        }
+        // oldest first, so the access order starts from when blocks were cached
+        existing.sort(Comparator.comparingLong(p -> p.right.lastModified()));
+        synchronized (index) {
+            for (Pair<Cid, File> block : existing) {
+                long size = block.right.length();
+                index.put(block.left, size);
+                totalBytes.addAndGet(size);
+            }
+        }
+    }
+
+    private Path getFilePath(Cid c) {
+        byte[] hash = c.getHash();
+        return root.resolve(ArrayOps.bytesToHex(Arrays.copyOfRange(hash, hash.length - 1, hash.length)))
+                .resolve(c.toString());
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long sizeInBytes() {
+        return totalBytes.get();
+    }
+
+    public boolean isCached(Cid key) {
+        synchronized (index) {
+            return index.containsKey(key);
+        }
+    }
+
+    @Override
+    public ContentAddressedStorage directToOrigin() {
+        // Only one instance can own the cache directory
+        return target.directToOrigin();
+    }
+
+    private boolean isValid(Cid key, byte[] block) {
+        if (key.type != Multihash.Type.sha2_256)
+            return false;
+        return Arrays.equals(key.getHash(), h.hash(block, key.isRaw()).join().getHash());
+    }
+
+    private Optional<byte[]> getCached(Cid key) {
+        synchronized (index) {
+            // also marks the block as most recently read
+            if (index.get(key) == null)
+                return Optional.empty();
+        }
+        byte[] block;
+        try {
+            block = Files.readAllBytes(getFilePath(key));
+        } catch (IOException e) {
+            // evicted concurrently, or the file has gone
+            remove(key, false);
+            return Optional.empty();
+        }
+        if (! isValid(key, block)) {
+            LOG.warning("Removing corrupt block " + key + " from disk cache");
+            remove(key, true);
+            return Optional.empty();
+        }
+        return Optional.of(block);
+    }
+
+    private void remove(Cid key, boolean deleteFile) {
+        synchronized (index) {
+            Long size = index.remove(key);
+            if (size != null)
+                totalBytes.addAndGet(-size);
+            if (deleteFile)
+                getFilePath(key).toFile().delete();
+        }
+    }
+
+    private CompletableFuture<byte[]> authoriseGet(Cid key, byte[] block, Optional<BatWithId> bat) {
+        return bat.map(b -> b.bat.generateAuth(key, ourNodeId, 300, S3Request.currentDatetime(), bat.get().id, h)
+                .thenApply(BlockAuth::encode)).orElse(Futures.of(""))
+                .thenCompose(auth -> authoriser.allowRead(key, block, ourNodeId, auth))
+                .thenCompose(allow -> allow ? Futures.of(block) : Futures.errored(new Throwable("Unauthorised!")));
+    }
+
+    private void cache(Cid key, byte[] block) {
+        // don't let a single block take more than 1% of the cache
+        if (key.isIdentity() || block.length == 0 || block.length > maxBytes / 100 || isCached(key))
+            return;
+        writer.execute(() -> {
+            if (isCached(key))
+                return;
+            if (! isValid(key, block)) {
+                LOG.warning("Not caching block " + key + " which doesn't match its hash");
+                return;
+            }
+            Path file = getFilePath(key);
+            Path tmp = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+            try {
+                Files.createDirectories(file.getParent());
+                Files.write(tmp, block);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+                synchronized (index) {
+                    index.put(key, (long) block.length);
+                }
+                if (totalBytes.addAndGet(block.length) > maxBytes)
+                    evict();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Couldn't write block to disk cache: " + e.getMessage(), e);
+                tmp.toFile().delete();
+            }
+        });
+    }
+
+    /** Remove the least recently read blocks until we are below 90% of the maximum size
+     *
+     */
+    private void evict() {
+        long goal = (long) (maxBytes * EVICT_TO_FRACTION);
+        List<Cid> evicted = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Map.Entry<Cid, Long>> oldest = index.entrySet().iterator();
+            while (totalBytes.get() > goal && oldest.hasNext()) {
+                Map.Entry<Cid, Long> e = oldest.next();
+                oldest.remove();
+                totalBytes.addAndGet(-e.getValue());
+                evicted.add(e.getKey());
+            }
+        }
+        for (Cid c : evicted)
+            getFilePath(c).toFile().delete();
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Cid key, Optional<BatWithId> bat) {
+        Optional<byte[]> cached = getCached(key);
+        if (cached.isPresent()) {
+            hits.incrementAndGet();
+            return authoriseGet(key, cached.get(), bat)
+                    .thenApply(res -> Optional.of(CborObject.fromByteArray(res)));
+        }
+        misses.incrementAndGet();
+        return target.get(key, bat).thenApply(res -> {
+            res.ifPresent(cbor -> cache(key, cbor.toByteArray()));
+            return res;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Cid key, Optional<BatWithId> bat) {
+        Optional<byte[]> cached = getCached(key);
+        if (cached.isPresent()) {
+            hits.incrementAndGet();
+            return authoriseGet(key, cached.get(), bat)
+                    .thenApply(Optional::of);
+        }
+        misses.incrementAndGet();
+        return target.getRaw(key, bat).thenApply(res -> {
+            res.ifPresent(block -> cache(key, block));
+            return res;
+        });
+    }
+}
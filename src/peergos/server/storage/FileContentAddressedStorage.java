@@ -23,7 +23,7 @@ import java.util.stream.*;
 /** A local directory implementation of ContentAddressedStorage. Only used for testing.
  *
  */
-public class FileContentAddressedStorage implements DeletableContentAddressedStorage {
+public class FileContentAddressedStorage implements DeletableContentAddressedStorage, DirectBlockSource {
     private static final Logger LOG = Logging.LOG();
     private static final int CID_V1 = 1;
     private static final int DIRECTORY_DEPTH = 5;
@@ -75,6 +75,16 @@ public class FileContentAddressedStorage implements DeletableContentAddressedSto
         return getChampLookup(root, champKey, bat, hasher);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        if (! hasBlock(root))
+            return Futures.errored(new IllegalStateException("Champ root not present locally: " + root));
+        return getChampLookups(root, champKeys, bats, hasher);
+    }
+
     @Override
     public List<Multihash> getOpenTransactionBlocks() {
         return transactions.getOpenTransactionBlocks();
@@ -171,6 +181,18 @@ public class FileContentAddressedStorage implements DeletableContentAddressedSto
         }
     }
 
+    @Override
+    public Optional<BlockRegion> openRaw(Cid hash, Optional<BatWithId> bat) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(root.resolve(getFilePath(hash)), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        BlockRegion block = new BlockRegion(channel, 0, channel.size());
+        return Optional.of(DirectBlockSource.authorise(block, hash, bat, authoriser, id().join(), hasher));
+    }
+
     @Override
     public boolean hasBlock(Cid hash) {
         Path path = getFilePath(hash);
@@ -288,6 +310,22 @@ public class FileContentAddressedStorage implements DeletableContentAddressedSto
         getFilesRecursive(root, processor);
     }
 
+    @Override
+    public void applyToAllBlocks(Consumer<BlockVersion> processor) {
+        getFilesRecursive(root, c -> {
+            File file = root.resolve(getFilePath(c)).toFile();
+            long modified = file.lastModified();
+            if (modified == 0) // deleted since listing
+                return;
+            processor.accept(new BlockVersion(c, file.length(), modified));
+        });
+    }
+
+    @Override
+    public boolean hasBlockWriteTimes() {
+        return true;
+    }
+
     private void getFilesRecursive(Path path, Consumer<Cid> accumulator) {
         File pathFile = path.toFile();
         if (pathFile.isFile()) {
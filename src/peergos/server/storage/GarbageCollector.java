@@ -3,6 +3,7 @@ package peergos.server.storage;
 import peergos.server.corenode.*;
 import peergos.server.space.*;
 import peergos.server.storage.auth.*;
+import peergos.server.util.*;
 import peergos.shared.*;
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.asymmetric.*;
@@ -16,27 +17,53 @@ import peergos.shared.util.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.util.function.*;
 import java.util.logging.*;
 import java.util.stream.*;
 
 public class GarbageCollector {
     private static final Logger LOG = Logger.getGlobal();
+    // Blocks written within this period before a streaming GC starts are never deleted, to allow for clock skew
+    public static final long DEFAULT_WRITE_TIME_MARGIN_MILLIS = 10 * 60_000;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    public static final int DEFAULT_MARK_PARALLELISM = 10;
 
     private final DeletableContentAddressedStorage storage;
     private final JdbcIpnsAndSocial pointers;
     private final UsageStore usage;
+    private final boolean streaming;
+    private final long expectedReachableBlocks;
+    private final int markParallelism;
 
     public GarbageCollector(DeletableContentAddressedStorage storage,
                             JdbcIpnsAndSocial pointers,
-                            UsageStore usage) {
+                            UsageStore usage,
+                            boolean streaming,
+                            long expectedReachableBlocks,
+                            int markParallelism) {
+        if (streaming && ! storage.hasBlockWriteTimes())
+            throw new IllegalStateException("Streaming GC requires a block store which reports block write times!");
         this.storage = storage;
         this.pointers = pointers;
         this.usage = usage;
+        this.streaming = streaming;
+        this.expectedReachableBlocks = expectedReachableBlocks;
+        this.markParallelism = markParallelism;
+    }
+
+    public GarbageCollector(DeletableContentAddressedStorage storage,
+                            JdbcIpnsAndSocial pointers,
+                            UsageStore usage) {
+        this(storage, pointers, usage, false, 0, DEFAULT_MARK_PARALLELISM);
     }
 
     public synchronized void collect(Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver) {
-        collect(storage, pointers, usage, snapshotSaver);
+        if (streaming)
+            collectStreaming(storage, pointers, usage, snapshotSaver, expectedReachableBlocks,
+                    DEFAULT_WRITE_TIME_MARGIN_MILLIS, markParallelism);
+        else
+            collect(storage, pointers, usage, snapshotSaver, markParallelism);
     }
 
     public void start(long periodMillis, Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver) {
@@ -58,12 +85,14 @@ public class GarbageCollector {
      * @param storage
      * @param pointers
      * @param snapshotSaver
+     * @param markParallelism the number of blocks to retrieve concurrently when marking
      * @return
      */
     public static void collect(DeletableContentAddressedStorage storage,
                                JdbcIpnsAndSocial pointers,
                                UsageStore usage,
-                               Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver) {
+                               Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver,
+                               int markParallelism) {
         System.out.println("Starting blockstore garbage collection on node " + storage.id().join() + "...");
         // TODO: do this more efficiently with a bloom filter, and actual streaming and multithreading
         long t0 = System.nanoTime();
@@ -89,16 +118,17 @@ public class GarbageCollector {
             toIndex.put(present.get(i), i);
         BitSet reachable = new BitSet(present.size());
 
-        int markParallelism = 10;
-        ForkJoinPool markPool = new ForkJoinPool(markParallelism);
-        List<ForkJoinTask<Boolean>> usageMarked = usageRoots.stream()
-                .map(r -> markPool.submit(() -> markReachable(storage, (Cid)r, toIndex, reachable)))
-                .collect(Collectors.toList());
-        usageMarked.forEach(f -> f.join());
-        List<ForkJoinTask<Boolean>> marked = allPointers.entrySet().stream()
-                .map(e -> markPool.submit(() -> markReachable(e.getKey(), e.getValue(), reachable, toIndex, storage)))
-                .collect(Collectors.toList());
-        marked.forEach(f -> f.join());
+        Set<Cid> visited = ConcurrentHashMap.newKeySet();
+        Predicate<Cid> marker = c -> {
+            int index = toIndex.getOrDefault(c, -1);
+            if (index >= 0) {
+                synchronized (reachable) {
+                    reachable.set(index);
+                }
+            }
+            return ! c.isRaw() && visited.add(c);
+        };
+        markAll(storage, usageRoots, allPointers, marker, markParallelism);
 
         for (Multihash additional : pending) {
             int index = toIndex.getOrDefault(additional, -1);
@@ -129,18 +159,181 @@ public class GarbageCollector {
         System.out.println("GC complete. Freed " + deletedBlocks + " blocks totalling " + deletedSize + " bytes in " + (t5-t0)/1_000_000_000 + "s");
     }
 
-    private static boolean markReachable(PublicKeyHash writerHash,
-                                         byte[] signedRawCas,
-                                         BitSet reachable,
-                                         Map<Multihash, Integer> toIndex,
-                                         DeletableContentAddressedStorage storage) {
-        PublicSigningKey writer = getWithBackoff(() -> storage.getSigningKey(writerHash).join().get());
-        byte[] bothHashes = writer.unsignMessage(signedRawCas);
-        HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(bothHashes));
+    /** A variant of collect that uses memory bounded by the number of reachable blocks, rather than the total number
+     *  of blocks in the store. Reachable blocks are first marked in a bloom filter, then the block listing is streamed
+     *  and unmarked blocks are deleted in batches concurrently with the listing. False positives in the bloom filter
+     *  only result in some garbage surviving until a later collection.
+     *
+     *  Blocks written after this collection started are never deleted, so this mode requires a store that reports
+     *  block write times.
+     *
+     * @param storage
+     * @param pointers
+     * @param usage
+     * @param snapshotSaver
+     * @param expectedReachableBlocks used to size the bloom filter
+     * @param writeTimeMarginMillis blocks written this long before the collection started are also retained
+     * @param markParallelism the number of blocks to retrieve concurrently when marking
+     */
+    public static void collectStreaming(DeletableContentAddressedStorage storage,
+                                        JdbcIpnsAndSocial pointers,
+                                        UsageStore usage,
+                                        Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver,
+                                        long expectedReachableBlocks,
+                                        long writeTimeMarginMillis,
+                                        int markParallelism) {
+        // otherwise every block looks too new to delete, and nothing is ever collected
+        if (! storage.hasBlockWriteTimes())
+            throw new IllegalStateException("Streaming GC requires a block store which reports block write times!");
+        System.out.println("Starting streaming blockstore garbage collection on node " + storage.id().join() + "...");
+        long t0 = System.nanoTime();
+        // Only blocks written before this time are candidates for deletion
+        long writeTimeCutoff = System.currentTimeMillis() - writeTimeMarginMillis;
+
+        List<Multihash> pending = storage.getOpenTransactionBlocks();
+        long t1 = System.nanoTime();
+        System.out.println("Listing " + pending.size() + " pending blocks took " + (t1-t0)/1_000_000_000 + "s");
+
+        // This pointers call must happen AFTER the pending listing and write time cutoff for correctness
+        Map<PublicKeyHash, byte[]> allPointers = pointers.getAllEntries();
+        long t2 = System.nanoTime();
+        System.out.println("Listing " + allPointers.size() + " pointers took " + (t2-t1)/1_000_000_000 + "s");
+
+        // Get the current roots from the usage store which shouldn't be GC'd until usage has been updated
+        List<Multihash> usageRoots = usage.getAllTargets();
+
+        BloomFilter reachable = BloomFilter.create(expectedReachableBlocks, BLOOM_FALSE_POSITIVE_RATE);
+        markAll(storage, usageRoots, allPointers, bloomMarker(reachable), markParallelism);
+        for (Multihash additional : pending)
+            reachable.add(additional.getHash());
+        long t3 = System.nanoTime();
+        System.out.println("Marking reachable took " + (t3-t2)/1_000_000_000 + "s, using a " +
+                reachable.sizeInBytes() / 1024 / 1024 + " MiB bloom filter with expected false positive rate " +
+                String.format("%.4f", reachable.expectedFalsePositiveRate()));
+
+        // Save pointers snapshot
+        snapshotSaver.apply(allPointers.entrySet().stream()).join();
+
+        Pair<Long, Long> deleted = sweep(storage, c -> reachable.mightContain(c.getHash()), writeTimeCutoff);
+
+        long t4 = System.nanoTime();
+        System.out.println("Listing and deleting blocks took " + (t4-t3)/1_000_000_000 + "s");
+        System.out.println("GC complete. Freed " + deleted.left + " blocks totalling " + deleted.right + " bytes in " + (t4-t0)/1_000_000_000 + "s");
+    }
+
+    /** Stream the block listing and delete every block written before the cutoff that isn't retained, in batches
+     *  concurrently with the listing.
+     *
+     * @return the number of blocks and bytes deleted
+     */
+    static Pair<Long, Long> sweep(DeletableContentAddressedStorage storage,
+                                  Predicate<Cid> retain,
+                                  long writeTimeCutoff) {
+        int deleteParallelism = 4;
+        int maxDeleteCount = 1000;
+        ForkJoinPool pool = new ForkJoinPool(deleteParallelism);
+        // bound the number of batches queued for deletion, so memory use doesn't depend on the store size
+        Semaphore inFlight = new Semaphore(deleteParallelism * 2);
+        AtomicLong listedBlocks = new AtomicLong(0), deletedBlocks = new AtomicLong(0), deletedSize = new AtomicLong(0);
+        List<ForkJoinTask<?>> deletes = new ArrayList<>();
+        List<DeletableContentAddressedStorage.BlockVersion> pendingDeletes = new ArrayList<>();
+        Consumer<List<DeletableContentAddressedStorage.BlockVersion>> deleteBatch = batch -> {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            deletes.add(pool.submit(() -> {
+                try {
+                    List<Multihash> hashes = batch.stream().map(v -> v.cid).collect(Collectors.toList());
+                    getWithBackoff(() -> {storage.bulkDelete(hashes); return true;});
+                    deletedBlocks.addAndGet(batch.size());
+                    deletedSize.addAndGet(batch.stream().mapToLong(v -> v.size).sum());
+                } finally {
+                    inFlight.release();
+                }
+            }));
+            // join completed batches so a failed delete aborts the sweep, rather than being silently dropped
+            deletes.removeIf(task -> {
+                if (! task.isDone())
+                    return false;
+                task.join();
+                return true;
+            });
+        };
+        try {
+            storage.applyToAllBlocks(block -> {
+                long listed = listedBlocks.incrementAndGet();
+                if (listed % 1_000_000 == 0)
+                    System.out.println("Listed " + listed + " blocks, deleted " + deletedBlocks.get() + " so far");
+                if (block.writeTimeMillis >= writeTimeCutoff || retain.test(block.cid))
+                    return;
+                pendingDeletes.add(block);
+                if (pendingDeletes.size() >= maxDeleteCount) {
+                    deleteBatch.accept(new ArrayList<>(pendingDeletes));
+                    pendingDeletes.clear();
+                }
+            });
+            if (! pendingDeletes.isEmpty())
+                deleteBatch.accept(new ArrayList<>(pendingDeletes));
+            deletes.forEach(ForkJoinTask::join);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("Swept " + listedBlocks.get() + " blocks");
+        return new Pair<>(deletedBlocks.get(), deletedSize.get());
+    }
+
+    /**
+     *
+     * @param marker Marks a block as reachable, returning whether its links still need to be marked
+     */
+    static void markAll(DeletableContentAddressedStorage storage,
+                                List<Multihash> usageRoots,
+                                Map<PublicKeyHash, byte[]> allPointers,
+                                Predicate<Cid> marker,
+                                int parallelism) {
+        ForkJoinPool markPool = new ForkJoinPool(parallelism);
+        try {
+            List<Cid> pointerTargets = markPool.submit(() -> getPointerTargets(allPointers, storage).values().stream()
+                    .flatMap(Optional::stream)
+                    .collect(Collectors.toList())).join();
+            List<Cid> roots = Stream.concat(usageRoots.stream().map(r -> (Cid) r), pointerTargets.stream())
+                    .collect(Collectors.toList());
+            markReachable(storage, roots, marker, markPool);
+        } finally {
+            markPool.shutdown();
+        }
+    }
+
+    /** Batch verify all the pointers, which is much faster than verifying them one at a time
+     *
+     * @return The target of each pointer
+     */
+    static Map<PublicKeyHash, Optional<Cid>> getPointerTargets(Map<PublicKeyHash, byte[]> pointers,
+                                                               DeletableContentAddressedStorage storage) {
+        List<PublicKeyHash> writers = new ArrayList<>(pointers.keySet());
+        List<PublicSigningKey> writerKeys = writers.parallelStream()
+                .map(writerHash -> getWithBackoff(() -> VerifiedPointerCache.getSigningKey(writerHash, storage).join().get()))
+                .collect(Collectors.toList());
+        List<Optional<HashCasPair>> cas = VerifiedPointerCache.unsignAll(writers, writerKeys,
+                writers.stream().map(pointers::get).collect(Collectors.toList()));
+        Map<PublicKeyHash, Optional<Cid>> res = new HashMap<>();
+        for (int i=0; i < writers.size(); i++) {
+            PublicKeyHash writer = writers.get(i);
+            HashCasPair pair = cas.get(i).orElseThrow(() -> new IllegalStateException("Invalid pointer signature from " + writer));
+            res.put(writer, pair.updated.toOptional().map(c -> (Cid) c));
+        }
+        return res;
+    }
+
+    static Optional<Cid> getPointerTarget(PublicKeyHash writerHash,
+                                                  byte[] signedRawCas,
+                                                  DeletableContentAddressedStorage storage) {
+        PublicSigningKey writer = getWithBackoff(() -> VerifiedPointerCache.getSigningKey(writerHash, storage).join().get());
+        HashCasPair cas = VerifiedPointerCache.unsign(writerHash, writer, signedRawCas);
         MaybeMultihash updated = cas.updated;
-        if (updated.isPresent())
-            markReachable(storage, (Cid) updated.get(), toIndex, reachable);
-        return true;
+        return updated.isPresent() ? Optional.of((Cid) updated.get()) : Optional.empty();
     }
 
     private static Pair<Long, Long> deleteUnreachableBlocks(int startIndex,
@@ -194,34 +387,83 @@ public class GarbageCollector {
         return new Pair<>(deletedBlocks, deletedSize);
     }
 
-    private static boolean markReachable(DeletableContentAddressedStorage storage,
-                                         Cid root,
-                                         Map<Multihash, Integer> toIndex,
-                                         BitSet reachable) {
-        int index = toIndex.getOrDefault(root, -1);
-        if (index >= 0) {
-            synchronized (reachable) {
-                reachable.set(index);
+    /** A marker which uses the bloom filter itself to avoid retrieving blocks more than once, so memory use stays
+     *  bounded by the filter size.
+     *
+     *  A block whose hash was already in the filter is either a duplicate or a false positive. Skipping a false
+     *  positive would leave its subtree unmarked, so the first time a block is ambiguous it is still traversed, and
+     *  only subsequent visits are skipped. This exact set only ever holds blocks with multiple parents plus the
+     *  false positives, and each block is retrieved at most twice.
+     */
+    static Predicate<Cid> bloomMarker(BloomFilter reachable) {
+        Set<Cid> ambiguous = ConcurrentHashMap.newKeySet();
+        return c -> {
+            boolean added = reachable.add(c.getHash());
+            if (c.isRaw())
+                return false;
+            return added || ambiguous.add(c);
+        };
+    }
+
+    /** Mark everything reachable from the roots. Workers take blocks from a shared last in first out queue, so the
+     *  traversal is roughly depth first and the queue is bounded by the depth times the fan out, rather than holding
+     *  a whole level of the graph. Raw blocks are marked without being retrieved because they can't have links.
+     */
+    private static void markReachable(DeletableContentAddressedStorage storage,
+                                      List<Cid> roots,
+                                      Predicate<Cid> marker,
+                                      ForkJoinPool pool) {
+        Deque<Cid> queue = new ConcurrentLinkedDeque<>();
+        // blocks queued or being processed
+        AtomicLong outstanding = new AtomicLong(0);
+        for (Cid root : roots) {
+            if (marker.test(root)) {
+                outstanding.incrementAndGet();
+                queue.push(root);
             }
         }
-        List<Cid> links = getWithBackoff(() -> storage.getLinks(root, "").join());
-        for (Cid link : links) {
-            markReachable(storage, link, toIndex, reachable);
-        }
-        return true;
+        List<ForkJoinTask<?>> workers = new ArrayList<>();
+        for (int i=0; i < pool.getParallelism(); i++)
+            workers.add(pool.submit(() -> {
+                while (outstanding.get() > 0) {
+                    Cid next = queue.poll();
+                    if (next == null) {
+                        LockSupport.parkNanos(100_000);
+                        continue;
+                    }
+                    try {
+                        for (Cid link : getWithBackoff(() -> storage.getLinks(next, "").join())) {
+                            if (marker.test(link)) {
+                                outstanding.incrementAndGet();
+                                queue.push(link);
+                            }
+                        }
+                    } finally {
+                        outstanding.decrementAndGet();
+                    }
+                }
+            }));
+        workers.forEach(ForkJoinTask::join);
     }
 
-    private static <V> V getWithBackoff(Supplier<V> req) {
+    /** Retry rate limited requests with exponential backoff. Async storage calls report a rate limit as the cause
+     *  of a CompletionException when joined, so those are retried too.
+     *
+     */
+    static <V> V getWithBackoff(Supplier<V> req) {
         long sleep = 1000;
         for (int i=0; i < 20; i++) {
             try {
                 return req.get();
             } catch (RateLimitException e) {
-                try {
-                    Thread.sleep(sleep);
-                } catch (InterruptedException f) {}
-                sleep *= 2;
+            } catch (CompletionException e) {
+                if (! (e.getCause() instanceof RateLimitException))
+                    throw e;
             }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException f) {}
+            sleep *= 2;
         }
         throw new IllegalStateException("Couldn't process request because of rate limit!");
     }
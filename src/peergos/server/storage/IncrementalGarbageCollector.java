@@ -0,0 +1,314 @@
+package peergos.server.storage;
+
+import peergos.server.corenode.*;
+import peergos.server.mutable.*;
+import peergos.server.space.*;
+import peergos.server.util.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+/** A generational garbage collector which avoids re-marking the whole graph on every run.
+ *
+ *  Periodically a full collection marks every reachable block into a bloom filter and deletes everything else. After
+ *  that, every change to a mutable pointer is diffed against the previous root (pruning identical subtrees, as in
+ *  getChangeInContainedSize) and the blocks only in the new tree join the young generation. Every node in a current
+ *  tree is then either reachable at the full mark, or young with only young ancestors, so an incremental run only
+ *  needs to mark the young blocks reachable from the current roots. Young blocks that are unmarked, older than the
+ *  grace period and not in the full mark are deleted. Older garbage is left for the next full collection.
+ *
+ *  Pointer changes arrive as MutableEvents, but the pointer table is also reconciled against the known roots before
+ *  every incremental run, so pointer changes made without an event (or dropped events) are still accounted for.
+ */
+public class IncrementalGarbageCollector {
+    private static final Logger LOG = Logger.getGlobal();
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    private final DeletableContentAddressedStorage storage;
+    private final JdbcIpnsAndSocial pointers;
+    private final UsageStore usage;
+    private final long expectedReachableBlocks;
+    private final int markParallelism;
+    private final long gracePeriodMillis;
+    private final int incrementalRunsPerFullCollection;
+    private final BlockingQueue<MutableEvent> events = new LinkedBlockingQueue<>(10_000);
+
+    // All of the following are only accessed while holding this collector's monitor
+    private final Map<PublicKeyHash, Pair<ByteArrayWrapper, Optional<Cid>>> knownRoots = new HashMap<>();
+    private final Set<Cid> fullMarkRoots = new HashSet<>();
+    private final Map<Cid, Long> young = new HashMap<>();
+    private BloomFilter reachableAtFullMark;
+    private int runsSinceFullCollection = 0;
+
+    public IncrementalGarbageCollector(DeletableContentAddressedStorage storage,
+                                       JdbcIpnsAndSocial pointers,
+                                       UsageStore usage,
+                                       long expectedReachableBlocks,
+                                       int markParallelism,
+                                       long gracePeriodMillis,
+                                       int incrementalRunsPerFullCollection) {
+        if (! storage.hasBlockWriteTimes())
+            throw new IllegalStateException("Incremental GC requires a block store which reports block write times!");
+        this.storage = storage;
+        this.pointers = pointers;
+        this.usage = usage;
+        this.expectedReachableBlocks = expectedReachableBlocks;
+        this.markParallelism = markParallelism;
+        this.gracePeriodMillis = gracePeriodMillis;
+        this.incrementalRunsPerFullCollection = incrementalRunsPerFullCollection;
+    }
+
+    public void accept(MutableEvent event) {
+        // If the queue is full the change will be picked up by the reconciliation before the next run
+        events.offer(event);
+    }
+
+    public void start(long periodMillis, Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver) {
+        new Thread(() -> {
+            long nextRun = System.currentTimeMillis();
+            while (true) {
+                try {
+                    MutableEvent event = events.poll(Math.max(1, nextRun - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (event != null)
+                        synchronized (this) {
+                            processEvent(event);
+                        }
+                    if (System.currentTimeMillis() >= nextRun) {
+                        collect(snapshotSaver);
+                        nextRun = System.currentTimeMillis() + periodMillis;
+                    }
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, e, e::getMessage);
+                }
+            }
+        }, "Incremental Garbage Collector").start();
+    }
+
+    /** Run a single collection, which is a full collection if one is due, otherwise incremental
+     */
+    public synchronized void collect(Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver) {
+        if (reachableAtFullMark == null || runsSinceFullCollection >= incrementalRunsPerFullCollection) {
+            fullCollect(snapshotSaver);
+            runsSinceFullCollection = 0;
+        } else {
+            incrementalCollect();
+            runsSinceFullCollection++;
+        }
+    }
+
+    /** Mark everything reachable and delete all unreachable blocks, then reset the young generation relative to
+     *  this mark.
+     */
+    private void fullCollect(Function<Stream<Map.Entry<PublicKeyHash, byte[]>>, CompletableFuture<Boolean>> snapshotSaver) {
+        System.out.println("Starting full generational GC on node " + storage.id().join() + "...");
+        long t0 = System.nanoTime();
+        long writeTimeCutoff = System.currentTimeMillis() - GarbageCollector.DEFAULT_WRITE_TIME_MARGIN_MILLIS;
+        List<Multihash> pending = storage.getOpenTransactionBlocks();
+        // This pointers call must happen AFTER the pending listing and write time cutoff for correctness
+        Map<PublicKeyHash, byte[]> allPointers = pointers.getAllEntries();
+        List<Multihash> usageRoots = usage.getAllTargets();
+
+        BloomFilter reachable = BloomFilter.create(expectedReachableBlocks, BLOOM_FALSE_POSITIVE_RATE);
+        GarbageCollector.markAll(storage, usageRoots, allPointers, GarbageCollector.bloomMarker(reachable), markParallelism);
+        for (Multihash additional : pending)
+            reachable.add(additional.getHash());
+        long t1 = System.nanoTime();
+        System.out.println("Full mark took " + (t1-t0)/1_000_000_000 + "s, expected false positive rate " +
+                String.format("%.4f", reachable.expectedFalsePositiveRate()));
+
+        reachableAtFullMark = reachable;
+        young.clear();
+        knownRoots.clear();
+        fullMarkRoots.clear();
+        Map<PublicKeyHash, Optional<Cid>> targets = GarbageCollector.getPointerTargets(allPointers, storage);
+        for (Map.Entry<PublicKeyHash, byte[]> e : allPointers.entrySet()) {
+            Optional<Cid> target = targets.get(e.getKey());
+            knownRoots.put(e.getKey(), new Pair<>(new ByteArrayWrapper(e.getValue()), target));
+            target.ifPresent(fullMarkRoots::add);
+        }
+        usageRoots.forEach(r -> fullMarkRoots.add((Cid) r));
+
+        snapshotSaver.apply(allPointers.entrySet().stream()).join();
+        Pair<Long, Long> deleted = GarbageCollector.sweep(storage, c -> reachable.mightContain(c.getHash()), writeTimeCutoff);
+        long t2 = System.nanoTime();
+        System.out.println("Full GC complete. Freed " + deleted.left + " blocks totalling " + deleted.right + " bytes in " + (t2-t0)/1_000_000_000 + "s");
+    }
+
+    private void incrementalCollect() {
+        long t0 = System.nanoTime();
+        // The pending listing and cutoff must happen BEFORE reading any pointers for correctness
+        Set<ByteArrayWrapper> pending = storage.getOpenTransactionBlocks().stream()
+                .map(h -> new ByteArrayWrapper(h.getHash()))
+                .collect(Collectors.toSet());
+        long cutoff = System.currentTimeMillis() - gracePeriodMillis;
+
+        for (MutableEvent event; (event = events.poll()) != null; )
+            processEvent(event);
+        reconcile();
+
+        Set<Cid> roots = knownRoots.values().stream()
+                .flatMap(p -> p.right.stream())
+                .collect(Collectors.toCollection(HashSet::new));
+        // Space usage calculation still needs the old roots it hasn't processed yet
+        for (Multihash usageRoot : usage.getAllTargets()) {
+            Cid root = (Cid) usageRoot;
+            if (roots.contains(root) || fullMarkRoots.contains(root))
+                continue;
+            if (! young.containsKey(root)) {
+                System.out.println("Skipping incremental GC while space usage calculation is behind");
+                return;
+            }
+            roots.add(root);
+        }
+
+        Set<Cid> marked = markYoung(roots);
+        List<Multihash> toDelete = new ArrayList<>();
+        long deleted = 0;
+        for (Iterator<Map.Entry<Cid, Long>> it = young.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Cid, Long> e = it.next();
+            Cid block = e.getKey();
+            if (e.getValue() >= cutoff || marked.contains(block))
+                continue;
+            byte[] hash = block.getHash();
+            if (reachableAtFullMark.mightContain(hash) || pending.contains(new ByteArrayWrapper(hash)))
+                continue;
+            toDelete.add(block);
+            it.remove();
+            if (toDelete.size() >= 1000) {
+                deleted += delete(toDelete);
+                toDelete.clear();
+            }
+        }
+        deleted += delete(toDelete);
+        long t1 = System.nanoTime();
+        System.out.println("Incremental GC freed " + deleted + " blocks in " + (t1-t0)/1_000_000 + "ms, "
+                + young.size() + " young blocks remain");
+    }
+
+    /** Mark the young blocks reachable from the roots. Traversal stops at blocks that aren't young because
+     *  everything below them was reachable at the full mark.
+     */
+    private Set<Cid> markYoung(Set<Cid> roots) {
+        Set<Cid> marked = new HashSet<>();
+        ArrayDeque<Cid> toVisit = new ArrayDeque<>(roots);
+        while (! toVisit.isEmpty()) {
+            Cid block = toVisit.poll();
+            if (! young.containsKey(block) || ! marked.add(block))
+                continue;
+            toVisit.addAll(getLinks(block));
+        }
+        return marked;
+    }
+
+    private long delete(List<Multihash> blocks) {
+        if (blocks.isEmpty())
+            return 0;
+        GarbageCollector.getWithBackoff(() -> {storage.bulkDelete(blocks); return true;});
+        return blocks.size();
+    }
+
+    /** Diff any pointer whose value doesn't match what we've seen, in case a change didn't generate an event
+     */
+    private void reconcile() {
+        Map<PublicKeyHash, byte[]> changed = new HashMap<>();
+        for (Map.Entry<PublicKeyHash, byte[]> e : pointers.getAllEntries().entrySet()) {
+            Pair<ByteArrayWrapper, Optional<Cid>> known = knownRoots.get(e.getKey());
+            if (known != null && known.left.equals(new ByteArrayWrapper(e.getValue())))
+                continue;
+            changed.put(e.getKey(), e.getValue());
+        }
+        Map<PublicKeyHash, Optional<Cid>> targets = GarbageCollector.getPointerTargets(changed, storage);
+        for (Map.Entry<PublicKeyHash, byte[]> e : changed.entrySet())
+            updateRoot(e.getKey(), e.getValue(), targets.get(e.getKey()));
+    }
+
+    private void processEvent(MutableEvent event) {
+        if (reachableAtFullMark == null)
+            return; // The first full mark will include this change
+        try {
+            updateRoot(event.writer, event.writerSignedBtreeRootHash,
+                    GarbageCollector.getPointerTarget(event.writer, event.writerSignedBtreeRootHash, storage));
+        } catch (Exception e) {
+            // The change will be picked up by the reconciliation before the next run
+            LOG.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    private void updateRoot(PublicKeyHash writer, byte[] signedCas, Optional<Cid> updated) {
+        Pair<ByteArrayWrapper, Optional<Cid>> known = knownRoots.get(writer);
+        Optional<Cid> previous = known == null ? Optional.empty() : known.right;
+        long now = System.currentTimeMillis();
+        if (updated.isPresent()) {
+            if (previous.isPresent())
+                diff(previous.get(), updated.get(), now);
+            else
+                addSubtree(updated.get(), now);
+        }
+        knownRoots.put(writer, new Pair<>(new ByteArrayWrapper(signedCas), updated));
+    }
+
+    /** Add the blocks reachable from after, but not before, to the young generation.
+     *  This assumes everything reachable from before is already young or was reachable at the full mark.
+     */
+    private void diff(Cid before, Cid after, long now) {
+        if (before.equals(after) || after.isIdentity())
+            return;
+        if (young.containsKey(after)) {
+            refresh(after, now);
+            return;
+        }
+        young.put(after, now);
+        List<Cid> beforeLinks = getLinks(before);
+        List<Cid> onlyAfter = new ArrayList<>(getLinks(after));
+        List<Cid> onlyBefore = new ArrayList<>(beforeLinks);
+        onlyBefore.removeAll(onlyAfter);
+        onlyAfter.removeAll(beforeLinks);
+
+        int nPairs = Math.min(onlyBefore.size(), onlyAfter.size());
+        for (int i=0; i < nPairs; i++)
+            diff(onlyBefore.get(i), onlyAfter.get(i), now);
+        for (Cid extra : onlyAfter.subList(nPairs, onlyAfter.size()))
+            addSubtree(extra, now);
+    }
+
+    private void addSubtree(Cid root, long now) {
+        if (root.isIdentity())
+            return;
+        if (young.containsKey(root)) {
+            refresh(root, now);
+            return;
+        }
+        young.put(root, now);
+        for (Cid link : getLinks(root))
+            addSubtree(link, now);
+    }
+
+    /** A young subtree which is referenced again gets a new grace period, including its young descendants, so it
+     *  isn't deleted from under a client that has only just seen it.
+     */
+    private void refresh(Cid root, long now) {
+        Deque<Cid> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (! toVisit.isEmpty()) {
+            Cid block = toVisit.pop();
+            Long previous = young.get(block);
+            if (previous == null || previous == now)
+                continue;
+            young.put(block, now);
+            getLinks(block).forEach(toVisit::push);
+        }
+    }
+
+    private List<Cid> getLinks(Cid block) {
+        if (block.isRaw() || block.isIdentity())
+            return Collections.emptyList();
+        return GarbageCollector.getWithBackoff(() -> storage.getLinks(block, "").join());
+    }
+}
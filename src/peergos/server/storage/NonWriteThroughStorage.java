@@ -45,6 +45,14 @@ public class NonWriteThroughStorage implements ContentAddressedStorage {
         return modifications.getChampLookup(owner, root, champKey, bat);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return modifications.getChampLookups(owner, root, champKeys, bats);
+    }
+
     @Override
     public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
                                             PublicKeyHash writer,
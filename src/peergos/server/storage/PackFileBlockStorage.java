@@ -0,0 +1,703 @@
+package peergos.server.storage;
+
+import peergos.server.sql.*;
+import peergos.server.storage.auth.*;
+import peergos.server.util.Logging;
+import peergos.server.util.Sqlite;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+/** A local block store which appends blocks to large segment files, rather than writing a file per block.
+ *
+ *  Blocks are sharded by the first byte of their hash, and each shard appends to a single active segment until it
+ *  reaches the maximum segment size. An index maps each block to its shard, segment, offset and length. Each call to
+ *  put is fsynced once per shard it touches, before the new blocks are indexed, so the index never refers to data
+ *  which isn't durable. Reads of sealed segments are served from memory mappings, and reads of the active segment of a
+ *  shard, which is still growing, use positional reads.
+ *
+ *  Deleting a block only removes it from the index. After a bulk delete, any sealed segment whose live data has
+ *  dropped below half its size is compacted by copying its live blocks into the active segment and deleting it.
+ */
+public class PackFileBlockStorage implements DeletableContentAddressedStorage, DirectBlockSource {
+    private static final Logger LOG = Logging.LOG();
+    private static final int CID_V1 = 1;
+    public static final int DEFAULT_SHARDS = 16;
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 256 * 1024 * 1024L;
+    private static final double MIN_LIVE_FRACTION = 0.5;
+    private static final int MAX_COMPACTION_BATCH_BYTES = 16 * 1024 * 1024;
+    private static final int INDEX_PAGE_SIZE = 10_000;
+    // Bounds the number of open index connections however many threads read blocks
+    private static final int READ_CONNECTIONS = 16;
+    private static final String SEGMENT_SUFFIX = ".pack";
+
+    private static final String SELECT_LOCATION = "SELECT shard, segment, pos, size FROM packblocks WHERE hash = ?;";
+    private static final String UPDATE_WRITTEN = "UPDATE packblocks SET written = ? WHERE hash = ?;";
+    private static final String DELETE_BLOCK = "DELETE FROM packblocks WHERE hash = ?;";
+    private static final String SELECT_SEGMENT_BLOCKS = "SELECT hash, pos, size FROM packblocks WHERE shard = ? AND segment = ?;";
+    private static final String MOVE_BLOCK = "UPDATE packblocks SET shard = ?, segment = ?, pos = ? WHERE hash = ? AND shard = ? AND segment = ?;";
+    private static final String SELECT_BLOCKS_PAGE = "SELECT hash, size, written FROM packblocks WHERE hash > ? ORDER BY hash LIMIT " + INDEX_PAGE_SIZE + ";";
+
+    private final Path root;
+    private final Supplier<Connection> index;
+    private final Supplier<Connection> readIndex;
+    private final SqlSupplier commands;
+    private final long maxSegmentSize;
+    private final Shard[] shards;
+    private final TransactionStore transactions;
+    private final BlockRequestAuthoriser authoriser;
+    private final Hasher hasher;
+    private final Map<Long, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+    // Writers hold the read lock from checking whether a block is present until it is indexed, compaction and
+    // deletion hold the write lock
+    private final ReadWriteLock compactionLock = new ReentrantReadWriteLock();
+    // The index connection for updates may be shared, so every update must hold this lock. Reads use their own
+    // connections and don't need it.
+    private final Object indexLock = new Object();
+
+    /**
+     *
+     * @param index Connections used to update the index
+     * @param readIndex Connections used for read only queries, which are closed after each query. These must not be
+     *                  shared between threads, or be the connection used for updates
+     */
+    public PackFileBlockStorage(Path root,
+                                Supplier<Connection> index,
+                                Supplier<Connection> readIndex,
+                                SqlSupplier commands,
+                                int nShards,
+                                long maxSegmentSize,
+                                TransactionStore transactions,
+                                BlockRequestAuthoriser authoriser,
+                                Hasher hasher) {
+        if (nShards <= 0 || nShards > 256)
+            throw new IllegalArgumentException("Number of shards must be between 1 and 256");
+        if (maxSegmentSize <= 0 || maxSegmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segments must be smaller than 2 GiB to be memory mapped");
+        this.root = root;
+        this.index = index;
+        this.readIndex = readIndex;
+        this.commands = commands;
+        this.maxSegmentSize = maxSegmentSize;
+        this.transactions = transactions;
+        this.authoriser = authoriser;
+        this.hasher = hasher;
+        File rootDir = root.toFile();
+        if (!rootDir.exists()) {
+            final boolean mkdirs = root.toFile().mkdirs();
+            if (!mkdirs)
+                throw new IllegalStateException("Unable to create directory " + root);
+        }
+        if (!rootDir.isDirectory())
+            throw new IllegalStateException("Pack file store path must be a directory! " + root);
+        try (Connection conn = getConnection()) {
+            commands.createTable(commands.createPackIndexTableCommand(), conn);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        this.shards = new Shard[nShards];
+        try {
+            for (int i = 0; i < nShards; i++)
+                shards[i] = new Shard(i);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static final class Location {
+        public final int shard, segment;
+        public final long pos;
+        public final int size;
+
+        public Location(int shard, int segment, long pos, int size) {
+            this.shard = shard;
+            this.segment = segment;
+            this.pos = pos;
+            this.size = size;
+        }
+    }
+
+    /** Each record in a segment is self describing: [cid length][cid][data length][data]
+     *
+     */
+    private final class Shard {
+        private final int id;
+        // only changed while holding this shard's monitor, but read without it
+        private volatile int segment;
+        private FileChannel out;
+
+        Shard(int id) throws IOException {
+            this.id = id;
+            Path dir = shardDir(id);
+            Files.createDirectories(dir);
+            try (Stream<Path> existing = Files.list(dir)) {
+                this.segment = existing.map(p -> p.getFileName().toString())
+                        .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                        .mapToInt(n -> Integer.parseInt(n.substring(0, n.length() - SEGMENT_SUFFIX.length())))
+                        .max()
+                        .orElse(0);
+            }
+            this.out = openForAppend(segment);
+        }
+
+        private FileChannel openForAppend(int segment) throws IOException {
+            return FileChannel.open(segmentPath(id, segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        int activeSegment() {
+            return segment;
+        }
+
+        /**
+         *
+         * @param blocks
+         * @return The location of each block's data, after it has been appended and synced to disk
+         * @throws IOException
+         */
+        synchronized List<Location> append(List<Pair<Cid, byte[]>> blocks) throws IOException {
+            List<Location> res = new ArrayList<>(blocks.size());
+            for (Pair<Cid, byte[]> block : blocks) {
+                byte[] cid = block.left.toBytes();
+                byte[] data = block.right;
+                int recordSize = 8 + cid.length + data.length;
+                long start = out.size();
+                if (start > 0 && start + recordSize > maxSegmentSize) {
+                    out.force(false);
+                    out.close();
+                    segment++;
+                    out = openForAppend(segment);
+                    start = out.size();
+                }
+                ByteBuffer record = ByteBuffer.allocate(recordSize);
+                record.putInt(cid.length);
+                record.put(cid);
+                record.putInt(data.length);
+                record.put(data);
+                record.flip();
+                while (record.hasRemaining())
+                    out.write(record);
+                res.add(new Location(id, segment, start + 8 + cid.length, data.length));
+            }
+            out.force(false);
+            return res;
+        }
+    }
+
+    private Path shardDir(int shard) {
+        return root.resolve(String.format("%02x", shard));
+    }
+
+    private Path segmentPath(int shard, int segment) {
+        return shardDir(shard).resolve(String.format("%08d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentKey(int shard, int segment) {
+        return ((long) shard << 32) | (segment & 0xFFFFFFFFL);
+    }
+
+    private int shardIndex(Cid cid) {
+        return (cid.getHash()[0] & 0xFF) % shards.length;
+    }
+
+    /** Build a store with a sqlite index in the root directory, which can be read concurrently with updates
+     *
+     */
+    public static PackFileBlockStorage build(Path root,
+                                             int nShards,
+                                             long maxSegmentSize,
+                                             TransactionStore transactions,
+                                             BlockRequestAuthoriser authoriser,
+                                             Hasher hasher) throws IOException, SQLException {
+        Files.createDirectories(root);
+        String indexPath = root.resolve("pack-index.sql").toString();
+        Connection updates = new Sqlite.UncloseableConnection(Sqlite.build(indexPath));
+        try (Statement wal = updates.createStatement()) {
+            // let readers proceed while an update is in progress
+            wal.execute("PRAGMA journal_mode=WAL;");
+        }
+        return new PackFileBlockStorage(root, () -> updates, Sqlite.buildPool(indexPath, READ_CONNECTIONS), new SqliteCommands(),
+                nShards, maxSegmentSize, transactions, authoriser, hasher);
+    }
+
+    private Connection getConnection() {
+        return index.get();
+    }
+
+    private interface IndexUpdate {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private interface IndexQuery<T> {
+        T apply(Connection conn) throws SQLException;
+    }
+
+    /** Run a read only query against the index, on a connection which is never inside another thread's sql transaction
+     *
+     */
+    private <T> T queryIndex(IndexQuery<T> query) {
+        try (Connection conn = readIndex.get()) {
+            return query.apply(conn);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /** Apply an update to the index in a single sql transaction
+     *
+     */
+    private void updateIndex(IndexUpdate update) {
+        synchronized (indexLock) {
+            try (Connection conn = getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    update.apply(conn);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private Optional<Location> getLocation(Cid hash) {
+        return queryIndex(conn -> {
+            try (PreparedStatement select = conn.prepareStatement(SELECT_LOCATION)) {
+                select.setBytes(1, hash.toBytes());
+                try (ResultSet rs = select.executeQuery()) {
+                    if (! rs.next())
+                        return Optional.empty();
+                    return Optional.of(new Location(rs.getInt(1), rs.getInt(2), rs.getLong(3), rs.getInt(4)));
+                }
+            }
+        });
+    }
+
+    private boolean isActive(Location loc) {
+        return loc.shard < shards.length && loc.segment >= shards[loc.shard].activeSegment();
+    }
+
+    /** Only called for sealed segments, which never grow, so each is mapped once. Callers must hold the compaction
+     *  lock, so a segment is never mapped after compaction has deleted it.
+     *
+     */
+    private ByteBuffer getMapping(Location loc) throws IOException {
+        long key = segmentKey(loc.shard, loc.segment);
+        MappedByteBuffer current = mapped.get(key);
+        if (current != null)
+            return current;
+        try (FileChannel in = FileChannel.open(segmentPath(loc.shard, loc.segment), StandardOpenOption.READ)) {
+            MappedByteBuffer fresh = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            mapped.put(key, fresh);
+            return fresh;
+        }
+    }
+
+    private byte[] read(Location loc) throws IOException {
+        byte[] res = new byte[loc.size];
+        if (isActive(loc)) {
+            // The active segment is still being appended to, so read it directly rather than remapping it as it grows
+            ByteBuffer dest = ByteBuffer.wrap(res);
+            try (FileChannel in = FileChannel.open(segmentPath(loc.shard, loc.segment), StandardOpenOption.READ)) {
+                while (dest.hasRemaining())
+                    if (in.read(dest, loc.pos + dest.position()) < 0)
+                        throw new EOFException("Block extends past the end of segment " + loc.segment);
+            }
+            return res;
+        }
+        ByteBuffer view = getMapping(loc).duplicate();
+        view.position((int) loc.pos);
+        view.get(res);
+        return res;
+    }
+
+    private Optional<byte[]> read(Cid hash) throws IOException {
+        // Compaction can't move the block, or delete and unmap its segment, between looking up its location and reading it
+        compactionLock.readLock().lock();
+        try {
+            Optional<Location> loc = getLocation(hash);
+            if (loc.isEmpty())
+                return Optional.empty();
+            return Optional.of(read(loc.get()));
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ContentAddressedStorage directToOrigin() {
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Cid> id() {
+        // Use the same id as FileContentAddressedStorage so existing block auth remains valid after switching
+        return CompletableFuture.completedFuture(new Cid(1, Cid.Codec.LibP2pKey, Multihash.Type.sha2_256, RAMStorage.hash("FileStorage".getBytes())));
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return CompletableFuture.completedFuture(transactions.startTransaction(owner));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        transactions.closeTransaction(owner, tid);
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookup(PublicKeyHash owner, Cid root, byte[] champKey, Optional<BatWithId> bat) {
+        if (! hasBlock(root))
+            return Futures.errored(new IllegalStateException("Champ root not present locally: " + root));
+        return getChampLookup(root, champKey, bat, hasher);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        if (! hasBlock(root))
+            return Futures.errored(new IllegalStateException("Champ root not present locally: " + root));
+        return getChampLookups(root, champKeys, bats, hasher);
+    }
+
+    @Override
+    public List<Multihash> getOpenTransactionBlocks() {
+        return transactions.getOpenTransactionBlocks();
+    }
+
+    @Override
+    public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
+                                            PublicKeyHash writer,
+                                            List<byte[]> signedHashes,
+                                            List<byte[]> blocks,
+                                            TransactionId tid) {
+        return put(owner, blocks, false, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Cid>> putRaw(PublicKeyHash owner,
+                                               PublicKeyHash writer,
+                                               List<byte[]> signatures,
+                                               List<byte[]> blocks,
+                                               TransactionId tid,
+                                               ProgressConsumer<Long> progressConsumer) {
+        return put(owner, blocks, true, tid);
+    }
+
+    private CompletableFuture<List<Cid>> put(PublicKeyHash owner,
+                                             List<byte[]> blocks,
+                                             boolean isRaw,
+                                             TransactionId tid) {
+        try {
+            return CompletableFuture.completedFuture(put(blocks, isRaw, tid, owner));
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    public List<Cid> put(List<byte[]> blocks, boolean isRaw, TransactionId tid, PublicKeyHash owner) throws IOException {
+        List<Cid> cids = blocks.stream()
+                .map(b -> new Cid(CID_V1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, Multihash.Type.sha2_256, RAMStorage.hash(b)))
+                .collect(Collectors.toList());
+        for (Cid cid : cids)
+            transactions.addBlock(cid, tid, owner);
+
+        long now = System.currentTimeMillis();
+        compactionLock.readLock().lock();
+        try {
+            Map<Integer, List<Pair<Cid, byte[]>>> byShard = new TreeMap<>();
+            List<Cid> existing = new ArrayList<>();
+            Set<Cid> seen = new HashSet<>();
+            for (int i = 0; i < cids.size(); i++) {
+                Cid cid = cids.get(i);
+                if (! seen.add(cid))
+                    continue;
+                if (hasBlock(cid))
+                    existing.add(cid);
+                else
+                    byShard.computeIfAbsent(shardIndex(cid), s -> new ArrayList<>()).add(new Pair<>(cid, blocks.get(i)));
+            }
+
+            List<Pair<Cid, Location>> written = new ArrayList<>();
+            for (Map.Entry<Integer, List<Pair<Cid, byte[]>>> e : byShard.entrySet()) {
+                List<Location> locations = shards[e.getKey()].append(e.getValue());
+                for (int i = 0; i < locations.size(); i++)
+                    written.add(new Pair<>(e.getValue().get(i).left, locations.get(i)));
+            }
+
+            // Existing blocks get a new write time, so a concurrent streaming GC won't sweep them
+            updateIndex(conn -> {
+                try (PreparedStatement insert = conn.prepareStatement(commands.insertOrIgnoreCommand("INSERT ",
+                        "INTO packblocks (hash, shard, segment, pos, size, written) VALUES(?, ?, ?, ?, ?, ?)"));
+                     PreparedStatement touch = conn.prepareStatement(UPDATE_WRITTEN)) {
+                    for (Pair<Cid, Location> block : written) {
+                        insert.setBytes(1, block.left.toBytes());
+                        insert.setInt(2, block.right.shard);
+                        insert.setInt(3, block.right.segment);
+                        insert.setLong(4, block.right.pos);
+                        insert.setInt(5, block.right.size);
+                        insert.setLong(6, now);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                    for (Cid cid : existing) {
+                        touch.setLong(1, now);
+                        touch.setBytes(2, cid.toBytes());
+                        touch.addBatch();
+                    }
+                    touch.executeBatch();
+                }
+            });
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+        return cids;
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Cid hash, String auth) {
+        if (hash.codec == Cid.Codec.Raw)
+            throw new IllegalStateException("Need to call getRaw if cid is not cbor!");
+        return getRaw(hash, auth).thenApply(opt -> opt.map(CborObject::fromByteArray));
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Cid hash, Optional<BatWithId> bat) {
+        return get(hash, bat, id().join(), hasher);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Cid hash, Optional<BatWithId> bat) {
+        return getRaw(hash, bat, id().join(), hasher);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Cid hash, String auth) {
+        return getRaw(hash, auth, true);
+    }
+
+    private CompletableFuture<Optional<byte[]>> getRaw(Cid hash, String auth, boolean doAuth) {
+        try {
+            if (hash.isIdentity())
+                return Futures.of(Optional.of(hash.getHash()));
+            Optional<byte[]> block = read(hash);
+            if (block.isEmpty())
+                return CompletableFuture.completedFuture(Optional.empty());
+            if (doAuth && ! authoriser.allowRead(hash, block.get(), id().join(), auth).join())
+                return Futures.errored(new IllegalStateException("Unauthorised!"));
+            return CompletableFuture.completedFuture(block);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Optional<BlockRegion> openRaw(Cid hash, Optional<BatWithId> bat) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            Optional<Location> loc = getLocation(hash);
+            if (loc.isEmpty())
+                return Optional.empty();
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(segmentPath(loc.get().shard, loc.get().segment), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // the segment was compacted after we looked up the block, so look up its new location
+                if (attempt >= 2)
+                    throw e;
+                continue;
+            }
+            BlockRegion block = new BlockRegion(channel, loc.get().pos, loc.get().size);
+            return Optional.of(DirectBlockSource.authorise(block, hash, bat, authoriser, id().join(), hasher));
+        }
+    }
+
+    @Override
+    public boolean hasBlock(Cid hash) {
+        return getLocation(hash).isPresent();
+    }
+
+    @Override
+    public CompletableFuture<List<Cid>> getLinks(Cid root, String auth) {
+        if (root.codec == Cid.Codec.Raw)
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        return getRaw(root, auth, false)
+                .thenApply(opt -> opt.map(CborObject::fromByteArray))
+                .thenApply(opt -> opt
+                        .map(cbor -> cbor.links().stream().map(c -> (Cid) c).collect(Collectors.toList()))
+                        .orElse(Collections.emptyList())
+                );
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash h) {
+        return CompletableFuture.completedFuture(getLocation((Cid) h).map(loc -> loc.size));
+    }
+
+    @Override
+    public Stream<Cid> getAllBlockHashes() {
+        List<Cid> res = new ArrayList<>();
+        applyToAllBlocks(b -> res.add(b.cid));
+        return res.stream();
+    }
+
+    @Override
+    public void applyToAllBlocks(Consumer<BlockVersion> processor) {
+        // Page through the index so we never hold a cursor open while the consumer deletes blocks
+        byte[] after = new byte[0];
+        while (true) {
+            byte[] start = after;
+            List<BlockVersion> page = queryIndex(conn -> {
+                try (PreparedStatement select = conn.prepareStatement(SELECT_BLOCKS_PAGE)) {
+                    select.setBytes(1, start);
+                    List<BlockVersion> res = new ArrayList<>();
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next())
+                            res.add(new BlockVersion(Cid.cast(rs.getBytes(1)), rs.getInt(2), rs.getLong(3)));
+                    }
+                    return res;
+                }
+            });
+            page.forEach(processor);
+            if (page.size() < INDEX_PAGE_SIZE)
+                return;
+            after = page.get(page.size() - 1).cid.toBytes();
+        }
+    }
+
+    @Override
+    public boolean hasBlockWriteTimes() {
+        return true;
+    }
+
+    @Override
+    public void delete(Multihash h) {
+        bulkDelete(Collections.singletonList(h));
+    }
+
+    @Override
+    public void bulkDelete(List<Multihash> blocks) {
+        Set<Long> touched = new HashSet<>();
+        // Exclude writers, which may have just found one of these blocks already present and skipped writing it
+        compactionLock.writeLock().lock();
+        try {
+            updateIndex(conn -> {
+                try (PreparedStatement select = conn.prepareStatement(SELECT_LOCATION);
+                     PreparedStatement delete = conn.prepareStatement(DELETE_BLOCK)) {
+                    for (Multihash block : blocks) {
+                        byte[] key = ((Cid) block).toBytes();
+                        select.setBytes(1, key);
+                        try (ResultSet rs = select.executeQuery()) {
+                            if (rs.next())
+                                touched.add(segmentKey(rs.getInt(1), rs.getInt(2)));
+                        }
+                        delete.setBytes(1, key);
+                        delete.addBatch();
+                    }
+                    delete.executeBatch();
+                }
+            });
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+        for (long segment : touched)
+            compactIfSparse((int) (segment >>> 32), (int) segment);
+    }
+
+    private List<Pair<Cid, Location>> getSegmentBlocks(int shard, int segment) {
+        return queryIndex(conn -> {
+            try (PreparedStatement select = conn.prepareStatement(SELECT_SEGMENT_BLOCKS)) {
+                select.setInt(1, shard);
+                select.setInt(2, segment);
+                List<Pair<Cid, Location>> res = new ArrayList<>();
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next())
+                        res.add(new Pair<>(Cid.cast(rs.getBytes(1)), new Location(shard, segment, rs.getLong(2), rs.getInt(3))));
+                }
+                return res;
+            }
+        });
+    }
+
+    /** Rewrite the live blocks of a sealed segment into the active segment of its shard, and delete it, if less than
+     *  half of it is still live.
+     */
+    private void compactIfSparse(int shard, int segment) {
+        // Segments from shards beyond the current shard count are all sealed, their blocks are moved to a current shard
+        Shard target = shards[shard % shards.length];
+        compactionLock.writeLock().lock();
+        try {
+            if (shard < shards.length && segment >= target.activeSegment())
+                return;
+            Path file = segmentPath(shard, segment);
+            if (! Files.exists(file))
+                return;
+            long fileSize = Files.size(file);
+            List<Pair<Cid, Location>> live = getSegmentBlocks(shard, segment);
+            long liveBytes = live.stream().mapToLong(p -> p.right.size).sum();
+            if (liveBytes >= fileSize * MIN_LIVE_FRACTION)
+                return;
+
+            for (int start = 0; start < live.size();) {
+                List<Pair<Cid, byte[]>> batch = new ArrayList<>();
+                long batchBytes = 0;
+                for (; start < live.size() && batchBytes < MAX_COMPACTION_BATCH_BYTES; start++) {
+                    Pair<Cid, Location> block = live.get(start);
+                    batch.add(new Pair<>(block.left, read(block.right)));
+                    batchBytes += block.right.size;
+                }
+                List<Location> moved = target.append(batch);
+                updateIndex(conn -> {
+                    try (PreparedStatement move = conn.prepareStatement(MOVE_BLOCK)) {
+                        for (int i = 0; i < moved.size(); i++) {
+                            Location to = moved.get(i);
+                            move.setInt(1, to.shard);
+                            move.setInt(2, to.segment);
+                            move.setLong(3, to.pos);
+                            move.setBytes(4, batch.get(i).left.toBytes());
+                            move.setInt(5, shard);
+                            move.setInt(6, segment);
+                            move.addBatch();
+                        }
+                        move.executeBatch();
+                    }
+                });
+            }
+            mapped.remove(segmentKey(shard, segment));
+            Files.delete(file);
+            LOG.info("Compacted " + file + ", moved " + live.size() + " blocks (" + liveBytes + " of " + fileSize + " bytes)");
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PackFileBlockStorage " + root;
+    }
+}
@@ -53,6 +53,14 @@ public class RAMStorage implements DeletableContentAddressedStorage {
         return getChampLookup(root, champKey, bat, hasher);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return getChampLookups(root, champKeys, bats, hasher);
+    }
+
     @Override
     public Stream<Cid> getAllBlockHashes() {
         return storage.keySet().stream();
@@ -72,6 +72,18 @@ public class RequestCountingStorage extends DelegatingStorage {
                 });
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return target.getChampLookups(owner, root, champKeys, bats)
+                .thenApply(blocks -> {
+                    champGet.incrementAndGet();
+                    return blocks;
+                });
+    }
+
     @Override
     public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
                                             PublicKeyHash writer,
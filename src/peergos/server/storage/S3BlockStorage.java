@@ -31,6 +31,8 @@ import java.util.stream.*;
 public class S3BlockStorage implements DeletableContentAddressedStorage {
 
     private static final Logger LOG = Logger.getGlobal();
+    // Bounds the PUTs in flight across all batches, so large uploads don't open unbounded connections to S3
+    private static final int MAX_CONCURRENT_PUTS = 32;
 
     private static final Histogram readTimerLog = Histogram.build()
             .labelNames("filesize")
@@ -57,6 +59,7 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
     private final BlockRequestAuthoriser authoriser;
     private final Hasher hasher;
     private final DeletableContentAddressedStorage p2pFallback;
+    private final AsyncLimiter puts = new AsyncLimiter(MAX_CONCURRENT_PUTS);
 
     public S3BlockStorage(S3Config config,
                           Cid id,
@@ -196,58 +199,104 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
 
     private CompletableFuture<Optional<byte[]>> getRaw(Cid hash, String auth, boolean enforceAuth, Optional<BatWithId> bat) {
         String path = folder + hashToKey(hash);
-        PresignedUrl getUrl = S3Request.preSignGet(path, Optional.of(600),
-                S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, region, accessKeyId, secretKey, hasher).join();
-        Histogram.Timer readTimer = readTimerLog.labels("read").startTimer();
-        try {
-            byte[] block = HttpUtil.get(getUrl);
-            // validate auth, unless this is an internal query
-            if (enforceAuth && ! authoriser.allowRead(hash, block, id, auth).join())
-                throw new IllegalStateException("Unauthorised!");
-            return Futures.of(Optional.of(block));
-        } catch (IOException e) {
-            String msg = e.getMessage();
-            boolean rateLimited = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code>");
-            if (rateLimited) {
-                throw new RateLimitException();
-            }
-            boolean notFound = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>NoSuchKey</Code>");
-            if (! notFound) {
-                LOG.warning("S3 error reading " + path);
-                LOG.log(Level.WARNING, msg, e);
-            }
+        return S3Request.preSignGet(path, Optional.of(600),
+                S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, region, accessKeyId, secretKey, hasher)
+                .thenCompose(getUrl -> {
+                    Histogram.Timer readTimer = readTimerLog.labels("read").startTimer();
+                    return HttpUtil.getAsync(getUrl)
+                            .thenApply(Optional::of)
+                            .exceptionally(t -> {
+                                IOException e = asIOException(t);
+                                String msg = e.getMessage();
+                                if (isRateLimited(msg))
+                                    throw new RateLimitException();
+                                if (! isNotFound(e)) {
+                                    LOG.warning("S3 error reading " + path);
+                                    LOG.log(Level.WARNING, msg, e);
+                                }
+                                return Optional.empty();
+                            }).whenComplete((res, t) -> readTimer.observeDuration());
+                }).thenCompose(block -> {
+                    if (block.isEmpty()) {
+                        nonLocalGets.inc();
+                        if (p2pGetId.equals(id))
+                            return p2pFallback.getRaw(hash, auth);
+                        return p2pFallback.getRaw(hash, bat); // recalculate auth when the fallback node has a different node id
+                    }
+                    // validate auth, unless this is an internal query
+                    if (! enforceAuth)
+                        return Futures.of(block);
+                    return authoriser.allowRead(hash, block.get(), id, auth).thenApply(allowed -> {
+                        if (! allowed)
+                            throw new IllegalStateException("Unauthorised!");
+                        return block;
+                    });
+                });
+    }
 
-            nonLocalGets.inc();
-            if (p2pGetId.equals(id))
-                return p2pFallback.getRaw(hash, auth);
-            return p2pFallback.getRaw(hash, bat); // recalculate auth when the fallback node has a different node id
-        } finally {
-            readTimer.observeDuration();
-        }
+    private static boolean isRateLimited(String s3ErrorMessage) {
+        return s3ErrorMessage != null &&
+                s3ErrorMessage.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code>");
+    }
+
+    private static boolean isNotFound(String s3ErrorMessage) {
+        return s3ErrorMessage != null &&
+                s3ErrorMessage.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>NoSuchKey</Code>");
+    }
+
+    /** A HEAD response has no body, so a missing block is reported as a FileNotFoundException instead
+     *
+     */
+    private static boolean isNotFound(IOException e) {
+        return e instanceof FileNotFoundException || isNotFound(e.getMessage());
+    }
+
+    /** Only IO errors from S3 are handled, anything else is propagated
+     *
+     */
+    private static IOException asIOException(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof IOException)
+            return (IOException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        throw new CompletionException(cause);
     }
 
     @Override
     public boolean hasBlock(Cid hash) {
         try {
-            PresignedUrl headUrl = S3Request.preSignHead(folder + hashToKey(hash), Optional.of(60),
-                    S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, region, accessKeyId, secretKey, hasher).join();
-            Map<String, List<String>> headRes = HttpUtil.head(headUrl);
-            return true;
-        } catch (IOException e) {
-            String msg = e.getMessage();
-            boolean rateLimited = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code>");
-            if (rateLimited) {
-                throw new RateLimitException();
-            }
-            boolean notFound = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>NoSuchKey</Code>");
-            if (! notFound) {
-                LOG.warning("S3 error reading " + hash);
-                LOG.log(Level.WARNING, msg, e);
-            }
-            return false;
+            return hasBlockAsync(hash).join();
+        } catch (CompletionException e) {
+            // callers of this synchronous method expect a bare rate limit exception
+            if (e.getCause() instanceof RateLimitException)
+                throw (RateLimitException) e.getCause();
+            throw e;
         }
     }
 
+    private CompletableFuture<Boolean> hasBlockAsync(Cid hash) {
+        return head(hash)
+                .thenApply(headRes -> true)
+                .exceptionally(t -> {
+                    IOException e = asIOException(t);
+                    String msg = e.getMessage();
+                    if (isRateLimited(msg))
+                        throw new RateLimitException();
+                    if (! isNotFound(e)) {
+                        LOG.warning("S3 error reading " + hash);
+                        LOG.log(Level.WARNING, msg, e);
+                    }
+                    return false;
+                });
+    }
+
+    private CompletableFuture<Map<String, List<String>>> head(Multihash hash) {
+        return S3Request.preSignHead(folder + hashToKey(hash), Optional.of(60),
+                S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, region, accessKeyId, secretKey, hasher)
+                .thenCompose(HttpUtil::headAsync);
+    }
+
     @Override
     public CompletableFuture<List<Cid>> mirror(PublicKeyHash owner,
                                                Optional<Cid> existing,
@@ -293,13 +342,23 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         return getChampLookup(root, champKey, bat, hasher);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        if (! hasBlock(root))
+            return Futures.errored(new IllegalStateException("Champ root not present locally: " + root));
+        return getChampLookups(root, champKeys, bats, hasher);
+    }
+
     @Override
     public List<Multihash> getOpenTransactionBlocks() {
         return transactions.getOpenTransactionBlocks();
     }
 
-    private void collectGarbage(JdbcIpnsAndSocial pointers, UsageStore usage) {
-        GarbageCollector.collect(this, pointers, usage, this::savePointerSnapshot);
+    private void collectGarbage(JdbcIpnsAndSocial pointers, UsageStore usage, int markParallelism) {
+        GarbageCollector.collect(this, pointers, usage, this::savePointerSnapshot, markParallelism);
     }
 
     private CompletableFuture<Boolean> savePointerSnapshot(Stream<Map.Entry<PublicKeyHash, byte[]>> pointers) {
@@ -316,19 +375,24 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         return Futures.of(true);
     }
 
-    private static <V> V getWithBackoff(Supplier<V> req) {
-        long sleep = 100;
-        for (int i=0; i < 20; i++) {
-            try {
-                return req.get();
-            } catch (RateLimitException e) {
-                try {
-                    Thread.sleep(sleep);
-                } catch (InterruptedException f) {}
-                sleep *= 2;
-            }
-        }
-        throw new IllegalStateException("Couldn't process request because of rate limit!");
+    private static <V> CompletableFuture<V> getWithBackoff(Supplier<CompletableFuture<V>> req) {
+        return getWithBackoff(req, 0, 100);
+    }
+
+    /** Retry rate limited requests with exponential backoff, without blocking a thread while we wait
+     *
+     */
+    private static <V> CompletableFuture<V> getWithBackoff(Supplier<CompletableFuture<V>> req, int attempt, long sleep) {
+        return Futures.asyncExceptionally(req, t -> {
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            if (! (cause instanceof RateLimitException))
+                return Futures.errored(cause);
+            if (attempt + 1 >= 20)
+                return Futures.errored(new IllegalStateException("Couldn't process request because of rate limit!"));
+            Executor delayed = CompletableFuture.delayedExecutor(sleep, TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> true, delayed)
+                    .thenCompose(x -> getWithBackoff(req, attempt + 1, sleep * 2));
+        });
     }
 
     @Override
@@ -340,34 +404,24 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         if (hash.isIdentity()) // Identity hashes are not actually stored explicitly
             return Futures.of(Optional.of(0));
         Histogram.Timer readTimer = readTimerLog.labels("size").startTimer();
-        try {
-            PresignedUrl headUrl = S3Request.preSignHead(folder + hashToKey(hash), Optional.of(60),
-                    S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, region, accessKeyId, secretKey, hasher).join();
-            Map<String, List<String>> headRes = HttpUtil.head(headUrl);
-            long size = Long.parseLong(headRes.get("Content-Length").get(0));
-            return Futures.of(Optional.of((int)size));
-        } catch (IOException e) {
-            String msg = e.getMessage();
-            boolean rateLimited = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code>");
-            if (rateLimited) {
-                throw new RateLimitException();
-            }
-            boolean notFound = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>NoSuchKey</Code>");
-            if (! notFound) {
-                LOG.warning("S3 error reading " + hash);
-                LOG.log(Level.WARNING, msg, e);
-            }
-            return Futures.of(Optional.empty());
-        } finally {
-            readTimer.observeDuration();
-        }
+        return head(hash)
+                .thenApply(headRes -> Optional.of((int) Long.parseLong(headRes.get("content-length").get(0))))
+                .exceptionally(t -> {
+                    IOException e = asIOException(t);
+                    String msg = e.getMessage();
+                    if (isRateLimited(msg))
+                        throw new RateLimitException();
+                    if (! isNotFound(e)) {
+                        LOG.warning("S3 error reading " + hash);
+                        LOG.log(Level.WARNING, msg, e);
+                    }
+                    return Optional.empty();
+                }).whenComplete((res, t) -> readTimer.observeDuration());
     }
 
     public boolean contains(Multihash hash) {
         try {
-            PresignedUrl headUrl = S3Request.preSignHead(folder + hashToKey(hash), Optional.of(60),
-                    S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, region, accessKeyId, secretKey, hasher).join();
-            Map<String, List<String>> headRes = HttpUtil.head(headUrl);
+            head(hash).join();
             return true;
         } catch (Exception e) {
             return false;
@@ -413,8 +467,8 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
                                              List<byte[]> blocks,
                                              boolean isRaw,
                                              TransactionId tid) {
-        return CompletableFuture.completedFuture(blocks.stream()
-                .map(b -> put(b, isRaw, tid, owner))
+        return Futures.combineAllInOrder(blocks.stream()
+                .map(b -> puts.submit(() -> putAsync(b, isRaw, tid, owner)))
                 .collect(Collectors.toList()));
     }
 
@@ -423,27 +477,29 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
      * @param data
      */
     public Cid put(byte[] data, boolean isRaw, TransactionId tid, PublicKeyHash owner) {
+        return putAsync(data, isRaw, tid, owner).join();
+    }
+
+    private CompletableFuture<Cid> putAsync(byte[] data, boolean isRaw, TransactionId tid, PublicKeyHash owner) {
         Histogram.Timer writeTimer = writeTimerLog.labels("write").startTimer();
         Multihash hash = new Multihash(Multihash.Type.sha2_256, Hash.sha256(data));
         Cid cid = new Cid(1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, hash.type, hash.getHash());
         String key = hashToKey(cid);
-        try {
-            transactions.addBlock(cid, tid, owner);
-            String s3Key = folder + key;
-            Map<String, String> extraHeaders = new TreeMap<>();
-            extraHeaders.put("Content-Type", "application/octet-stream");
-            boolean hashContent = true;
-            String contentHash = hashContent ? ArrayOps.bytesToHex(hash.getHash()) : "UNSIGNED-PAYLOAD";
-            PresignedUrl putUrl = S3Request.preSignPut(s3Key, data.length, contentHash, false,
-                    S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, extraHeaders, region, accessKeyId, secretKey, hasher).join();
-            HttpUtil.put(putUrl, data);
-            return cid;
-        } catch (IOException e) {
-            LOG.log(Level.SEVERE, e.getMessage(), e);
-            throw new RuntimeException(e.getMessage(), e);
-        } finally {
-            writeTimer.observeDuration();
-        }
+        transactions.addBlock(cid, tid, owner);
+        String s3Key = folder + key;
+        Map<String, String> extraHeaders = new TreeMap<>();
+        extraHeaders.put("Content-Type", "application/octet-stream");
+        boolean hashContent = true;
+        String contentHash = hashContent ? ArrayOps.bytesToHex(hash.getHash()) : "UNSIGNED-PAYLOAD";
+        return S3Request.preSignPut(s3Key, data.length, contentHash, false,
+                S3AdminRequests.asAwsDate(ZonedDateTime.now()), host, extraHeaders, region, accessKeyId, secretKey, hasher)
+                .thenCompose(putUrl -> HttpUtil.putAsync(putUrl, data))
+                .thenApply(x -> cid)
+                .whenComplete((res, t) -> {
+                    writeTimer.observeDuration();
+                    if (t != null)
+                        LOG.log(Level.SEVERE, t.getMessage(), t);
+                });
     }
 
     @Override
@@ -476,6 +532,25 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         return getFiles(Long.MAX_VALUE).stream();
     }
 
+    @Override
+    public void applyToAllBlocks(Consumer<BlockVersion> processor) {
+        applyToAll(obj -> {
+            Cid cid;
+            try {
+                cid = keyToHash(obj.key);
+            } catch (Exception e) {
+                LOG.warning("Couldn't parse S3 key to Cid: " + obj.key);
+                return;
+            }
+            processor.accept(new BlockVersion(cid, obj.size, obj.lastModified.toInstant(ZoneOffset.UTC).toEpochMilli()));
+        }, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasBlockWriteTimes() {
+        return true;
+    }
+
     private List<Cid> getFiles(long maxReturned) {
         List<Cid> results = new ArrayList<>();
         applyToAll(obj -> {
@@ -577,7 +652,13 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         JdbcIpnsAndSocial rawPointers = new JdbcIpnsAndSocial(database, sqlCommands);
         Supplier<Connection> usageDb = Main.getDBConnector(a, "space-usage-sql-file");
         UsageStore usageStore = new JdbcUsageStore(usageDb, sqlCommands);
-        s3.collectGarbage(rawPointers, usageStore);
+        int markParallelism = a.getInt("gc.mark-parallelism", GarbageCollector.DEFAULT_MARK_PARALLELISM);
+        if (a.getBoolean("gc.streaming", false))
+            GarbageCollector.collectStreaming(s3, rawPointers, usageStore, s3::savePointerSnapshot,
+                    a.getLong("gc.expected-blocks", 10_000_000L), GarbageCollector.DEFAULT_WRITE_TIME_MARGIN_MILLIS,
+                    markParallelism);
+        else
+            s3.collectGarbage(rawPointers, usageStore, markParallelism);
     }
 
     @Override
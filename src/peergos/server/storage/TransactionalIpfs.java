@@ -11,6 +11,7 @@ import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 public class TransactionalIpfs extends DelegatingStorage implements DeletableContentAddressedStorage {
@@ -108,6 +109,16 @@ public class TransactionalIpfs extends DelegatingStorage implements DeletableCon
         return getChampLookup(root, champKey, bat, hasher);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        if (! hasBlock(root))
+            return Futures.errored(new IllegalStateException("Champ root not present locally: " + root));
+        return getChampLookups(root, champKeys, bats, hasher);
+    }
+
     @Override
     public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
                                             PublicKeyHash writer,
@@ -142,6 +153,16 @@ public class TransactionalIpfs extends DelegatingStorage implements DeletableCon
         return target.getAllBlockHashes();
     }
 
+    @Override
+    public void applyToAllBlocks(Consumer<BlockVersion> processor) {
+        target.applyToAllBlocks(processor);
+    }
+
+    @Override
+    public boolean hasBlockWriteTimes() {
+        return target.hasBlockWriteTimes();
+    }
+
     @Override
     public void delete(Multihash hash) {
         target.delete(hash);
@@ -0,0 +1,91 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.util.*;
+
+import java.nio.*;
+import java.util.*;
+
+public class BloomFilterTests {
+
+    private static byte[] key(long i) {
+        // similar in shape to a multihash
+        byte[] res = new byte[34];
+        res[0] = 0x12;
+        res[1] = 0x20;
+        ByteBuffer.wrap(res, 2, 8).putLong(i);
+        ByteBuffer.wrap(res, 26, 8).putLong(i * 31);
+        return res;
+    }
+
+    @Test
+    public void noFalseNegatives() {
+        int n = 100_000;
+        BloomFilter filter = BloomFilter.create(n, 0.01);
+        for (int i = 0; i < n; i++)
+            filter.add(key(i));
+        for (int i = 0; i < n; i++)
+            Assert.assertTrue(filter.mightContain(key(i)));
+        Assert.assertEquals(n, filter.addedCount());
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        int n = 100_000;
+        double rate = 0.01;
+        BloomFilter filter = BloomFilter.create(n, rate);
+        for (int i = 0; i < n; i++)
+            filter.add(key(i));
+        int trials = 200_000, falsePositives = 0;
+        for (int i = 0; i < trials; i++)
+            if (filter.mightContain(key(n + i)))
+                falsePositives++;
+        double measured = (double) falsePositives / trials;
+        Assert.assertTrue("False positive rate " + measured, measured < rate * 1.5);
+        Assert.assertTrue("False positive rate " + measured, measured > rate / 2);
+        Assert.assertEquals(rate, filter.expectedFalsePositiveRate(), rate * 0.2);
+    }
+
+    @Test
+    public void randomKeys() {
+        Random r = new Random(42);
+        BloomFilter filter = BloomFilter.create(1000, 0.001);
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = new byte[r.nextInt(40)];
+            r.nextBytes(key);
+            keys.add(key);
+            filter.add(key);
+        }
+        for (byte[] key : keys)
+            Assert.assertTrue(filter.mightContain(key));
+    }
+
+    @Test
+    public void sizingEdgeCases() {
+        for (long expected : new long[]{0, 1}) {
+            BloomFilter filter = BloomFilter.create(expected, 0.01);
+            Assert.assertTrue(filter.sizeInBytes() > 0);
+            Assert.assertFalse(filter.mightContain(key(1)));
+            filter.add(key(1));
+            Assert.assertTrue(filter.mightContain(key(1)));
+            Assert.assertFalse(filter.mightContain(key(2)));
+        }
+        // overfilling a tiny filter degrades to false positives, never false negatives
+        BloomFilter tiny = BloomFilter.create(1, 0.01);
+        for (int i = 0; i < 1000; i++)
+            tiny.add(key(i));
+        for (int i = 0; i < 1000; i++)
+            Assert.assertTrue(tiny.mightContain(key(i)));
+
+        for (double rate : new double[]{0, 1, -0.5, 2})
+            try {
+                BloomFilter.create(10, rate);
+                Assert.fail("Accepted false positive rate " + rate);
+            } catch (IllegalArgumentException expected) {}
+        try {
+            new BloomFilter(0, 1);
+            Assert.fail("Accepted empty filter");
+        } catch (IllegalArgumentException expected) {}
+    }
+}
@@ -0,0 +1,75 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.storage.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class CachingStorageTests {
+    private static final Crypto crypto = Main.initCrypto();
+
+    /** Throws synchronously on the first call to get or getRaw */
+    private static class FailOnceStorage extends DelegatingStorage {
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+
+        FailOnceStorage(ContentAddressedStorage target) {
+            super(target);
+        }
+
+        @Override
+        public ContentAddressedStorage directToOrigin() {
+            return this;
+        }
+
+        @Override
+        public CompletableFuture<Optional<CborObject>> get(Cid hash, Optional<BatWithId> bat) {
+            if (! failed.getAndSet(true))
+                throw new IllegalStateException("Synchronous failure");
+            return super.get(hash, bat);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getRaw(Cid hash, Optional<BatWithId> bat) {
+            if (! failed.getAndSet(true))
+                throw new IllegalStateException("Synchronous failure");
+            return super.getRaw(hash, bat);
+        }
+    }
+
+    @Test
+    public void synchronousFailureDoesNotLeavePendingRequest() throws Exception {
+        RAMStorage ram = new RAMStorage(crypto.hasher);
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(ram, crypto);
+        TransactionId tid = ram.startTransaction(user.publicKeyHash).join();
+        byte[] raw = "raw block".getBytes();
+        Cid rawCid = ram.putRaw(user.publicKeyHash, user.publicKeyHash, Collections.singletonList(new byte[0]),
+                Collections.singletonList(raw), tid, x -> {}).join().get(0);
+        CborObject cbor = new CborObject.CborString("cbor block");
+        Cid cborCid = ram.put(user.publicKeyHash, user.publicKeyHash, Collections.singletonList(new byte[0]),
+                Collections.singletonList(cbor.serialize()), tid).join().get(0);
+
+        ContentAddressedStorage caching = new CachingStorage(new FailOnceStorage(ram), 100, 1024);
+        try {
+            caching.get(cborCid, Optional.empty()).get(5, TimeUnit.SECONDS);
+            Assert.fail("Swallowed failure");
+        } catch (ExecutionException expected) {}
+        Assert.assertEquals(cbor, caching.get(cborCid, Optional.empty()).get(5, TimeUnit.SECONDS).get());
+
+        ContentAddressedStorage cachingRaw = new CachingVerifyingStorage(new FailOnceStorage(ram), 1024, 100, crypto.hasher);
+        try {
+            // a failed raw get completes with an empty result for the original caller
+            cachingRaw.getRaw(rawCid, Optional.empty()).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {}
+        Assert.assertArrayEquals(raw, cachingRaw.getRaw(rawCid, Optional.empty()).get(5, TimeUnit.SECONDS).get());
+    }
+}
@@ -13,14 +13,17 @@ import peergos.shared.cbor.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.storage.*;
+import peergos.shared.storage.auth.*;
 import peergos.shared.util.*;
 
 import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -385,6 +388,175 @@ public class ChampTests {
         return new Pair<>(current, currentHash);
     }
 
+    @Test
+    public void batchMatchesSequential() throws Exception {
+        AtomicLong blocksWritten = new AtomicLong(0);
+        ContentAddressedStorage storage = new DelegatingStorage(new RAMStorage(crypto.hasher)) {
+            @Override
+            public CompletableFuture<List<Cid>> put(PublicKeyHash owner, PublicKeyHash writer, List<byte[]> signedHashes,
+                                                    List<byte[]> blocks, TransactionId tid) {
+                blocksWritten.addAndGet(blocks.size());
+                return super.put(owner, writer, signedHashes, blocks, tid);
+            }
+
+            @Override
+            public ContentAddressedStorage directToOrigin() {
+                return this;
+            }
+        };
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(42);
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        Champ<CborObject.CborMerkleLink> empty = Champ.empty(c -> (CborObject.CborMerkleLink)c);
+        Multihash emptyHash = storage.put(user.publicKeyHash, user, empty.serialize(), writeHasher, tid).get();
+        int bitWidth = ChampWrapper.BIT_WIDTH;
+        int maxCollisions = ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL;
+
+        List<Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> puts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            puts.add(new Triple<>(new ByteArrayWrapper(key), Optional.empty(),
+                    Optional.of(new CborObject.CborMerkleLink(new Multihash(Multihash.Type.sha2_256, value)))));
+        }
+
+        long blocks0 = blocksWritten.get();
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> sequential = new Pair<>(empty, emptyHash);
+        for (Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>> put : puts)
+            sequential = sequential.left.put(user.publicKeyHash, user, put.left, hasher.apply(put.left).join(), 0,
+                    put.middle, put.right, bitWidth, maxCollisions, hasher, tid, storage, writeHasher, sequential.right).join();
+        long blocks1 = blocksWritten.get();
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> batch = empty.putAll(user.publicKeyHash, user, puts, bitWidth,
+                maxCollisions, hasher, tid, storage, writeHasher, emptyHash).join();
+        long blocks2 = blocksWritten.get();
+        Assert.assertEquals(sequential.right, batch.right);
+        Assert.assertTrue(blocks2 - blocks1 < (blocks1 - blocks0) / 4);
+        for (Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>> put : puts)
+            Assert.assertEquals(put.right, batch.left.get(put.left, hasher.apply(put.left).join(), 0, bitWidth, storage).join());
+
+        List<Pair<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>>> removals = puts.subList(0, 60).stream()
+                .map(p -> new Pair<>(p.left, p.right))
+                .collect(Collectors.toList());
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> sequentialRemoved = sequential;
+        for (Pair<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>> rm : removals)
+            sequentialRemoved = sequentialRemoved.left.remove(user.publicKeyHash, user, rm.left, hasher.apply(rm.left).join(), 0,
+                    rm.right, bitWidth, maxCollisions, tid, storage, writeHasher, sequentialRemoved.right).join();
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> batchRemoved = batch.left.removeAll(user.publicKeyHash, user,
+                removals, bitWidth, maxCollisions, hasher, tid, storage, writeHasher, batch.right).join();
+        Assert.assertEquals(sequentialRemoved.right, batchRemoved.right);
+
+        // a failed compare and swap writes nothing
+        long before = blocksWritten.get();
+        try {
+            batch.left.putAll(user.publicKeyHash, user, Arrays.asList(puts.get(0)), bitWidth, maxCollisions, hasher,
+                    tid, storage, writeHasher, batch.right).join();
+            Assert.fail("Expected CAS failure");
+        } catch (CompletionException expected) {}
+        Assert.assertEquals(before, blocksWritten.get());
+    }
+
+    @Test
+    public void lookupReturnsFullPathWhenNodesAreCached() throws Exception {
+        RAMStorage ram = new RAMStorage(crypto.hasher);
+        SigningPrivateKeyAndPublicHash user = createUser(ram, crypto);
+        Random r = new Random(42);
+        TransactionId tid = ram.startTransaction(user.publicKeyHash).get();
+        Champ<CborObject.CborMerkleLink> empty = Champ.empty(c -> (CborObject.CborMerkleLink)c);
+        Multihash emptyHash = ram.put(user.publicKeyHash, user, empty.serialize(), writeHasher, tid).get();
+        List<Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> puts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            puts.add(new Triple<>(new ByteArrayWrapper(key), Optional.empty(),
+                    Optional.of(new CborObject.CborMerkleLink(new Multihash(Multihash.Type.sha2_256, key)))));
+        }
+        // storage lookups hash keys with the identity
+        Cid root = (Cid) empty.putAll(user.publicKeyHash, user, puts, ChampWrapper.BIT_WIDTH,
+                ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, x -> Futures.of(x.data), tid, ram, writeHasher, emptyHash).join().right;
+        byte[] champKey = puts.get(0).left.data;
+
+        ChampNodeCache.clear();
+        List<byte[]> cold = ram.getChampLookup(user.publicKeyHash, root, champKey, Optional.empty()).join();
+        Assert.assertTrue("Lookup includes the nodes below the root", cold.size() > 2);
+        // warm the node cache through a normal champ
+        ChampWrapper.create(root, x -> Futures.of(x.data), ram, writeHasher, c -> (CborObject.CborMerkleLink) c)
+                .thenCompose(tree -> tree.get(champKey)).join();
+        List<byte[]> warm = ram.getChampLookup(user.publicKeyHash, root, champKey, Optional.empty()).join();
+        Assert.assertEquals(cold.stream().map(ByteArrayWrapper::new).collect(Collectors.toSet()),
+                warm.stream().map(ByteArrayWrapper::new).collect(Collectors.toSet()));
+        List<byte[]> warmBatch = ram.getChampLookups(user.publicKeyHash, root, Collections.singletonList(champKey),
+                Collections.singletonList(Optional.empty())).join();
+        Assert.assertEquals(cold.size(), warmBatch.size());
+    }
+
+    @Test
+    public void concurrentTraversal() throws Exception {
+        int delayMillis = 20;
+        AtomicLong gets = new AtomicLong(0);
+        ContentAddressedStorage ram = new RAMStorage(crypto.hasher);
+        ContentAddressedStorage slow = new DelegatingStorage(ram) {
+            @Override
+            public CompletableFuture<Optional<CborObject>> get(Cid hash, Optional<BatWithId> bat) {
+                gets.incrementAndGet();
+                return CompletableFuture.supplyAsync(() -> true, CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS))
+                        .thenCompose(x -> super.get(hash, bat));
+            }
+
+            @Override
+            public ContentAddressedStorage directToOrigin() {
+                return this;
+            }
+        };
+        SigningPrivateKeyAndPublicHash user = createUser(ram, crypto);
+        Random r = new Random(7);
+        TransactionId tid = ram.startTransaction(user.publicKeyHash).get();
+        Champ<CborObject.CborMerkleLink> empty = Champ.empty(c -> (CborObject.CborMerkleLink)c);
+        Multihash emptyHash = ram.put(user.publicKeyHash, user, empty.serialize(), writeHasher, tid).get();
+        List<Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> puts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            puts.add(new Triple<>(new ByteArrayWrapper(key), Optional.empty(),
+                    Optional.of(new CborObject.CborMerkleLink(new Multihash(Multihash.Type.sha2_256, key)))));
+        }
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> tree = empty.putAll(user.publicKeyHash, user, puts,
+                ChampWrapper.BIT_WIDTH, ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, hasher, tid, ram, writeHasher, emptyHash).join();
+
+        ChampNodeCache.clear();
+        long t0 = System.currentTimeMillis();
+        List<ByteArrayWrapper> keys = tree.left.applyToAllMappings(new ArrayList<ByteArrayWrapper>(), (acc, p) -> {
+            acc.add(p.left);
+            return Futures.of(acc);
+        }, slow).join();
+        long duration = System.currentTimeMillis() - t0;
+        System.out.println("Traversed " + gets.get() + " nodes in " + duration + "mS");
+        Assert.assertEquals(puts.stream().map(t -> t.left).collect(Collectors.toSet()), new HashSet<>(keys));
+        Assert.assertEquals(puts.size(), keys.size());
+        // children are fetched concurrently, one level ahead of the traversal
+        Assert.assertTrue(duration < gets.get() * delayMillis / 2);
+
+        // the order of mappings doesn't depend on the order the fetches complete
+        ChampNodeCache.clear();
+        List<ByteArrayWrapper> sequential = new ArrayList<>();
+        tree.left.applyToAllMappings(sequential, (acc, p) -> {
+            acc.add(p.left);
+            return Futures.of(acc);
+        }, ram).join();
+        Assert.assertEquals(sequential, keys);
+
+        // a second traversal is served from the node cache
+        long getsBefore = gets.get();
+        tree.left.applyToAllMappings(0, (acc, p) -> Futures.of(acc + 1), slow).join();
+        Assert.assertEquals(getsBefore, gets.get());
+
+        // including for a champ with a different value decoder instance
+        Champ<CborObject.CborMerkleLink> otherDecoder = Champ.fromCbor(tree.left.toCbor(), c -> (CborObject.CborMerkleLink) c);
+        Assert.assertEquals(keys.size(), (int) otherDecoder.applyToAllMappings(0, (acc, p) -> Futures.of(acc + 1), slow).join());
+        Assert.assertEquals(getsBefore, gets.get());
+    }
+
     public static SigningPrivateKeyAndPublicHash createUser(ContentAddressedStorage storage, Crypto crypto) {
         SigningKeyPair random = SigningKeyPair.random(crypto.random, crypto.signer);
         try {
@@ -0,0 +1,223 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.server.storage.auth.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.storage.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+public class DiskCachingStorageTests {
+    private static final Crypto crypto = Main.initCrypto();
+    private static final BlockRequestAuthoriser ALLOW_ALL = (b, d, s, a) -> Futures.of(true);
+
+    /** Counts the reads which reach the underlying storage */
+    private static class CountingStorage extends DelegatingStorage {
+        final AtomicInteger reads = new AtomicInteger(0);
+
+        CountingStorage(ContentAddressedStorage target) {
+            super(target);
+        }
+
+        @Override
+        public ContentAddressedStorage directToOrigin() {
+            return this;
+        }
+
+        @Override
+        public CompletableFuture<Optional<CborObject>> get(Cid hash, Optional<BatWithId> bat) {
+            reads.incrementAndGet();
+            return super.get(hash, bat);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getRaw(Cid hash, Optional<BatWithId> bat) {
+            reads.incrementAndGet();
+            return super.getRaw(hash, bat);
+        }
+    }
+
+    private static class Network {
+        final RAMStorage ram = new RAMStorage(crypto.hasher);
+        final CountingStorage target = new CountingStorage(ram);
+        final SigningPrivateKeyAndPublicHash user = ChampTests.createUser(ram, crypto);
+
+        List<Cid> putRaw(List<byte[]> blocks) {
+            TransactionId tid = ram.startTransaction(user.publicKeyHash).join();
+            List<Cid> res = ram.putRaw(user.publicKeyHash, user.publicKeyHash,
+                    blocks.stream().map(b -> new byte[0]).collect(Collectors.toList()), blocks, tid, x -> {}).join();
+            ram.closeTransaction(user.publicKeyHash, tid).join();
+            return res;
+        }
+
+        Cid put(CborObject block) {
+            TransactionId tid = ram.startTransaction(user.publicKeyHash).join();
+            Cid res = ram.put(user.publicKeyHash, user.publicKeyHash, Collections.singletonList(new byte[0]),
+                    Collections.singletonList(block.serialize()), tid).join().get(0);
+            ram.closeTransaction(user.publicKeyHash, tid).join();
+            return res;
+        }
+    }
+
+    private static List<byte[]> randomBlocks(int count, int size) {
+        Random r = new Random(42);
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    byte[] block = new byte[size];
+                    r.nextBytes(block);
+                    return block;
+                }).collect(Collectors.toList());
+    }
+
+    private static void waitUntilCached(DiskCachingStorage cache, Cid block) throws InterruptedException {
+        for (int i = 0; i < 500 && ! cache.isCached(block); i++)
+            Thread.sleep(10);
+        Assert.assertTrue("Block wasn't cached", cache.isCached(block));
+    }
+
+    private static Path blockFile(Path root, Cid c) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(p -> p.getFileName().toString().equals(c.toString()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No cache file for " + c));
+        }
+    }
+
+    @Test
+    public void missFillsCacheThenHits() throws Exception {
+        Network network = new Network();
+        byte[] raw = randomBlocks(1, 1000).get(0);
+        Cid rawCid = network.putRaw(Collections.singletonList(raw)).get(0);
+        CborObject cbor = new CborObject.CborString("cbor block");
+        Cid cborCid = network.put(cbor);
+        DiskCachingStorage cache = new DiskCachingStorage(network.target, Files.createTempDirectory("peergos-block-cache"),
+                1024 * 1024, ALLOW_ALL, crypto.hasher);
+
+        Assert.assertArrayEquals(raw, cache.getRaw(rawCid, Optional.empty()).join().get());
+        Assert.assertEquals(cbor, cache.get(cborCid, Optional.empty()).join().get());
+        Assert.assertEquals(2, cache.missCount());
+        waitUntilCached(cache, rawCid);
+        waitUntilCached(cache, cborCid);
+
+        Assert.assertArrayEquals(raw, cache.getRaw(rawCid, Optional.empty()).join().get());
+        Assert.assertEquals(cbor, cache.get(cborCid, Optional.empty()).join().get());
+        Assert.assertEquals(2, cache.hitCount());
+        Assert.assertEquals(2, network.target.reads.get());
+    }
+
+    @Test
+    public void corruptBlockIsRefetched() throws Exception {
+        Network network = new Network();
+        byte[] raw = randomBlocks(1, 1000).get(0);
+        Cid rawCid = network.putRaw(Collections.singletonList(raw)).get(0);
+        Path root = Files.createTempDirectory("peergos-block-cache");
+        DiskCachingStorage cache = new DiskCachingStorage(network.target, root, 1024 * 1024, ALLOW_ALL, crypto.hasher);
+        cache.getRaw(rawCid, Optional.empty()).join();
+        waitUntilCached(cache, rawCid);
+
+        // truncate the cached copy
+        Files.write(blockFile(root, rawCid), Arrays.copyOfRange(raw, 0, 100));
+        Assert.assertArrayEquals(raw, cache.getRaw(rawCid, Optional.empty()).join().get());
+        Assert.assertEquals(2, network.target.reads.get());
+        waitUntilCached(cache, rawCid);
+        Assert.assertArrayEquals(raw, Files.readAllBytes(blockFile(root, rawCid)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyReadToLowWaterMark() throws Exception {
+        Network network = new Network();
+        int blockSize = 1000;
+        long maxBytes = 100 * blockSize;
+        List<byte[]> blocks = randomBlocks(100, blockSize);
+        List<Cid> cids = network.putRaw(blocks);
+        DiskCachingStorage cache = new DiskCachingStorage(network.target, Files.createTempDirectory("peergos-block-cache"),
+                maxBytes, ALLOW_ALL, crypto.hasher);
+        for (Cid cid : cids) {
+            cache.getRaw(cid, Optional.empty()).join();
+            waitUntilCached(cache, cid);
+        }
+        Assert.assertEquals(maxBytes, cache.sizeInBytes());
+        // the first block is now the most recently read
+        cache.getRaw(cids.get(0), Optional.empty()).join();
+
+        Cid extra = network.putRaw(randomBlocks(101, blockSize).subList(100, 101)).get(0);
+        cache.getRaw(extra, Optional.empty()).join();
+        waitUntilCached(cache, extra);
+        // eviction runs on the cache writer thread, just after the block is indexed
+        for (int i = 0; i < 500 && cache.sizeInBytes() > maxBytes; i++)
+            Thread.sleep(10);
+
+        Assert.assertTrue(cache.sizeInBytes() <= maxBytes * 9 / 10);
+        Assert.assertTrue(cache.sizeInBytes() > maxBytes * 8 / 10);
+        Assert.assertTrue(cache.isCached(cids.get(0)));
+        Assert.assertTrue(! cache.isCached(cids.get(1)));
+        Assert.assertTrue(cache.isCached(cids.get(cids.size() - 1)));
+    }
+
+    @Test
+    public void reindexesExistingBlocksAfterRestart() throws Exception {
+        Network network = new Network();
+        List<byte[]> blocks = randomBlocks(10, 1000);
+        List<Cid> cids = network.putRaw(blocks);
+        Path root = Files.createTempDirectory("peergos-block-cache");
+        DiskCachingStorage cache = new DiskCachingStorage(network.target, root, 1024 * 1024, ALLOW_ALL, crypto.hasher);
+        for (Cid cid : cids) {
+            cache.getRaw(cid, Optional.empty()).join();
+            waitUntilCached(cache, cid);
+        }
+        // an interrupted write should be cleaned up
+        Path tmp = blockFile(root, cids.get(0)).resolveSibling("partial.tmp");
+        Files.write(tmp, new byte[10]);
+
+        DiskCachingStorage restarted = new DiskCachingStorage(network.target, root, 1024 * 1024, ALLOW_ALL, crypto.hasher);
+        Assert.assertEquals(cache.sizeInBytes(), restarted.sizeInBytes());
+        Assert.assertTrue(! tmp.toFile().exists());
+        int readsBefore = network.target.reads.get();
+        for (int i = 0; i < cids.size(); i++)
+            Assert.assertArrayEquals(blocks.get(i), restarted.getRaw(cids.get(i), Optional.empty()).join().get());
+        Assert.assertEquals(readsBefore, network.target.reads.get());
+        Assert.assertEquals(cids.size(), restarted.hitCount());
+    }
+
+    @Test
+    public void cachedReadsAreAuthorised() throws Exception {
+        Network network = new Network();
+        Bat bat = Bat.random(crypto.random);
+        Cid batId = crypto.hasher.hash(bat.serialize(), true).join();
+        BatWithId batWithId = new BatWithId(bat, batId);
+        BlockRequestAuthoriser authoriser = (block, data, source, auth) -> Futures.of(! auth.isEmpty() &&
+                BlockRequestAuthoriser.isValidAuth(BlockAuth.fromString(auth), block, source, bat, crypto.hasher));
+        byte[] raw = randomBlocks(1, 1000).get(0);
+        Cid rawCid = network.putRaw(Collections.singletonList(raw)).get(0);
+        DiskCachingStorage cache = new DiskCachingStorage(network.target, Files.createTempDirectory("peergos-block-cache"),
+                1024 * 1024, authoriser, crypto.hasher);
+        cache.getRaw(rawCid, Optional.of(batWithId)).join();
+        waitUntilCached(cache, rawCid);
+
+        Assert.assertArrayEquals(raw, cache.getRaw(rawCid, Optional.of(batWithId)).join().get());
+        Assert.assertEquals(1, cache.hitCount());
+        try {
+            cache.getRaw(rawCid, Optional.empty()).join();
+            Assert.fail("Served cached block without a bat");
+        } catch (CompletionException expected) {}
+        Bat otherBat = Bat.random(crypto.random);
+        try {
+            cache.getRaw(rawCid, Optional.of(new BatWithId(otherBat, crypto.hasher.hash(otherBat.serialize(), true).join()))).join();
+            Assert.fail("Served cached block with the wrong bat");
+        } catch (CompletionException expected) {}
+        Assert.assertEquals(1, network.target.reads.get());
+    }
+}
@@ -0,0 +1,115 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.crypto.*;
+import peergos.server.crypto.asymmetric.curve25519.*;
+import peergos.shared.crypto.asymmetric.curve25519.*;
+
+import java.util.*;
+
+public class Ed25519BatchTests {
+    private static final Ed25519Java signer = new Ed25519Java();
+    private final Random random = new Random(1337);
+
+    private final List<byte[]> messages = new ArrayList<>();
+    private final List<byte[]> signed = new ArrayList<>();
+    private final List<byte[]> publicKeys = new ArrayList<>();
+
+    private void generate(int count) {
+        for (int i = 0; i < count; i++) {
+            byte[] publicKey = new byte[32], secretKey = new byte[64];
+            random.nextBytes(secretKey);
+            signer.crypto_sign_keypair(publicKey, secretKey);
+            byte[] message = new byte[random.nextInt(200)];
+            random.nextBytes(message);
+            messages.add(message);
+            signed.add(signer.crypto_sign(message, secretKey));
+            publicKeys.add(publicKey);
+        }
+    }
+
+    private void checkMatchesIndividual(Set<Integer> invalid) {
+        List<Optional<byte[]>> res = signer.crypto_sign_open_batch(signed, publicKeys);
+        Assert.assertEquals(signed.size(), res.size());
+        for (int i = 0; i < signed.size(); i++) {
+            if (invalid.contains(i)) {
+                Assert.assertTrue("Accepted invalid signature " + i, res.get(i).isEmpty());
+                try {
+                    signer.crypto_sign_open(signed.get(i), publicKeys.get(i));
+                    Assert.fail("Individual verification accepted invalid signature " + i);
+                } catch (TweetNaCl.InvalidSignatureException expected) {}
+            } else
+                Assert.assertArrayEquals(messages.get(i), res.get(i).get());
+        }
+    }
+
+    @Test
+    public void allValid() {
+        generate(150);
+        Assert.assertTrue(TweetNaCl.crypto_sign_verify_batch(signed, publicKeys));
+        checkMatchesIndividual(Collections.emptySet());
+    }
+
+    @Test
+    public void rejectModified() {
+        generate(100);
+        Set<Integer> invalid = new HashSet<>();
+        // signature R, signature s and message
+        for (int index : new int[]{3, 40, 77}) {
+            byte[] modified = signed.get(index).clone();
+            modified[index % modified.length] ^= 1;
+            signed.set(index, modified);
+            invalid.add(index);
+        }
+        Assert.assertFalse(TweetNaCl.crypto_sign_verify_batch(signed, publicKeys));
+        checkMatchesIndividual(invalid);
+    }
+
+    @Test
+    public void rejectWrongKey() {
+        generate(10);
+        publicKeys.set(5, publicKeys.get(6));
+        Assert.assertFalse(TweetNaCl.crypto_sign_verify_batch(signed, publicKeys));
+        checkMatchesIndividual(Set.of(5));
+    }
+
+    @Test
+    public void rejectNonCanonicalR() {
+        generate(4);
+        // adding p to y gives a non canonical encoding of the same R when y < 19
+        byte[] withSmallY = signed.get(2).clone();
+        Arrays.fill(withSmallY, 0, 32, (byte) 0);
+        withSmallY[0] = 1;
+        byte[] nonCanonical = withSmallY.clone();
+        nonCanonical[0] = (byte) 0xee;
+        for (int i = 1; i < 31; i++)
+            nonCanonical[i] = (byte) 0xff;
+        nonCanonical[31] = 0x7f;
+        signed.set(2, nonCanonical);
+        Assert.assertFalse(TweetNaCl.crypto_sign_verify_batch(signed, publicKeys));
+        checkMatchesIndividual(Set.of(2));
+    }
+
+    @Test
+    public void rejectTooShort() {
+        generate(5);
+        signed.set(1, new byte[10]);
+        signed.set(3, new byte[0]);
+        // an individual verifier which fails on malformed input with something other than an invalid signature
+        Ed25519 strict = new Ed25519Java() {
+            @Override
+            public byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey) {
+                if (signed.length < TweetNaCl.SIGNATURE_SIZE_BYTES)
+                    throw new IllegalArgumentException("Too short to hold a signature!");
+                return super.crypto_sign_open(signed, publicSigningKey);
+            }
+        };
+        List<Optional<byte[]>> res = Ed25519Java.openBatch(signed, publicKeys, strict);
+        for (int i = 0; i < signed.size(); i++) {
+            if (i == 1 || i == 3)
+                Assert.assertTrue("Accepted short value " + i, res.get(i).isEmpty());
+            else
+                Assert.assertArrayEquals(messages.get(i), res.get(i).get());
+        }
+    }
+}
@@ -101,6 +101,45 @@ public class FuseTests {
         assertTrue("target contents equal to initial contents", Arrays.equals(initialData, targetData));
     }
 
+    @Test public void renameOverTest() throws IOException {
+        Path source = createRandomFile(0x1000);
+        Path target = createRandomFile(0x1000);
+        byte[] sourceData = Files.readAllBytes(source);
+        // cache the target's chunks
+        Files.readAllBytes(target);
+
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+
+        assertFalse("source still exists", source.toFile().exists());
+        assertTrue("target contents equal to source contents", Arrays.equals(sourceData, Files.readAllBytes(target)));
+    }
+
+    @Test public void atomicRenameOverTest() throws IOException {
+        // an atomic move is a single rename(2), which must replace the target rather than fail
+        Path source = createRandomFile(0x1000);
+        Path target = createRandomFile(0x1000);
+        byte[] sourceData = Files.readAllBytes(source);
+        Files.readAllBytes(target);
+
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+
+        assertFalse("source still exists", source.toFile().exists());
+        assertTrue("target contents equal to source contents", Arrays.equals(sourceData, Files.readAllBytes(target)));
+    }
+
+    @Test public void atomicRenameOverDirectoryTest() throws IOException {
+        Path source = createRandomFile(0x1000);
+        Path targetDir = home.resolve(randomUUID().toString());
+        targetDir.toFile().mkdirs();
+        try {
+            Files.move(source, targetDir, StandardCopyOption.ATOMIC_MOVE);
+            fail("renamed a file over a directory");
+        } catch (IOException expected) {}
+
+        assertTrue("source still exists", source.toFile().exists());
+        assertTrue("target is still a directory", targetDir.toFile().isDirectory());
+    }
+
     @Test public void copyFileTest() throws IOException  {
         Path initial = createRandomFile(1024*1024*10);
         Path target = initial.getParent().resolve(randomUUID().toString());
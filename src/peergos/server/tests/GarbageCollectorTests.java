@@ -0,0 +1,266 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.corenode.*;
+import peergos.server.mutable.*;
+import peergos.server.space.*;
+import peergos.server.sql.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+public class GarbageCollectorTests {
+    private static final Crypto crypto = Main.initCrypto();
+
+    /** Reports every block as written long ago, so all blocks are candidates for deletion */
+    static class OldBlocksStorage extends RAMStorage {
+        final Set<Cid> linksRetrieved = ConcurrentHashMap.newKeySet();
+        // the number of getLinks calls to fail with a rate limit, as S3 does asynchronously
+        final AtomicInteger rateLimitedGetLinks = new AtomicInteger(0);
+        // run once, when the collector next lists blocks in open transactions
+        Runnable beforePendingListing = () -> {};
+
+        OldBlocksStorage() {
+            super(crypto.hasher);
+        }
+
+        @Override
+        public void applyToAllBlocks(Consumer<BlockVersion> processor) {
+            getAllBlockHashes().collect(Collectors.toList())
+                    .forEach(c -> processor.accept(new BlockVersion(c, 0, 0)));
+        }
+
+        @Override
+        public boolean hasBlockWriteTimes() {
+            return true;
+        }
+
+        @Override
+        public List<Multihash> getOpenTransactionBlocks() {
+            Runnable hook = beforePendingListing;
+            beforePendingListing = () -> {};
+            hook.run();
+            return super.getOpenTransactionBlocks();
+        }
+
+        @Override
+        public CompletableFuture<List<Cid>> getLinks(Cid root, String auth) {
+            if (rateLimitedGetLinks.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+                return Futures.errored(new RateLimitException());
+            linksRetrieved.add(root);
+            return super.getLinks(root, auth);
+        }
+    }
+
+    static class Network {
+        final OldBlocksStorage storage = new OldBlocksStorage();
+        final JdbcIpnsAndSocial pointers = new JdbcIpnsAndSocial(Main.buildEphemeralSqlite(), new SqliteCommands());
+        final UsageStore usage = new JdbcUsageStore(Main.buildEphemeralSqlite(), new SqliteCommands());
+        final Set<Cid> reachable = new HashSet<>();
+        final Set<Cid> garbage = new HashSet<>();
+        final Random random = new Random(42);
+
+        Cid putRaw(PublicKeyHash owner, TransactionId tid) {
+            byte[] data = new byte[100];
+            random.nextBytes(data);
+            return storage.putRaw(owner, owner, Collections.singletonList(new byte[0]), Collections.singletonList(data),
+                    tid, x -> {}).join().get(0);
+        }
+
+        Cid putNode(PublicKeyHash owner, List<Cid> children, TransactionId tid) {
+            SortedMap<String, Cborable> links = new TreeMap<>();
+            for (int i = 0; i < children.size(); i++)
+                links.put("l" + i, new CborObject.CborMerkleLink(children.get(i)));
+            links.put("n", new CborObject.CborLong(random.nextLong()));
+            return storage.put(owner, owner, Collections.singletonList(new byte[0]),
+                    Collections.singletonList(CborObject.CborMap.build(links).serialize()), tid).join().get(0);
+        }
+
+        /** A tree of cbor nodes with raw leaves, returns the root */
+        Cid putTree(PublicKeyHash owner, int depth, Set<Cid> blocks, TransactionId tid) {
+            List<Cid> children = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Cid child = depth == 0 ? putRaw(owner, tid) : putTree(owner, depth - 1, blocks, tid);
+                blocks.add(child);
+                children.add(child);
+            }
+            Cid root = putNode(owner, children, tid);
+            blocks.add(root);
+            return root;
+        }
+
+        /** Create writers whose trees all share a subtree, and some unreachable trees */
+        void populate(int writers) {
+            SigningPrivateKeyAndPublicHash first = ChampTests.createUser(storage, crypto);
+            TransactionId tid = storage.startTransaction(first.publicKeyHash).join();
+            Cid shared = putTree(first.publicKeyHash, 2, reachable, tid);
+            storage.closeTransaction(first.publicKeyHash, tid).join();
+            for (int i = 0; i < writers; i++) {
+                SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+                PublicKeyHash owner = writer.publicKeyHash;
+                tid = storage.startTransaction(owner).join();
+                Cid tree = putTree(owner, 2, reachable, tid);
+                putTree(owner, 1, garbage, tid);
+                Cid root = putNode(owner, Arrays.asList(tree, shared), tid);
+                reachable.add(root);
+                setPointer(writer, MaybeMultihash.empty(), root);
+                storage.closeTransaction(owner, tid).join();
+            }
+        }
+
+        void setPointer(SigningPrivateKeyAndPublicHash writer, MaybeMultihash current, Cid target) {
+            Optional<byte[]> existing = pointers.getPointer(writer.publicKeyHash).join();
+            byte[] signed = writer.secret.signMessage(new HashCasPair(current, MaybeMultihash.of(target)).serialize());
+            Assert.assertTrue(pointers.setPointer(writer.publicKeyHash, existing, signed).join());
+        }
+
+        void checkReachablePresent() {
+            for (Cid block : reachable)
+                Assert.assertTrue("Deleted reachable block " + block, storage.hasBlock(block));
+        }
+
+        long garbageRemaining() {
+            return garbage.stream().filter(storage::hasBlock).count();
+        }
+    }
+
+    @Test
+    public void collect() {
+        Network network = new Network();
+        network.populate(10);
+        GarbageCollector.collect(network.storage, network.pointers, network.usage, s -> Futures.of(true),
+                GarbageCollector.DEFAULT_MARK_PARALLELISM);
+        network.checkReachablePresent();
+        Assert.assertEquals(0, network.garbageRemaining());
+    }
+
+    @Test
+    public void collectBacksOffWhenRateLimited() {
+        Network network = new Network();
+        network.populate(3);
+        network.storage.rateLimitedGetLinks.set(1);
+        GarbageCollector.collect(network.storage, network.pointers, network.usage, s -> Futures.of(true),
+                GarbageCollector.DEFAULT_MARK_PARALLELISM);
+        Assert.assertEquals(0, network.storage.rateLimitedGetLinks.get());
+        network.checkReachablePresent();
+        Assert.assertEquals(0, network.garbageRemaining());
+    }
+
+    @Test
+    public void collectStreaming() {
+        Network network = new Network();
+        network.populate(10);
+        GarbageCollector.collectStreaming(network.storage, network.pointers, network.usage, s -> Futures.of(true),
+                network.reachable.size(), 0, GarbageCollector.DEFAULT_MARK_PARALLELISM);
+        network.checkReachablePresent();
+        Assert.assertTrue(network.garbageRemaining() < network.garbage.size() / 10);
+    }
+
+    @Test
+    public void collectStreamingWithOverfullBloomFilter() {
+        // Almost every block is a bloom filter false positive, which must not stop its subtree being marked
+        Network network = new Network();
+        network.populate(10);
+        GarbageCollector.collectStreaming(network.storage, network.pointers, network.usage, s -> Futures.of(true),
+                1, 0, 1);
+        network.checkReachablePresent();
+        for (Cid block : network.reachable)
+            if (! block.isRaw())
+                Assert.assertTrue("Didn't mark links of " + block, network.storage.linksRetrieved.contains(block));
+    }
+
+    @Test
+    public void incrementalWithConcurrentCommit() throws Exception {
+        Network network = new Network();
+        IncrementalGarbageCollector gc = new IncrementalGarbageCollector(network.storage, network.pointers,
+                network.usage, 1000, 1, 0, 100);
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(network.storage, crypto);
+        PublicKeyHash owner = writer.publicKeyHash;
+        TransactionId tid = network.storage.startTransaction(owner).join();
+        Cid root0 = network.putNode(owner, Collections.emptyList(), tid);
+        network.setPointer(writer, MaybeMultihash.empty(), root0);
+        network.storage.closeTransaction(owner, tid).join();
+        gc.collect(s -> Futures.of(true));
+
+        // a young subtree which then becomes unreachable
+        tid = network.storage.startTransaction(owner).join();
+        Cid child = network.putTree(owner, 1, new HashSet<>(), tid);
+        Cid root1 = network.putNode(owner, Collections.singletonList(child), tid);
+        network.setPointer(writer, MaybeMultihash.of(root0), root1);
+        network.storage.closeTransaction(owner, tid).join();
+        gc.collect(s -> Futures.of(true));
+        tid = network.storage.startTransaction(owner).join();
+        Cid root2 = network.putNode(owner, Collections.emptyList(), tid);
+        network.setPointer(writer, MaybeMultihash.of(root1), root2);
+        network.storage.closeTransaction(owner, tid).join();
+        Thread.sleep(10);
+
+        // a commit that references it again and completes while the collector is starting
+        network.storage.beforePendingListing = () -> {
+            TransactionId tid2 = network.storage.startTransaction(owner).join();
+            Cid root3 = network.putNode(owner, Collections.singletonList(child), tid2);
+            network.setPointer(writer, MaybeMultihash.of(root2), root3);
+            network.storage.closeTransaction(owner, tid2).join();
+        };
+        gc.collect(s -> Futures.of(true));
+        Assert.assertTrue(network.storage.hasBlock(child));
+        for (Cid link : network.storage.getLinks(child, "").join())
+            Assert.assertTrue(network.storage.hasBlock(link));
+    }
+
+    @Test
+    public void incrementalRefreshesReferencedYoungBlocks() throws Exception {
+        Network network = new Network();
+        long gracePeriod = 500;
+        IncrementalGarbageCollector gc = new IncrementalGarbageCollector(network.storage, network.pointers,
+                network.usage, 1000, 1, gracePeriod, 100);
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(network.storage, crypto);
+        PublicKeyHash owner = writer.publicKeyHash;
+        TransactionId tid = network.storage.startTransaction(owner).join();
+        Cid root0 = network.putNode(owner, Collections.emptyList(), tid);
+        network.setPointer(writer, MaybeMultihash.empty(), root0);
+        gc.collect(s -> Futures.of(true));
+
+        Cid child = network.putTree(owner, 1, new HashSet<>(), tid);
+        Cid root1 = network.putNode(owner, Collections.singletonList(child), tid);
+        network.setPointer(writer, MaybeMultihash.of(root0), root1);
+        gc.collect(s -> Futures.of(true));
+        Thread.sleep(gracePeriod + 100);
+
+        // the old young subtree is referenced again, then becomes unreachable within its new grace period
+        Cid previous = root1;
+        for (List<Cid> links : Arrays.asList(Collections.<Cid>emptyList(), Collections.singletonList(child),
+                Collections.<Cid>emptyList())) {
+            Cid root = network.putNode(owner, links, tid);
+            network.setPointer(writer, MaybeMultihash.of(previous), root);
+            gc.accept(new MutableEvent(owner, owner, network.pointers.getPointer(owner).join().get()));
+            previous = root;
+        }
+        network.storage.closeTransaction(owner, tid).join();
+        List<Cid> grandChildren = network.storage.getLinks(child, "").join();
+        gc.collect(s -> Futures.of(true));
+        Assert.assertTrue(network.storage.hasBlock(child));
+        for (Cid link : grandChildren)
+            Assert.assertTrue(network.storage.hasBlock(link));
+
+        Thread.sleep(gracePeriod + 100);
+        gc.collect(s -> Futures.of(true));
+        Assert.assertFalse(network.storage.hasBlock(child));
+        for (Cid link : grandChildren)
+            Assert.assertFalse(network.storage.hasBlock(link));
+    }
+}
@@ -0,0 +1,39 @@
+package peergos.server.tests;
+
+import com.sun.net.httpserver.*;
+import org.junit.*;
+import peergos.server.util.*;
+import peergos.shared.storage.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HttpUtilTests {
+
+    @Test
+    public void headNotFound() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", ex -> {
+            int code = ex.getRequestURI().getPath().equals("/present") ? 200 : 404;
+            ex.getResponseHeaders().set("Content-Length", "5");
+            ex.sendResponseHeaders(code, -1);
+            ex.close();
+        });
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            Map<String, List<String>> headers = HttpUtil.headAsync(new PresignedUrl(base + "/present", Collections.emptyMap())).join();
+            Assert.assertEquals("5", headers.get("content-length").get(0));
+            try {
+                HttpUtil.headAsync(new PresignedUrl(base + "/missing", Collections.emptyMap())).join();
+                Assert.fail("Found missing resource");
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof FileNotFoundException);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
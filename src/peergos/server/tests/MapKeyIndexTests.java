@@ -0,0 +1,46 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.shared.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+
+public class MapKeyIndexTests {
+    private static final Crypto crypto = Main.initCrypto();
+    private static final Hasher h = crypto.hasher;
+
+    @Test
+    public void seeksMatchChain() {
+        Random r = new Random(42);
+        byte[] streamSecret = new byte[32];
+        byte[] firstMapKey = new byte[32];
+        r.nextBytes(streamSecret);
+        r.nextBytes(firstMapKey);
+        Optional<Bat> firstBat = Optional.of(Bat.random(crypto.random));
+
+        int nChunks = 300;
+        List<Pair<byte[], Optional<Bat>>> chain = new ArrayList<>();
+        chain.add(new Pair<>(firstMapKey, firstBat));
+        for (int i = 1; i < nChunks; i++) {
+            Pair<byte[], Optional<Bat>> prev = chain.get(i - 1);
+            chain.add(FileProperties.calculateNextMapKey(streamSecret, prev.left, prev.right, h).join());
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            order.add(r.nextInt(nChunks));
+        for (int i = 0; i < nChunks; i++)
+            order.add(i);
+        for (int chunk : order) {
+            Pair<byte[], Optional<Bat>> res = FileProperties.calculateMapKey(streamSecret, firstMapKey, firstBat,
+                    (long) chunk * Chunk.MAX_SIZE + r.nextInt(Chunk.MAX_SIZE), h).join();
+            Assert.assertArrayEquals(chain.get(chunk).left, res.left);
+            Assert.assertEquals(chain.get(chunk).right, res.right);
+        }
+    }
+}
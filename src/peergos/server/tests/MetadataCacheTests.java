@@ -0,0 +1,166 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.fuse.*;
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.user.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+public class MetadataCacheTests {
+    private static final Crypto crypto = Main.initCrypto();
+    private static Args args = UserTests.buildArgs().with("useIPFS", "false");
+    private static NetworkAccess network;
+    private static UserContext context;
+    private static final Random random = new Random(42);
+
+    @BeforeClass
+    public static void init() {
+        UserService service = Main.PKI_INIT.main(args);
+        WriteSynchronizer synchronizer = new WriteSynchronizer(service.mutable, service.storage, crypto.hasher);
+        MutableTree mutableTree = new MutableTreeImpl(service.mutable, service.storage, crypto.hasher, synchronizer);
+        network = new NetworkAccess(service.coreNode, service.account, service.social, service.storage,
+                service.bats, service.mutable, mutableTree, synchronizer, service.controller, service.usage,
+                service.serverMessages, crypto.hasher, Arrays.asList("peergos"), false);
+        context = PeergosNetworkUtils.ensureSignedUp(PeergosNetworkUtils.generateUsername(random), "password", network, crypto);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        try {Thread.sleep(2000);}catch (InterruptedException e) {}
+        Path peergosDir = args.fromPeergosDir("", "");
+        System.out.println("Deleting " + peergosDir);
+        UserTests.deleteFiles(peergosDir.toFile());
+    }
+
+    private static String home() {
+        return "/" + context.username;
+    }
+
+    private static FileWrapper upload(String dir, String name) {
+        byte[] data = new byte[10];
+        random.nextBytes(data);
+        context.getByPath(dir).join().get()
+                .uploadOrReplaceFile(name, new AsyncReader.ArrayBacked(data), data.length, network, crypto, x -> {}).join();
+        return context.getByPath(dir + "/" + name).join().get();
+    }
+
+    private static String mkdir(String parent) {
+        String name = PeergosNetworkUtils.generateUsername(random);
+        context.getByPath(parent).join().get().mkdir(name, network, false, Optional.empty(), crypto).join();
+        return parent + "/" + name;
+    }
+
+    /** Retrieves the stat of a path, counting how many times it is called */
+    private static Supplier<Optional<PeergosFS.PeergosStat>> statRetriever(String path, AtomicInteger calls) {
+        return () -> {
+            calls.incrementAndGet();
+            return context.getByPath(path).join().map(f -> new PeergosFS.PeergosStat(f, f.getFileProperties()));
+        };
+    }
+
+    private static Supplier<Pair<FileWrapper, Set<FileWrapper>>> listingRetriever(String path, AtomicInteger calls) {
+        return () -> {
+            calls.incrementAndGet();
+            FileWrapper dir = context.getByPath(path).join().get();
+            return new Pair<>(dir, dir.getChildren(crypto.hasher, network).join());
+        };
+    }
+
+    @Test
+    public void hits() {
+        MetadataCache cache = new MetadataCache(network, 60_000);
+        String dir = mkdir(home());
+        upload(dir, "a.txt");
+        upload(dir, "b.txt");
+        AtomicInteger listingCalls = new AtomicInteger(0), statCalls = new AtomicInteger(0);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a.txt", "b.txt")),
+                new HashSet<>(cache.getListing(dir, listingRetriever(dir, listingCalls))));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a.txt", "b.txt")),
+                new HashSet<>(cache.getListing(dir, listingRetriever(dir, listingCalls))));
+        Assert.assertEquals(1, listingCalls.get());
+
+        // the listing primes the stats of its children
+        Optional<PeergosFS.PeergosStat> stat = cache.getStat(dir + "/a.txt", statRetriever(dir + "/a.txt", statCalls));
+        Assert.assertEquals("a.txt", stat.get().properties.name);
+        Assert.assertEquals(0, statCalls.get());
+
+        // missing paths are cached too
+        Assert.assertTrue(cache.getStat(dir + "/missing", statRetriever(dir + "/missing", statCalls)).isEmpty());
+        Assert.assertTrue(cache.getStat(dir + "/missing", statRetriever(dir + "/missing", statCalls)).isEmpty());
+        Assert.assertEquals(1, statCalls.get());
+        Assert.assertEquals(3, cache.hits());
+        Assert.assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void invalidationAfterWrite() {
+        MetadataCache cache = new MetadataCache(network, 60_000);
+        String dir = mkdir(home());
+        String sub = mkdir(dir);
+        upload(sub, "deep.txt");
+        // a sibling whose name starts with the same characters as dir
+        String sibling = dir + "x";
+        context.getByPath(home()).join().get().mkdir(Paths.get(sibling).getFileName().toString(), network, false,
+                Optional.empty(), crypto).join();
+        upload(sibling, "other.txt");
+        AtomicInteger calls = new AtomicInteger(0);
+        List<String> paths = Arrays.asList(home(), dir, sub, sub + "/deep.txt", sibling, sibling + "/other.txt");
+        for (String path : paths)
+            cache.getStat(path, statRetriever(path, calls));
+        cache.getListing(sub, listingRetriever(sub, calls));
+        Assert.assertEquals(paths.size() + 1, calls.get());
+
+        upload(sub, "new.txt");
+        cache.invalidate(sub + "/new.txt");
+        // the parent listing is dropped, so the new file is visible
+        Assert.assertTrue(cache.getListing(sub, listingRetriever(sub, calls)).contains("new.txt"));
+        Assert.assertEquals(paths.size() + 2, calls.get());
+
+        // invalidating a directory drops its parent and its whole subtree, but not a sibling with a common prefix
+        cache.invalidate(dir);
+        calls.set(0);
+        for (String path : paths)
+            cache.getStat(path, statRetriever(path, calls));
+        Assert.assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void revalidationDoesNotWaitForWriterLock() throws Exception {
+        MetadataCache cache = new MetadataCache(network, 0);
+        String dir = mkdir(home());
+        FileWrapper file = upload(dir, "file.txt");
+        String path = dir + "/file.txt";
+        AtomicInteger calls = new AtomicInteger(0);
+        cache.getStat(path, statRetriever(path, calls));
+
+        // hold the writer's lock until the cached entry has been revalidated
+        CompletableFuture<Snapshot> release = new CompletableFuture<>();
+        CompletableFuture<Snapshot> held = network.synchronizer.applyComplexUpdate(file.owner(), file.signingPair(),
+                (current, committer) -> release.thenApply(x -> current));
+        try {
+            Optional<PeergosFS.PeergosStat> stat = CompletableFuture.supplyAsync(() -> cache.getStat(path, statRetriever(path, calls)))
+                    .get(10, TimeUnit.SECONDS);
+            Assert.assertEquals("file.txt", stat.get().properties.name);
+            Assert.assertEquals(1, calls.get());
+            Assert.assertEquals(1, cache.revalidations());
+        } finally {
+            release.complete(null);
+            held.join();
+        }
+
+        // once the writer has moved on, an expired entry is retrieved again
+        upload(dir, "other.txt");
+        cache.getStat(path, statRetriever(path, calls));
+        Assert.assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,165 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.sql.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+public class PackFileStorageTests {
+    private static final Crypto crypto = Main.initCrypto();
+
+    private static PackFileBlockStorage build(Path root, long segmentSize) throws Exception {
+        return PackFileBlockStorage.build(root, 4, segmentSize,
+                JdbcTransactionStore.build(Main.buildEphemeralSqlite(), new SqliteCommands()),
+                (a, b, c, d) -> Futures.of(true), crypto.hasher);
+    }
+
+    private static List<byte[]> randomBlocks(Random r, int count, int size) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    byte[] block = new byte[size];
+                    r.nextBytes(block);
+                    return block;
+                }).collect(Collectors.toList());
+    }
+
+    @Test
+    public void putGetAndReopen() throws Exception {
+        Path root = Files.createTempDirectory("peergos-pack");
+        PackFileBlockStorage store = build(root, 64 * 1024);
+        PublicKeyHash owner = new PublicKeyHash(TransactionsStoreTests.hashToCid(new byte[2], true));
+        TransactionId tid = store.startTransaction(owner).join();
+        List<byte[]> blocks = randomBlocks(new Random(42), 100, 5_000);
+        List<Cid> cids = store.put(blocks, true, tid, owner);
+        // putting the same block again shouldn't append it
+        store.put(blocks.subList(0, 1), true, tid, owner);
+        store.closeTransaction(owner, tid);
+
+        for (int i = 0; i < blocks.size(); i++) {
+            Assert.assertArrayEquals(blocks.get(i), store.getRaw(cids.get(i), "").join().get());
+            Assert.assertEquals(blocks.get(i).length, (int) store.getSize(cids.get(i)).join().get());
+        }
+        Assert.assertEquals(new HashSet<>(cids), store.getAllBlockHashes().collect(Collectors.toSet()));
+
+        PackFileBlockStorage reopened = build(root, 64 * 1024);
+        for (int i = 0; i < blocks.size(); i++)
+            Assert.assertArrayEquals(blocks.get(i), reopened.getRaw(cids.get(i), "").join().get());
+    }
+
+    @Test
+    public void readsFromGrowingActiveSegment() throws Exception {
+        Path root = Files.createTempDirectory("peergos-pack");
+        PackFileBlockStorage store = build(root, 1024 * 1024);
+        PublicKeyHash owner = new PublicKeyHash(TransactionsStoreTests.hashToCid(new byte[2], true));
+        TransactionId tid = store.startTransaction(owner).join();
+        Random r = new Random(11);
+        List<byte[]> all = new ArrayList<>();
+        List<Cid> cids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            List<byte[]> blocks = randomBlocks(r, 5, 1_000);
+            all.addAll(blocks);
+            cids.addAll(store.put(blocks, true, tid, owner));
+            // every earlier block, including ones appended since the last read, must still be readable
+            for (int j = 0; j < all.size(); j++)
+                Assert.assertArrayEquals(all.get(j), store.getRaw(cids.get(j), "").join().get());
+        }
+        store.closeTransaction(owner, tid);
+    }
+
+    @Test
+    public void deleteCompactsSegments() throws Exception {
+        Path root = Files.createTempDirectory("peergos-pack");
+        PackFileBlockStorage store = build(root, 64 * 1024);
+        PublicKeyHash owner = new PublicKeyHash(TransactionsStoreTests.hashToCid(new byte[2], true));
+        TransactionId tid = store.startTransaction(owner).join();
+        List<byte[]> blocks = randomBlocks(new Random(28), 200, 5_000);
+        List<Cid> cids = store.put(blocks, true, tid, owner);
+        store.closeTransaction(owner, tid);
+        long sizeBefore = directorySize(root);
+
+        List<Multihash> toDelete = IntStream.range(0, cids.size())
+                .filter(i -> i % 4 != 0)
+                .mapToObj(cids::get)
+                .collect(Collectors.toList());
+        store.bulkDelete(toDelete);
+
+        for (int i = 0; i < blocks.size(); i++) {
+            Optional<byte[]> block = store.getRaw(cids.get(i), "").join();
+            if (i % 4 == 0)
+                Assert.assertArrayEquals(blocks.get(i), block.get());
+            else
+                Assert.assertTrue(block.isEmpty());
+        }
+        Assert.assertTrue("Compaction freed space", directorySize(root) < sizeBefore / 2);
+    }
+
+    @Test
+    public void concurrentReadsWritesAndDeletes() throws Exception {
+        // Reads use their own index connections, so must not observe another thread's open sql transaction
+        Path root = Files.createTempDirectory("peergos-pack");
+        PackFileBlockStorage store = build(root, 64 * 1024);
+        PublicKeyHash owner = new PublicKeyHash(TransactionsStoreTests.hashToCid(new byte[2], true));
+        TransactionId tid = store.startTransaction(owner).join();
+        Random r = new Random(7);
+        List<byte[]> kept = randomBlocks(r, 50, 2_000);
+        List<Cid> keptCids = store.put(kept, true, tid, owner);
+        List<Cid> garbage = store.put(randomBlocks(r, 400, 2_000), true, tid, owner);
+        List<List<byte[]>> added = IntStream.range(0, 20)
+                .mapToObj(i -> randomBlocks(r, 20, 2_000))
+                .collect(Collectors.toList());
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Future<List<Cid>> writes = pool.submit(() -> added.stream()
+                    .flatMap(batch -> {
+                        try {
+                            return store.put(batch, true, tid, owner).stream();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }).collect(Collectors.toList()));
+            Future<?> deletes = pool.submit(() -> {
+                for (int i = 0; i < garbage.size(); i += 20)
+                    store.bulkDelete(new ArrayList<>(garbage.subList(i, i + 20)));
+            });
+            Future<?> reads = pool.submit(() -> {
+                for (int round = 0; round < 20; round++)
+                    for (int i = 0; i < kept.size(); i++)
+                        Assert.assertArrayEquals(kept.get(i), store.getRaw(keptCids.get(i), "").join().get());
+            });
+            reads.get();
+            deletes.get();
+            List<Cid> addedCids = writes.get();
+            List<byte[]> addedBlocks = added.stream().flatMap(List::stream).collect(Collectors.toList());
+            for (int i = 0; i < addedBlocks.size(); i++)
+                Assert.assertArrayEquals(addedBlocks.get(i), store.getRaw(addedCids.get(i), "").join().get());
+            for (Cid cid : garbage)
+                Assert.assertFalse(store.hasBlock(cid));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long directorySize(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".pack"))
+                    .mapToLong(p -> p.toFile().length())
+                    .sum();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package peergos.server.tests;
 
 import org.junit.*;
 import peergos.server.*;
+import peergos.server.crypto.hash.*;
 import peergos.shared.*;
 import peergos.shared.crypto.*;
 import peergos.shared.util.*;
@@ -23,4 +24,15 @@ public class ProofOfWorkTests {
             Assert.assertTrue(ProofOfWork.satisfiesDifficulty(d, hash));
         }
     }
+
+    @Test
+    public void parallelValidity() {
+        ScryptJava hasher = new ScryptJava(4);
+        byte[] data = crypto.random.randomBytes(100);
+        for (int d=15; d < 23; d++) {
+            ProofOfWork work = hasher.generateProofOfWork(d, data).join();
+            byte[] hash = hasher.sha256(ArrayOps.concat(work.prefix, data)).join();
+            Assert.assertTrue(ProofOfWork.satisfiesDifficulty(d, hash));
+        }
+    }
 }
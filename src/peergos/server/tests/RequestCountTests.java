@@ -30,12 +30,16 @@ public class RequestCountTests {
     private final RequestCountingStorage storageCounter;
 
     public RequestCountTests() {
-        WriteSynchronizer synchronizer = new WriteSynchronizer(service.mutable, service.storage, crypto.hasher);
-        MutableTree mutableTree = new MutableTreeImpl(service.mutable, service.storage, crypto.hasher, synchronizer);
         RequestCountingStorage requestCounter = new RequestCountingStorage(service.storage);
         this.storageCounter = requestCounter;
+        this.network = buildNetwork(requestCounter);
+    }
+
+    private static NetworkAccess buildNetwork(RequestCountingStorage requestCounter) {
+        WriteSynchronizer synchronizer = new WriteSynchronizer(service.mutable, service.storage, crypto.hasher);
+        MutableTree mutableTree = new MutableTreeImpl(service.mutable, service.storage, crypto.hasher, synchronizer);
         CachingVerifyingStorage dhtClient = new CachingVerifyingStorage(requestCounter, 50 * 1024, 1_000, crypto.hasher);
-        this.network = new NetworkAccess(service.coreNode, service.account, service.social, dhtClient,
+        return new NetworkAccess(service.coreNode, service.account, service.social, dhtClient,
                 service.bats, service.mutable, mutableTree, synchronizer, service.controller, service.usage, service.serverMessages,
                 crypto.hasher, Arrays.asList("peergos"), false);
     }
@@ -143,6 +147,30 @@ public class RequestCountTests {
         Assert.assertTrue(storageCounter.requestTotal() <= 1);
     }
 
+    @Test
+    public void largeDirectoryListing() {
+        String password = "notagoodone";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(random), password, network, crypto);
+        String dirName = "many";
+        context.getUserRoot().join().mkdir(dirName, context.network, false, context.mirrorBatId(), crypto).join();
+        Path dirPath = Paths.get(context.username, dirName);
+        int nFiles = 40;
+        for (int i=0; i < nFiles; i++) {
+            byte[] data = ("file " + i).getBytes();
+            context.getByPath(dirPath).join().get()
+                    .uploadOrReplaceFile("file" + i, AsyncReader.build(data), data.length, context.network, crypto, l -> {}).join();
+        }
+
+        // list the directory from a new client, so nothing is already cached
+        RequestCountingStorage counter = new RequestCountingStorage(service.storage);
+        UserContext fresh = UserContext.signIn(context.username, password, buildNetwork(counter), crypto).join();
+        FileWrapper dir = fresh.getByPath(dirPath).join().get();
+        counter.reset();
+        Set<FileWrapper> children = dir.getChildren(crypto.hasher, fresh.network).join();
+        Assert.assertEquals(nFiles, children.size());
+        Assert.assertTrue("champ lookups to list " + nFiles + " files: " + counter.champGet.get(), counter.champGet.get() <= 5);
+    }
+
     private static void uploadAndShare(byte[] data, Path file, UserContext sharer, String sharee) {
         String filename = file.getFileName().toString();
         sharer.getByPath(file.getParent()).join().get()
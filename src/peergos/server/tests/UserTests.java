@@ -1148,6 +1148,84 @@ public abstract class UserTests {
         Assert.assertTrue("File has correct size", truncated3.getFileProperties().size == truncateLength3);
     }
 
+    @Test
+    public void copyDirectoryTree() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        Path source = Paths.get(username, "source");
+        context.getUserRoot().join().mkdir("source", network, false, Optional.empty(), crypto).join();
+        context.getUserRoot().join().mkdir("target", network, false, Optional.empty(), crypto).join();
+        Map<String, byte[]> files = new HashMap<>();
+        for (String dir : Arrays.asList("", "a", "a/b", "empty")) {
+            FileWrapper parent = context.getByPath(dir.isEmpty() ? source : source.resolve(dir).getParent()).join().get();
+            if (! dir.isEmpty())
+                parent = parent.mkdir(dir.substring(dir.lastIndexOf("/") + 1), network, false, parent.mirrorBatId(), crypto).join()
+                        .getChild(dir.substring(dir.lastIndexOf("/") + 1), crypto.hasher, network).join().get();
+            Path dirPath = source.resolve(dir);
+            for (int i = 0; i < (dir.equals("empty") ? 0 : 12); i++) {
+                byte[] data = new byte[i == 0 && dir.isEmpty() ? 6 * 1024 * 1024 : random.nextInt(10_000)];
+                random.nextBytes(data);
+                String name = "file" + i;
+                parent = uploadFileSection(parent, name, AsyncReader.build(data), 0, data.length, network, crypto, x -> {}).join();
+                files.put(source.relativize(dirPath.resolve(name)).toString(), data);
+            }
+        }
+
+        FileWrapper target = context.getByPath(Paths.get(username, "target")).join().get();
+        context.getByPath(source).join().get().copyTo(target, context).join();
+
+        Path copy = Paths.get(username, "target", "source");
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            FileWrapper file = context.getByPath(copy.resolve(e.getKey())).join().get();
+            byte[] read = Serialize.readFully(file.getInputStream(network, crypto, x -> {}).join(), file.getSize()).join();
+            Assert.assertArrayEquals(e.getKey(), e.getValue(), read);
+        }
+        for (String dir : Arrays.asList("", "a", "a/b", "empty")) {
+            Set<String> expected = new HashSet<>(context.getByPath(source.resolve(dir)).join().get()
+                    .getChildren(crypto.hasher, network).join().stream().map(FileWrapper::getName).collect(Collectors.toSet()));
+            Set<String> copied = context.getByPath(copy.resolve(dir)).join().get()
+                    .getChildren(crypto.hasher, network).join().stream().map(FileWrapper::getName).collect(Collectors.toSet());
+            Assert.assertEquals(expected, copied);
+        }
+
+        // copying a single file
+        FileWrapper bigFile = context.getByPath(source.resolve("file0")).join().get();
+        bigFile.copyTo(context.getByPath(copy.resolve("empty")).join().get(), context).join();
+        FileWrapper fileCopy = context.getByPath(copy.resolve("empty/file0")).join().get();
+        Assert.assertArrayEquals(files.get("file0"),
+                Serialize.readFully(fileCopy.getInputStream(network, crypto, x -> {}).join(), fileCopy.getSize()).join());
+    }
+
+    @Test
+    public void pipelinedRead() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+
+        String filename = "mediumfile.bin";
+        int MB = 1024*1024;
+        byte[] data = new byte[23 * MB + 17];
+        random.nextBytes(data);
+        uploadFileSection(userRoot, filename, new AsyncReader.ArrayBacked(data), 0, data.length, context.network,
+                context.crypto, l -> {}).join();
+
+        AtomicLong progress = new AtomicLong();
+        AsyncReader reader = context.getByPath(Paths.get(username, filename)).join().get()
+                .getPipelinedInputStream(network, crypto, 3, progress::addAndGet).join();
+        byte[] read = new byte[data.length];
+        for (int offset = 0; offset < data.length; offset += MB)
+            reader.readIntoArray(read, offset, Math.min(MB, data.length - offset)).join();
+        Assert.assertArrayEquals(data, read);
+        Assert.assertTrue("progress reported", progress.get() >= data.length);
+
+        // seeking back discards the chunks in flight
+        byte[] buf = new byte[7 * MB];
+        reader.seek(2 * MB).join().readIntoArray(buf, 0, buf.length).join();
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 2 * MB, 9 * MB), buf);
+    }
+
     @Test
     public void fileSeek() throws Exception {
         String username = generateUsername();
@@ -1183,6 +1261,15 @@ public abstract class UserTests {
                     throw new IllegalStateException("Seeked data incorrect! Offset: " + count * MB);
             }
         }
+
+        // read to the end of the file after seeking forward across chunks from a partially read chunk
+        AsyncReader reader = context.getByPath(Paths.get(username, filename)).join()
+                .get().getInputStream(network, crypto, x -> { }).join();
+        reader.readIntoArray(buf, 0, MB).join();
+        int offset = 9 * MB + 17;
+        byte[] rest = new byte[data.length - offset];
+        reader.seek(offset).join().readIntoArray(rest, 0, rest.length).join();
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), rest);
     }
 
     @Test
@@ -0,0 +1,134 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class VerifiedPointerCacheTests {
+    private static final Crypto crypto = Main.initCrypto();
+
+    @Test
+    public void verifyOnce() {
+        AtomicInteger keyGets = new AtomicInteger(0);
+        ContentAddressedStorage storage = new DelegatingStorage(new RAMStorage(crypto.hasher)) {
+            @Override
+            public CompletableFuture<Optional<PublicSigningKey>> getSigningKey(PublicKeyHash hash) {
+                keyGets.incrementAndGet();
+                return super.getSigningKey(hash);
+            }
+
+            @Override
+            public ContentAddressedStorage directToOrigin() {
+                return this;
+            }
+        };
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        Cid target = Cid.buildCidV1(Cid.Codec.DagCbor, Multihash.Type.sha2_256, crypto.hasher.blake2b(new byte[]{1}, 32));
+        byte[] signed = writer.secret.signMessage(new HashCasPair(MaybeMultihash.empty(), MaybeMultihash.of(target)).serialize());
+
+        VerifiedPointerCache.clear();
+        Assert.assertEquals(target, MutablePointers.parsePointerTarget(signed, writer.publicKeyHash, storage).join().get());
+        HashCasPair first = VerifiedPointerCache.unsign(writer.publicKeyHash, signed, storage).join();
+        HashCasPair second = VerifiedPointerCache.unsign(writer.publicKeyHash, signed, storage).join();
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, keyGets.get());
+    }
+
+    @Test
+    public void rejectOtherWriter() {
+        ContentAddressedStorage storage = new RAMStorage(crypto.hasher);
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        SigningPrivateKeyAndPublicHash other = ChampTests.createUser(storage, crypto);
+        Cid target = Cid.buildCidV1(Cid.Codec.DagCbor, Multihash.Type.sha2_256, crypto.hasher.blake2b(new byte[]{2}, 32));
+        byte[] signed = writer.secret.signMessage(new HashCasPair(MaybeMultihash.empty(), MaybeMultihash.of(target)).serialize());
+
+        VerifiedPointerCache.unsign(writer.publicKeyHash, signed, storage).join();
+        try {
+            VerifiedPointerCache.unsign(other.publicKeyHash, signed, storage).join();
+            Assert.fail("Accepted a pointer signed by a different writer");
+        } catch (CompletionException expected) {}
+    }
+
+    @Test
+    public void batchVerify() {
+        ContentAddressedStorage storage = new RAMStorage(crypto.hasher);
+        List<PublicKeyHash> writers = new ArrayList<>();
+        List<byte[]> signed = new ArrayList<>();
+        List<Cid> targets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+            Cid target = Cid.buildCidV1(Cid.Codec.DagCbor, Multihash.Type.sha2_256, crypto.hasher.blake2b(new byte[]{3, (byte) i}, 32));
+            writers.add(writer.publicKeyHash);
+            signed.add(writer.secret.signMessage(new HashCasPair(MaybeMultihash.empty(), MaybeMultihash.of(target)).serialize()));
+            targets.add(target);
+        }
+        // swap two values so their signatures are invalid for their writers
+        Collections.swap(signed, 7, 8);
+
+        VerifiedPointerCache.clear();
+        List<Optional<HashCasPair>> res = VerifiedPointerCache.unsignAll(writers, signed, storage).join();
+        for (int i = 0; i < writers.size(); i++) {
+            if (i == 7 || i == 8)
+                Assert.assertTrue(res.get(i).isEmpty());
+            else
+                Assert.assertEquals(targets.get(i), res.get(i).get().updated.get());
+        }
+        // batch results aren't served to strict verification
+        HashCasPair strict = VerifiedPointerCache.unsign(writers.get(3), signed.get(3), storage).join();
+        Assert.assertNotSame(res.get(3).get(), strict);
+        Assert.assertEquals(targets.get(3), strict.updated.get());
+        // but strict results are served to batch verification
+        Assert.assertSame(strict, VerifiedPointerCache.unsignAll(writers, signed, storage).join().get(3).get());
+    }
+
+    private static List<Optional<HashCasPair>> scan(List<PublicKeyHash> writers,
+                                                    List<byte[]> signed,
+                                                    ContentAddressedStorage storage) {
+        List<Optional<HashCasPair>> res = new ArrayList<>();
+        int batchSize = 5;
+        for (int i = 0; i < writers.size(); i += batchSize) {
+            int end = Math.min(writers.size(), i + batchSize);
+            res.addAll(VerifiedPointerCache.unsignAll(writers.subList(i, end), signed.subList(i, end), storage).join());
+        }
+        return res;
+    }
+
+    @Test
+    public void repeatedScanOfMoreWritersThanFit() {
+        ContentAddressedStorage storage = new RAMStorage(crypto.hasher);
+        List<PublicKeyHash> writers = new ArrayList<>();
+        List<byte[]> signed = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+            Cid target = Cid.buildCidV1(Cid.Codec.DagCbor, Multihash.Type.sha2_256, crypto.hasher.blake2b(new byte[]{4, (byte) i}, 32));
+            writers.add(writer.publicKeyHash);
+            signed.add(writer.secret.signMessage(new HashCasPair(MaybeMultihash.empty(), MaybeMultihash.of(target)).serialize()));
+        }
+
+        VerifiedPointerCache.clear();
+        VerifiedPointerCache.setMaxPointers(10);
+        try {
+            List<Optional<HashCasPair>> first = scan(writers, signed, storage);
+            List<Optional<HashCasPair>> second = scan(writers, signed, storage);
+            int cached = 0;
+            for (int i = 0; i < writers.size(); i++)
+                if (first.get(i).get() == second.get(i).get())
+                    cached++;
+            Assert.assertTrue("Only " + cached + " cached", cached >= 5);
+        } finally {
+            VerifiedPointerCache.setMaxPointers(VerifiedPointerCache.DEFAULT_MAX_POINTERS);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+public class WeightedCacheTests {
+
+    @Test
+    public void boundedByWeight() {
+        WeightedCache<Integer, byte[]> cache = WeightedCache.bytes(1024 * 1024);
+        for (int i = 0; i < 10_000; i++)
+            cache.put(i, new byte[1024]);
+        Assert.assertTrue(cache.weight() <= cache.maxWeight());
+        Assert.assertTrue(cache.evictionCount() > 0);
+        Assert.assertEquals(cache.weight(), cache.values().stream().mapToLong(b -> b.length).sum());
+    }
+
+    @Test
+    public void frequentEntriesSurviveScan() {
+        WeightedCache<Integer, byte[]> cache = WeightedCache.bytes(1024 * 1024);
+        for (int round = 0; round < 5; round++)
+            for (int i = 0; i < 100; i++) {
+                if (cache.get(i) == null)
+                    cache.put(i, new byte[1024]);
+            }
+        // a scan of one-off entries several times larger than the cache
+        for (int i = 1_000; i < 5_000; i++)
+            cache.put(i, new byte[1024]);
+        long retained = IntStream.range(0, 100).filter(i -> cache.get(i) != null).count();
+        Assert.assertTrue("Retained " + retained, retained > 90);
+    }
+
+    @Test
+    public void evictionsOnlyCountRemovedEntries() {
+        WeightedCache<Integer, byte[]> cache = WeightedCache.bytes(1024 * 1024);
+        int puts = 0;
+        for (int i = 0; i < 500; i++, puts++)
+            cache.put(i, new byte[1024]);
+        for (int round = 0; round < 5; round++)
+            for (int i = 0; i < 500; i++)
+                cache.get(i);
+        // many of these are rejected by admission, which doesn't evict anything
+        for (int i = 1_000; i < 5_000; i++, puts++)
+            cache.put(i, new byte[1024]);
+        Assert.assertTrue(cache.evictionCount() + cache.size() < puts);
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        WeightedCache<Integer, byte[]> cache = WeightedCache.bytes(256 * 1024);
+        ForkJoinPool pool = new ForkJoinPool(8);
+        pool.submit(() -> IntStream.range(0, 200_000).parallel().forEach(i -> {
+            int key = (i * 31) % 5_000;
+            byte[] value = cache.get(key);
+            if (value == null)
+                cache.put(key, new byte[key % 2048 + 1]);
+            else
+                Assert.assertEquals(key % 2048 + 1, value.length);
+        })).get();
+        Assert.assertTrue(cache.weight() <= cache.maxWeight());
+        Assert.assertEquals(200_000, cache.hitCount() + cache.missCount());
+    }
+}
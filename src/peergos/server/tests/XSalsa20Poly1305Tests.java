@@ -0,0 +1,75 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.crypto.*;
+import peergos.server.crypto.symmetric.*;
+import peergos.shared.crypto.*;
+
+import java.util.*;
+
+public class XSalsa20Poly1305Tests {
+    private static final XSalsa20Poly1305Java symmetric = new XSalsa20Poly1305Java();
+    private final Random random = new Random(1337);
+
+    private byte[] randomBytes(int length) {
+        byte[] res = new byte[length];
+        random.nextBytes(res);
+        return res;
+    }
+
+    private void compareWithTweetNacl(int length) {
+        byte[] key = randomBytes(32);
+        byte[] nonce = randomBytes(24);
+        byte[] message = randomBytes(length);
+
+        byte[] expected = TweetNaCl.secretbox(message, nonce, key);
+        byte[] cipherText = symmetric.secretbox(message, nonce, key);
+        Assert.assertArrayEquals("length " + length, expected, cipherText);
+        Assert.assertArrayEquals(message, symmetric.secretbox_open(cipherText, nonce, key));
+        Assert.assertArrayEquals(message, TweetNaCl.secretbox_open(cipherText, nonce, key));
+    }
+
+    @Test
+    public void sameAsTweetNacl() {
+        for (int length = 0; length < 300; length++)
+            compareWithTweetNacl(length);
+        for (int length : new int[] {4095, 4096, 4097, 1024 * 1024 + 3})
+            compareWithTweetNacl(length);
+    }
+
+    @Test
+    public void fullChunk() {
+        compareWithTweetNacl(5 * 1024 * 1024);
+    }
+
+    @Test
+    public void rejectModifiedCipherText() {
+        byte[] key = randomBytes(32);
+        byte[] nonce = randomBytes(24);
+        byte[] message = randomBytes(100);
+        byte[] cipherText = symmetric.secretbox(message, nonce, key);
+        for (int i = 0; i < cipherText.length; i++) {
+            byte[] modified = Arrays.copyOf(cipherText, cipherText.length);
+            modified[i] ^= 1;
+            try {
+                symmetric.secretbox_open(modified, nonce, key);
+                Assert.fail("Accepted a modified cipher text at byte " + i);
+            } catch (InvalidCipherTextException expected) {}
+        }
+        try {
+            symmetric.secretbox_open(Arrays.copyOf(cipherText, 15), nonce, key);
+            Assert.fail("Accepted a truncated cipher text");
+        } catch (InvalidCipherTextException expected) {}
+    }
+
+    @Test
+    public void encryptInPlace() {
+        byte[] key = randomBytes(32);
+        byte[] nonce = randomBytes(24);
+        byte[] message = randomBytes(1000);
+        byte[] buffer = new byte[XSalsa20Poly1305Java.TAG_BYTES + message.length];
+        System.arraycopy(message, 0, buffer, XSalsa20Poly1305Java.TAG_BYTES, message.length);
+        XSalsa20Poly1305Java.secretbox(buffer, XSalsa20Poly1305Java.TAG_BYTES, message.length, buffer, 0, nonce, key);
+        Assert.assertArrayEquals(TweetNaCl.secretbox(message, nonce, key), buffer);
+    }
+}
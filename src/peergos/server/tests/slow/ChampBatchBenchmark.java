@@ -0,0 +1,83 @@
+package peergos.server.tests.slow;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.corenode.*;
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Compare the time and blocks written by sequential champ puts with a single batched putAll
+ *
+ */
+public class ChampBatchBenchmark {
+    private static final Crypto crypto = Main.initCrypto();
+    private static final Hasher writeHasher = crypto.hasher;
+
+    @Test
+    public void putAll() throws Exception {
+        AtomicLong blocksWritten = new AtomicLong(0);
+        ContentAddressedStorage storage = new DelegatingStorage(new RAMStorage(crypto.hasher)) {
+            @Override
+            public CompletableFuture<List<Cid>> put(PublicKeyHash owner, PublicKeyHash writer, List<byte[]> signedHashes,
+                                                    List<byte[]> blocks, TransactionId tid) {
+                blocksWritten.addAndGet(blocks.size());
+                return super.put(owner, writer, signedHashes, blocks, tid);
+            }
+
+            @Override
+            public ContentAddressedStorage directToOrigin() {
+                return this;
+            }
+        };
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+        Random r = new Random(42);
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        Champ<CborObject.CborMerkleLink> empty = Champ.empty(c -> (CborObject.CborMerkleLink)c);
+        Multihash emptyHash = storage.put(user.publicKeyHash, user, empty.serialize(), writeHasher, tid).get();
+        int bitWidth = ChampWrapper.BIT_WIDTH;
+        int maxCollisions = ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL;
+
+        for (int size : Arrays.asList(10, 100, 1000)) {
+            List<Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> puts = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                byte[] key = new byte[32];
+                r.nextBytes(key);
+                byte[] value = new byte[32];
+                r.nextBytes(value);
+                puts.add(new Triple<>(new ByteArrayWrapper(key), Optional.empty(),
+                        Optional.of(new CborObject.CborMerkleLink(new Multihash(Multihash.Type.sha2_256, value)))));
+            }
+
+            long t0 = System.nanoTime();
+            long blocks0 = blocksWritten.get();
+            Pair<Champ<CborObject.CborMerkleLink>, Multihash> sequential = new Pair<>(empty, emptyHash);
+            for (Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>> put : puts)
+                sequential = sequential.left.put(user.publicKeyHash, user, put.left, IpfsCoreNode.keyHash(put.left).join(), 0,
+                        put.middle, put.right, bitWidth, maxCollisions, IpfsCoreNode::keyHash, tid, storage, writeHasher,
+                        sequential.right).join();
+            long t1 = System.nanoTime();
+            long blocks1 = blocksWritten.get();
+            Pair<Champ<CborObject.CborMerkleLink>, Multihash> batch = empty.putAll(user.publicKeyHash, user, puts, bitWidth,
+                    maxCollisions, IpfsCoreNode::keyHash, tid, storage, writeHasher, emptyHash).join();
+            long t2 = System.nanoTime();
+            long blocks2 = blocksWritten.get();
+            Assert.assertEquals(sequential.right, batch.right);
+            System.out.println(size + " keys: sequential puts wrote " + (blocks1 - blocks0) + " blocks in "
+                    + (t1 - t0) / 1_000_000 + "mS, batch wrote " + (blocks2 - blocks1) + " blocks in "
+                    + (t2 - t1) / 1_000_000 + "mS");
+        }
+    }
+}
@@ -27,6 +27,15 @@ public class GCBenchmark {
 
     @Test
     public void millionObjects() throws IOException {
+        millionObjects(false);
+    }
+
+    @Test
+    public void millionObjectsStreaming() throws IOException {
+        millionObjects(true);
+    }
+
+    private void millionObjects(boolean streaming) throws IOException {
         DeletableContentAddressedStorage storage = new FileContentAddressedStorage(Files.createTempDirectory("peergos-tmp" + System.currentTimeMillis()),
                 JdbcTransactionStore.build(Main.buildEphemeralSqlite(), new SqliteCommands()), (a, b, c, d) -> Futures.of(true), crypto.hasher);
         JdbcIpnsAndSocial pointers = new JdbcIpnsAndSocial(Main.buildEphemeralSqlite(), new SqliteCommands());
@@ -45,7 +54,11 @@ public class GCBenchmark {
             storage.closeTransaction(owner, tid).join();
         }
 
-        GarbageCollector.collect(storage, pointers, usage, s -> Futures.of(true));
+        if (streaming)
+            GarbageCollector.collectStreaming(storage, pointers, usage, s -> Futures.of(true), nPointers * nLeavesPerUser * 2, 0,
+                    GarbageCollector.DEFAULT_MARK_PARALLELISM);
+        else
+            GarbageCollector.collect(storage, pointers, usage, s -> Futures.of(true), GarbageCollector.DEFAULT_MARK_PARALLELISM);
     }
 
     private static Multihash generateTree(Random r, PublicKeyHash owner, ContentAddressedStorage storage, int nLeaves, TransactionId tid) {
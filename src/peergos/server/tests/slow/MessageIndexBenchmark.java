@@ -0,0 +1,92 @@
+package peergos.server.tests.slow;
+
+import org.junit.*;
+import peergos.shared.messaging.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.util.*;
+
+public class MessageIndexBenchmark {
+    private static final int N_MESSAGES = 1_000_000;
+
+    /** The index as FileBackedMessageStore writes it, for a log of messages with the given sizes
+     *
+     */
+    private static byte[] buildIndex(int[] messageSizes) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(bout);
+        long size = 0;
+        for (int i = 0; i < messageSizes.length; i++) {
+            long newSize = size + messageSizes[i];
+            if (newSize / Chunk.MAX_SIZE > size / Chunk.MAX_SIZE) {
+                dout.writeLong(i + 1);
+                dout.writeLong(newSize);
+            }
+            size = newSize;
+        }
+        return bout.toByteArray();
+    }
+
+    /** The linear scan of the index in 1 KiB reads, as it was before the binary search
+     *
+     */
+    private static Pair<Long, Integer> linearFindOffset(byte[] index, long msgIndex) throws IOException {
+        AsyncReader r = AsyncReader.build(index);
+        byte[] buf = new byte[1024];
+        long prevIndex = 0, prevBytes = 0;
+        long remaining = index.length;
+        while (remaining > 0) {
+            int read = r.readIntoArray(buf, 0, (int) Math.min(buf.length, remaining)).join();
+            DataInputStream din = new DataInputStream(new ByteArrayInputStream(buf));
+            for (int i = 0; i < read / 16; i++) {
+                long recordIndex = din.readLong();
+                long byteOffset = din.readLong();
+                if (recordIndex > msgIndex)
+                    return new Pair<>(prevBytes, (int) (msgIndex - prevIndex));
+                prevIndex = recordIndex;
+                prevBytes = byteOffset;
+            }
+            remaining -= read;
+        }
+        return new Pair<>(prevBytes, (int) (msgIndex - prevIndex));
+    }
+
+    private static void compare(String name, byte[] index, int lookups) throws IOException {
+        Random r = new Random(42);
+        long[] targets = new long[lookups];
+        for (int i = 0; i < lookups; i++)
+            targets[i] = N_MESSAGES - 1 - r.nextInt(1000); // loading recent history
+        for (long target : targets) {
+            Pair<Long, Integer> expected = linearFindOffset(index, target);
+            Pair<Long, Integer> actual = FileBackedMessageStore.findOffset(AsyncReader.build(index), index.length, target).join();
+            Assert.assertEquals(expected.left, actual.left);
+            Assert.assertEquals(expected.right, actual.right);
+        }
+
+        long t0 = System.nanoTime();
+        for (long target : targets)
+            linearFindOffset(index, target);
+        long t1 = System.nanoTime();
+        for (long target : targets)
+            FileBackedMessageStore.findOffset(AsyncReader.build(index), index.length, target).join();
+        long t2 = System.nanoTime();
+        System.out.printf("%s: %d index records, linear scan %d uS/lookup, binary search %d uS/lookup%n", name,
+                index.length / 16, (t1 - t0) / lookups / 1000, (t2 - t1) / lookups / 1000);
+    }
+
+    @Test
+    public void millionMessages() throws IOException {
+        Random r = new Random(0);
+        int[] sizes = new int[N_MESSAGES];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = 200 + r.nextInt(2000);
+        compare("1M chat messages", buildIndex(sizes), 1000);
+
+        // a record per message is the worst case, e.g. for messages with large attachments inline
+        int[] chunkSizes = new int[N_MESSAGES];
+        Arrays.fill(chunkSizes, Chunk.MAX_SIZE);
+        compare("1M chunk sized messages", buildIndex(chunkSizes), 100);
+    }
+}
@@ -0,0 +1,54 @@
+package peergos.server.tests.slow;
+
+import org.junit.*;
+import peergos.server.crypto.*;
+import peergos.server.crypto.symmetric.*;
+import peergos.shared.crypto.symmetric.*;
+import peergos.shared.user.fs.*;
+
+import java.util.*;
+
+/** Compare the secretbox implementations on full chunks, run with -Djava.library.path=native-lib to include the
+ *  native TweetNaCl.
+ */
+public class SymmetricEncryptionBenchmark {
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    private static void benchmark(String name, Salsa20Poly1305 impl, byte[] chunk, byte[] nonce, byte[] key) {
+        for (int i = 0; i < WARMUP; i++)
+            impl.secretbox_open(impl.secretbox(chunk, nonce, key), nonce, key);
+
+        byte[] cipherText = null;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            cipherText = impl.secretbox(chunk, nonce, key);
+        long t1 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            impl.secretbox_open(cipherText, nonce, key);
+        long t2 = System.nanoTime();
+        double mb = (double) chunk.length * ITERATIONS / 1024 / 1024;
+        System.out.printf("%s: encrypt %.1f MiB/s (%d ms/chunk), decrypt %.1f MiB/s (%d ms/chunk)%n", name,
+                mb * 1e9 / (t1 - t0), (t1 - t0) / ITERATIONS / 1_000_000,
+                mb * 1e9 / (t2 - t1), (t2 - t1) / ITERATIONS / 1_000_000);
+    }
+
+    @Test
+    public void fullChunks() {
+        Random r = new Random(42);
+        byte[] chunk = new byte[Chunk.MAX_SIZE];
+        byte[] nonce = new byte[24];
+        byte[] key = new byte[32];
+        r.nextBytes(chunk);
+        r.nextBytes(nonce);
+        r.nextBytes(key);
+
+        benchmark("TweetNaCl", new Salsa20Poly1305Java(), chunk, nonce, key);
+        benchmark("XSalsa20Poly1305Java", new XSalsa20Poly1305Java(), chunk, nonce, key);
+        try {
+            benchmark("JniTweetNacl", new JniTweetNacl.Symmetric(JniTweetNacl.build()), chunk, nonce, key);
+        } catch (Throwable t) {
+            System.out.println("JniTweetNacl unavailable: " + t.getMessage());
+        }
+    }
+}
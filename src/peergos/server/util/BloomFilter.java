@@ -0,0 +1,118 @@
+package peergos.server.util;
+
+import java.util.concurrent.atomic.*;
+
+/** A thread safe bloom filter over byte array keys.
+ *
+ *  Membership tests can return false positives (at approximately the configured rate when filled to the expected
+ *  number of entries), but never false negatives.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long nBits;
+    private final int nHashes;
+    private final AtomicLong added = new AtomicLong(0);
+
+    public BloomFilter(long nBits, int nHashes) {
+        if (nBits <= 0 || nHashes <= 0)
+            throw new IllegalArgumentException("Invalid bloom filter parameters: " + nBits + " bits, " + nHashes + " hashes");
+        long nLongs = (nBits + 63) / 64;
+        if (nLongs > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bloom filter too large: " + nBits + " bits");
+        this.bits = new AtomicLongArray((int) nLongs);
+        this.nBits = nLongs * 64;
+        this.nHashes = nHashes;
+    }
+
+    /**
+     *
+     * @param expectedEntries
+     * @param falsePositiveRate
+     * @return A bloom filter with the optimal size and number of hash functions for the given parameters
+     */
+    public static BloomFilter create(long expectedEntries, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+        long n = Math.max(1, expectedEntries);
+        long nBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int nHashes = Math.max(1, (int) Math.round((double) nBits / n * Math.log(2)));
+        return new BloomFilter(nBits, nHashes);
+    }
+
+    /**
+     *
+     * @return true if this changed the filter, in which case the key was definitely not present before
+     */
+    public boolean add(byte[] key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL) | 1;
+        boolean changed = false;
+        for (int i = 0; i < nHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, nBits);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << (bit & 63);
+            long current = bits.get(index);
+            while ((current & mask) == 0) {
+                if (bits.compareAndSet(index, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+                current = bits.get(index);
+            }
+        }
+        added.incrementAndGet();
+        return changed;
+    }
+
+    public boolean mightContain(byte[] key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, nBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @return The number of add calls, including duplicates
+     */
+    public long addedCount() {
+        return added.get();
+    }
+
+    public long sizeInBytes() {
+        return nBits / 8;
+    }
+
+    /**
+     *
+     * @return The expected false positive rate given the number of entries added so far
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) nHashes * added.get() / nBits), nHashes);
+    }
+
+    private static long hash(byte[] key, long seed) {
+        long h = seed ^ key.length;
+        for (int i = 0; i < key.length; i += 8) {
+            long k = 0;
+            for (int j = i; j < Math.min(i + 8, key.length); j++)
+                k = (k << 8) | (key[j] & 0xFF);
+            h = mix(h ^ mix(k + seed));
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -6,11 +6,26 @@ import peergos.shared.util.*;
 
 import java.io.*;
 import java.net.*;
+import java.net.http.*;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 public class HttpUtil {
 
+    /** A shared non-blocking client. Connections are pooled and reused across requests, and HTTP/2 is negotiated
+     *  for https endpoints that support it, so many concurrent requests can be multiplexed over few connections.
+     */
+    private static final HttpClient ASYNC_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    // These are set by the client itself and it refuses to send requests which include them
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("host", "content-length", "connection", "expect", "upgrade");
+
     public static boolean allowedQuery(HttpExchange exchange, boolean isPublicServer) {
         // only allow http POST requests unless we are a public server (not localhost)
         if (! exchange.getRequestMethod().equals("POST") && ! isPublicServer) {
@@ -171,4 +186,78 @@ public class HttpUtil {
             throw new IllegalStateException(new String(errBody), e);
         }
     }
+
+    public static HttpClient asyncClient() {
+        return ASYNC_CLIENT;
+    }
+
+    /** Start building a request for the shared async client. Plain http requests use HTTP/1.1 to avoid an
+     *  h2c upgrade attempt, which our own server and many S3 compatible stores don't support.
+     */
+    public static HttpRequest.Builder requestBuilder(URI target, Map<String, String> headers) {
+        HttpRequest.Builder req = HttpRequest.newBuilder(target);
+        if (! "https".equals(target.getScheme()))
+            req.version(HttpClient.Version.HTTP_1_1);
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            if (! RESTRICTED_HEADERS.contains(e.getKey().toLowerCase()))
+                req.header(e.getKey(), e.getValue());
+        }
+        return req;
+    }
+
+    private static HttpRequest.Builder requestBuilder(PresignedUrl url) {
+        try {
+            return requestBuilder(new URI(url.base), url.fields);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** The response body of a successful request. Any other status completes exceptionally with an IOException
+     *  containing the error body, like the blocking methods.
+     */
+    private static CompletableFuture<byte[]> sendAsync(HttpRequest.Builder req, Duration timeout) {
+        return ASYNC_CLIENT.sendAsync(req.timeout(timeout).build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    int code = resp.statusCode();
+                    if (code >= 200 && code < 300)
+                        return resp.body();
+                    throw new CompletionException(new IOException(new String(resp.body())));
+                });
+    }
+
+    public static CompletableFuture<byte[]> getAsync(PresignedUrl url) {
+        return sendAsync(requestBuilder(url).GET(), Duration.ofSeconds(60));
+    }
+
+    /** The response headers, or a FileNotFoundException for a 404, like HttpURLConnection
+     */
+    public static CompletableFuture<Map<String, List<String>>> headAsync(PresignedUrl head) {
+        HttpRequest req = requestBuilder(head).method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        return ASYNC_CLIENT.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                .thenApply(resp -> {
+                    int respCode = resp.statusCode();
+                    if (respCode == 200)
+                        return resp.headers().map();
+                    if (respCode == 503)
+                        throw new RateLimitException();
+                    if (respCode == 404)
+                        throw new CompletionException(new FileNotFoundException(head.base));
+                    throw new CompletionException(new IOException("HTTP " + respCode));
+                });
+    }
+
+    public static CompletableFuture<byte[]> putAsync(PresignedUrl target, byte[] body) {
+        return sendAsync(requestBuilder(target).PUT(HttpRequest.BodyPublishers.ofByteArray(body)),
+                uploadTimeout(body.length));
+    }
+
+    /** Allow at least 100 KB/s for uploads on top of the base timeout
+     *
+     */
+    public static Duration uploadTimeout(long bodySize) {
+        return Duration.ofSeconds(60 + bodySize / 100_000);
+    }
 }
@@ -6,8 +6,11 @@ import peergos.shared.util.*;
 
 import java.io.*;
 import java.net.*;
+import java.net.http.*;
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.zip.*;
 
 public class JavaPoster implements HttpPoster {
@@ -45,45 +48,65 @@ public class JavaPoster implements HttpPoster {
     }
 
     private CompletableFuture<byte[]> post(String url, byte[] payload, boolean unzip, Map<String, String> headers) {
-        HttpURLConnection conn = null;
-        CompletableFuture<byte[]> res = new CompletableFuture<>();
-        try
-        {
-            conn = (HttpURLConnection) buildURL(url).openConnection();
-            conn.setReadTimeout(15000);
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            for (Map.Entry<String, String> e : headers.entrySet()) {
-                conn.setRequestProperty(e.getKey(), e.getValue());
-            }
-            if (basicAuth.isPresent())
-                conn.setRequestProperty("Authorization", basicAuth.get());
-            DataOutputStream dout = new DataOutputStream(conn.getOutputStream());
-
-            dout.write(payload);
-            dout.flush();
-
-            String contentEncoding = conn.getContentEncoding();
-            boolean isGzipped = "gzip".equals(contentEncoding);
-            DataInputStream din = new DataInputStream(isGzipped && unzip ? new GZIPInputStream(conn.getInputStream()) : conn.getInputStream());
-            byte[] resp = Serialize.readFully(din);
-            din.close();
-            res.complete(resp);
-        } catch (IOException e) {
-            if (conn != null){
-                String trailer = conn.getHeaderField("Trailer");
-                if (trailer != null)
-                    System.err.println("Trailer:" + trailer);
-                else
-                    System.err.println(e.getMessage() + " retrieving " + url);
-                res.completeExceptionally(trailer == null ? e : new RuntimeException(trailer));
-            } else
-                res.completeExceptionally(e);
-        } finally {
-            if (conn != null)
-                conn.disconnect();
+        return send(url, headers, HttpUtil.uploadTimeout(payload.length), unzip,
+                r -> r.POST(HttpRequest.BodyPublishers.ofByteArray(payload)))
+                .exceptionally(t -> {
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (! (cause instanceof TrailerException))
+                        System.err.println(cause.getMessage() + " retrieving " + url);
+                    throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+                });
+    }
+
+    /** An error reported by our server in the Trailer header of a response
+     *
+     */
+    private static class TrailerException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TrailerException(String trailer) {
+            super(trailer);
         }
-        return res;
+    }
+
+    /** Send a request on the shared pooled client without blocking the calling thread.
+     *
+     */
+    private CompletableFuture<byte[]> send(String url,
+                                           Map<String, String> headers,
+                                           Duration timeout,
+                                           boolean unzip,
+                                           Function<HttpRequest.Builder, HttpRequest.Builder> method) {
+        HttpRequest req;
+        try {
+            Map<String, String> allHeaders = new HashMap<>(headers);
+            basicAuth.ifPresent(auth -> allHeaders.put("Authorization", auth));
+            req = method.apply(HttpUtil.requestBuilder(buildURL(url).toURI(), allHeaders))
+                    .timeout(timeout)
+                    .build();
+        } catch (IOException | URISyntaxException e) {
+            return Futures.errored(e);
+        }
+        return HttpUtil.asyncClient().sendAsync(req, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    int code = resp.statusCode();
+                    if (code >= 400) {
+                        Optional<String> trailer = resp.headers().firstValue("Trailer");
+                        if (trailer.isPresent()) {
+                            System.err.println("Trailer:" + trailer.get());
+                            throw new TrailerException(trailer.get());
+                        }
+                        throw new CompletionException(new IOException("HTTP " + code + " retrieving " + url));
+                    }
+                    boolean isGzipped = "gzip".equals(resp.headers().firstValue("Content-Encoding").orElse(null));
+                    if (! isGzipped || ! unzip)
+                        return resp.body();
+                    try {
+                        return Serialize.readFully(new GZIPInputStream(new ByteArrayInputStream(resp.body())));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
     }
 
     @Override
@@ -103,39 +126,8 @@ public class JavaPoster implements HttpPoster {
 
     @Override
     public CompletableFuture<byte[]> put(String url, byte[] body, Map<String, String> headers) {
-        HttpURLConnection conn = null;
-        try {
-            conn = (HttpURLConnection) buildURL(url).openConnection();
-            conn.setRequestMethod("PUT");
-            for (Map.Entry<String, String> e : headers.entrySet()) {
-                conn.setRequestProperty(e.getKey(), e.getValue());
-            }
-            if (basicAuth.isPresent())
-                conn.setRequestProperty("Authorization", basicAuth.get());
-            conn.setDoOutput(true);
-            OutputStream out = conn.getOutputStream();
-            out.write(body);
-            out.flush();
-            out.close();
-
-            InputStream in = conn.getInputStream();
-            return Futures.of(Serialize.readFully(in));
-        } catch (IOException e) {
-            CompletableFuture<byte[]> res = new CompletableFuture<>();
-            if (conn != null) {
-                try {
-                    InputStream err = conn.getErrorStream();
-                    res.completeExceptionally(new IOException("HTTP " + conn.getResponseCode() + ": " + conn.getResponseMessage()));
-                } catch (IOException f) {
-                    res.completeExceptionally(f);
-                }
-            } else
-                res.completeExceptionally(e);
-            return res;
-        } finally {
-            if (conn != null)
-                conn.disconnect();
-        }
+        return send(url, headers, HttpUtil.uploadTimeout(body.length), false,
+                r -> r.PUT(HttpRequest.BodyPublishers.ofByteArray(body)));
     }
 
     @Override
@@ -156,31 +148,13 @@ public class JavaPoster implements HttpPoster {
     }
 
     private CompletableFuture<byte[]> publicGet(String url, Map<String, String> headers) {
-        return CompletableFuture.supplyAsync(() -> {
-            HttpURLConnection conn = null;
-            try {
-                conn = (HttpURLConnection) buildURL(url).openConnection();
-                conn.setReadTimeout(15000);
-                conn.setDoInput(true);
-                for (Map.Entry<String, String> e : headers.entrySet()) {
-                    conn.setRequestProperty(e.getKey(), e.getValue());
-                }
-                if (basicAuth.isPresent())
-                    conn.setRequestProperty("Authorization", basicAuth.get());
-
-                String contentEncoding = conn.getContentEncoding();
-                boolean isGzipped = "gzip".equals(contentEncoding);
-                DataInputStream din = new DataInputStream(isGzipped ? new GZIPInputStream(conn.getInputStream()) : conn.getInputStream());
-                return Serialize.readFully(din);
-            } catch (SocketTimeoutException e) {
-                throw new RuntimeException("Timeout retrieving: " + url, e);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            } finally {
-                if (conn != null)
-                    conn.disconnect();
-            }
-        }, ForkJoinPool.commonPool());
+        return send(url, headers, Duration.ofSeconds(15), true, HttpRequest.Builder::GET)
+                .exceptionally(t -> {
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (cause instanceof HttpTimeoutException)
+                        throw new RuntimeException("Timeout retrieving: " + url, cause);
+                    throw new RuntimeException(cause);
+                });
     }
 
     @Override
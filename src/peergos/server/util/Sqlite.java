@@ -1,10 +1,12 @@
 package peergos.server.util;
 
+import com.zaxxer.hikari.*;
 import org.sqlite.*;
 
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 
 public class Sqlite {
 
@@ -18,6 +20,25 @@ public class Sqlite {
         return conn;
     }
 
+    /** A bounded pool of connections to the database. Each connection is returned to the pool when closed
+     *
+     */
+    public static Supplier<Connection> buildPool(String dbPath, int maxConnections) {
+        SQLiteDataSource source = new SQLiteDataSource();
+        source.setUrl("jdbc:sqlite:" + dbPath);
+        HikariConfig config = new HikariConfig();
+        config.setDataSource(source);
+        config.setMaximumPoolSize(maxConnections);
+        HikariDataSource pool = new HikariDataSource(config);
+        return () -> {
+            try {
+                return pool.getConnection();
+            } catch (SQLException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        };
+    }
+
     public static String getDbPath(Args a, String type) {
         String sqlFile = a.getArg(type);
         return sqlFile.equals(":memory:") ? sqlFile : a.fromPeergosDir(type).toString();
@@ -319,6 +319,30 @@ public class NetworkAccess {
     }
 
     public CompletableFuture<List<RetrievedCapability>> retrieveAllMetadata(List<AbsoluteCapability> links, Snapshot current) {
+        if (links.size() <= 1)
+            return retrieveAllMetadataIndividually(links, current);
+        return Futures.combineAllInOrder(links.stream()
+                        .map(link -> current.withWriter(link.owner, link.writer, this)
+                                .thenApply(version -> version.get(link.writer).props))
+                        .collect(Collectors.toList()))
+                .thenCompose(bases -> Futures.asyncExceptionally(
+                        () -> prefetchChampLookups(links, bases),
+                        t -> Futures.of(false)) // fall back to individual lookups, e.g. for an older server
+                        .thenCompose(prefetched -> {
+                            List<CompletableFuture<Optional<RetrievedCapability>>> all = IntStream.range(0, links.size())
+                                    .mapToObj(i -> (prefetched ?
+                                            getPrefetchedMetadata(bases.get(i), links.get(i)) :
+                                            getMetadata(bases.get(i), links.get(i)))
+                                            .thenApply(copt -> copt.map(c -> new RetrievedCapability(links.get(i), c))))
+                                    .collect(Collectors.toList());
+                            return Futures.combineAllInOrder(all);
+                        }))
+                .thenApply(opts -> opts.stream()
+                        .flatMap(Optional::stream)
+                        .collect(Collectors.toList()));
+    }
+
+    private CompletableFuture<List<RetrievedCapability>> retrieveAllMetadataIndividually(List<AbsoluteCapability> links, Snapshot current) {
         List<CompletableFuture<Optional<RetrievedCapability>>> all = links.stream()
                 .map(link -> current.withWriter(link.owner, link.writer, this)
                         .thenCompose(version -> getMetadata(version.get(link.writer).props, link)
@@ -331,6 +355,38 @@ public class NetworkAccess {
                         .collect(Collectors.toList()));
     }
 
+    /** Retrieve the champ blocks for all the uncached links in as few requests as possible, into the block cache.
+     *  Links in the same champ are looked up together, so the server walks the common upper levels once.
+     *
+     */
+    private CompletableFuture<Boolean> prefetchChampLookups(List<AbsoluteCapability> links, List<WriterData> bases) {
+        Map<Pair<PublicKeyHash, Multihash>, List<AbsoluteCapability>> byChamp = new LinkedHashMap<>();
+        for (int i=0; i < links.size(); i++) {
+            AbsoluteCapability link = links.get(i);
+            WriterData base = bases.get(i);
+            if (base.tree.isEmpty())
+                continue;
+            if (cache.containsKey(new Pair<>(base.tree.get(), new ByteArrayWrapper(link.getMapKey()))))
+                continue;
+            byChamp.computeIfAbsent(new Pair<>(link.owner, base.tree.get()), k -> new ArrayList<>()).add(link);
+        }
+        List<CompletableFuture<Boolean>> lookups = byChamp.entrySet().stream()
+                .flatMap(e -> ArrayOps.group(e.getValue(), ContentAddressedStorage.MAX_CHAMP_LOOKUPS).stream()
+                        .map(group -> Futures.combineAllInOrder(group.stream()
+                                        .map(this::getBatWithId)
+                                        .collect(Collectors.toList()))
+                                .thenCompose(bats -> dhtClient.getChampLookups(e.getKey().left, (Cid) e.getKey().right,
+                                        group.stream().map(AbsoluteCapability::getMapKey).collect(Collectors.toList()), bats))
+                                .thenApply(blocks -> true)))
+                .collect(Collectors.toList());
+        return Futures.combineAll(lookups).thenApply(x -> true);
+    }
+
+    private CompletableFuture<Optional<BatWithId>> getBatWithId(AbsoluteCapability cap) {
+        return cap.bat.map(b -> b.calculateId(hasher).thenApply(id -> Optional.of(new BatWithId(b, id.id))))
+                .orElse(Futures.of(Optional.empty()));
+    }
+
     public CompletableFuture<Set<FileWrapper>> retrieveAll(List<EntryPoint> entries) {
         return Futures.reduceAll(entries, Collections.emptySet(),
                 (set, entry) -> retrieveEntryPoint(entry)
@@ -453,23 +509,43 @@ public class NetworkAccess {
         Pair<Multihash, ByteArrayWrapper> cacheKey = new Pair<>(base.tree.get(), new ByteArrayWrapper(cap.getMapKey()));
         if (cache.containsKey(cacheKey))
             return Futures.of(cache.get(cacheKey));
-        return cap.bat.map(b -> b.calculateId(hasher).thenApply(id -> Optional.of(new BatWithId(b, id.id)))).orElse(Futures.of(Optional.empty()))
+        return getBatWithId(cap)
                 .thenCompose(bat -> Futures.asyncExceptionally(
                         () -> dhtClient.getChampLookup(cap.owner, (Cid) base.tree.get(), cap.getMapKey(), bat),
                         t -> dhtClient.getChampLookup((Cid) base.tree.get(), cap.getMapKey(), bat, hasher)
-                ).thenCompose(blocks -> ChampWrapper.create((Cid)base.tree.get(), x -> Futures.of(x.data), dhtClient, hasher, c -> (CborObject.CborMerkleLink) c)
-                        .thenCompose(tree -> tree.get(cap.getMapKey()))
-                        .thenApply(c -> c.map(x -> x.target))
-                        .thenCompose(btreeValue -> {
-                            if (btreeValue.isPresent())
-                                return dhtClient.get((Cid)btreeValue.get(), bat)
-                                        .thenApply(value -> value.map(cbor -> CryptreeNode.fromCbor(cbor, cap.rBaseKey, btreeValue.get())))
-                                        .thenApply(res -> {
-                                            cache.put(cacheKey, res);
-                                            return res;
-                                        });
-                            return CompletableFuture.completedFuture(Optional.empty());
-                        })));
+                ).thenCompose(blocks -> lookupMetadata(base, cap, bat, cacheKey)));
+    }
+
+    /** Get the metadata for a link whose champ blocks have already been retrieved
+     *
+     */
+    private CompletableFuture<Optional<CryptreeNode>> getPrefetchedMetadata(WriterData base, AbsoluteCapability cap) {
+        if (base.tree.isEmpty())
+            return Futures.of(Optional.empty());
+        Pair<Multihash, ByteArrayWrapper> cacheKey = new Pair<>(base.tree.get(), new ByteArrayWrapper(cap.getMapKey()));
+        if (cache.containsKey(cacheKey))
+            return Futures.of(cache.get(cacheKey));
+        return getBatWithId(cap)
+                .thenCompose(bat -> lookupMetadata(base, cap, bat, cacheKey));
+    }
+
+    private CompletableFuture<Optional<CryptreeNode>> lookupMetadata(WriterData base,
+                                                                     AbsoluteCapability cap,
+                                                                     Optional<BatWithId> bat,
+                                                                     Pair<Multihash, ByteArrayWrapper> cacheKey) {
+        return ChampWrapper.create((Cid)base.tree.get(), x -> Futures.of(x.data), dhtClient, hasher, c -> (CborObject.CborMerkleLink) c)
+                .thenCompose(tree -> tree.get(cap.getMapKey()))
+                .thenApply(c -> c.map(x -> x.target))
+                .thenCompose(btreeValue -> {
+                    if (btreeValue.isPresent())
+                        return dhtClient.get((Cid)btreeValue.get(), bat)
+                                .thenApply(value -> value.map(cbor -> CryptreeNode.fromCbor(cbor, cap.rBaseKey, btreeValue.get())))
+                                .thenApply(res -> {
+                                    cache.put(cacheKey, res);
+                                    return res;
+                                });
+                    return CompletableFuture.completedFuture(Optional.empty());
+                });
     }
 
     private CompletableFuture<List<Cid>> bulkUploadFragments(List<Fragment> fragments,
@@ -539,6 +615,51 @@ public class NetworkAccess {
         }
     }
 
+    /** Write the metadata of several chunks of a writer, and link them all into the writer's champ with a single tree
+     *  update and commit, so shared interior tree nodes are only written once.
+     *
+     * @param chunks The map key and metadata of each chunk
+     */
+    public CompletableFuture<Snapshot> uploadChunks(Snapshot current,
+                                                    Committer committer,
+                                                    List<Pair<byte[], CryptreeNode>> chunks,
+                                                    PublicKeyHash owner,
+                                                    SigningPrivateKeyAndPublicHash writer,
+                                                    TransactionId tid) {
+        if (chunks.size() == 1)
+            return uploadChunk(current, committer, chunks.get(0).right, owner, chunks.get(0).left, writer, tid);
+        if (! current.versions.containsKey(writer.publicKeyHash))
+            throw new IllegalStateException("Trying to commit to incorrect writer!");
+        LOG.info("Uploading " + chunks.size() + " chunks");
+        List<byte[]> metaBlobs = chunks.stream()
+                .map(c -> c.right.serialize())
+                .collect(Collectors.toList());
+        CommittedWriterData version = current.get(writer);
+        return Futures.combineAllInOrder(metaBlobs.stream()
+                        .map(blob -> hasher.sha256(blob).thenApply(writer.secret::signMessage))
+                        .collect(Collectors.toList()))
+                .thenCompose(signatures -> dhtClient.put(owner, writer.publicKeyHash, signatures, metaBlobs, tid))
+                .thenCompose(blobHashes -> {
+                    List<Triple<byte[], MaybeMultihash, Multihash>> mutations = IntStream.range(0, chunks.size())
+                            .mapToObj(i -> new Triple<>(chunks.get(i).left, chunks.get(i).right.committedHash(), (Multihash) blobHashes.get(i)))
+                            .collect(Collectors.toList());
+                    return tree.putAll(version.props, owner, writer, mutations, tid)
+                            .thenCompose(wd -> committer.commit(owner, writer, wd, version, tid)
+                                    .thenApply(s -> {
+                                        for (int i = 0; i < chunks.size(); i++) {
+                                            Pair<Multihash, ByteArrayWrapper> cacheKey = new Pair<>(wd.tree.get(), new ByteArrayWrapper(chunks.get(i).left));
+                                            Optional<CryptreeNode> value = Optional.of(chunks.get(i).right.withHash(blobHashes.get(i)));
+                                            if (i == 0)
+                                                cache.update(version.props.tree, cacheKey, value);
+                                            else
+                                                cache.put(cacheKey, value);
+                                        }
+                                        return s;
+                                    }));
+                })
+                .thenApply(committed -> current.withVersion(writer.publicKeyHash, committed.get(writer)));
+    }
+
     public CompletableFuture<Snapshot> addPreexistingChunk(CryptreeNode metadata,
                                                            PublicKeyHash owner,
                                                            byte[] mapKey,
@@ -151,6 +151,14 @@ public class OpLog implements Cborable, Account, MutablePointers, ContentAddress
         return Futures.of(new ArrayList<>(storage.values()));
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return Futures.of(new ArrayList<>(storage.values()));
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         throw new IllegalStateException("Unsupported operation!");
@@ -40,6 +40,23 @@ public interface PublicSigningKey extends Cborable {
     @JsMethod
     byte[] unsignMessage(byte[] signed);
 
+    /** Verify many signed messages, possibly under different keys, together. This is much faster than unsigning
+     *  each individually.
+     *
+     * @return The messages, in order, or empty for any with an invalid signature
+     */
+    static List<Optional<byte[]>> unsignMessages(List<PublicSigningKey> keys, List<byte[]> signed) {
+        if (keys.size() != signed.size())
+            throw new IllegalArgumentException("Different numbers of keys and signed messages!");
+        List<Ed25519PublicKey> ed25519Keys = new ArrayList<>();
+        for (PublicSigningKey key : keys) {
+            if (! (key instanceof Ed25519PublicKey))
+                throw new IllegalStateException("Unknown Public Signing Key type: " + key.type().name());
+            ed25519Keys.add((Ed25519PublicKey) key);
+        }
+        return Ed25519PublicKey.unsignMessages(ed25519Keys, signed);
+    }
+
     static PublicSigningKey fromString(String b64) {
         return fromByteArray(Base64.getDecoder().decode(b64));
     }
@@ -2,10 +2,28 @@ package peergos.shared.crypto.asymmetric.curve25519;
 
 import peergos.shared.crypto.random.JSNaCl;
 
+import java.util.*;
+
 public interface Ed25519 {
 
     byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey);
 
+    /** Verify many signed messages, under possibly different keys.
+     *
+     * @return The messages, in order, or empty for any with an invalid signature
+     */
+    default List<Optional<byte[]>> crypto_sign_open_batch(List<byte[]> signed, List<byte[]> publicSigningKeys) {
+        List<Optional<byte[]>> res = new ArrayList<>();
+        for (int i=0; i < signed.size(); i++) {
+            try {
+                res.add(Optional.of(crypto_sign_open(signed.get(i), publicSigningKeys.get(i))));
+            } catch (Exception e) {
+                res.add(Optional.empty());
+            }
+        }
+        return res;
+    }
+
     byte[] crypto_sign(byte[] message, byte[] secretSigningKey);
 
     void crypto_sign_keypair(byte[] pk, byte[] sk);
@@ -51,6 +51,22 @@ public class Ed25519PublicKey implements PublicSigningKey {
         return implementation.crypto_sign_open(signed, publicKey);
     }
 
+    /** Verify many signed messages, possibly under different keys, together.
+     *
+     * @return The messages, in order, or empty for any with an invalid signature
+     */
+    public static List<Optional<byte[]>> unsignMessages(List<Ed25519PublicKey> keys, List<byte[]> signed) {
+        if (keys.isEmpty())
+            return Collections.emptyList();
+        Ed25519 implementation = keys.get(0).implementation;
+        if (implementation == null)
+            throw new IllegalStateException("Uninitialized crypto-implementation: call peergos.shared.Crypto::init");
+        List<byte[]> publicKeys = new ArrayList<>();
+        for (Ed25519PublicKey key : keys)
+            publicKeys.add(key.publicKey);
+        return implementation.crypto_sign_open_batch(signed, publicKeys);
+    }
+
     public static Ed25519PublicKey fromCbor(Cborable cbor, Ed25519 provider) {
         if (! (cbor instanceof CborObject.CborList))
             throw new IllegalStateException("Invalid cbor for Ed25519 public key! " + cbor);
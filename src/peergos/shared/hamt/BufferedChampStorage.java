@@ -0,0 +1,111 @@
+package peergos.shared.hamt;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Holds the champ nodes written during a batch of mutations in memory, and caches the existing nodes read.
+ *
+ *  Only the nodes reachable from the final root are written to the target when the batch is committed, so the
+ *  intermediate versions of nodes on the paths of earlier mutations are never stored.
+ */
+class BufferedChampStorage extends DelegatingStorage {
+
+    private final ContentAddressedStorage target;
+    private final Map<Cid, byte[]> written = new HashMap<>();
+    private final Map<Cid, Optional<CborObject>> read = new HashMap<>();
+
+    public BufferedChampStorage(ContentAddressedStorage target) {
+        super(target);
+        this.target = target;
+    }
+
+    @Override
+    public ContentAddressedStorage directToOrigin() {
+        return target.directToOrigin();
+    }
+
+    /** Nodes are only signed when they are committed
+     *
+     */
+    @Override
+    public CompletableFuture<Cid> put(PublicKeyHash owner,
+                                      SigningPrivateKeyAndPublicHash writer,
+                                      byte[] block,
+                                      Hasher hasher,
+                                      TransactionId tid) {
+        return hashToCid(block, false, hasher).thenApply(cid -> {
+            synchronized (written) {
+                written.put(cid, block);
+            }
+            return cid;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
+                                            PublicKeyHash writer,
+                                            List<byte[]> signedHashes,
+                                            List<byte[]> blocks,
+                                            TransactionId tid) {
+        throw new IllegalStateException("Champ nodes must be written with the writer's signing key");
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Cid hash, Optional<BatWithId> bat) {
+        synchronized (written) {
+            byte[] local = written.get(hash);
+            if (local != null)
+                return Futures.of(Optional.of(CborObject.fromByteArray(local)));
+            Optional<CborObject> cached = read.get(hash);
+            if (cached != null)
+                return Futures.of(cached);
+        }
+        return target.get(hash, bat).thenApply(res -> {
+            synchronized (written) {
+                read.put(hash, res);
+            }
+            return res;
+        });
+    }
+
+    /** Write the buffered nodes which are reachable from root to the target in a single call
+     *
+     * @return The root
+     */
+    public CompletableFuture<Multihash> commit(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               Multihash root,
+                                               TransactionId tid) {
+        List<byte[]> blocks = new ArrayList<>();
+        List<byte[]> signatures = new ArrayList<>();
+        synchronized (written) {
+            LinkedList<Multihash> toVisit = new LinkedList<>();
+            Set<Multihash> visited = new HashSet<>();
+            toVisit.add(root);
+            while (! toVisit.isEmpty()) {
+                Multihash next = toVisit.removeFirst();
+                if (! visited.add(next))
+                    continue;
+                byte[] block = written.get(next);
+                if (block == null)
+                    continue; // already stored, or a value rather than a champ node
+                blocks.add(block);
+                signatures.add(writer.secret.signMessage(next.getHash()));
+                toVisit.addAll(CborObject.fromByteArray(block).links());
+            }
+        }
+        if (blocks.isEmpty())
+            return Futures.of(root);
+        return target.put(owner, writer.publicKeyHash, signatures, blocks, tid)
+                .thenApply(x -> root);
+    }
+}
@@ -96,7 +96,7 @@ public class Champ<V extends Cborable> implements Cborable {
 
     private final BitSet dataMap, nodeMap;
     private final HashPrefixPayload<V>[] contents;
-    private final Function<Cborable, V> fromCbor;
+    final Function<Cborable, V> fromCbor;
 
     public Champ(BitSet dataMap, BitSet nodeMap, HashPrefixPayload<V>[] contents, Function<Cborable, V> fromCbor) {
         this.dataMap = dataMap;
@@ -150,11 +150,21 @@ public class Champ<V extends Cborable> implements Cborable {
     }
 
     CompletableFuture<Pair<Multihash, Optional<Champ<V>>>> getChild(byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
+        return getChild(hash, depth, bitWidth, storage, true);
+    }
+
+    private CompletableFuture<Pair<Multihash, Optional<Champ<V>>>> getChild(byte[] hash,
+                                                                            int depth,
+                                                                            int bitWidth,
+                                                                            ContentAddressedStorage storage,
+                                                                            boolean useNodeCache) {
         int bitpos = mask(hash, depth, bitWidth);
         int index = contents.length - 1 - getIndex(this.nodeMap, bitpos);
         Multihash childHash = contents[index].link.get();
-        return storage.get((Cid) childHash, Optional.empty())
-                .thenApply(x -> new Pair<>(childHash, x.map(y -> Champ.fromCbor(y, fromCbor))));
+        return (useNodeCache ?
+                ChampNodeCache.get(childHash, storage, fromCbor) :
+                ChampNodeCache.getFromStorage(childHash, storage, fromCbor))
+                .thenApply(x -> new Pair<>(childHash, x));
     }
 
     public CompletableFuture<Long> size(int depth, ContentAddressedStorage storage) {
@@ -167,9 +177,8 @@ public class Champ<V extends Cborable> implements Cborable {
             HashPrefixPayload<V> pointer = contents[i];
             if (! pointer.isShard())
                 break; // we reach the key section
-            childCounts.add(storage.get((Cid) pointer.link.get(), Optional.empty())
-                    .thenApply(x -> new Pair<>(pointer.link.get(), x.map(y -> Champ.fromCbor(y, fromCbor))))
-                    .thenCompose(child -> child.right.map(c -> c.size(depth + 1, storage))
+            childCounts.add(ChampNodeCache.get(pointer.link.get(), storage, fromCbor)
+                    .thenCompose(child -> child.map(c -> c.size(depth + 1, storage))
                             .orElse(CompletableFuture.completedFuture(0L)))
             );
         }
@@ -193,6 +202,19 @@ public class Champ<V extends Cborable> implements Cborable {
      * @return The value, if any, that this key maps to
      */
     public CompletableFuture<Optional<V>> get(ByteArrayWrapper key, byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
+        return get(key, hash, depth, bitWidth, storage, true);
+    }
+
+    /**
+     *
+     * @param useNodeCache Whether nodes may come from the process wide node cache, rather than being read from storage
+     */
+    public CompletableFuture<Optional<V>> get(ByteArrayWrapper key,
+                                              byte[] hash,
+                                              int depth,
+                                              int bitWidth,
+                                              ContentAddressedStorage storage,
+                                              boolean useNodeCache) {
         final int bitpos = mask(hash, depth, bitWidth);
 
         if (dataMap.get(bitpos)) { // local value
@@ -208,8 +230,8 @@ public class Champ<V extends Cborable> implements Cborable {
         }
 
         if (nodeMap.get(bitpos)) { // child node
-            return getChild(hash, depth, bitWidth, storage)
-                    .thenCompose(child -> child.right.map(c -> c.get(key, hash, depth + 1, bitWidth, storage))
+            return getChild(hash, depth, bitWidth, storage, useNodeCache)
+                    .thenCompose(child -> child.right.map(c -> c.get(key, hash, depth + 1, bitWidth, storage, useNodeCache))
                             .orElse(CompletableFuture.completedFuture(Optional.empty())));
         }
 
@@ -296,6 +318,72 @@ public class Champ<V extends Cborable> implements Cborable {
         }
     }
 
+    /** Apply a batch of puts in a single pass, only writing the final version of each modified node to storage.
+     *  The result is identical to applying the puts one at a time.
+     *
+     * @param mutations The keys to set, with the expected current value and the new value for each
+     * @return A new champ and its hash after all the puts
+     */
+    public CompletableFuture<Pair<Champ<V>, Multihash>> putAll(PublicKeyHash owner,
+                                                               SigningPrivateKeyAndPublicHash writer,
+                                                               List<Triple<ByteArrayWrapper, Optional<V>, Optional<V>>> mutations,
+                                                               int bitWidth,
+                                                               int maxCollisions,
+                                                               Function<ByteArrayWrapper, CompletableFuture<byte[]>> hasher,
+                                                               TransactionId tid,
+                                                               ContentAddressedStorage storage,
+                                                               Hasher writeHasher,
+                                                               Multihash ourHash) {
+        BufferedChampStorage buffer = new BufferedChampStorage(storage);
+        return sortByKeyHash(mutations, m -> m.left, hasher)
+                .thenCompose(sorted -> Futures.reduceAll(sorted, new Pair<>(this, ourHash),
+                        (current, m) -> current.left.put(owner, writer, m.left.left, m.right, 0, m.left.middle,
+                                m.left.right, bitWidth, maxCollisions, hasher, tid, buffer, writeHasher, current.right),
+                        (a, b) -> b))
+                .thenCompose(res -> buffer.commit(owner, writer, res.right, tid)
+                        .thenApply(x -> res));
+    }
+
+    /** Apply a batch of removals in a single pass, only writing the final version of each modified node to storage.
+     *  The result is identical to applying the removals one at a time.
+     *
+     * @param removals The keys to remove, with the expected current value of each
+     * @return A new champ and its hash after all the removals
+     */
+    public CompletableFuture<Pair<Champ<V>, Multihash>> removeAll(PublicKeyHash owner,
+                                                                  SigningPrivateKeyAndPublicHash writer,
+                                                                  List<Pair<ByteArrayWrapper, Optional<V>>> removals,
+                                                                  int bitWidth,
+                                                                  int maxCollisions,
+                                                                  Function<ByteArrayWrapper, CompletableFuture<byte[]>> hasher,
+                                                                  TransactionId tid,
+                                                                  ContentAddressedStorage storage,
+                                                                  Hasher writeHasher,
+                                                                  Multihash ourHash) {
+        BufferedChampStorage buffer = new BufferedChampStorage(storage);
+        return sortByKeyHash(removals, m -> m.left, hasher)
+                .thenCompose(sorted -> Futures.reduceAll(sorted, new Pair<>(this, ourHash),
+                        (current, m) -> current.left.remove(owner, writer, m.left.left, m.right, 0, m.left.right,
+                                bitWidth, maxCollisions, tid, buffer, writeHasher, current.right),
+                        (a, b) -> b))
+                .thenCompose(res -> buffer.commit(owner, writer, res.right, tid)
+                        .thenApply(x -> res));
+    }
+
+    /** Order mutations by the hash of their key so consecutive mutations share as much of their path as possible
+     *
+     */
+    private static <T> CompletableFuture<List<Pair<T, byte[]>>> sortByKeyHash(List<T> mutations,
+                                                                             Function<T, ByteArrayWrapper> key,
+                                                                             Function<ByteArrayWrapper, CompletableFuture<byte[]>> hasher) {
+        return Futures.combineAllInOrder(mutations.stream()
+                        .map(m -> hasher.apply(key.apply(m)).thenApply(h -> new Pair<>(m, h)))
+                        .collect(Collectors.toList()))
+                .thenApply(hashed -> hashed.stream()
+                        .sorted((a, b) -> new ByteArrayWrapper(a.right).compareTo(new ByteArrayWrapper(b.right)))
+                        .collect(Collectors.toList()));
+    }
+
     private CompletableFuture<Pair<Champ<V>, Multihash>> pushMappingsDownALevel(PublicKeyHash owner,
                                                                                 SigningPrivateKeyAndPublicHash writer,
                                                                                 KeyElement<V>[] mappings,
@@ -587,23 +675,44 @@ public class Champ<V extends Cborable> implements Cborable {
         return new Champ<>(newDataMap, nodeMap, dst, fromCbor);
     }
 
+    private static <V extends Cborable> CompletableFuture<Champ<V>> getChild(Multihash hash,
+                                                                            ContentAddressedStorage storage,
+                                                                            Function<Cborable, V> fromCbor) {
+        return ChampNodeCache.get(hash, storage, fromCbor)
+                .thenApply(rawOpt -> rawOpt.orElseThrow(() -> new IllegalStateException("Hash not present! " + hash)));
+    }
+
+    /** Apply a function to every mapping in this champ, in order.
+     *  When a node is reached all its children are fetched concurrently, ahead of the consumer, but no deeper. This
+     *  hides most of the latency of a full traversal, while only holding the children of the nodes on the current
+     *  path, so subtrees that have been consumed can be garbage collected.
+     */
     public <T> CompletableFuture<T> applyToAllMappings(T identity,
                                                        BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer,
                                                        ContentAddressedStorage storage) {
-        return Futures.reduceAll(Arrays.stream(contents).collect(Collectors.toList()), identity, (res, payload) ->
-                (! payload.isShard() ?
+        return applyToAllMappings(this, identity, consumer, storage);
+    }
+
+    private static <V extends Cborable, T> CompletableFuture<T> applyToAllMappings(Champ<V> node,
+                                                                                   T identity,
+                                                                                   BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer,
+                                                                                   ContentAddressedStorage storage) {
+        List<Pair<HashPrefixPayload<V>, Optional<CompletableFuture<Champ<V>>>>> payloads = Arrays.stream(node.contents)
+                .map(p -> new Pair<>(p, p.isShard() && p.link.isPresent() ?
+                        Optional.of(getChild(p.link.get(), storage, node.fromCbor)) :
+                        Optional.<CompletableFuture<Champ<V>>>empty()))
+                .collect(Collectors.toList());
+        return Futures.reduceAll(payloads, identity, (res, p) ->
+                (! p.left.isShard() ?
                         Futures.reduceAll(
-                                Arrays.stream(payload.mappings).collect(Collectors.toList()),
+                                Arrays.stream(p.left.mappings).collect(Collectors.toList()),
                                 res,
                                 (x, mapping) -> consumer.apply(x, new Pair<>(mapping.key, mapping.valueHash)),
                                 (a, b) ->  a) :
                         CompletableFuture.completedFuture(res)
-                ).thenCompose(newRes ->
-                        payload.isShard() && payload.link.isPresent() ?
-                                storage.get((Cid)payload.link.get(), Optional.empty())
-                                        .thenApply(rawOpt -> Champ.fromCbor(rawOpt.orElseThrow(() -> new IllegalStateException("Hash not present! " + payload.link)), fromCbor))
-                                        .thenCompose(child -> child.applyToAllMappings(newRes, consumer, storage)) :
-                                CompletableFuture.completedFuture(newRes)
+                ).thenCompose(newRes -> p.right
+                        .map(child -> child.thenCompose(c -> applyToAllMappings(c, newRes, consumer, storage)))
+                        .orElseGet(() -> CompletableFuture.completedFuture(newRes))
                 ), (a, b) -> a);
     }
 
@@ -666,10 +775,13 @@ public class Champ<V extends Cborable> implements Cborable {
 
         if (updated.equals(original))
             return CompletableFuture.completedFuture(true);
-        return original.map(h -> storage.get((Cid)h, Optional.empty())).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                .thenApply(rawOpt -> rawOpt.map(y -> Champ.fromCbor(y, fromCbor)))
-                .thenCompose(left -> updated.map(h -> storage.get((Cid)h, Optional.empty())).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                        .thenApply(rawOpt -> rawOpt.map(y -> Champ.fromCbor(y, fromCbor)))
+        // fetch both sides concurrently
+        CompletableFuture<Optional<Champ<V>>> leftFuture = original.map(h -> ChampNodeCache.get(h, storage, fromCbor))
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()));
+        CompletableFuture<Optional<Champ<V>>> rightFuture = updated.map(h -> ChampNodeCache.get(h, storage, fromCbor))
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()));
+        return leftFuture
+                .thenCompose(left -> rightFuture
                         .thenCompose(right -> hashAndMaskKeys(higherLeftMappings, depth, bitWidth, hasher)
                                 .thenCompose(leftHigherMappingsByBit -> hashAndMaskKeys(higherRightMappings, depth, bitWidth, hasher)
                                         .thenCompose(rightHigherMappingsByBit -> {
@@ -787,6 +899,29 @@ public class Champ<V extends Cborable> implements Cborable {
         ));
     }
 
+    /**
+     *
+     * @return This champ node with its values decoded by a different function
+     */
+    @SuppressWarnings("unchecked")
+    <W extends Cborable> Champ<W> withValueDecoder(Function<Cborable, W> decoder) {
+        HashPrefixPayload<W>[] result = (HashPrefixPayload<W>[]) new HashPrefixPayload<?>[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            HashPrefixPayload<V> payload = contents[i];
+            if (payload.isShard()) {
+                result[i] = new HashPrefixPayload<>(payload.link);
+                continue;
+            }
+            KeyElement<W>[] mappings = (KeyElement<W>[]) new KeyElement<?>[payload.mappings.length];
+            for (int j = 0; j < mappings.length; j++) {
+                KeyElement<V> mapping = payload.mappings[j];
+                mappings[j] = new KeyElement<>(mapping.key, mapping.valueHash.map(v -> decoder.apply(v.toCbor())));
+            }
+            result[i] = new HashPrefixPayload<>(mappings);
+        }
+        return new Champ<>(dataMap, nodeMap, result, decoder);
+    }
+
     public static <V extends Cborable> Champ<V> fromCbor(Cborable cbor, Function<Cborable, V> fromCbor) {
         if (! (cbor instanceof CborObject.CborList))
             throw new IllegalStateException("Invalid cbor for CHAMP! " + cbor);
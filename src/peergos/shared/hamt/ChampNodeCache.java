@@ -0,0 +1,76 @@
+package peergos.shared.hamt;
+
+import peergos.shared.cbor.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** A cache of recently read champ nodes, already parsed, keyed by their hash.
+ *
+ *  Nodes are content addressed and immutable so they never need invalidating. Nodes are cached when they are read,
+ *  not when they are written. The cache is shared by all champs in this process, so nodes are cached with their values
+ *  left as cbor, and each caller's value decoder is applied on the way out.
+ */
+public class ChampNodeCache {
+    private static final int MAX_NODES = 5_000;
+    private static final Function<Cborable, Cborable> UNDECODED = c -> c;
+
+    private static final LRUCache<Multihash, Champ<Cborable>> nodes = new LRUCache<>(MAX_NODES);
+
+    private static <V extends Cborable> Optional<Champ<V>> getCached(Multihash hash, Function<Cborable, V> fromCbor) {
+        Champ<Cborable> cached;
+        synchronized (nodes) {
+            cached = nodes.get(hash);
+        }
+        if (cached == null)
+            return Optional.empty();
+        return Optional.of(cached.withValueDecoder(fromCbor));
+    }
+
+    private static void cache(Multihash hash, Champ<Cborable> node) {
+        synchronized (nodes) {
+            nodes.put(hash, node);
+        }
+    }
+
+    public static void clear() {
+        synchronized (nodes) {
+            nodes.clear();
+        }
+    }
+
+    /**
+     *
+     * @return The decoded champ node with this hash, if present in storage
+     */
+    public static <V extends Cborable> CompletableFuture<Optional<Champ<V>>> get(Multihash hash,
+                                                                                ContentAddressedStorage storage,
+                                                                                Function<Cborable, V> fromCbor) {
+        Optional<Champ<V>> cached = getCached(hash, fromCbor);
+        if (cached.isPresent())
+            return Futures.of(cached);
+        return getFromStorage(hash, storage, fromCbor);
+    }
+
+    /** Read a champ node through storage even if it is cached here, for callers which record the blocks they read,
+     *  like champ lookups returning the blocks on a path. The node is still added to the cache.
+     *
+     * @return The decoded champ node with this hash, if present in storage
+     */
+    public static <V extends Cborable> CompletableFuture<Optional<Champ<V>>> getFromStorage(Multihash hash,
+                                                                                           ContentAddressedStorage storage,
+                                                                                           Function<Cborable, V> fromCbor) {
+        return storage.get((Cid) hash, Optional.empty()).thenApply(rawOpt -> {
+            if (! rawOpt.isPresent())
+                return Optional.empty();
+            Champ<Cborable> node = Champ.fromCbor(rawOpt.get(), UNDECODED);
+            cache(hash, node);
+            return Optional.of(node.withValueDecoder(fromCbor));
+        });
+    }
+}
@@ -13,6 +13,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
 {
@@ -23,6 +24,7 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
     public final Hasher writeHasher;
     public final int bitWidth;
     public final Function<ByteArrayWrapper, CompletableFuture<byte[]>> keyHasher;
+    private final boolean useNodeCache;
     private Pair<Champ<V>, Multihash> root;
 
     public ChampWrapper(Champ<V> root,
@@ -31,11 +33,22 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
                         ContentAddressedStorage storage,
                         Hasher writeHasher,
                         int bitWidth) {
+        this(root, rootHash, keyHasher, storage, writeHasher, bitWidth, true);
+    }
+
+    private ChampWrapper(Champ<V> root,
+                         Multihash rootHash,
+                         Function<ByteArrayWrapper, CompletableFuture<byte[]>> keyHasher,
+                         ContentAddressedStorage storage,
+                         Hasher writeHasher,
+                         int bitWidth,
+                         boolean useNodeCache) {
         this.storage = storage;
         this.writeHasher = writeHasher;
         this.keyHasher = keyHasher;
         this.root = new Pair<>(root, rootHash);
         this.bitWidth = bitWidth;
+        this.useNodeCache = useNodeCache;
     }
 
     public Multihash getRoot() {
@@ -47,10 +60,26 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
                                                                                  ContentAddressedStorage dht,
                                                                                  Hasher writeHasher,
                                                                                  Function<Cborable, V> fromCbor) {
-        return dht.get(rootHash, Optional.empty()).thenApply(rawOpt -> {
-            if (! rawOpt.isPresent())
+        return ChampNodeCache.get(rootHash, dht, fromCbor).thenApply(rootOpt -> {
+            if (! rootOpt.isPresent())
                 throw new IllegalStateException("Champ root not present: " + rootHash);
-            return new ChampWrapper<>(Champ.fromCbor(rawOpt.get(), fromCbor), rootHash, hasher, dht, writeHasher, BIT_WIDTH);
+            return new ChampWrapper<>(rootOpt.get(), rootHash, hasher, dht, writeHasher, BIT_WIDTH);
+        });
+    }
+
+    /** Open a champ whose gets read every node on the path through dht, bypassing the process wide node cache. This
+     *  is for building the list of blocks needed for a lookup by recording what is read.
+     *
+     */
+    public static <V extends Cborable> CompletableFuture<ChampWrapper<V>> createReadThrough(Cid rootHash,
+                                                                                            Function<ByteArrayWrapper, CompletableFuture<byte[]>> hasher,
+                                                                                            ContentAddressedStorage dht,
+                                                                                            Hasher writeHasher,
+                                                                                            Function<Cborable, V> fromCbor) {
+        return ChampNodeCache.getFromStorage(rootHash, dht, fromCbor).thenApply(rootOpt -> {
+            if (! rootOpt.isPresent())
+                throw new IllegalStateException("Champ root not present: " + rootHash);
+            return new ChampWrapper<>(rootOpt.get(), rootHash, hasher, dht, writeHasher, BIT_WIDTH, false);
         });
     }
 
@@ -78,7 +107,7 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
     public CompletableFuture<Optional<V>> get(byte[] rawKey) {
         ByteArrayWrapper key = new ByteArrayWrapper(rawKey);
         return keyHasher.apply(key)
-                .thenCompose(keyHash -> root.left.get(key, keyHash, 0, BIT_WIDTH, storage));
+                .thenCompose(keyHash -> root.left.get(key, keyHash, 0, BIT_WIDTH, storage, useNodeCache));
     }
 
     /**
@@ -121,6 +150,40 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
                 .thenCompose(newRoot -> commit(writer, newRoot));
     }
 
+    /**
+     *
+     * @param mutations The keys to set, with the expected existing value and the new value for each
+     * @return hash of new tree root, after writing only the final version of each modified node
+     */
+    public CompletableFuture<Multihash> putAll(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               List<Triple<byte[], Optional<V>, V>> mutations,
+                                               TransactionId tid) {
+        List<Triple<ByteArrayWrapper, Optional<V>, Optional<V>>> wrapped = mutations.stream()
+                .map(m -> new Triple<>(new ByteArrayWrapper(m.left), m.middle, Optional.of(m.right)))
+                .collect(Collectors.toList());
+        return root.left.putAll(owner, writer, wrapped, BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, keyHasher, tid,
+                        storage, writeHasher, root.right)
+                .thenCompose(newRoot -> commit(writer, newRoot));
+    }
+
+    /**
+     *
+     * @param removals The keys to remove, with the expected existing value for each
+     * @return hash of new tree root, after writing only the final version of each modified node
+     */
+    public CompletableFuture<Multihash> removeAll(PublicKeyHash owner,
+                                                  SigningPrivateKeyAndPublicHash writer,
+                                                  List<Pair<byte[], Optional<V>>> removals,
+                                                  TransactionId tid) {
+        List<Pair<ByteArrayWrapper, Optional<V>>> wrapped = removals.stream()
+                .map(m -> new Pair<>(new ByteArrayWrapper(m.left), m.right))
+                .collect(Collectors.toList());
+        return root.left.removeAll(owner, writer, wrapped, BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, keyHasher, tid,
+                        storage, writeHasher, root.right)
+                .thenCompose(newRoot -> commit(writer, newRoot));
+    }
+
     private CompletableFuture<Multihash> commit(SigningPrivateKeyAndPublicHash writer, Pair<Champ<V>, Multihash> newRoot) {
         root = newRoot;
         return CompletableFuture.completedFuture(newRoot.right);
@@ -12,6 +12,7 @@ import java.util.concurrent.*;
 import java.util.function.*;
 
 public class FileBackedMessageStore implements MessageStore {
+    private static final int INDEX_RECORD_SIZE = 16;
 
     private final FileWrapper messages;
     private final FileWrapper indexFile;
@@ -39,35 +40,52 @@ public class FileBackedMessageStore implements MessageStore {
         if (messages.getSize() < 5*1024*1024)
             return Futures.of(new Pair<>(0L, (int) index));
         return indexFile.getInputStream(indexFile.version.get(indexFile.writer()).props, network, crypto, x -> {})
-                        .thenCompose(reader -> findOffset(reader, new byte[1024],
-                                0L, 0L, index, indexFile.getSize()));
+                        .thenCompose(reader -> findOffset(reader, indexFile.getSize(), index));
     }
 
-    private CompletableFuture<Pair<Long, Integer>> findOffset(AsyncReader r,
-                                                              byte[] buf,
-                                                              long previousIndex,
-                                                              long previousByteOffset,
-                                                              long index,
-                                                              long remainingBytes) {
-        if (remainingBytes == 0)
-            return Futures.of(new Pair<>(previousByteOffset, (int)(index - previousIndex)));
-        int toRead = remainingBytes > buf.length ? buf.length : (int) remainingBytes;
-        DataInputStream din = new DataInputStream(new ByteArrayInputStream(buf));
-        return r.readIntoArray(buf, 0, toRead)
-                .thenCompose(read -> {
-                    long prevIndex = previousIndex;
-                    long prevBytes = previousByteOffset;
-                    for (int i=0; i < read / 16; i++) {
-                        try {
-                            long msgIndex = din.readLong();
-                            long byteOffset = din.readLong();
-                            if (msgIndex > index)
-                                return Futures.of(new Pair<>(prevBytes, (int)(index - prevIndex)));
-                            prevIndex = msgIndex;
-                            prevBytes = byteOffset;
-                        } catch (IOException e) {}
+    /** The index is a sequence of fixed width records, in increasing order of message index, of the index and byte
+     *  offset of the first message starting in each chunk of the message log. So we can binary search it for the
+     *  last record at or before the message we want.
+     *
+     * @return The byte offset to start reading the message log from, and the number of messages to skip from there
+     */
+    public static CompletableFuture<Pair<Long, Integer>> findOffset(AsyncReader index, long indexSize, long msgIndex) {
+        return findOffset(index, new byte[INDEX_RECORD_SIZE], 0, indexSize / INDEX_RECORD_SIZE, msgIndex)
+                .thenCompose(recordsBefore -> {
+                    if (recordsBefore == 0)
+                        return Futures.of(new Pair<>(0L, (int) msgIndex));
+                    return readRecord(index, new byte[INDEX_RECORD_SIZE], recordsBefore - 1)
+                            .thenApply(r -> new Pair<>(r.right, (int) (msgIndex - r.left)));
+                });
+    }
+
+    /**
+     *
+     * @return The number of records in [start, end) with a message index <= msgIndex, plus start
+     */
+    private static CompletableFuture<Long> findOffset(AsyncReader index, byte[] buf, long start, long end, long msgIndex) {
+        if (start == end)
+            return Futures.of(start);
+        long mid = start + (end - start) / 2;
+        return readRecord(index, buf, mid)
+                .thenCompose(r -> r.left > msgIndex ?
+                        findOffset(index, buf, start, mid, msgIndex) :
+                        findOffset(index, buf, mid + 1, end, msgIndex));
+    }
+
+    private static CompletableFuture<Pair<Long, Long>> readRecord(AsyncReader index, byte[] buf, long record) {
+        return index.reset() // not all readers seek to an absolute position
+                .thenCompose(r -> r.seek(record * INDEX_RECORD_SIZE))
+                .thenCompose(r -> r.readIntoArray(buf, 0, buf.length))
+                .thenApply(read -> {
+                    if (read != buf.length)
+                        throw new IllegalStateException("Truncated message index record " + record);
+                    DataInputStream din = new DataInputStream(new ByteArrayInputStream(buf));
+                    try {
+                        return new Pair<>(din.readLong(), din.readLong());
+                    } catch (IOException e) {
+                        throw new RuntimeException(e); // can't happen
                     }
-                    return findOffset(r, buf, prevIndex, prevBytes, index, remainingBytes - read);
                 });
     }
 
@@ -54,25 +54,28 @@ public interface MutablePointers {
     static CompletableFuture<MaybeMultihash> parsePointerTarget(byte[] pointerCas,
                                                                 PublicKeyHash writerKeyHash,
                                                                 ContentAddressedStorage ipfs) {
-        return ipfs.getSigningKey(writerKeyHash)
-                .thenApply(writerOpt -> writerOpt.map(writerKey -> Optional.of(pointerCas)
-                        .map(signed -> HashCasPair.fromCbor(CborObject.fromByteArray(writerKey.unsignMessage(signed))).updated)
-                        .orElse(MaybeMultihash.empty()))
+        return VerifiedPointerCache.getSigningKey(writerKeyHash, ipfs)
+                .thenApply(writerOpt -> writerOpt.map(writerKey -> VerifiedPointerCache.unsign(writerKeyHash, writerKey, pointerCas).updated)
                         .orElse(MaybeMultihash.empty()));
     }
 
-    static boolean isValidUpdate(PublicSigningKey writerKey, Optional<byte[]> current, byte[] writerSignedBtreeRootHash) {
-        byte[] bothHashes = writerKey.unsignMessage(writerSignedBtreeRootHash);
-        HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(bothHashes));
+    static boolean isValidUpdate(PublicKeyHash writer,
+                                 PublicSigningKey writerKey,
+                                 Optional<byte[]> current,
+                                 byte[] writerSignedBtreeRootHash) {
+        HashCasPair cas = VerifiedPointerCache.unsign(writer, writerKey, writerSignedBtreeRootHash);
         MaybeMultihash claimedCurrentHash = cas.original;
         Multihash newHash = cas.updated.get();
 
-        return isValidUpdate(writerKey, current, claimedCurrentHash);
+        return isValidUpdate(writer, writerKey, current, claimedCurrentHash);
     }
 
-    static boolean isValidUpdate(PublicSigningKey writerKey, Optional<byte[]> current, MaybeMultihash claimedCurrentHash) {
+    static boolean isValidUpdate(PublicKeyHash writer,
+                                 PublicSigningKey writerKey,
+                                 Optional<byte[]> current,
+                                 MaybeMultihash claimedCurrentHash) {
         MaybeMultihash existing = current
-                .map(signed -> HashCasPair.fromCbor(CborObject.fromByteArray(writerKey.unsignMessage(signed))).updated)
+                .map(signed -> VerifiedPointerCache.unsign(writer, writerKey, signed).updated)
                 .orElse(MaybeMultihash.empty());
         // check CAS [current hash, new hash]
         return existing.equals(claimedCurrentHash);
@@ -0,0 +1,205 @@
+package peergos.shared.mutable;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** A cache of writer signing keys and of signed mutable pointer values whose signature has already been verified.
+ *
+ *  A public key hash is the hash of the key, and a signed pointer value verified under a writer is always valid for
+ *  that writer, so neither ever needs invalidating. Verification results are keyed by the writer as well as the
+ *  signed bytes, so a value signed by one writer is never accepted for another. Only successful lookups and
+ *  verifications are cached. The caches are shared by everything in this process.
+ *
+ *  Batch verification is cofactored, so it accepts some signatures which individual verification rejects. Its
+ *  results are cached separately, and are only ever served to batch verification, so unsign is always as strict
+ *  as verifying the signature directly.
+ *
+ *  Jobs that walk every pointer, like garbage collection or space usage, only avoid verifying each signature again
+ *  on their next walk if the cache holds every writer, see setMaxPointers. Batch verification doesn't evict entries
+ *  to make room, so a walk over more writers than fit still finds those it cached last time, rather than each walk
+ *  evicting the values the next one is about to look up.
+ */
+public class VerifiedPointerCache {
+    private static final int MAX_KEYS = 10_000;
+    public static final int DEFAULT_MAX_POINTERS = 20_000;
+
+    private static final LRUCache<PublicKeyHash, PublicSigningKey> signingKeys = new LRUCache<>(MAX_KEYS);
+    private static int maxPointers = DEFAULT_MAX_POINTERS;
+    private static LRUCache<Pair<PublicKeyHash, ByteArrayWrapper>, HashCasPair> verified = new LRUCache<>(maxPointers);
+    private static LRUCache<Pair<PublicKeyHash, ByteArrayWrapper>, HashCasPair> batchVerified = new LRUCache<>(maxPointers);
+
+    public static void clear() {
+        synchronized (signingKeys) {
+            signingKeys.clear();
+        }
+        synchronized (VerifiedPointerCache.class) {
+            verified.clear();
+            batchVerified.clear();
+        }
+    }
+
+    /** Set the number of verified pointer values to cache, keeping the most recently used ones. This should be at
+     *  least the number of writers on this server for a job that walks every pointer to not repeat verifications.
+     *
+     */
+    public static synchronized void setMaxPointers(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("Need to cache at least one pointer!");
+        verified = resize(verified, max);
+        batchVerified = resize(batchVerified, max);
+        maxPointers = max;
+    }
+
+    private static <K, V> LRUCache<K, V> resize(LRUCache<K, V> cache, int max) {
+        LRUCache<K, V> resized = new LRUCache<>(max);
+        // least recently used first, so the most recent survive if it doesn't all fit
+        resized.putAll(cache);
+        return resized;
+    }
+
+    private static synchronized HashCasPair getVerified(Pair<PublicKeyHash, ByteArrayWrapper> key) {
+        return verified.get(key);
+    }
+
+    private static synchronized void putVerified(Pair<PublicKeyHash, ByteArrayWrapper> key, HashCasPair cas) {
+        verified.put(key, cas);
+    }
+
+    private static synchronized HashCasPair getBatchVerified(Pair<PublicKeyHash, ByteArrayWrapper> key) {
+        HashCasPair strict = verified.get(key);
+        return strict != null ? strict : batchVerified.get(key);
+    }
+
+    private static synchronized void putBatchVerified(Pair<PublicKeyHash, ByteArrayWrapper> key, HashCasPair cas) {
+        // the cache evicts its eldest entry once it reaches maxPointers entries
+        if (batchVerified.size() + 1 < maxPointers)
+            batchVerified.put(key, cas);
+    }
+
+    /**
+     *
+     * @return The signing key with this hash, if present in storage
+     */
+    public static CompletableFuture<Optional<PublicSigningKey>> getSigningKey(PublicKeyHash writer,
+                                                                              ContentAddressedStorage storage) {
+        PublicSigningKey cached;
+        synchronized (signingKeys) {
+            cached = signingKeys.get(writer);
+        }
+        if (cached != null)
+            return Futures.of(Optional.of(cached));
+        return storage.getSigningKey(writer).thenApply(keyOpt -> {
+            keyOpt.ifPresent(key -> {
+                synchronized (signingKeys) {
+                    signingKeys.put(writer, key);
+                }
+            });
+            return keyOpt;
+        });
+    }
+
+    /**
+     *
+     * @param writer The hash of writerKey
+     * @return The cas pair signed by writerKey, throws if the signature is invalid
+     */
+    public static HashCasPair unsign(PublicKeyHash writer, PublicSigningKey writerKey, byte[] signedCas) {
+        Pair<PublicKeyHash, ByteArrayWrapper> key = new Pair<>(writer, new ByteArrayWrapper(signedCas));
+        HashCasPair cached = getVerified(key);
+        if (cached != null)
+            return cached;
+        HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(writerKey.unsignMessage(signedCas)));
+        putVerified(key, cas);
+        return cas;
+    }
+
+    /**
+     *
+     * @return The verified cas pair signed by writer, throws if the writer key is not in storage or the signature
+     * is invalid
+     */
+    public static CompletableFuture<HashCasPair> unsign(PublicKeyHash writer,
+                                                        byte[] signedCas,
+                                                        ContentAddressedStorage storage) {
+        return getSigningKey(writer, storage).thenApply(writerKey -> {
+            if (! writerKey.isPresent())
+                throw new IllegalStateException("Couldn't retrieve signing key " + writer);
+            return unsign(writer, writerKey.get(), signedCas);
+        });
+    }
+
+    /** Verify many signed pointer values together, which is much faster than one at a time. Values which have
+     *  already been verified, individually or in a batch, aren't verified again. Newly verified values are only
+     *  cached if there is room, and are never returned by unsign.
+     *
+     * @param writerKeys The keys for each writer hash
+     * @return The verified cas pairs, in order, or empty for any with an invalid signature
+     */
+    public static List<Optional<HashCasPair>> unsignAll(List<PublicKeyHash> writers,
+                                                        List<PublicSigningKey> writerKeys,
+                                                        List<byte[]> signedCas) {
+        if (writers.size() != writerKeys.size() || writers.size() != signedCas.size())
+            throw new IllegalArgumentException("Different numbers of writers, keys and signed values!");
+        List<Pair<PublicKeyHash, ByteArrayWrapper>> keys = new ArrayList<>();
+        for (int i=0; i < writers.size(); i++)
+            keys.add(new Pair<>(writers.get(i), new ByteArrayWrapper(signedCas.get(i))));
+
+        List<Optional<HashCasPair>> res = new ArrayList<>();
+        List<Integer> toVerify = new ArrayList<>();
+        for (int i=0; i < keys.size(); i++) {
+            HashCasPair cached = getBatchVerified(keys.get(i));
+            res.add(cached == null ? null : Optional.of(cached));
+            if (cached == null)
+                toVerify.add(i);
+        }
+        if (toVerify.isEmpty())
+            return res;
+
+        List<Optional<byte[]>> unsigned = PublicSigningKey.unsignMessages(
+                toVerify.stream().map(writerKeys::get).collect(Collectors.toList()),
+                toVerify.stream().map(signedCas::get).collect(Collectors.toList()));
+        for (int j=0; j < toVerify.size(); j++) {
+            int i = toVerify.get(j);
+            Optional<HashCasPair> cas = unsigned.get(j).map(raw -> HashCasPair.fromCbor(CborObject.fromByteArray(raw)));
+            cas.ifPresent(pair -> putBatchVerified(keys.get(i), pair));
+            res.set(i, cas);
+        }
+        return res;
+    }
+
+    /**
+     *
+     * @return The verified cas pairs, in order, or empty for any with an invalid signature or whose writer key
+     * is not in storage
+     */
+    public static CompletableFuture<List<Optional<HashCasPair>>> unsignAll(List<PublicKeyHash> writers,
+                                                                           List<byte[]> signedCas,
+                                                                           ContentAddressedStorage storage) {
+        return Futures.combineAllInOrder(writers.stream()
+                        .map(w -> getSigningKey(w, storage))
+                        .collect(Collectors.toList()))
+                .thenApply(writerKeys -> {
+                    List<Integer> present = IntStream.range(0, writers.size())
+                            .filter(i -> writerKeys.get(i).isPresent())
+                            .boxed()
+                            .collect(Collectors.toList());
+                    List<Optional<HashCasPair>> verifiedPresent = unsignAll(
+                            present.stream().map(writers::get).collect(Collectors.toList()),
+                            present.stream().map(i -> writerKeys.get(i).get()).collect(Collectors.toList()),
+                            present.stream().map(signedCas::get).collect(Collectors.toList()));
+                    List<Optional<HashCasPair>> res = new ArrayList<>();
+                    for (int i=0; i < writers.size(); i++)
+                        res.add(Optional.empty());
+                    for (int j=0; j < present.size(); j++)
+                        res.set(present.get(j), verifiedPresent.get(j));
+                    return res;
+                });
+    }
+}
@@ -12,19 +12,19 @@ import java.util.concurrent.*;
 
 public class CachingStorage extends DelegatingStorage {
     private final ContentAddressedStorage target;
-    private final LRUCache<Multihash, byte[]> cache;
-    private final LRUCache<Multihash, CompletableFuture<Optional<CborObject>>> pending;
-    private final LRUCache<Multihash, CompletableFuture<Optional<byte[]>>> pendingRaw;
+    private final WeightedCache<Multihash, byte[]> cache;
+    private final Map<Multihash, CompletableFuture<Optional<CborObject>>> pending;
+    private final Map<Multihash, CompletableFuture<Optional<byte[]>>> pendingRaw;
     private final int maxValueSize, cacheSize;
 
     public CachingStorage(ContentAddressedStorage target, int cacheSize, int maxValueSize) {
         super(target);
         this.target = target;
-        this.cache = new LRUCache<>(cacheSize);
+        this.cache = WeightedCache.bytes((long) cacheSize * maxValueSize);
         this.maxValueSize = maxValueSize;
         this.cacheSize = cacheSize;
-        this.pending = new LRUCache<>(100);
-        this.pendingRaw = new LRUCache<>(100);
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingRaw = new ConcurrentHashMap<>();
     }
 
     public Collection<byte[]> getCached() {
@@ -66,17 +66,17 @@ public class CachingStorage extends DelegatingStorage {
 
     @Override
     public CompletableFuture<Optional<CborObject>> get(Cid key, Optional<BatWithId> bat) {
-        if (cache.containsKey(key))
-            return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(cache.get(key))));
-
-        if (pending.containsKey(key))
-            return pending.get(key);
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(cached)));
 
         CompletableFuture<Optional<CborObject>> pipe = new CompletableFuture<>();
-        pending.put(key, pipe);
+        CompletableFuture<Optional<CborObject>> inProgress = pending.putIfAbsent(key, pipe);
+        if (inProgress != null)
+            return inProgress;
 
         CompletableFuture<Optional<CborObject>> result = new CompletableFuture<>();
-        target.get(key, bat).thenAccept(cborOpt -> {
+        Futures.safe(() -> target.get(key, bat)).thenAccept(cborOpt -> {
             if (cborOpt.isPresent()) {
                 byte[] value = cborOpt.get().toByteArray();
                 if (value.length > 0 && value.length < maxValueSize)
@@ -114,15 +114,15 @@ public class CachingStorage extends DelegatingStorage {
 
     @Override
     public CompletableFuture<Optional<byte[]>> getRaw(Cid key, Optional<BatWithId> bat) {
-        if (cache.containsKey(key))
-            return CompletableFuture.completedFuture(Optional.of(cache.get(key)));
-
-        if (pendingRaw.containsKey(key))
-            return pendingRaw.get(key);
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(Optional.of(cached));
 
         CompletableFuture<Optional<byte[]>> pipe = new CompletableFuture<>();
-        pendingRaw.put(key, pipe);
-        return target.getRaw(key, bat).thenApply(rawOpt -> {
+        CompletableFuture<Optional<byte[]>> inProgress = pendingRaw.putIfAbsent(key, pipe);
+        if (inProgress != null)
+            return inProgress;
+        return Futures.safe(() -> target.getRaw(key, bat)).thenApply(rawOpt -> {
             if (rawOpt.isPresent()) {
                 byte[] value = rawOpt.get();
                 if (value.length > 0 && value.length < maxValueSize)
@@ -132,7 +132,7 @@ public class CachingStorage extends DelegatingStorage {
             pipe.complete(rawOpt);
             return rawOpt;
         }).exceptionally(t -> {
-            pending.remove(key);
+            pendingRaw.remove(key);
             pipe.completeExceptionally(t);
             return Optional.empty();
         });
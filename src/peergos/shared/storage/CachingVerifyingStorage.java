@@ -15,18 +15,18 @@ import java.util.stream.*;
 public class CachingVerifyingStorage extends DelegatingStorage {
 
     private final ContentAddressedStorage target;
-    private final LRUCache<Multihash, byte[]> cache;
-    private final LRUCache<Multihash, CompletableFuture<Optional<CborObject>>> pending;
-    private final LRUCache<Multihash, CompletableFuture<Optional<byte[]>>> pendingRaw;
+    private final WeightedCache<Multihash, byte[]> cache;
+    private final Map<Multihash, CompletableFuture<Optional<CborObject>>> pending;
+    private final Map<Multihash, CompletableFuture<Optional<byte[]>>> pendingRaw;
     private final int maxValueSize, cacheSize;
     private final Hasher hasher;
 
     public CachingVerifyingStorage(ContentAddressedStorage target, int maxValueSize, int cacheSize, Hasher hasher) {
         super(target);
         this.target = target;
-        this.cache =  new LRUCache<>(cacheSize);
-        this.pending = new LRUCache<>(100);
-        this.pendingRaw = new LRUCache<>(100);
+        this.cache = WeightedCache.bytes((long) cacheSize * maxValueSize);
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingRaw = new ConcurrentHashMap<>();
         this.maxValueSize = maxValueSize;
         this.cacheSize = cacheSize;
         this.hasher = hasher;
@@ -61,7 +61,7 @@ public class CachingVerifyingStorage extends DelegatingStorage {
 
     @Override
     public ContentAddressedStorage directToOrigin() {
-        return new CachingVerifyingStorage(target.directToOrigin(), cacheSize, maxValueSize, hasher);
+        return new CachingVerifyingStorage(target.directToOrigin(), maxValueSize, cacheSize, hasher);
     }
 
     @Override
@@ -86,6 +86,19 @@ public class CachingVerifyingStorage extends DelegatingStorage {
                         .thenApply(x -> blocks));
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return target.getChampLookups(owner, root, champKeys, bats)
+                .thenCompose(blocks -> Futures.combineAllInOrder(blocks.stream()
+                        .map(b -> hasher.hash(b, false)
+                                .thenApply(h -> cache(h, b)))
+                        .collect(Collectors.toList()))
+                        .thenApply(x -> blocks));
+    }
+
     @Override
     public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
                                             PublicKeyHash writer,
@@ -107,17 +120,17 @@ public class CachingVerifyingStorage extends DelegatingStorage {
 
     @Override
     public CompletableFuture<Optional<CborObject>> get(Cid key, Optional<BatWithId> bat) {
-        if (cache.containsKey(key))
-            return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(cache.get(key))));
-
-        if (pending.containsKey(key))
-            return pending.get(key);
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(cached)));
 
         CompletableFuture<Optional<CborObject>> pipe = new CompletableFuture<>();
-        pending.put(key, pipe);
+        CompletableFuture<Optional<CborObject>> inProgress = pending.putIfAbsent(key, pipe);
+        if (inProgress != null)
+            return inProgress;
 
         CompletableFuture<Optional<CborObject>> result = new CompletableFuture<>();
-        target.get(key, bat)
+        Futures.safe(() -> target.get(key, bat))
                 .thenCompose(cborOpt -> cborOpt.map(cbor -> verify(cbor.toByteArray(), key, () -> cbor)
                         .thenApply(Optional::of))
                         .orElseGet(() -> Futures.of(Optional.empty())))
@@ -161,15 +174,15 @@ public class CachingVerifyingStorage extends DelegatingStorage {
 
     @Override
     public CompletableFuture<Optional<byte[]>> getRaw(Cid key, Optional<BatWithId> bat) {
-        if (cache.containsKey(key))
-            return CompletableFuture.completedFuture(Optional.of(cache.get(key)));
-
-        if (pendingRaw.containsKey(key))
-            return pendingRaw.get(key);
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(Optional.of(cached));
 
         CompletableFuture<Optional<byte[]>> pipe = new CompletableFuture<>();
-        pendingRaw.put(key, pipe);
-        return target.getRaw(key, bat)
+        CompletableFuture<Optional<byte[]>> inProgress = pendingRaw.putIfAbsent(key, pipe);
+        if (inProgress != null)
+            return inProgress;
+        return Futures.safe(() -> target.getRaw(key, bat))
                 .thenCompose(arrOpt -> arrOpt.map(bytes -> verify(bytes, key, () -> bytes)
                         .thenApply(Optional::of))
                         .orElseGet(() -> Futures.of(Optional.empty())))
@@ -183,7 +196,7 @@ public class CachingVerifyingStorage extends DelegatingStorage {
                     pipe.complete(rawOpt);
                     return rawOpt;
                 }).exceptionally(t -> {
-                    pending.remove(key);
+                    pendingRaw.remove(key);
                     pipe.completeExceptionally(t);
                     return Optional.empty();
                 });
@@ -0,0 +1,41 @@
+package peergos.shared.storage;
+
+import peergos.shared.cbor.*;
+import peergos.shared.storage.auth.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+public class ChampLookupsRequest implements Cborable {
+
+    public final List<byte[]> champKeys;
+    public final List<Optional<BatWithId>> bats;
+
+    public ChampLookupsRequest(List<byte[]> champKeys, List<Optional<BatWithId>> bats) {
+        if (champKeys.size() != bats.size())
+            throw new IllegalStateException("Every champ key needs a corresponding bat!");
+        this.champKeys = champKeys;
+        this.bats = bats;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        Map<String, Cborable> props = new TreeMap<>();
+        props.put("k", new CborObject.CborList(champKeys.stream()
+                .map(CborObject.CborByteArray::new)
+                .collect(Collectors.toList())));
+        props.put("b", new CborObject.CborList(bats.stream()
+                .map(b -> b.isPresent() ? b.get().toCbor() : new CborObject.CborNull())
+                .collect(Collectors.toList())));
+        return CborObject.CborMap.build(props);
+    }
+
+    public static ChampLookupsRequest fromCbor(Cborable cbor) {
+        CborObject.CborMap map = (CborObject.CborMap) cbor;
+        List<byte[]> champKeys = map.getList("k", c -> ((CborObject.CborByteArray)c).value);
+        List<Optional<BatWithId>> bats = map.getList("b", c -> c instanceof CborObject.CborNull ?
+                Optional.<BatWithId>empty() :
+                Optional.of(BatWithId.fromCbor(c)));
+        return new ChampLookupsRequest(champKeys, bats);
+    }
+}
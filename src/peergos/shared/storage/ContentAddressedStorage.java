@@ -162,7 +162,7 @@ public interface ContentAddressedStorage {
 
     default CompletableFuture<List<byte[]>> getChampLookup(Cid root, byte[] champKey, Optional<BatWithId> bat, Hasher hasher) {
         CachingStorage cache = new CachingStorage(this, 100, 100 * 1024);
-        return ChampWrapper.create((Cid)root, x -> Futures.of(x.data), cache, hasher, c -> (CborObject.CborMerkleLink) c)
+        return ChampWrapper.createReadThrough((Cid)root, x -> Futures.of(x.data), cache, hasher, c -> (CborObject.CborMerkleLink) c)
                 .thenCompose(tree -> tree.get(champKey))
                 .thenApply(c -> c.map(x -> x.target).map(MaybeMultihash::of).orElse(MaybeMultihash.empty()))
                 .thenApply(btreeValue -> {
@@ -172,6 +172,60 @@ public interface ContentAddressedStorage {
                 }).thenApply(x -> new ArrayList<>(cache.getCached()));
     }
 
+    /** The maximum number of keys in a single getChampLookups call
+     *
+     */
+    int MAX_CHAMP_LOOKUPS = 500;
+
+    /**
+     *
+     * @param owner
+     * @param root
+     * @param champKeys The keys to look up
+     * @param bats The bat for the value of each key
+     * @return The blocks needed to look up all the keys in the champ, including the values, without duplicates
+     */
+    default CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                            Cid root,
+                                                            List<byte[]> champKeys,
+                                                            List<Optional<BatWithId>> bats) {
+        return Futures.combineAllInOrder(IntStream.range(0, champKeys.size())
+                .mapToObj(i -> getChampLookup(owner, root, champKeys.get(i), bats.get(i)))
+                .collect(Collectors.toList()))
+                .thenApply(lookups -> {
+                    Set<ByteArrayWrapper> seen = new HashSet<>();
+                    return lookups.stream()
+                            .flatMap(List::stream)
+                            .filter(b -> seen.add(new ByteArrayWrapper(b)))
+                            .collect(Collectors.toList());
+                });
+    }
+
+    /** Do the lookups locally, retrieving each champ node on the common paths only once
+     *
+     */
+    default CompletableFuture<List<byte[]>> getChampLookups(Cid root,
+                                                            List<byte[]> champKeys,
+                                                            List<Optional<BatWithId>> bats,
+                                                            Hasher hasher) {
+        if (champKeys.size() > MAX_CHAMP_LOOKUPS)
+            return Futures.errored(new IllegalStateException("Too many champ keys in lookup: " + champKeys.size()));
+        // big enough to hold everything visited, so nothing is evicted before we return it
+        CachingStorage cache = new CachingStorage(this, 100 + 2 * champKeys.size(), 100 * 1024);
+        return ChampWrapper.createReadThrough(root, x -> Futures.of(x.data), cache, hasher, c -> (CborObject.CborMerkleLink) c)
+                .thenCompose(tree -> Futures.reduceAll(IntStream.range(0, champKeys.size()).boxed().collect(Collectors.toList()),
+                        true,
+                        (b, i) -> tree.get(champKeys.get(i))
+                                .thenApply(c -> c.map(x -> x.target).map(MaybeMultihash::of).orElse(MaybeMultihash.empty()))
+                                .thenCompose(btreeValue -> {
+                                    if (btreeValue.isPresent())
+                                        return cache.get((Cid) btreeValue.get(), bats.get(i)).thenApply(v -> true);
+                                    return Futures.of(true);
+                                }),
+                        (a, b) -> a && b))
+                .thenApply(x -> new ArrayList<>(cache.getCached()));
+    }
+
     /**
      * Get the size in bytes of the object with the requested hash
      * @param block The hash of the object
@@ -251,6 +305,7 @@ public interface ContentAddressedStorage {
         public static final String TRANSACTION_START = "transaction/start";
         public static final String TRANSACTION_CLOSE = "transaction/close";
         public static final String CHAMP_GET = "champ/get";
+        public static final String CHAMP_GET_MULTI = "champ/get-multi";
         public static final String BLOCK_PUT = "block/put";
         public static final String BLOCK_GET = "block/get";
         public static final String BLOCK_RM = "block/rm";
@@ -374,6 +429,21 @@ public interface ContentAddressedStorage {
                     .thenApply(res -> res.map(c -> ((CborObject.CborByteArray)c).value));
         }
 
+        @Override
+        public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                               Cid root,
+                                                               List<byte[]> champKeys,
+                                                               List<Optional<BatWithId>> bats) {
+            if (! isPeergosServer) {
+                return getChampLookups(root, champKeys, bats, hasher);
+            }
+            return poster.postUnzip(apiPrefix + CHAMP_GET_MULTI + "?arg=" + root.toString()
+                    + "&owner=" + encode(owner.toString()), new ChampLookupsRequest(champKeys, bats).serialize())
+                    .thenApply(CborObject::fromByteArray)
+                    .thenApply(c -> (CborObject.CborList)c)
+                    .thenApply(res -> res.map(c -> ((CborObject.CborByteArray)c).value));
+        }
+
         @Override
         public CompletableFuture<List<Cid>> put(PublicKeyHash owner,
                                                 PublicKeyHash writer,
@@ -568,6 +638,18 @@ public interface ContentAddressedStorage {
                     target -> p2p.getChampLookup(target, owner, root, champKey, bat));
         }
 
+        @Override
+        public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                               Cid root,
+                                                               List<byte[]> champKeys,
+                                                               List<Optional<BatWithId>> bats) {
+            return Proxy.redirectCall(core,
+                    ourNodeId,
+                    owner,
+                    () -> local.getChampLookups(owner, root, champKeys, bats),
+                    target -> p2p.getChampLookups(target, owner, root, champKeys, bats));
+        }
+
         @Override
         public CompletableFuture<Optional<CborObject>> get(Cid object, Optional<BatWithId> bat) {
             return local.get(object, bat);
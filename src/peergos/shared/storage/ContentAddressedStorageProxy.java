@@ -24,6 +24,8 @@ public interface ContentAddressedStorageProxy {
 
     CompletableFuture<List<byte[]>> getChampLookup(Multihash targetServerId, PublicKeyHash owner, Multihash root, byte[] champKey, Optional<BatWithId> bat);
 
+    CompletableFuture<List<byte[]>> getChampLookups(Multihash targetServerId, PublicKeyHash owner, Multihash root, List<byte[]> champKeys, List<Optional<BatWithId>> bats);
+
     CompletableFuture<List<Cid>> put(Multihash targetServerId,
                                      PublicKeyHash owner,
                                      PublicKeyHash writer,
@@ -102,6 +104,20 @@ public interface ContentAddressedStorageProxy {
                     .thenApply(res -> res.map(c -> ((CborObject.CborByteArray)c).value));
         }
 
+        @Override
+        public CompletableFuture<List<byte[]>> getChampLookups(Multihash targetServerId,
+                                                               PublicKeyHash owner,
+                                                               Multihash root,
+                                                               List<byte[]> champKeys,
+                                                               List<Optional<BatWithId>> bats) {
+            return poster.postUnzip(getProxyUrlPrefix(targetServerId) + apiPrefix
+                    + "champ/get-multi?arg=" + root.toString()
+                    + "&owner=" + encode(owner.toString()), new ChampLookupsRequest(champKeys, bats).serialize())
+                    .thenApply(CborObject::fromByteArray)
+                    .thenApply(c -> (CborObject.CborList)c)
+                    .thenApply(res -> res.map(c -> ((CborObject.CborByteArray)c).value));
+        }
+
         @Override
         public CompletableFuture<List<Cid>> put(Multihash targetServerId,
                                                 PublicKeyHash owner,
@@ -79,6 +79,14 @@ public abstract class DelegatingStorage implements ContentAddressedStorage {
         return target.getChampLookup(owner, root, champKey, bat);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return target.getChampLookups(owner, root, champKeys, bats);
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return target.getSize(block);
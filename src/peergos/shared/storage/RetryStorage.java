@@ -122,6 +122,14 @@ public class RetryStorage implements ContentAddressedStorage {
         return runWithRetry(() -> target.getChampLookup(owner, root, champKey, bat));
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookups(PublicKeyHash owner,
+                                                           Cid root,
+                                                           List<byte[]> champKeys,
+                                                           List<Optional<BatWithId>> bats) {
+        return runWithRetry(() -> target.getChampLookups(owner, root, champKeys, bats));
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return runWithRetry(() -> target.getSize(block));
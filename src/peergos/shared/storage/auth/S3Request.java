@@ -26,6 +26,15 @@ public class S3Request {
     private static final String ALGORITHM = "AWS4-HMAC-SHA256";
     public static final String UNSIGNED = "UNSIGNED-PAYLOAD";
 
+    // The derived signing key only depends on the secret, the day and the region, so we only compute it once a day
+    private static final int MAX_SIGNING_KEYS = 16;
+    private static final Map<String, byte[]> signingKeys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_SIGNING_KEYS;
+        }
+    };
+
     public final String verb, host;
     public final String key;
     public final String contentSha256;
@@ -170,14 +179,31 @@ public class S3Request {
                                                              String s3SecretKey,
                                                              Hasher hasher) {
         String stringToSign = policy.stringToSign();
-        String shortDate = policy.shortDate;
+        return signingKey(s3SecretKey, policy.shortDate, policy.region, hasher)
+                .thenCompose(signingKey -> hasher.hmacSha256(signingKey, stringToSign.getBytes()))
+                .thenApply(ArrayOps::bytesToHex);
+    }
 
+    private static CompletableFuture<byte[]> signingKey(String s3SecretKey,
+                                                        String shortDate,
+                                                        String region,
+                                                        Hasher hasher) {
+        String cacheKey = shortDate + "/" + region + "/" + s3SecretKey;
+        synchronized (signingKeys) {
+            byte[] cached = signingKeys.get(cacheKey);
+            if (cached != null)
+                return Futures.of(cached);
+        }
         return hasher.hmacSha256(("AWS4" + s3SecretKey).getBytes(), shortDate.getBytes())
-                .thenCompose(dateKey -> hasher.hmacSha256(dateKey, policy.region.getBytes()))
+                .thenCompose(dateKey -> hasher.hmacSha256(dateKey, region.getBytes()))
                 .thenCompose(dateRegionKey -> hasher.hmacSha256(dateRegionKey, "s3".getBytes()))
                 .thenCompose(dateRegionServiceKey -> hasher.hmacSha256(dateRegionServiceKey, "aws4_request".getBytes()))
-                .thenCompose(signingKey -> hasher.hmacSha256(signingKey, stringToSign.getBytes()))
-                .thenApply(ArrayOps::bytesToHex);
+                .thenApply(signingKey -> {
+                    synchronized (signingKeys) {
+                        signingKeys.put(cacheKey, signingKey);
+                    }
+                    return signingKey;
+                });
     }
 
     public String stringToSign() {
@@ -5,8 +5,10 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.*;
+import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 public interface MutableTree {
@@ -29,6 +31,18 @@ public interface MutableTree {
                                       Multihash value,
                                       TransactionId tid);
 
+    /**
+     *
+     * @param base The WriterData at the current mutable pointer for the writer
+     * @param mutations The map keys to set, with the expected existing value and new value of each
+     * @return the new root WriterData, after writing only the final version of each modified tree node
+     */
+    CompletableFuture<WriterData> putAll(WriterData base,
+                                         PublicKeyHash owner,
+                                         SigningPrivateKeyAndPublicHash sharingKey,
+                                         List<Triple<byte[], MaybeMultihash, Multihash>> mutations,
+                                         TransactionId tid);
+
     /**
      *
      * @param base The WriterData at the current mutable pointer for the writer
@@ -0,0 +1,33 @@
+package peergos.shared.user;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Applies a series of updates to a snapshot one at a time, in the order they are submitted, each to the result of
+ *  the previous one. This lets the independent parts of several operations on the same writers, like encrypting and
+ *  uploading fragments, run concurrently while their commits are serialised.
+ *
+ *  If an update fails then all subsequent updates fail too.
+ */
+public class SerialUpdater {
+
+    private CompletableFuture<Snapshot> latest;
+
+    public SerialUpdater(Snapshot initial) {
+        this.latest = CompletableFuture.completedFuture(initial);
+    }
+
+    public synchronized CompletableFuture<Snapshot> apply(Function<Snapshot, CompletableFuture<Snapshot>> update) {
+        CompletableFuture<Snapshot> res = latest.thenCompose(update);
+        latest = res;
+        return res;
+    }
+
+    /**
+     *
+     * @return The snapshot after all the updates submitted so far have been applied
+     */
+    public synchronized CompletableFuture<Snapshot> current() {
+        return latest;
+    }
+}
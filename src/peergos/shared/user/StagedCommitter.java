@@ -0,0 +1,91 @@
+package peergos.shared.user;
+
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A Committer which stages a series of commits and only passes every maxStagedCommits'th one, and the last one when
+ *  flushed, on to the target committer. This means a single mutable pointer update per batch rather than per commit.
+ *
+ *  The snapshots returned for staged commits contain the new writer data with the hash of the last real commit, so
+ *  they can be used as the base of the next commit. All blocks written before the final flush must be written under
+ *  a transaction which is still open when flush is called, otherwise they could be garbage collected before they are
+ *  reachable from a committed root.
+ */
+public class StagedCommitter implements Committer {
+
+    private final Committer target;
+    private final int maxStagedCommits;
+    private final Map<PublicKeyHash, StagedCommit> staged = new HashMap<>();
+
+    private static class StagedCommit {
+        public final PublicKeyHash owner;
+        public final SigningPrivateKeyAndPublicHash signer;
+        public final WriterData wd;
+        public final CommittedWriterData existing;
+        public final int count;
+
+        public StagedCommit(PublicKeyHash owner,
+                            SigningPrivateKeyAndPublicHash signer,
+                            WriterData wd,
+                            CommittedWriterData existing,
+                            int count) {
+            this.owner = owner;
+            this.signer = signer;
+            this.wd = wd;
+            this.existing = existing;
+            this.count = count;
+        }
+    }
+
+    /**
+     *
+     * @param target The committer to do the real commits
+     * @param maxStagedCommits The maximum number of commits to stage before committing to the target
+     */
+    public StagedCommitter(Committer target, int maxStagedCommits) {
+        if (maxStagedCommits < 1)
+            throw new IllegalArgumentException("Need to stage at least one commit!");
+        this.target = target;
+        this.maxStagedCommits = maxStagedCommits;
+    }
+
+    @Override
+    public CompletableFuture<Snapshot> commit(PublicKeyHash owner,
+                                              SigningPrivateKeyAndPublicHash signer,
+                                              WriterData wd,
+                                              CommittedWriterData existing,
+                                              TransactionId tid) {
+        int count;
+        synchronized (staged) {
+            StagedCommit previous = staged.get(signer.publicKeyHash);
+            count = previous == null ? 1 : previous.count + 1;
+            if (count < maxStagedCommits)
+                staged.put(signer.publicKeyHash, new StagedCommit(owner, signer, wd, existing, count));
+            else
+                staged.remove(signer.publicKeyHash);
+        }
+        if (count >= maxStagedCommits)
+            return target.commit(owner, signer, wd, existing, tid);
+        return Futures.of(new Snapshot(signer.publicKeyHash, new CommittedWriterData(existing.hash, wd)));
+    }
+
+    /** Commit the latest staged writer data for each writer to the target
+     *
+     * @return The committed versions of any writers with staged commits
+     */
+    public CompletableFuture<Snapshot> flush(TransactionId tid) {
+        List<StagedCommit> toCommit;
+        synchronized (staged) {
+            toCommit = new ArrayList<>(staged.values());
+            staged.clear();
+        }
+        return Futures.reduceAll(toCommit, new Snapshot(new HashMap<>()),
+                (s, c) -> target.commit(c.owner, c.signer, c.wd, c.existing, tid).thenApply(s::mergeAndOverwriteWith),
+                (a, b) -> a.mergeAndOverwriteWith(b));
+    }
+}
@@ -94,12 +94,7 @@ public class FileProperties implements Cborable {
                                                                                  Optional<Bat> firstBat,
                                                                                  long offset,
                                                                                  Hasher h) {
-        long iterations = offset / Chunk.MAX_SIZE;
-        List<Long> counter = new ArrayList<>();
-        for (long i=0; i < iterations; i++)
-            counter.add(i);
-        return Futures.reduceAll(counter, new Pair<>(firstMapKey, firstBat),
-                (current, i) -> calculateNextMapKey(streamSecret, current.left, current.right, h), (a, b) -> b);
+        return MapKeyIndex.calculateMapKey(streamSecret, firstMapKey, firstBat, offset / Chunk.MAX_SIZE, h);
     }
 
     public static CompletableFuture<Pair<byte[], Optional<Bat>>> calculateNextMapKey(byte[] streamSecret,
@@ -14,6 +14,22 @@ import java.util.concurrent.*;
 
 public interface FileRetriever {
 
+    default CompletableFuture<AsyncReader> getFile(WriterData version,
+                                                   NetworkAccess network,
+                                                   Crypto crypto,
+                                                   AbsoluteCapability ourCap,
+                                                   Optional<byte[]> streamSecret,
+                                                   long fileSize,
+                                                   MaybeMultihash ourExistingHash,
+                                                   ProgressConsumer<Long> monitor) {
+        return getFile(version, network, crypto, ourCap, streamSecret, fileSize, ourExistingHash,
+                LazyInputStreamCombiner.DEFAULT_READ_AHEAD_CHUNKS, monitor);
+    }
+
+    /**
+     *
+     * @param readAheadChunks The maximum number of chunks after the current one to retrieve in advance
+     */
     CompletableFuture<AsyncReader> getFile(WriterData version,
                                            NetworkAccess network,
                                            Crypto crypto,
@@ -21,6 +37,7 @@ public interface FileRetriever {
                                            Optional<byte[]> streamSecret,
                                            long fileSize,
                                            MaybeMultihash ourExistingHash,
+                                           int readAheadChunks,
                                            ProgressConsumer<Long> monitor);
 
     CompletableFuture<Optional<Pair<byte[], Optional<Bat>>>> getMapLabelAt(WriterData version,
@@ -81,6 +81,21 @@ public class FileUploader implements AutoCloseable {
                 baseKey, dataKey, parentLocation, parentBat, parentparentKey, monitor, fileProperties, firstLocation, firstBat);
     }
 
+    /** The number of chunks which may be read and encrypted ahead of the chunk currently being committed
+     *
+     */
+    public static final int DEFAULT_CHUNKS_IN_FLIGHT = 3;
+    /** The number of chunks to commit with each mutable pointer update. This bounds the uploaded data which is lost
+     *  if the client dies before a commit to 320 MiB.
+     *
+     */
+    public static final int DEFAULT_CHUNKS_PER_COMMIT = 64;
+    /** The number of chunks to link into the writer's champ with each tree update, so the interior tree nodes they
+     *  share are written once per batch rather than once per chunk.
+     *
+     */
+    public static final int DEFAULT_CHUNKS_PER_TREE_UPDATE = 8;
+
     public CompletableFuture<Snapshot> uploadChunk(Snapshot current,
                                                    Committer committer,
                                                    NetworkAccess network,
@@ -92,6 +107,23 @@ public class FileUploader implements AutoCloseable {
                                                    Optional<BatId> mirrorBat,
                                                    SafeRandom random,
                                                    Hasher hasher) {
+        return prepareChunk(network, owner, writer, chunkIndex, ourExistingHash, mirrorBat, random, hasher)
+                .thenCompose(prepared -> IpfsTransaction.call(owner,
+                        tid -> uploadPrepared(new SerialUpdater(current), Futures.of(true), committer, writer, prepared, network, monitor, tid),
+                        network.dhtClient));
+    }
+
+    /** Read and encrypt a chunk of the file, ready for upload
+     *
+     */
+    private CompletableFuture<PreparedChunk> prepareChunk(NetworkAccess network,
+                                                          PublicKeyHash owner,
+                                                          SigningPrivateKeyAndPublicHash writer,
+                                                          long chunkIndex,
+                                                          MaybeMultihash ourExistingHash,
+                                                          Optional<BatId> mirrorBat,
+                                                          SafeRandom random,
+                                                          Hasher hasher) {
         LOG.info("uploading chunk: "+chunkIndex + " of "+name);
         long position = chunkIndex * Chunk.MAX_SIZE;
 
@@ -109,8 +141,8 @@ public class FileUploader implements AutoCloseable {
                         return FileProperties.calculateNextMapKey(props.streamSecret.get(), mapKeyAndBat.left, mapKeyAndBat.right, hasher)
                                 .thenCompose(nextMapKeyAndBat -> {
                                     Location nextLocation = new Location(owner, writer.publicKeyHash, nextMapKeyAndBat.left);
-                                    return uploadChunk(current, committer, writer, props, parentLocation, parentBat, parentparentKey, baseKey, locatedChunk,
-                                            nextLocation, nextMapKeyAndBat.right, Optional.empty(), mirrorBat, random, hasher, network, monitor);
+                                    return prepareChunk(writer, props, parentLocation, parentBat, parentparentKey, baseKey, locatedChunk,
+                                            nextLocation, nextMapKeyAndBat.right, Optional.empty(), mirrorBat, random, hasher, network);
                                 });
                     });
         });
@@ -124,17 +156,157 @@ public class FileUploader implements AutoCloseable {
                                               Optional<BatId> mirrorBat,
                                               SafeRandom random,
                                               Hasher hasher) {
-        long t1 = System.currentTimeMillis();
+        return upload(current, committer, network, owner, writer, mirrorBat, random, hasher,
+                DEFAULT_CHUNKS_IN_FLIGHT, DEFAULT_CHUNKS_PER_COMMIT);
+    }
 
-        List<Integer> input = IntStream.range(0, (int) nchunks).mapToObj(i -> Integer.valueOf(i)).collect(Collectors.toList());
-        return Futures.reduceAll(input, current, (cwd, i) -> uploadChunk(cwd, committer, network, owner, writer, i,
-                MaybeMultihash.empty(), monitor, mirrorBat, random, hasher), (a, b) -> b)
+    /** Upload the file as a pipeline: while one chunk's fragments are being uploaded the following chunks are read
+     *  and encrypted. Chunks are read from the reader in order and committed in order, and at most maxChunksInFlight
+     *  chunks are held in memory between being read and having their fragments uploaded.
+     *
+     *  Chunks are linked into the writer's champ in batches, and the resulting commits are staged, so the writer's
+     *  mutable pointer is only updated every maxChunksPerCommit chunks, and at the end or on failure. The whole upload
+     *  is a single transaction so the staged blocks can't be garbage collected.
+     *
+     * @param maxChunksInFlight 1 uploads chunks strictly one after another
+     * @param maxChunksPerCommit 1 updates the mutable pointer after every chunk
+     */
+    public CompletableFuture<Snapshot> upload(Snapshot current,
+                                              Committer committer,
+                                              NetworkAccess network,
+                                              PublicKeyHash owner,
+                                              SigningPrivateKeyAndPublicHash writer,
+                                              Optional<BatId> mirrorBat,
+                                              SafeRandom random,
+                                              Hasher hasher,
+                                              int maxChunksInFlight,
+                                              int maxChunksPerCommit) {
+        if (maxChunksInFlight < 1)
+            throw new IllegalArgumentException("Need at least one chunk in flight!");
+        long t1 = System.currentTimeMillis();
+        int chunksPerTreeUpdate = Math.max(1, Math.min(DEFAULT_CHUNKS_PER_TREE_UPDATE, maxChunksPerCommit));
+        StagedCommitter staged = new StagedCommitter(committer, Math.max(1, maxChunksPerCommit / chunksPerTreeUpdate));
+        return IpfsTransaction.call(owner,
+                tid -> Futures.asyncExceptionally(
+                        () -> upload(new SerialUpdater(current), staged, network, owner, writer, mirrorBat, random, hasher,
+                                maxChunksInFlight, chunksPerTreeUpdate, tid)
+                                .thenCompose(s -> staged.flush(tid).thenApply(s::mergeAndOverwriteWith)),
+                        // commit the chunks which completed, so a failed upload can be cleaned up or resumed
+                        t -> staged.flush(tid).thenCompose(x -> Futures.errored(t))),
+                network.dhtClient)
                 .thenApply(x -> {
                     LOG.info("File encryption, upload took: " +(System.currentTimeMillis()-t1) + " mS");
                     return x;
                 });
     }
 
+    /** Upload the file's chunks, applying their commits through updates, so the chunks of several files of the same
+     *  writer can be uploaded concurrently. Unlike the public upload this doesn't open its own transaction, or stage
+     *  commits, and the file isn't linked from its parent.
+     *
+     * @param maxChunksPerTreeUpdate The number of chunks to link into the champ with each commit
+     * @return The snapshot after this file's chunks, and any updates submitted before them, have been committed
+     */
+    public CompletableFuture<Snapshot> upload(SerialUpdater updates,
+                                              Committer committer,
+                                              NetworkAccess network,
+                                              PublicKeyHash owner,
+                                              SigningPrivateKeyAndPublicHash writer,
+                                              Optional<BatId> mirrorBat,
+                                              SafeRandom random,
+                                              Hasher hasher,
+                                              int maxChunksInFlight,
+                                              int maxChunksPerTreeUpdate,
+                                              TransactionId tid) {
+        if (maxChunksPerTreeUpdate < 1)
+            throw new IllegalArgumentException("Need at least one chunk per tree update!");
+        // the fragment uploads of the most recent chunks, indexed by chunk index modulo the window size
+        List<CompletableFuture<Pair<byte[], CryptreeNode>>> inFlight = new ArrayList<>();
+        // uploaded chunks waiting to be committed together
+        List<CompletableFuture<Pair<byte[], CryptreeNode>>> batch = new ArrayList<>();
+        List<CompletableFuture<Snapshot>> commits = new ArrayList<>();
+        CompletableFuture<PreparedChunk> prepared = Futures.of(null);
+        CompletableFuture<Snapshot> lastCommit = Futures.of(null);
+        for (int i = 0; i < nchunks; i++) {
+            long chunkIndex = i;
+            // wait for a slot in the window before reading the next chunk
+            CompletableFuture<?> slot = i >= maxChunksInFlight ? inFlight.get(i % maxChunksInFlight) : Futures.of(true);
+            CompletableFuture<PreparedChunk> previousRead = prepared;
+            prepared = slot.thenCompose(x -> previousRead)
+                    .thenCompose(x -> prepareChunk(network, owner, writer, chunkIndex, MaybeMultihash.empty(), mirrorBat, random, hasher));
+            CompletableFuture<Pair<byte[], CryptreeNode>> uploaded =
+                    prepared.thenCompose(chunk -> uploadFragments(writer, chunk, network, monitor, tid));
+            if (i < maxChunksInFlight)
+                inFlight.add(uploaded);
+            else
+                inFlight.set(i % maxChunksInFlight, uploaded);
+            batch.add(uploaded);
+            if (batch.size() < maxChunksPerTreeUpdate && i < nchunks - 1)
+                continue;
+            List<CompletableFuture<Pair<byte[], CryptreeNode>>> toCommit = batch;
+            batch = new ArrayList<>();
+            lastCommit = lastCommit.thenCompose(x -> commitBatch(updates, committer, network, owner, writer, toCommit, tid));
+            commits.add(lastCommit);
+        }
+        CompletableFuture<Snapshot> last = lastCommit;
+        // Earlier commits can still be in progress when a later chunk fails, wait for them so the caller sees every
+        // chunk which was committed.
+        return Futures.asyncExceptionally(
+                () -> last.thenCompose(x -> updates.current()),
+                t -> Futures.combineAll(commits.stream()
+                                .map(commit -> commit.thenApply(x -> true).exceptionally(e -> true))
+                                .collect(Collectors.toList()))
+                        .thenCompose(x -> Futures.errored(t)));
+    }
+
+    /** Commit the chunks of a batch in a single tree update once their fragments are uploaded. If a chunk fails, the
+     *  chunks before it are still committed, so a failed upload can be cleaned up or resumed, and then the failure is
+     *  propagated.
+     */
+    private static CompletableFuture<Snapshot> commitBatch(SerialUpdater updates,
+                                                           Committer committer,
+                                                           NetworkAccess network,
+                                                           PublicKeyHash owner,
+                                                           SigningPrivateKeyAndPublicHash writer,
+                                                           List<CompletableFuture<Pair<byte[], CryptreeNode>>> batch,
+                                                           TransactionId tid) {
+        return Futures.combineAll(batch.stream()
+                        .map(chunk -> chunk.thenApply(x -> true).exceptionally(t -> true))
+                        .collect(Collectors.toList()))
+                .thenCompose(x -> {
+                    List<Pair<byte[], CryptreeNode>> uploaded = new ArrayList<>();
+                    for (CompletableFuture<Pair<byte[], CryptreeNode>> chunk : batch) {
+                        if (chunk.isCompletedExceptionally())
+                            break;
+                        uploaded.add(chunk.join());
+                    }
+                    CompletableFuture<Snapshot> committed = uploaded.isEmpty() ?
+                            updates.current() :
+                            updates.apply(current -> network.uploadChunks(current, committer, uploaded, owner, writer, tid));
+                    if (uploaded.size() == batch.size())
+                        return committed;
+                    CompletableFuture<Pair<byte[], CryptreeNode>> failed = batch.get(uploaded.size());
+                    return committed.thenCompose(s -> failed.thenApply(c -> s));
+                });
+    }
+
+    /** A chunk which has been encrypted and split into fragments, but not uploaded
+     *
+     */
+    private static class PreparedChunk {
+        public final LocatedChunk chunk;
+        public final CryptreeNode metadata;
+        public final List<Fragment> fragments;
+        public final boolean hasInlinedFragments;
+
+        public PreparedChunk(LocatedChunk chunk, CryptreeNode metadata, List<Fragment> fragments, boolean hasInlinedFragments) {
+            this.chunk = chunk;
+            this.metadata = metadata;
+            this.fragments = fragments;
+            this.hasInlinedFragments = hasInlinedFragments;
+        }
+    }
+
     public static CompletableFuture<Snapshot> uploadChunk(Snapshot current,
                                                           Committer committer,
                                                           SigningPrivateKeyAndPublicHash writer,
@@ -152,32 +324,80 @@ public class FileUploader implements AutoCloseable {
                                                           Hasher hasher,
                                                           NetworkAccess network,
                                                           ProgressConsumer<Long> monitor) {
-        CappedProgressConsumer progress = new CappedProgressConsumer(monitor, chunk.chunk.length());
+        return prepareChunk(writer, props, parentLocation, parentBat, parentparentKey, baseKey, chunk, nextChunkLocation,
+                nextChunkBat, writerLink, mirrorBat, random, hasher, network)
+                .thenCompose(prepared -> IpfsTransaction.call(chunk.location.owner,
+                        tid -> uploadPrepared(new SerialUpdater(current), Futures.of(true), committer, writer, prepared, network, monitor, tid),
+                        network.dhtClient));
+    }
+
+    private static CompletableFuture<PreparedChunk> prepareChunk(SigningPrivateKeyAndPublicHash writer,
+                                                                 FileProperties props,
+                                                                 Location parentLocation,
+                                                                 Optional<Bat> parentBat,
+                                                                 SymmetricKey parentparentKey,
+                                                                 SymmetricKey baseKey,
+                                                                 LocatedChunk chunk,
+                                                                 Location nextChunkLocation,
+                                                                 Optional<Bat> nextChunkBat,
+                                                                 Optional<SymmetricLinkToSigner> writerLink,
+                                                                 Optional<BatId> mirrorBat,
+                                                                 SafeRandom random,
+                                                                 Hasher hasher,
+                                                                 NetworkAccess network) {
         if (! writer.publicKeyHash.equals(chunk.location.writer))
             throw new IllegalStateException("Trying to write a chunk to the wrong signing key space!");
         RelativeCapability nextChunk = RelativeCapability.buildSubsequentChunk(nextChunkLocation.getMapKey(), nextChunkBat, baseKey);
         return CryptreeNode.createFile(chunk.existingHash, chunk.location.writer, baseKey,
                 chunk.chunk.key(), props, chunk.chunk.data(), parentLocation, parentBat, parentparentKey, nextChunk,
                 chunk.bat, mirrorBat, random, hasher, network.isJavascript())
-                .thenCompose(file -> {
+                .thenApply(file -> {
                     CryptreeNode metadata = file.left.withWriterLink(baseKey, writerLink);
 
                     List<Fragment> fragments = file.right.stream()
                             .filter(f -> !f.isInlined())
                             .map(f -> f.fragment)
                             .collect(Collectors.toList());
-
-                    if (fragments.size() < file.right.size() || fragments.isEmpty())
-                        progress.accept((long) chunk.chunk.length());
-                    LOG.info("Uploading chunk with " + fragments.size() + " fragments\n");
-                    return IpfsTransaction.call(chunk.location.owner,
-                            tid -> network.uploadFragments(fragments, chunk.location.owner, writer, progress, tid)
-                                    .thenCompose(hashes -> network.uploadChunk(current, committer, metadata, chunk.location.owner,
-                                            chunk.chunk.mapKey(), writer, tid)),
-                            network.dhtClient);
+                    return new PreparedChunk(chunk, metadata, fragments, fragments.size() < file.right.size());
                 });
     }
 
+    /** Upload the fragments of a prepared chunk
+     *
+     * @return The chunk's map key and metadata, ready to be committed
+     */
+    private static CompletableFuture<Pair<byte[], CryptreeNode>> uploadFragments(SigningPrivateKeyAndPublicHash writer,
+                                                                                 PreparedChunk prepared,
+                                                                                 NetworkAccess network,
+                                                                                 ProgressConsumer<Long> monitor,
+                                                                                 TransactionId tid) {
+        LocatedChunk chunk = prepared.chunk;
+        CappedProgressConsumer progress = new CappedProgressConsumer(monitor, chunk.chunk.length());
+        if (prepared.hasInlinedFragments || prepared.fragments.isEmpty())
+            progress.accept((long) chunk.chunk.length());
+        LOG.info("Uploading chunk with " + prepared.fragments.size() + " fragments\n");
+        return network.uploadFragments(prepared.fragments, chunk.location.owner, writer, progress, tid)
+                .thenApply(hashes -> new Pair<>(chunk.chunk.mapKey(), prepared.metadata));
+    }
+
+    /** Upload the fragments of a prepared chunk, then commit its metadata through updates once that and the previous
+     *  commit are complete, so a file's chunks are committed in order
+     */
+    private static CompletableFuture<Snapshot> uploadPrepared(SerialUpdater updates,
+                                                              CompletableFuture<?> previousCommit,
+                                                              Committer committer,
+                                                              SigningPrivateKeyAndPublicHash writer,
+                                                              PreparedChunk prepared,
+                                                              NetworkAccess network,
+                                                              ProgressConsumer<Long> monitor,
+                                                              TransactionId tid) {
+        LocatedChunk chunk = prepared.chunk;
+        return uploadFragments(writer, prepared, network, monitor, tid)
+                .thenCompose(uploaded -> previousCommit)
+                .thenCompose(x -> updates.apply(current -> network.uploadChunk(current, committer,
+                        prepared.metadata, chunk.location.owner, chunk.chunk.mapKey(), writer, tid)));
+    }
+
     public void close() {
         reader.close();
     }
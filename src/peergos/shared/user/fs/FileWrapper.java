@@ -38,6 +38,10 @@ public class FileWrapper {
 	private static final Logger LOG = Logger.getGlobal();
 
     private final static int THUMBNAIL_SIZE = 400;
+    // the number of chunks to retrieve in advance when copying or downloading a whole file
+    public static final int PIPELINED_DOWNLOAD_CHUNKS = 4;
+    // the maximum number of files copied concurrently by copyTo
+    public static final int COPY_PARALLELISM = 8;
     private static final NativeJSThumbnail thumbnail = new NativeJSThumbnail();
 
     private final RetrievedCapability pointer;
@@ -1117,6 +1121,27 @@ public class FileWrapper {
                 getChildsEntryWriter(), newProps, network);
     }
 
+    /** Add links to the given children, in a single update of this directory through updates
+     *
+     */
+    private CompletableFuture<Snapshot> addChildPointers(SerialUpdater updates,
+                                                         Committer committer,
+                                                         List<Pair<String, WritableAbsoluteCapability>> children,
+                                                         NetworkAccess network,
+                                                         Crypto crypto) {
+        return updates.apply(s -> getUpdated(s, network).thenCompose(latest -> {
+            List<NamedRelativeCapability> childCaps = children.stream()
+                    .map(p -> new NamedRelativeCapability(new PathElement(p.left), latest.writableFilePointer().relativise(p.right)))
+                    .collect(Collectors.toList());
+            return latest.pointer.fileAccess.addChildrenAndCommit(s, committer, childCaps,
+                    latest.writableFilePointer(), latest.signingPair(), latest.mirrorBatId(), network, crypto)
+                    .thenApply(newBase -> {
+                        latest.setModified();
+                        return newBase;
+                    });
+        }));
+    }
+
     private CompletableFuture<Snapshot> addChildPointer(Snapshot current,
                                                         Committer committer,
                                                         WritableAbsoluteCapability childPointer,
@@ -1456,56 +1481,127 @@ public class FileWrapper {
 
         return context.network.synchronizer.applyComplexUpdate(target.owner(), target.signingPair(),
                 (version, committer) -> version.withWriter(owner(), writer(), network)
-                        .thenCompose(both -> copyTo(target, this.props.thumbnail, network, crypto, both, committer)))
+                        .thenCompose(both -> target.hasChildWithName(both, getName(), crypto.hasher, network)
+                                .thenCompose(childExists -> {
+                                    if (childExists)
+                                        return Futures.errored(new IllegalStateException("CopyTo target " + target +
+                                                " already has child with name " + getName()));
+                                    SerialUpdater updates = new SerialUpdater(both);
+                                    AsyncLimiter copies = new AsyncLimiter(COPY_PARALLELISM);
+                                    return copyTo(target, PIPELINED_DOWNLOAD_CHUNKS, network, crypto, updates, copies, committer)
+                                            .thenCompose(x -> updates.current());
+                                })))
                 .thenApply(newAccess -> true);
     }
 
+    /** Copy this file or directory into target.
+     *
+     *  Up to COPY_PARALLELISM file copies and directory listings are in progress at once, through copies, with all
+     *  the commits serialised through updates. The links to the files in a directory are added to its copy in a single
+     *  update once they have all been copied.
+     *
+     * @param readAheadChunks The number of chunks to read ahead in each file copy, at any depth
+     */
     private CompletableFuture<Snapshot> copyTo(FileWrapper target,
-                                              Optional<Thumbnail> existingThumbnail,
+                                              int readAheadChunks,
                                               NetworkAccess network,
                                               Crypto crypto,
-                                              Snapshot version,
+                                              SerialUpdater updates,
+                                              AsyncLimiter copies,
                                               Committer committer) {
-        if (! target.isDirectory()) {
-            return Futures.errored(new IllegalStateException("CopyTo target " + target + " must be a directory"));
-        }
+        if (isDirectory())
+            return copyDirectoryTo(target, readAheadChunks, network, crypto, updates, copies, committer);
+        return updates.current()
+                .thenCompose(s -> copies.submit(() -> copyFileContents(target, s, readAheadChunks,
+                        network, crypto, updates, committer)))
+                .thenCompose(cap -> target.addChildPointers(updates, committer,
+                        Collections.singletonList(new Pair<>(getName(), cap)), network, crypto));
+    }
 
-        return target.hasChildWithName(version, getFileProperties().name, crypto.hasher, network).thenCompose(childExists -> {
-            if (childExists) {
-                return Futures.errored(new IllegalStateException("CopyTo target " + target + " already has child with name " + getFileProperties().name));
-            }
-            if (isDirectory()) {
-                byte[] newMapKey = crypto.random.randomBytes(32);
-                Optional<Bat> newBat = Optional.of(Bat.random(crypto.random));
-                SymmetricKey newBaseR = SymmetricKey.random();
-                SymmetricKey newBaseW = SymmetricKey.random();
-                WritableAbsoluteCapability newCap = ((WritableAbsoluteCapability)target.getPointer().capability)
-                        .withMapKey(newMapKey, newBat)
-                        .withBaseKey(newBaseR)
-                        .withBaseWriteKey(newBaseW);
-                return withVersion(this.version.mergeAndOverwriteWith(version))
-                        .getChildren(version, crypto.hasher, network).thenCompose(children ->
-                        target.mkdir(getName(), Optional.of(newBaseR), Optional.of(newBaseW), Optional.of(newMapKey),
-                                newBat, getFileProperties().isHidden, target.mirrorBatId(), network, crypto, version, committer)
-                                .thenCompose(versionWithDir ->
-                                        network.getFile(versionWithDir, newCap, target.getChildsEntryWriter(), target.ownername)
-                                                .thenCompose(subTargetOpt -> {
-                                                    FileWrapper newTarget = subTargetOpt.get();
-                                                    return Futures.reduceAll(children, versionWithDir,
-                                                            (s, child) -> newTarget.getUpdated(s, network)
-                                                                    .thenCompose(updated ->
-                                                                            child.copyTo(updated, existingThumbnail, network, crypto, s, committer)),
-                                                            (a, b) -> a.merge(b));
-                                                })));
-            } else {
-                return version.withWriter(owner(), writer(), network).thenCompose(snapshot ->
-                        getInputStream(snapshot.get(writer()).props, network, crypto, x -> {})
-                                .thenCompose(stream -> target.uploadFileSection(snapshot, committer,
-                                        getName(), stream, existingThumbnail, false, 0, getSize(),
-                                        Optional.empty(), false, false, network, crypto, x -> {},
-                                        crypto.random.randomBytes(32), Optional.of(Bat.random(crypto.random)), target.mirrorBatId())));
-            }
-        });
+    private CompletableFuture<Snapshot> copyDirectoryTo(FileWrapper target,
+                                                       int readAheadChunks,
+                                                       NetworkAccess network,
+                                                       Crypto crypto,
+                                                       SerialUpdater updates,
+                                                       AsyncLimiter copies,
+                                                       Committer committer) {
+        byte[] newMapKey = crypto.random.randomBytes(32);
+        Optional<Bat> newBat = Optional.of(Bat.random(crypto.random));
+        SymmetricKey newBaseR = SymmetricKey.random();
+        SymmetricKey newBaseW = SymmetricKey.random();
+        WritableAbsoluteCapability newCap = ((WritableAbsoluteCapability)target.getPointer().capability)
+                .withMapKey(newMapKey, newBat)
+                .withBaseKey(newBaseR)
+                .withBaseWriteKey(newBaseW);
+        // only the listing holds a slot in copies, which is released before any of the children are copied
+        return updates.apply(s -> target.getUpdated(s, network)
+                        .thenCompose(updatedTarget -> updatedTarget.mkdir(getName(), Optional.of(newBaseR),
+                                Optional.of(newBaseW), Optional.of(newMapKey), newBat, getFileProperties().isHidden,
+                                updatedTarget.mirrorBatId(), network, crypto, s, committer)))
+                .thenCompose(versionWithDir -> copies.submit(() -> withVersion(this.version.mergeAndOverwriteWith(versionWithDir))
+                                .getChildren(versionWithDir, crypto.hasher, network)
+                                .thenCompose(children -> network.getFile(versionWithDir, newCap, target.getChildsEntryWriter(), target.ownername)
+                                        .thenApply(newTarget -> new Pair<>(children, newTarget.get()))))
+                        .thenCompose(listing -> {
+                            Set<FileWrapper> children = listing.left;
+                            FileWrapper newTarget = listing.right;
+                            List<CompletableFuture<Pair<String, WritableAbsoluteCapability>>> files = children.stream()
+                                    .filter(c -> ! c.isDirectory())
+                                    .map(c -> copies.submit(() -> c.copyFileContents(newTarget, versionWithDir,
+                                                    readAheadChunks, network, crypto, updates, committer))
+                                            .thenApply(cap -> new Pair<>(c.getName(), cap)))
+                                    .collect(Collectors.toList());
+                            CompletableFuture<Snapshot> filesLinked = Futures.combineAllInOrder(files)
+                                    .thenCompose(caps -> caps.isEmpty() ?
+                                            updates.current() :
+                                            newTarget.addChildPointers(updates, committer, caps, network, crypto));
+                            List<CompletableFuture<Snapshot>> subdirs = children.stream()
+                                    .filter(FileWrapper::isDirectory)
+                                    .map(c -> c.copyDirectoryTo(newTarget, readAheadChunks, network, crypto, updates, copies, committer))
+                                    .collect(Collectors.toList());
+                            return Futures.combineAll(subdirs)
+                                    .thenCompose(x -> filesLinked);
+                        }));
+    }
+
+    /** Write a copy of this file's contents, which isn't linked from targetDir yet.
+     *
+     * @param version A snapshot including our writer to read from. This can't come from the synchronizer, which is
+     *                locked by the copy if we share a writer with the target.
+     * @return The capability for the copy
+     */
+    private CompletableFuture<WritableAbsoluteCapability> copyFileContents(FileWrapper targetDir,
+                                                                           Snapshot version,
+                                                                           int readAheadChunks,
+                                                                           NetworkAccess network,
+                                                                           Crypto crypto,
+                                                                           SerialUpdater updates,
+                                                                           Committer committer) {
+        SymmetricKey fileWriteKey = SymmetricKey.random();
+        SymmetricKey fileKey = SymmetricKey.random();
+        SymmetricKey dataKey = SymmetricKey.random();
+        byte[] firstChunkMapKey = crypto.random.randomBytes(32);
+        Optional<Bat> firstBat = Optional.of(Bat.random(crypto.random));
+        CryptreeNode dirAccess = targetDir.pointer.fileAccess;
+        SymmetricKey dirParentKey = dirAccess.getParentKey(targetDir.pointer.capability.rBaseKey);
+        Location parentLocation = targetDir.getLocation();
+        Optional<Bat> parentBat = targetDir.writableFilePointer().bat;
+        SigningPrivateKeyAndPublicHash signer = targetDir.signingPair();
+        FileProperties fileProps = new FileProperties(getName(), false, false, props.mimeType, getSize(),
+                LocalDateTime.now(), false, props.thumbnail, Optional.of(crypto.random.randomBytes(32)));
+        return version.withWriter(owner(), writer(), network)
+                .thenCompose(v -> getInputStream(v.get(writer()).props, network, crypto, getSize(), readAheadChunks, x -> {}))
+                .thenCompose(reader -> {
+                    FileUploader chunks = new FileUploader(getName(), props.mimeType, reader, 0, getSize(), fileKey,
+                            dataKey, parentLocation, parentBat, dirParentKey, x -> {}, fileProps, firstChunkMapKey, firstBat);
+                    return IpfsTransaction.call(targetDir.owner(),
+                                    tid -> chunks.upload(updates, committer, network, targetDir.owner(), signer,
+                                            targetDir.mirrorBatId(), crypto.random, crypto.hasher, 1,
+                                            FileUploader.DEFAULT_CHUNKS_PER_TREE_UPDATE, tid),
+                                    network.dhtClient)
+                            .whenComplete((res, t) -> chunks.close());
+                }).thenApply(x -> new WritableAbsoluteCapability(targetDir.owner(), signer.publicKeyHash,
+                        firstChunkMapKey, firstBat, fileKey, fileWriteKey));
     }
 
     @JsMethod
@@ -1752,6 +1848,28 @@ public class FileWrapper {
                                                                    Crypto crypto,
                                                                    long fileSize,
                                                                    ProgressConsumer<Long> monitor) {
+        return getInputStream(version, network, crypto, fileSize, LazyInputStreamCombiner.DEFAULT_READ_AHEAD_CHUNKS, monitor);
+    }
+
+    /** An input stream for reading the whole file sequentially, e.g. for a bulk download or copy. It keeps the
+     *  fragments of up to chunksInFlight chunks after the current one being retrieved, so it uses up to
+     *  chunksInFlight + 1 chunks of memory.
+     */
+    public CompletableFuture<? extends AsyncReader> getPipelinedInputStream(NetworkAccess network,
+                                                                            Crypto crypto,
+                                                                            int chunksInFlight,
+                                                                            ProgressConsumer<Long> monitor) {
+        return network.synchronizer.getValue(owner(), writer())
+                .thenCompose(state -> getInputStream(state.get(writer()).props, network, crypto,
+                        getFileProperties().size, chunksInFlight, monitor));
+    }
+
+    private CompletableFuture<? extends AsyncReader> getInputStream(WriterData version,
+                                                                    NetworkAccess network,
+                                                                    Crypto crypto,
+                                                                    long fileSize,
+                                                                    int readAheadChunks,
+                                                                    ProgressConsumer<Long> monitor) {
         ensureUnmodified();
         if (pointer.fileAccess.isDirectory())
             throw new IllegalStateException("Cannot get input stream for a directory!");
@@ -1759,7 +1877,7 @@ public class FileWrapper {
         return fileAccess.retriever(pointer.capability.rBaseKey, props.streamSecret, getLocation().getMapKey(), pointer.capability.bat, crypto.hasher)
                 .thenCompose(retriever ->
                         retriever.getFile(version, network, crypto, pointer.capability, props.streamSecret,
-                                fileSize, fileAccess.committedHash(), monitor));
+                                fileSize, fileAccess.committedHash(), readAheadChunks, monitor));
     }
 
     private CompletableFuture<FileRetriever> getRetriever(Hasher hasher) {
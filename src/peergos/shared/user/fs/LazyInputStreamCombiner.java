@@ -12,8 +12,14 @@ import peergos.shared.util.*;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 
 public class LazyInputStreamCombiner implements AsyncReader {
+    /** The number of chunks after the current one to retrieve in advance while reading sequentially
+     *
+     */
+    public static final int DEFAULT_READ_AHEAD_CHUNKS = 1;
+
     private final WriterData version;
     private final NetworkAccess network;
     private final Crypto crypto;
@@ -26,12 +32,32 @@ public class LazyInputStreamCombiner implements AsyncReader {
     private final Optional<Bat> originalChunkBat;
     private final Optional<byte[]> streamSecret;
     private final AbsoluteCapability originalNextPointer;
+    private final int readAheadChunks;
 
     private byte[] currentChunk;
     private AbsoluteCapability nextChunkPointer;
 
     private long globalIndex; // index of beginning of current chunk in file
     private int index; // index within current chunk
+    // subsequent chunks being retrieved in advance, in file order
+    private ArrayDeque<ReadAhead> readAhead = new ArrayDeque<>();
+
+    private static class ReadAhead {
+        public final long chunkStart;
+        public final CompletableFuture<AbsoluteCapability> pointer;
+        public final CompletableFuture<CryptreeNode> metadata;
+        public final CompletableFuture<Pair<byte[], AbsoluteCapability>> chunk;
+
+        public ReadAhead(long chunkStart,
+                         CompletableFuture<AbsoluteCapability> pointer,
+                         CompletableFuture<CryptreeNode> metadata,
+                         CompletableFuture<Pair<byte[], AbsoluteCapability>> chunk) {
+            this.chunkStart = chunkStart;
+            this.pointer = pointer;
+            this.metadata = metadata;
+            this.chunk = chunk;
+        }
+    }
 
     public LazyInputStreamCombiner(WriterData version,
                                    long globalIndex,
@@ -49,6 +75,28 @@ public class LazyInputStreamCombiner implements AsyncReader {
                                    SymmetricKey baseKey,
                                    long totalLength,
                                    ProgressConsumer<Long> monitor) {
+        this(version, globalIndex, chunk, nextChunkPointer, nextChunkBat, originalChunk, originalChunkLocation,
+                originalChunkBat, streamSecret, originalNextChunkPointer, originalNextChunkBat, network, crypto, baseKey,
+                totalLength, monitor, DEFAULT_READ_AHEAD_CHUNKS);
+    }
+
+    public LazyInputStreamCombiner(WriterData version,
+                                   long globalIndex,
+                                   byte[] chunk,
+                                   Location nextChunkPointer,
+                                   Optional<Bat> nextChunkBat,
+                                   byte[] originalChunk,
+                                   byte[] originalChunkLocation,
+                                   Optional<Bat> originalChunkBat,
+                                   Optional<byte[]> streamSecret,
+                                   Location originalNextChunkPointer,
+                                   Optional<Bat> originalNextChunkBat,
+                                   NetworkAccess network,
+                                   Crypto crypto,
+                                   SymmetricKey baseKey,
+                                   long totalLength,
+                                   ProgressConsumer<Long> monitor,
+                                   int readAheadChunks) {
         if (chunk == null)
             throw new IllegalStateException("Null initial chunk!");
         this.version = version;
@@ -66,13 +114,15 @@ public class LazyInputStreamCombiner implements AsyncReader {
         this.nextChunkPointer = AbsoluteCapability.build(nextChunkPointer, nextChunkBat, baseKey);
         this.globalIndex = globalIndex;
         this.index = 0;
+        this.readAheadChunks = readAheadChunks;
     }
 
     private LazyInputStreamCombiner(WriterData version, NetworkAccess network, Crypto crypto, SymmetricKey baseKey,
                                     ProgressConsumer<Long> monitor, long totalLength, byte[] originalChunk,
                                     byte[] originalChunkLocation, Optional<Bat> originalChunkBat, Optional<byte[]> streamSecret,
                                     AbsoluteCapability originalNextPointer, byte[] currentChunk,
-                                    AbsoluteCapability nextChunkPointer, long globalIndex, int index) {
+                                    AbsoluteCapability nextChunkPointer, long globalIndex, int index,
+                                    int readAheadChunks, ArrayDeque<ReadAhead> readAhead) {
         this.version = version;
         this.network = network;
         this.crypto = crypto;
@@ -88,22 +138,97 @@ public class LazyInputStreamCombiner implements AsyncReader {
         this.nextChunkPointer = nextChunkPointer;
         this.globalIndex = globalIndex;
         this.index = index;
+        this.readAheadChunks = readAheadChunks;
+        this.readAhead = readAhead;
     }
 
+    /** The copy takes over any chunks being read ahead
+     *
+     */
     private LazyInputStreamCombiner copy() {
+        ArrayDeque<ReadAhead> pending = readAhead;
+        readAhead = new ArrayDeque<>();
         return new LazyInputStreamCombiner( version, network, crypto, baseKey, monitor, totalLength, originalChunk, originalChunkLocation,
-                originalChunkBat, streamSecret, originalNextPointer, currentChunk, nextChunkPointer, globalIndex, index);
+                originalChunkBat, streamSecret, originalNextPointer, currentChunk, nextChunkPointer, globalIndex, index,
+                readAheadChunks, pending);
     }
 
     public CompletableFuture<Boolean> getNextStream(int len) {
-        return getSubsequentMetadata(this.nextChunkPointer, 0)
-                .thenCompose(access -> getChunk(access, nextChunkPointer.getMapKey(), nextChunkPointer.bat, len))
+        long nextChunkStart = globalIndex + Chunk.MAX_SIZE;
+        AbsoluteCapability pointer = this.nextChunkPointer;
+        return takeReadAhead(nextChunkStart, () -> getChunk(pointer, len))
                 .thenApply(p -> {
-                    updateState(0,globalIndex + Chunk.MAX_SIZE, p.left, p.right);
+                    updateState(0, nextChunkStart, p.left, p.right);
                     return true;
                 });
     }
 
+    private CompletableFuture<Pair<byte[], AbsoluteCapability>> getChunk(AbsoluteCapability pointer, int truncateTo) {
+        return getSubsequentMetadata(pointer, 0)
+                .thenCompose(access -> getChunk(access, pointer.getMapKey(), pointer.bat, truncateTo));
+    }
+
+    private int chunkSize(long chunkStart) {
+        return (int) Math.min(Chunk.MAX_SIZE, totalLength - chunkStart);
+    }
+
+    /** Use the chunk starting at chunkStart if it is being read ahead, otherwise retrieve it directly. Any chunks read
+     *  ahead which are before it are dropped, and if it wasn't read ahead then all read ahead is cancelled.
+     */
+    private CompletableFuture<Pair<byte[], AbsoluteCapability>> takeReadAhead(
+            long chunkStart,
+            Supplier<CompletableFuture<Pair<byte[], AbsoluteCapability>>> direct) {
+        while (! readAhead.isEmpty() && readAhead.peekFirst().chunkStart < chunkStart)
+            readAhead.removeFirst().chunk.cancel(true);
+        if (readAhead.isEmpty() || readAhead.peekFirst().chunkStart != chunkStart) {
+            cancelReadAhead();
+            return direct.get();
+        }
+        ReadAhead next = readAhead.removeFirst();
+        // retry directly if the read ahead failed
+        return Futures.asyncExceptionally(() -> next.chunk, t -> direct.get());
+    }
+
+    private void cancelReadAhead() {
+        while (! readAhead.isEmpty())
+            readAhead.removeFirst().chunk.cancel(true);
+    }
+
+    /** Start retrieving the metadata and fragments of the next chunks, up to readAheadChunks after the current one.
+     *  For files with a stream secret the chunk locations are calculated, so the chunks are retrieved concurrently.
+     *  Otherwise each location is only known once the previous chunk's metadata has been retrieved, but its
+     *  fragments are still retrieved concurrently with the metadata of the following chunks.
+     */
+    private void startReadAhead() {
+        if (readAhead.size() >= readAheadChunks)
+            return;
+        long lastStart = readAhead.isEmpty() ? globalIndex : readAhead.peekLast().chunkStart;
+        CompletableFuture<AbsoluteCapability> nextPointer = readAhead.isEmpty() ?
+                Futures.of(nextChunkPointer) :
+                nextPointer(readAhead.peekLast());
+        while (readAhead.size() < readAheadChunks && lastStart + Chunk.MAX_SIZE < totalLength) {
+            long chunkStart = lastStart + Chunk.MAX_SIZE;
+            CompletableFuture<AbsoluteCapability> pointer = nextPointer;
+            CompletableFuture<CryptreeNode> metadata = pointer.thenCompose(cap -> getSubsequentMetadata(cap, 0));
+            ReadAhead next = new ReadAhead(chunkStart, pointer, metadata,
+                    metadata.thenCompose(access -> pointer.thenCompose(cap ->
+                            getChunk(access, cap.getMapKey(), cap.bat, chunkSize(chunkStart)))));
+            readAhead.addLast(next);
+            lastStart = chunkStart;
+            nextPointer = nextPointer(next);
+        }
+    }
+
+    private CompletableFuture<AbsoluteCapability> nextPointer(ReadAhead chunk) {
+        if (streamSecret.isPresent())
+            return chunk.pointer.thenCompose(cap -> FileProperties.calculateNextMapKey(streamSecret.get(),
+                            cap.getMapKey(), cap.bat, crypto.hasher)
+                    .thenApply(next -> cap.withMapKey(next.left, next.right)));
+        return chunk.metadata.thenCompose(access -> chunk.pointer.thenCompose(cap ->
+                access.getNextChunkLocation(baseKey, streamSecret, cap.getMapKey(), cap.bat, crypto.hasher)
+                        .thenApply(next -> cap.withMapKey(next.left, next.right))));
+    }
+
     private CompletableFuture<Pair<byte[], AbsoluteCapability>> getChunk(CryptreeNode access, byte[] chunkLocation, Optional<Bat> bat, int truncateTo) {
         if (access.isDirectory())
                 throw new IllegalStateException("File linked to a directory for its next chunk!");
@@ -160,28 +285,26 @@ public class LazyInputStreamCombiner implements AsyncReader {
 
         long toSkipAfterThisChunk = skip - toRead;
             // skip through the cryptree nodes without downloading the data
-            long finalOffset = globalIndex + skip;
+            long finalOffset = globalIndex + index + skip;
             long finalInternalIndex = finalOffset % Chunk.MAX_SIZE;
             long startOfTargetChunk = finalOffset - finalInternalIndex;
             long chunksToSkip = toSkipAfterThisChunk / Chunk.MAX_SIZE;
-            int truncateTo = (int) Math.min(Chunk.MAX_SIZE, totalLength - startOfTargetChunk);
+            int truncateTo = chunkSize(startOfTargetChunk);
             // short circuit for files in the new deterministic (but still secret) format
             if (streamSecret.isPresent()) {
-                return FileProperties.calculateMapKey(streamSecret.get(), originalChunkLocation, originalChunkBat,
-                        finalOffset, crypto.hasher)
-                        .thenCompose(targetChunkLocation -> {
-                            AbsoluteCapability targetPointer = nextChunkPointer.withMapKey(targetChunkLocation.left, targetChunkLocation.right);
-                            return getSubsequentMetadata(targetPointer, 0)
-                                    .thenCompose(access -> getChunk(access, targetPointer.getMapKey(), targetPointer.bat, truncateTo))
-                                    .thenCompose(p -> {
-                                        updateState(index, finalOffset, p.left, p.right);
-                                        return skip(finalInternalIndex);});
+                return takeReadAhead(startOfTargetChunk, () -> FileProperties.calculateMapKey(streamSecret.get(),
+                                originalChunkLocation, originalChunkBat, finalOffset, crypto.hasher)
+                        .thenCompose(targetChunkLocation -> getChunk(
+                                nextChunkPointer.withMapKey(targetChunkLocation.left, targetChunkLocation.right), truncateTo)))
+                        .thenCompose(p -> {
+                            updateState(0, startOfTargetChunk, p.left, p.right);
+                            return skip(finalInternalIndex);
                         });
             }
-            return getSubsequentMetadata(nextChunkPointer, chunksToSkip)
-                    .thenCompose(access -> getChunk(access, nextChunkPointer.getMapKey(), nextChunkPointer.bat, truncateTo))
+            return takeReadAhead(startOfTargetChunk, () -> getSubsequentMetadata(nextChunkPointer, chunksToSkip)
+                    .thenCompose(access -> getChunk(access, nextChunkPointer.getMapKey(), nextChunkPointer.bat, truncateTo)))
                     .thenCompose(p -> {
-                        updateState(index, finalOffset, p.left, p.right);
+                        updateState(0, startOfTargetChunk, p.left, p.right);
                         return skip(finalInternalIndex);
                     });
     }
@@ -202,9 +325,12 @@ public class LazyInputStreamCombiner implements AsyncReader {
         return this.currentChunk.length - this.index;
     }
 
-    public void close() {}
+    public void close() {
+        cancelReadAhead();
+    }
 
     public CompletableFuture<AsyncReader> reset() {
+        cancelReadAhead();
         this.globalIndex = 0;
         this.currentChunk = originalChunk;
         this.nextChunkPointer = originalNextPointer;
@@ -225,6 +351,10 @@ public class LazyInputStreamCombiner implements AsyncReader {
         System.arraycopy(currentChunk, index, res, offset, toRead);
         index += toRead;
         long globalOffset = globalIndex + index;
+        // only read ahead once a reader has consumed half a chunk, to avoid wasted retrievals for small reads, unless
+        // this is a pipelined reader for a bulk transfer
+        if (readAheadChunks > 1 || (readAheadChunks > 0 && index >= currentChunk.length / 2))
+            startReadAhead();
 
         if (available >= length) // we are done
             return CompletableFuture.completedFuture(length);
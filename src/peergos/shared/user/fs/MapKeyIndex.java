@@ -0,0 +1,105 @@
+package peergos.shared.user.fs;
+
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.auth.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** An index of the map keys and bats along the chunk chain of files with a stream secret.
+ *
+ *  Each chunk's map key is derived by hashing the previous one, so finding the map key at an offset means walking
+ *  the chain from the first chunk. This remembers a checkpoint every CHECKPOINT_INTERVAL chunks, and the most recently
+ *  requested chunk, for each recently used file. After the chain has been walked once, a seek needs at most
+ *  CHECKPOINT_INTERVAL hashes, and reading or writing chunks in order needs one hash per chunk.
+ *
+ *  The index is shared by all readers and uploaders of a file in this process. Files are identified by a hash of
+ *  their stream secret, first map key and first bat, so the secrets themselves aren't used as keys.
+ */
+class MapKeyIndex {
+    public static final int CHECKPOINT_INTERVAL = 64;
+    private static final int MAX_FILES = 256;
+
+    private static final Map<ByteArrayWrapper, MapKeyIndex> files = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, MapKeyIndex> eldest) {
+            return size() > MAX_FILES;
+        }
+    };
+
+    private final TreeMap<Long, Pair<byte[], Optional<Bat>>> checkpoints = new TreeMap<>();
+    private long lastIndex;
+    private Pair<byte[], Optional<Bat>> last;
+
+    private MapKeyIndex(byte[] firstMapKey, Optional<Bat> firstBat) {
+        Pair<byte[], Optional<Bat>> first = new Pair<>(firstMapKey, firstBat);
+        this.checkpoints.put(0L, first);
+        this.lastIndex = 0;
+        this.last = first;
+    }
+
+    private static CompletableFuture<MapKeyIndex> forFile(byte[] streamSecret,
+                                                          byte[] firstMapKey,
+                                                          Optional<Bat> firstBat,
+                                                          Hasher h) {
+        byte[] fileSecrets = ArrayOps.concat(ArrayOps.concat(streamSecret, firstMapKey),
+                firstBat.map(b -> b.secret).orElse(new byte[0]));
+        return h.sha256(fileSecrets).thenApply(hash -> {
+            ByteArrayWrapper key = new ByteArrayWrapper(hash);
+            synchronized (files) {
+                MapKeyIndex index = files.get(key);
+                if (index == null) {
+                    index = new MapKeyIndex(firstMapKey, firstBat);
+                    files.put(key, index);
+                }
+                return index;
+            }
+        });
+    }
+
+    /** The closest known position at or before a chunk index
+     *
+     */
+    private synchronized Pair<Long, Pair<byte[], Optional<Bat>>> closest(long chunkIndex) {
+        if (lastIndex <= chunkIndex && lastIndex >= (chunkIndex / CHECKPOINT_INTERVAL) * CHECKPOINT_INTERVAL)
+            return new Pair<>(lastIndex, last);
+        Map.Entry<Long, Pair<byte[], Optional<Bat>>> floor = checkpoints.floorEntry(chunkIndex);
+        return new Pair<>(floor.getKey(), floor.getValue());
+    }
+
+    private synchronized void addCheckpoint(long chunkIndex, Pair<byte[], Optional<Bat>> mapKeyAndBat) {
+        checkpoints.put(chunkIndex, mapKeyAndBat);
+    }
+
+    private synchronized void setLast(long chunkIndex, Pair<byte[], Optional<Bat>> mapKeyAndBat) {
+        lastIndex = chunkIndex;
+        last = mapKeyAndBat;
+    }
+
+    public static CompletableFuture<Pair<byte[], Optional<Bat>>> calculateMapKey(byte[] streamSecret,
+                                                                                 byte[] firstMapKey,
+                                                                                 Optional<Bat> firstBat,
+                                                                                 long chunkIndex,
+                                                                                 Hasher h) {
+        if (chunkIndex == 0)
+            return Futures.of(new Pair<>(firstMapKey, firstBat));
+        return forFile(streamSecret, firstMapKey, firstBat, h).thenCompose(index -> {
+            Pair<Long, Pair<byte[], Optional<Bat>>> start = index.closest(chunkIndex);
+            List<Long> steps = new ArrayList<>();
+            for (long i = start.left + 1; i <= chunkIndex; i++)
+                steps.add(i);
+            return Futures.reduceAll(steps, start.right,
+                    (current, i) -> FileProperties.calculateNextMapKey(streamSecret, current.left, current.right, h)
+                            .thenApply(next -> {
+                                if (i % CHECKPOINT_INTERVAL == 0)
+                                    index.addCheckpoint(i, next);
+                                return next;
+                            }), (a, b) -> b)
+                    .thenApply(res -> {
+                        index.setLast(chunkIndex, res);
+                        return res;
+                    });
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package peergos.shared.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Runs asynchronous tasks with at most a fixed number in progress at once. Queued tasks are started in submission
+ *  order as others complete.
+ *
+ *  Tasks which complete synchronously don't start the next queued task recursively, so a long queue can't overflow
+ *  the stack.
+ */
+public class AsyncLimiter {
+
+    private final int maxInProgress;
+    private final LinkedList<Runnable> queued = new LinkedList<>();
+    private int inProgress = 0;
+    private boolean starting = false;
+
+    public AsyncLimiter(int maxInProgress) {
+        if (maxInProgress < 1)
+            throw new IllegalArgumentException("Need to allow at least one task in progress!");
+        this.maxInProgress = maxInProgress;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> res = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = task.get();
+            } catch (Throwable t) {
+                started = Futures.errored(t);
+            }
+            started.whenComplete((r, t) -> {
+                synchronized (this) {
+                    inProgress--;
+                }
+                startQueued();
+                if (t != null)
+                    res.completeExceptionally(t);
+                else
+                    res.complete(r);
+            });
+        };
+        synchronized (this) {
+            queued.add(start);
+        }
+        startQueued();
+        return res;
+    }
+
+    private void startQueued() {
+        synchronized (this) {
+            if (starting)
+                return; // the thread already starting tasks will pick up any capacity we freed
+            starting = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (inProgress >= maxInProgress || queued.isEmpty()) {
+                    starting = false;
+                    return;
+                }
+                inProgress++;
+                next = queued.removeFirst();
+            }
+            next.run();
+        }
+    }
+}
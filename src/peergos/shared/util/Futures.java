@@ -140,6 +140,16 @@ public class Futures {
         throw new RuntimeException(t.getMessage(), t);
     }
 
+    /** Call an asynchronous method, turning an exception thrown before it returns a future into a failed future
+     */
+    public static <T> CompletableFuture<T> safe(Supplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (Throwable t) {
+            return errored(t);
+        }
+    }
+
     public static <T> CompletableFuture<T> errored(Throwable t) {
         CompletableFuture<T> err = new CompletableFuture<>();
         err.completeExceptionally(t);
@@ -0,0 +1,279 @@
+package peergos.shared.util;
+
+import java.util.*;
+import java.util.function.*;
+
+/** A thread safe cache bounded by the total weight of its values, e.g. their size in bytes.
+ *
+ *  The cache is split into independently locked segments by key hash. Within a segment new entries go into a small
+ *  LRU admission window. Entries leaving the window are only admitted to the main LRU region if they have been used
+ *  more often than the entry they would evict, as estimated by a count-min sketch of recent accesses (W-TinyLFU).
+ *  This stops one-off reads of many blocks from flushing the frequently used ones.
+ *
+ *  The GWT build uses a simpler single threaded LRU version of this class from gwt/emu.
+ */
+public class WeightedCache<K, V> {
+    private static final int SEGMENTS = 16;
+    private static final double WINDOW_FRACTION = 0.01;
+
+    private final Segment<K, V>[] segments;
+    private final ToIntFunction<V> weigher;
+    private final long maxWeight;
+
+    public WeightedCache(long maxWeight, ToIntFunction<V> weigher) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("Cache weight must be positive!");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.segments = newSegments(SEGMENTS);
+        long segmentWeight = Math.max(1, maxWeight / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment<>(segmentWeight);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Segment<K, V>[] newSegments(int count) {
+        return (Segment<K, V>[]) new Segment<?, ?>[count];
+    }
+
+    public static <K> WeightedCache<K, byte[]> bytes(long maxBytes) {
+        return new WeightedCache<>(maxBytes, b -> b.length);
+    }
+
+    private Segment<K, V> segment(int hash) {
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     *
+     * @param key
+     * @return The cached value, or null if it is not present
+     */
+    public V get(K key) {
+        int hash = hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    public boolean containsKey(K key) {
+        int hash = hash(key);
+        return segment(hash).contains(key);
+    }
+
+    public void put(K key, V value) {
+        int hash = hash(key);
+        segment(hash).put(key, value, hash, weigher.applyAsInt(value));
+    }
+
+    public void remove(K key) {
+        segment(hash(key)).remove(key);
+    }
+
+    public void clear() {
+        for (Segment<K, V> s : segments)
+            s.clear();
+    }
+
+    public List<V> values() {
+        List<V> res = new ArrayList<>();
+        for (Segment<K, V> s : segments)
+            s.values(res);
+        return res;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public long weight() {
+        return Arrays.stream(segments).mapToLong(Segment::weight).sum();
+    }
+
+    public int size() {
+        return Arrays.stream(segments).mapToInt(Segment::size).sum();
+    }
+
+    public long hitCount() {
+        return Arrays.stream(segments).mapToLong(s -> s.hits).sum();
+    }
+
+    public long missCount() {
+        return Arrays.stream(segments).mapToLong(s -> s.misses).sum();
+    }
+
+    public long evictionCount() {
+        return Arrays.stream(segments).mapToLong(s -> s.evictions).sum();
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedCache{entries=" + size() + ", weight=" + weight() + "/" + maxWeight +
+                ", hits=" + hitCount() + ", misses=" + missCount() + ", evictions=" + evictionCount() + "}";
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int hash, weight;
+
+        Entry(V value, int hash, int weight) {
+            this.value = value;
+            this.hash = hash;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        private final LinkedHashMap<K, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<K, Entry<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxWindowWeight, maxMainWeight;
+        private final FrequencySketch sketch;
+        private long windowWeight, mainWeight;
+        private volatile long hits, misses, evictions;
+
+        Segment(long maxWeight) {
+            this.maxWindowWeight = Math.max(1, (long) (maxWeight * WINDOW_FRACTION));
+            this.maxMainWeight = Math.max(1, maxWeight - maxWindowWeight);
+            // assume an average value of at least 1 KiB when sizing the sketch
+            this.sketch = new FrequencySketch((int) Math.min(1 << 14, Math.max(16, maxWeight / 1024)));
+        }
+
+        synchronized V get(K key, int hash) {
+            sketch.increment(hash);
+            Entry<V> e = window.get(key);
+            if (e == null)
+                e = main.get(key);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return e.value;
+        }
+
+        synchronized boolean contains(K key) {
+            return window.containsKey(key) || main.containsKey(key);
+        }
+
+        synchronized void put(K key, V value, int hash, int weight) {
+            remove(key);
+            if (weight > maxMainWeight)
+                return;
+            sketch.increment(hash);
+            window.put(key, new Entry<>(value, hash, weight));
+            windowWeight += weight;
+            while (windowWeight > maxWindowWeight) {
+                Iterator<Map.Entry<K, Entry<V>>> eldest = window.entrySet().iterator();
+                Map.Entry<K, Entry<V>> candidate = eldest.next();
+                eldest.remove();
+                windowWeight -= candidate.getValue().weight;
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        /** Move an entry from the window to the main region, if it is used more than the entries it would evict,
+         *  otherwise drop it. Nothing is evicted unless the candidate is admitted.
+         *
+         */
+        private void admit(K key, Entry<V> candidate) {
+            int candidateFrequency = sketch.frequency(candidate.hash);
+            long toFree = mainWeight + candidate.weight - maxMainWeight;
+            int victims = 0;
+            for (Iterator<Entry<V>> eldest = main.values().iterator(); toFree > 0; victims++) {
+                Entry<V> victim = eldest.next();
+                if (candidateFrequency <= sketch.frequency(victim.hash))
+                    return;
+                toFree -= victim.weight;
+            }
+            Iterator<Entry<V>> eldest = main.values().iterator();
+            for (int i = 0; i < victims; i++) {
+                mainWeight -= eldest.next().weight;
+                eldest.remove();
+                evictions++;
+            }
+            main.put(key, candidate);
+            mainWeight += candidate.weight;
+        }
+
+        synchronized void remove(K key) {
+            Entry<V> existing = window.remove(key);
+            if (existing != null)
+                windowWeight -= existing.weight;
+            existing = main.remove(key);
+            if (existing != null)
+                mainWeight -= existing.weight;
+        }
+
+        synchronized void clear() {
+            window.clear();
+            main.clear();
+            windowWeight = 0;
+            mainWeight = 0;
+        }
+
+        synchronized void values(List<V> res) {
+            window.values().forEach(e -> res.add(e.value));
+            main.values().forEach(e -> res.add(e.value));
+        }
+
+        synchronized long weight() {
+            return windowWeight + mainWeight;
+        }
+
+        synchronized int size() {
+            return window.size() + main.size();
+        }
+    }
+
+    /** A count-min sketch of counters saturating at 15, which are halved periodically so old accesses are forgotten.
+     *
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97CB3127, 0xB4B82E39, 0x7B0E5C2D, 0xC2B2AE35};
+        private final byte[] counters;
+        private final int mask, resetThreshold;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int w = Integer.highestOneBit(Math.max(16, 4 * expectedEntries - 1) << 1);
+            this.counters = new byte[DEPTH * w];
+            this.mask = w - 1;
+            this.resetThreshold = 10 * expectedEntries;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+        }
+
+        /** Conservative update: only the smallest counters are incremented, which reduces over estimates from
+         *  collisions.
+         */
+        void increment(int hash) {
+            int min = frequency(hash);
+            if (min >= 15)
+                return;
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(hash, row);
+                if (counters[i] == min)
+                    counters[i]++;
+            }
+            if (++additions >= resetThreshold) {
+                for (int i = 0; i < counters.length; i++)
+                    counters[i] >>= 1;
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int row = 0; row < DEPTH; row++)
+                min = Math.min(min, counters[index(hash, row)]);
+            return min;
+        }
+    }
+}